@@ -1,5 +1,6 @@
 package edu.gemini.ags.gems.mascot
 
+import java.util.concurrent.{Callable, ConcurrentHashMap, ExecutionException, ExecutorCompletionService, ForkJoinPool}
 import java.util.logging.Logger
 
 import edu.gemini.ags.gems.mascot.util.AllPairsAndTriples
@@ -12,6 +13,7 @@ import edu.gemini.spModel.core.{BandsList, MagnitudeBand, RBandsList, SiderealTa
 import edu.gemini.spModel.target.SPTarget
 
 import scala.annotation.tailrec
+import scala.collection.mutable.ListBuffer
 import scalaz._
 import Scalaz._
 
@@ -61,9 +63,13 @@ object Mascot {
    * @param st star triplet
    * @return a Some(Strehl) object containing the results of the computations, or None if the positions can't be used
    */
-  def computeStrehl(factor: Double, st: StarTriple): Option[Strehl] = {
+  def computeStrehl(factor: Double, st: StarTriple): Option[Strehl] =
+    computeStrehl(factor, st, fitDistanceMap _)
+
+  // As above, getting the distance maps used to check whether the stars fit from the given function
+  private def computeStrehl(factor: Double, st: StarTriple, distanceMap: Star => DenseMatrix[Double]): Option[Strehl] = {
     st match {
-      case StarTriple(n1, Some(n2), n3) if !doesItFit(n1, n2, n3) =>
+      case StarTriple(n1, Some(n2), n3) if !doesItFit(n1, n2, n3, distanceMap) =>
         Log.warning("Skipped. Does not fit.")
         None
       case s                                  =>
@@ -75,7 +81,21 @@ object Mascot {
     }
   }
 
-  case class AsterismSearchStage(stars: List[Strehl], count: Int, continue: Boolean)
+  /**
+   * System property with the number of asterisms to evaluate concurrently, 1 evaluates them one at a time
+   * on the calling thread. Defaults to the number of available processors.
+   */
+  val ParallelismProp = "edu.gemini.ags.gems.mascot.parallelism"
+
+  def defaultParallelism: Int = {
+    val n = Runtime.getRuntime.availableProcessors
+    Option(System.getProperty(ParallelismProp)).fold(n) { s =>
+      s.parseInt.toOption.filter(_ > 0).getOrElse {
+        Log.warning(s"Could not parse value of property '$ParallelismProp': $s")
+        n
+      }
+    }
+  }
 
   /**
    * Finds the best asterisms for the given list of stars.
@@ -84,60 +104,110 @@ object Mascot {
    * @param progress a function(strehl, count, total) called for each asterism as it is calculated
    * @param filter a filter function that returns false if the Star should be excluded
    * @param asterismPreFilter a filter function that returns false if a candidate asterism should be excluded
+   * @param parallelism the number of asterisms to evaluate concurrently
    * @return a tuple: (list of stars actually used, list of asterisms found)
    */
   def findBestAsterism(starList: List[Star],
                        factor: Double = defaultFactor,
                        progress: ProgressFunction = defaultProgress,
                        filter: Star => Boolean = defaultFilter,
-                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter)
+                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter,
+                       parallelism: Int = defaultParallelism)
   : (List[Star], List[Strehl]) = {
     // sort by selected mag and select
     val sortedStarList = starList.distinct.sortWith((s1,s2) => s1.r < s2.r)
     val filteredStarList = selectStarsOnMag(sortedStarList).filter(filter)
     val ns = filteredStarList.length
 
-    // Create all candidate asterisms, filtering out those that are inadmissible.
+    // Create all candidate asterisms, filtering out those that are inadmissible. Triples first, then
+    // doubles and singles.
     val sings = filteredStarList.filter(s => asterismPreFilter(List(s.target)))
     val trips = AllPairsAndTriples.allTrips(filteredStarList).
       filter { case (s1,os2, os3) => asterismPreFilter(List(s1.target.some, os2.map(_.target), os3.map(_.target)).flatten) }
     val pairs = AllPairsAndTriples.allPairs(filteredStarList).
       filter { case (s1, os2) => asterismPreFilter(List(s1.target.some, os2.map(_.target)).flatten) }
-    val total = trips.length + pairs.length + sings.length
+    val asterisms = trips.map((StarTriple.apply _).tupled) ++
+                    pairs.map { case (s1, os2) => StarTriple(s1, os2, None) } ++
+                    sings.map(StarTriple(_, None, None))
+    val total = asterisms.length
 
     Log.info(s"Mascot.findBestAsterism: input stars: $ns, total asterisms: $total")
 
-    // Compute strehl for a sets of stars
+    // The distance map of each star is shared by all the asterisms it is part of
+    val distanceMaps = new ConcurrentHashMap[Star, DenseMatrix[Double]]()
+    def distanceMap(s: Star): DenseMatrix[Double] =
+      Option(distanceMaps.get(s)).getOrElse {
+        val d = fitDistanceMap(s)
+        distanceMaps.putIfAbsent(s, d)
+        d
+      }
+
+    val strehls =
+      if (parallelism <= 1) doStars(asterisms, total, progress)(computeStrehl(factor, _, distanceMap _))
+      else doStarsConcurrently(asterisms, total, progress, parallelism)(computeStrehl(factor, _, distanceMap _))
+
+    (filteredStarList, sortBestAsterisms(strehls))
+  }
+
+  // Computes the strehl for each set of stars in order, supporting cancellation. Returns the results in
+  // reverse order.
+  private def doStars(starSets: List[StarTriple], total: Int, progress: ProgressFunction)(compute: StarTriple => Option[Strehl]): List[Strehl] = {
     @tailrec
-    def doStars(result: List[Strehl], count: Int, starSets: List[(Star, Option[Star], Option[Star])]):AsterismSearchStage = starSets match {
-      case Nil =>
-        AsterismSearchStage(result, count, continue = true)
-      case s :: Nil =>
-        val strehl = computeStrehl(factor, (StarTriple.apply _).tupled(s))
-        // check if we continue
-        val continue = strehl.map(progress(_, count, total))
-        AsterismSearchStage(strehl.map(_ :: result).getOrElse(result), count, continue.getOrElse(true))
+    def go(result: List[Strehl], count: Int, rest: List[StarTriple]): List[Strehl] = rest match {
+      case Nil       =>
+        result
       case s :: tail =>
-        val strehl = computeStrehl(factor, (StarTriple.apply _).tupled(s))
-        // check if we continue
-        val continue = strehl.map(progress(_, count, total))
-        if (continue === false.some) {
-          AsterismSearchStage(strehl.map(_ :: result).getOrElse(result), count, continue = false)
-        } else {
+        compute(s) match {
           // Continue if the position is skipped or if progress says continue
-          doStars(strehl.map(_ :: result).getOrElse(result), count + 1, tail)
+          case None                                 => go(result, count + 1, tail)
+          case Some(st) if progress(st, count, total) => go(st :: result, count + 1, tail)
+          case Some(st)                             => st :: result
         }
     }
+    go(Nil, 1, starSets)
+  }
 
-    // Search each possible combination of triples, doubles and singles supporting cancellation
-    def go(): List[Strehl] = {
-      val triples = if (ns >= 3) doStars(Nil, 1, trips) else AsterismSearchStage(Nil, 1, continue = true)
-      val doubles = if (ns >= 2 && triples.continue) doStars(triples.stars, triples.count, pairs.map(t => (t._1, t._2, None))) else triples
-      val singles = if (ns >= 1 && doubles.continue) doStars(doubles.stars, doubles.count, sings.map(t => (t, None, None))) else doubles
-      singles.stars
+  // As doStars, but computes up to `parallelism` sets of stars at a time. The progress function is still
+  // called on the calling thread, in the order in which the computations complete, and the computations
+  // that are pending or running are cancelled when it says to stop or throws.
+  private def doStarsConcurrently(starSets: List[StarTriple], total: Int, progress: ProgressFunction, parallelism: Int)(compute: StarTriple => Option[Strehl]): List[Strehl] = {
+    val cs       = new ExecutorCompletionService[(Int, Option[Strehl])](ForkJoinPool.commonPool())
+    val pending  = starSets.zipWithIndex.iterator
+    val futures  = ListBuffer.empty[java.util.concurrent.Future[(Int, Option[Strehl])]]
+    var running  = 0
+
+    def submit(): Unit =
+      if (pending.hasNext) {
+        val (s, i) = pending.next()
+        futures += cs.submit(new Callable[(Int, Option[Strehl])] {
+          override def call(): (Int, Option[Strehl]) = (i, compute(s))
+        })
+        running += 1
+      }
+
+    val result = ListBuffer.empty[(Int, Strehl)]
+    try {
+      (1 to parallelism).foreach(_ => submit())
+      var count    = 1
+      var continue = true
+      while (continue && running > 0) {
+        val (i, strehl) = try cs.take().get() catch {
+          case ex: ExecutionException => throw ex.getCause
+        }
+        running -= 1
+        strehl.foreach { st =>
+          result += ((i, st))
+          continue = progress(st, count, total)
+        }
+        count += 1
+        if (continue) submit()
+      }
+    } finally {
+      futures.foreach(_.cancel(true))
     }
 
-    (filteredStarList, sortBestAsterisms(go()))
+    // same order as doStars
+    result.sortBy(-_._1).map(_._2).toList
   }
 
   //func select_stars_on_mag(void)
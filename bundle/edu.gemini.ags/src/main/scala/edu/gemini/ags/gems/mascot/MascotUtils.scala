@@ -46,8 +46,22 @@ object MascotUtils {
   }
 
 
+  // Size of the distance maps used by doesItFit
+  private val fitMapSize = 300
+
+  // Returns the map of distances to the given star used by doesItFit
+  def fitDistanceMap(n: Star): DenseMatrix[Double] = {
+    val r = fitMapSize / 2
+    dist(fitMapSize, r + n.y, r + n.x)
+  }
+
   // Returns true if the 3 (or at least 2) positions can be used
-  def doesItFit(n1: Star, n2: Star, n3: Option[Star] = None): Boolean = {
+  def doesItFit(n1: Star, n2: Star, n3: Option[Star] = None): Boolean =
+    doesItFit(n1, n2, n3, fitDistanceMap _)
+
+  // As above, but getting the distance maps from the given function so they can be shared by the
+  // asterisms that include the same star.
+  def doesItFit(n1: Star, n2: Star, n3: Option[Star], distanceMap: Star => DenseMatrix[Double]): Boolean = {
     n3.map{ v3 =>
             //  d = array(0.,[3,300,300,nstars]);
       //  for (ns=1;ns<=3;ns++) {
@@ -56,11 +70,9 @@ object MascotUtils {
       //  dmin = min(d(,,max));
       //  if (dmin<=(60-edge_margin)) return 1;
       //  else return 0;
-      val size = 300
-      val r = size / 2
-      val d1 = dist(size, r + n1.y, r + n1.x)
-      val d2 = dist(size, r + n2.y, r + n2.x)
-      val d3 = dist(size, r + v3.y, r + v3.x)
+      val d1 = distanceMap(n1)
+      val d2 = distanceMap(n2)
+      val d3 = distanceMap(v3)
       val dmin = min(util.YUtils.max(util.YUtils.max(d1, d2), d3))
 
       dmin < 60 - edge_margin
@@ -78,9 +78,21 @@ object Strehl {
 
   val nmodes = 5
   val sp = nullModesSpectra()
-  var spv = vibSpectra()
   val novibs = false
 
+  // Vibration spectra, limited to the frequencies below sampfreq used by getStrehlMap.
+  // Porting Note: this was trimmed on the first call to getStrehlMap, which is not safe when computing
+  // several asterisms concurrently.
+  val spv: DenseMatrix[Double] = {
+    val s = vibSpectra()
+    if (max(s(::, 0)) > sampfreq) {
+      val tmp = where(s(::, 0), _ < sampfreq)
+      s(0 to tmp(tmp.length - 1), ::)
+    } else s
+  }
+
+  private val rmsvib = DenseVector(sum(tipvibrms :^ 2.0), sum(tiltvibrms :^ 2.0))
+
   //  func mascot_compute_strehl(void)
   ///* DOCUMENT mascot_compute_strehl(void)
   //   Main routine. originally from Damien Gratadour.
@@ -339,17 +351,9 @@ object Strehl {
     //  rmsvib(2) = sum((*tiltvibrms)^2.);
 
 
-    if (max(spv(::, 0)) > sampfreq) {
-      val tmp = where(spv(::, 0), _ < sampfreq)
-      val w = tmp(tmp.length - 1)
-      spv = spv(0 to w, ::)
-    }
+    // Porting Note: spv is trimmed and rmsvib computed once, see above
     val freqv = spv(::, 0)
 
-    val rmsvib = DenseVector.zeros[Double](2)
-    rmsvib(0) = sum(tipvibrms :^ 2.0)
-    rmsvib(1) = sum(tiltvibrms :^ 2.0)
-
 
     // compute transfer functions for said gains.
     //  for (i=1;i<=nmodes;i++) {
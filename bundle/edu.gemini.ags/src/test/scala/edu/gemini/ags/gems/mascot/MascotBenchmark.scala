@@ -0,0 +1,56 @@
+package edu.gemini.ags.gems.mascot
+
+import scala.util.Random
+
+/**
+ * Compares the wall time of the asterism search done one asterism at a time with the concurrent one on
+ * synthetic crowded fields, i.e. many stars within the 60" patrol field spread over the range of
+ * magnitudes in which Mascot selects guide stars.
+ *
+ * Usage: `MascotBenchmark [runs]`
+ */
+object MascotBenchmark {
+  val Ra0  = 49.9505
+  val Dec0 = 41.5119
+
+  /** Creates a field of `n` random stars around the base position. */
+  def crowdedField(n: Int, seed: Long): List[Star] = {
+    val rnd = new Random(seed)
+    List.fill(n) {
+      val x = (rnd.nextDouble() * 2 - 1) * 60.0
+      val y = (rnd.nextDouble() * 2 - 1) * 60.0
+      val r = 10.0 + rnd.nextDouble() * 8.0
+      val b = r + 0.2 + rnd.nextDouble()
+      val v = r + 0.1 + rnd.nextDouble() * 0.5
+      MascotTest.star(x, y, b, v, r, r - 1.2, r - 1.5, r - 1.6,
+        Ra0 - x / 3600.0 / math.cos(math.toRadians(Dec0)), Dec0 + y / 3600.0)
+    }
+  }
+
+  // Median wall time in ms of the search on the given field
+  def time(stars: List[Star], parallelism: Int, runs: Int): Double = {
+    val ts = List.fill(runs) {
+      val t0 = System.nanoTime
+      Mascot.findBestAsterism(stars, progress = (_, _, _) => true, parallelism = parallelism)
+      (System.nanoTime - t0) / 1e6
+    }
+    ts.sorted.apply(runs / 2)
+  }
+
+  def main(args: Array[String]): Unit = {
+    val runs = args.headOption.map(_.toInt).getOrElse(5)
+    val par  = Mascot.defaultParallelism
+
+    // warm up
+    time(crowdedField(50, 0), 1, 1)
+    time(crowdedField(50, 0), par, 1)
+
+    println(f"${"stars"}%8s ${"sequential ms"}%15s ${s"parallel($par) ms"}%18s ${"speedup"}%8s")
+    List(20, 50, 200, 1000).zipWithIndex.foreach { case (n, i) =>
+      val stars = crowdedField(n, i + 1L)
+      val seq   = time(stars, 1, runs)
+      val con   = time(stars, par, runs)
+      println(f"$n%8d $seq%15.1f $con%18.1f ${seq / con}%8.2f")
+    }
+  }
+}
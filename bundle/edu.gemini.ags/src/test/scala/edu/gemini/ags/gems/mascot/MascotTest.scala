@@ -100,6 +100,22 @@ class MascotTest {
 
   }
 
+  @Test def testFindBestAsterismConcurrently() {
+    val (starList0, strehlList0) = Mascot.findBestAsterism(allStarList, parallelism = 1)
+    val (starList1, strehlList1) = Mascot.findBestAsterism(allStarList, parallelism = 4)
+
+    assertEquals(starList0, starList1)
+    assertEquals(strehlList0.map(_.stars), strehlList1.map(_.stars))
+    assertEquals(strehlList0.map(_.avgstrehl), strehlList1.map(_.avgstrehl))
+  }
+
+  @Test def testFindBestAsterismCancel() {
+    // stop after the third asterism found
+    val found      = new java.util.concurrent.atomic.AtomicInteger()
+    val strehlList = Mascot.findBestAsterism(allStarList, progress = (_, _, _) => found.incrementAndGet() < 3, parallelism = 4)._2
+    assertEquals(3, strehlList.size)
+  }
+
   @Test def testSelectStarsOnMag() {
     val slist = Mascot.selectStarsOnMag(allStarList)
     assertEquals(7, slist.size)
@@ -0,0 +1,224 @@
+package edu.gemini.catalog.votable
+
+import java.io._
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+
+import edu.gemini.catalog.api.{CatalogName, ConeSearchCatalogQuery, MagnitudeConstraints, RadiusConstraint}
+import edu.gemini.spModel.core.Coordinates
+
+import scala.collection.JavaConverters._
+import scala.util.control.NonFatal
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Cache of cone search results, indexed by declination band.  Each entry records the (widened) cone that
+ * was actually fetched and is registered in every band that the cone overlaps.  A cached cone can only
+ * cover a query if it contains the query base position, so a lookup only needs to check the entries of
+ * the band holding the query base rather than every cached result.
+ *
+ * The size of the cache is bounded by the total number of cached rows, evicting the least recently used
+ * entries first.
+ *
+ * @param maxRows          maximum number of target rows to keep
+ * @param matchMagnitudes  whether cached results are only valid for the same magnitude constraints. This
+ *                         is the case when the remote query itself is limited by magnitude, otherwise the
+ *                         cached rows are filtered per query and any constraints can be served
+ */
+final class ConeQueryCache(maxRows: Long, matchMagnitudes: Boolean) {
+  import ConeQueryCache._
+
+  private final class Entry(val cone: ConeSearchCatalogQuery, val result: QueryResult) {
+    val rows: Long = math.max(result.result.targets.rows.size, 1).toLong
+
+    def covers(q: ConeSearchCatalogQuery): Boolean =
+      if (matchMagnitudes) cone.isSuperSetOf(q)
+      else cone.copy(magnitudeConstraints = q.magnitudeConstraints).isSuperSetOf(q)
+  }
+
+  // guarded by this
+  private val lru   = new java.util.LinkedHashMap[Entry, Entry](16, 0.75f, true)
+  private val bands = Array.fill(BandCount)(new java.util.ArrayList[Entry]())
+  private var rows  = 0L
+
+  private val hits      = new AtomicLong()
+  private val misses    = new AtomicLong()
+  private val evictions = new AtomicLong()
+
+  /**
+   * Gets a cached result covering the query or calls `calc` and caches its result as covering `cone`.
+   * The remote call is done outside of the lock, so concurrent requests for the same region may query
+   * more than once.
+   */
+  def getOrElseUpdate(q: ConeSearchCatalogQuery, cone: ConeSearchCatalogQuery)(calc: => QueryResult): QueryResult =
+    get(q).getOrElse {
+      misses.incrementAndGet()
+      val r = calc
+      put(cone, r)
+      r
+    }
+
+  /** Gets a cached result covering the query, if any. */
+  def get(q: ConeSearchCatalogQuery): Option[QueryResult] = synchronized {
+    bands(bandOf(q.base.dec.toDegrees)).asScala.find(_.covers(q)).map { e =>
+      lru.get(e) // touch it
+      hits.incrementAndGet()
+      e.result
+    }
+  }
+
+  /** Caches a result for the given cone. */
+  def put(cone: ConeSearchCatalogQuery, r: QueryResult): Unit = synchronized {
+    val e = new Entry(cone, r)
+    if (e.rows <= maxRows) {
+      lru.put(e, e)
+      bandRange(cone).foreach(bands(_).add(e))
+      rows += e.rows
+      val it = lru.values.iterator
+      while (rows > maxRows && it.hasNext) {
+        val old = it.next()
+        it.remove()
+        bandRange(old.cone).foreach(bands(_).remove(old))
+        rows -= old.rows
+        evictions.incrementAndGet()
+      }
+    }
+  }
+
+  /** Removes all entries. */
+  def clear(): Unit = synchronized {
+    lru.clear()
+    bands.foreach(_.clear())
+    rows = 0
+  }
+
+  /** Cached cones and their results, least recently used first. */
+  def entries: List[(ConeSearchCatalogQuery, QueryResult)] = synchronized {
+    lru.values.asScala.toList.map(e => (e.cone, e.result))
+  }
+
+  /** Hit, miss and eviction counts as well as the current size of the cache. */
+  def metrics: Map[String, Long] = synchronized {
+    Map(
+      "hits"      -> hits.get,
+      "misses"    -> misses.get,
+      "evictions" -> evictions.get,
+      "entries"   -> lru.size.toLong,
+      "rows"      -> rows
+    )
+  }
+
+  /**
+   * Writes the cached results to the given file so that they can be reloaded in a later session.
+   * Results with problems are skipped as they are likely transient.
+   */
+  def save(f: File): Unit = {
+    val es  = entries.collect { case (c, r) if !r.result.containsError => (Stored(c), r.result) }
+    val tmp = new File(f.getPath + ".tmp")
+    val out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))
+    try {
+      out.writeInt(Magic)
+      out.writeInt(Version)
+      out.writeObject(es)
+    } finally out.close()
+    if (!tmp.renameTo(f)) {
+      f.delete()
+      tmp.renameTo(f)
+    }
+  }
+
+  /** Adds the results stored by `save`, a missing or unreadable file is ignored. */
+  def load(f: File): Unit =
+    if (f.isFile) {
+      try {
+        val in = new LoaderObjectInputStream(new BufferedInputStream(new FileInputStream(f)))
+        try {
+          if (in.readInt() === Magic && in.readInt() === Version)
+            in.readObject().asInstanceOf[List[(Stored, CatalogQueryResult)]].foreach { case (s, r) =>
+              val c = s.toQuery
+              put(c, QueryResult(c, r))
+            }
+          else
+            Log.warning(s"Ignoring catalog cache file with unknown format: $f")
+        } finally in.close()
+      } catch {
+        case NonFatal(ex) => Log.log(Level.WARNING, s"Could not read catalog cache file $f", ex)
+      }
+    }
+
+}
+
+object ConeQueryCache {
+  val Log = Logger.getLogger(classOf[ConeQueryCache].getName)
+
+  val MaxRowsProp    = classOf[ConeQueryCache].getName + ".maxRows"
+  val DefaultMaxRows = 250000L
+
+  /** Directory in which caches are kept between sessions. Results are only persisted if it is set. */
+  val DirProp = classOf[ConeQueryCache].getName + ".dir"
+
+  val BandHeight: Double = 1.0 // degrees
+  val BandCount: Int     = (180.0 / BandHeight).ceil.toInt
+
+  private val Magic   = 0x434f4e45
+  private val Version = 1
+
+  private def bandOf(decDeg: Double): Int =
+    math.min(math.max(((decDeg + 90.0) / BandHeight).floor.toInt, 0), BandCount - 1)
+
+  private def bandRange(c: ConeSearchCatalogQuery): Range = {
+    val dec = c.base.dec.toDegrees
+    val r   = c.radiusConstraint.maxLimit.toDegrees
+    bandOf(dec - r) to bandOf(dec + r)
+  }
+
+  def maxRows: Long =
+    Option(System.getProperty(MaxRowsProp)).fold(DefaultMaxRows) { s =>
+      s.parseLong.toOption.filter(_ > 0).getOrElse {
+        Log.warning(s"Could not parse value of property '$MaxRowsProp': $s")
+        DefaultMaxRows
+      }
+    }
+
+  /**
+   * Creates a cache for the named backend.  If the cache directory property is set, results from earlier
+   * sessions are loaded and the cache is saved again when the VM exits.
+   */
+  def forBackend(name: String, matchMagnitudes: Boolean): ConeQueryCache = {
+    val c = new ConeQueryCache(maxRows, matchMagnitudes)
+    Option(System.getProperty(DirProp)).foreach { dir =>
+      val f = new File(dir, s"$name.cache")
+      c.load(f)
+      Runtime.getRuntime.addShutdownHook(new Thread(s"$name cache writer") {
+        override def run(): Unit =
+          try {
+            f.getParentFile.mkdirs()
+            c.save(f)
+          } catch {
+            case NonFatal(ex) => Log.log(Level.WARNING, s"Could not write catalog cache file $f", ex)
+          }
+      })
+    }
+    c
+  }
+
+  // The query itself isn't serializable because of its filters, so it is stored by its fields.
+  private case class Stored(id: Option[Int], base: Coordinates, radius: RadiusConstraint, mags: List[MagnitudeConstraints], catalog: CatalogName) {
+    def toQuery: ConeSearchCatalogQuery = ConeSearchCatalogQuery(id, base, radius, mags, catalog)
+  }
+
+  private object Stored {
+    def apply(c: ConeSearchCatalogQuery): Stored =
+      Stored(c.id, c.base, c.radiusConstraint, c.magnitudeConstraints, c.catalog)
+  }
+
+  // Resolves classes through this bundle's class loader rather than the caller's.
+  private class LoaderObjectInputStream(in: InputStream) extends ObjectInputStream(in) {
+    override protected def resolveClass(d: ObjectStreamClass): Class[_] =
+      try Class.forName(d.getName, false, classOf[ConeQueryCache].getClassLoader)
+      catch { case _: ClassNotFoundException => super.resolveClass(d) }
+  }
+
+}
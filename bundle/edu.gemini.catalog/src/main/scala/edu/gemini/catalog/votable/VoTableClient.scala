@@ -13,7 +13,6 @@ import org.apache.http.client.config.RequestConfig
 import org.apache.http.client.methods.HttpGet
 import org.apache.http.impl.client.HttpClients
 
-import scala.annotation.tailrec
 import scala.concurrent.{ExecutionContext, Promise, Future}
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.util.{Failure, Success}
@@ -102,23 +101,19 @@ trait CachedBackend extends VoTableBackend {
 
   }
 
-  private val cache:Cache[SearchKey, QueryResult] = {
-    // Find if a search is already in the cache
-    // Note that this assumes all catalogues give the same result for a given query
-    def contains(a: QueryCache.CacheContainer[SearchKey, QueryResult], k: SearchKey):Option[(Int, QueryResult)] = {
-      @tailrec
-      def go(pos: Int):Option[(Int, QueryResult)] =
-        a.lift(pos) match {
-          case Some(CacheEntry(SearchKey(query:ConeSearchCatalogQuery, _), v)) =>
-            // Note we need to compare against the widened query
-            if (widen(query).isSuperSetOf(k.query)) Some((pos, v)) else go(pos + 1)
-          case _                                                               => None // Not caching named queries so far
-        }
-      go(0)
-    }
+  /**
+   * Whether the remote query is limited by the magnitude constraints.  If not, the cached rows are valid
+   * for any constraints since results are filtered per query.
+   */
+  protected def magnitudeLimited: Boolean = false
 
-    QueryCache.buildCache(contains)
-  }
+  // Cone search results indexed by position. Note that this assumes all catalogues give the same result
+  // for a given query. Named queries are not cached.
+  private lazy val coneCache: ConeQueryCache =
+    ConeQueryCache.forBackend(getClass.getSimpleName.stripSuffix("$"), magnitudeLimited)
+
+  /** Hit, miss and eviction counts as well as the current size of the query cache. */
+  def cacheMetrics: Map[String, Long] = coneCache.metrics
 
   // Make the query wider increasing cache efficiency
   protected def widen(q: CatalogQuery): CatalogQuery = q match {
@@ -129,7 +124,11 @@ trait CachedBackend extends VoTableBackend {
   }
 
   // Cache the query not the future so that failed queries are executed again
-  protected val cachedQuery = cache(query)
+  protected def cachedQuery(k: SearchKey): QueryResult =
+    (k.query, widen(k.query)) match {
+      case (q: ConeSearchCatalogQuery, w: ConeSearchCatalogQuery) => coneCache.getOrElseUpdate(q, w)(query(k))
+      case _                                                      => query(k)
+    }
 
   // Do a query to the appropriate backend
   protected def query(e: SearchKey): QueryResult
@@ -177,7 +176,8 @@ trait RemoteCallBackend { this: CachedBackend =>
     val response = client.execute(get)
     try {
       Option(response.getEntity).fold(noEntity(response)) { ent =>
-        VoTableParser.parse(e.query.catalog, ent.getContent) match {
+        // Rows are not filtered here since the cached results are shared by queries with other constraints
+        VoTableParser.parseStream(e.query.catalog, ent.getContent) match {
           case -\/(p) => problemResult(p)
           case \/-(y) => QueryResult(widerQuery, CatalogQueryResult(y))
         }
@@ -1,6 +1,8 @@
 package edu.gemini.catalog.votable
 
 import java.io.{ByteArrayInputStream, InputStream}
+import javax.xml.transform.stream.StreamSource
+import javax.xml.validation.{Schema, SchemaFactory}
 
 import edu.gemini.catalog.api.CatalogName
 import edu.gemini.spModel.core._
@@ -11,7 +13,7 @@ import scala.xml.Node
 import scalaz._
 import Scalaz._
 
-object VoTableParser extends VoTableParser {
+object VoTableParser extends VoTableStreamParser {
   type CatalogResult = CatalogProblem \/ ParsedVoResource
 
   // by band
@@ -32,17 +34,23 @@ object VoTableParser extends VoTableParser {
   val UCD_MAG        = UcdWord("phot.mag")
   val STAT_ERR       = UcdWord("stat.error")
 
-  private def validate(catalogName: CatalogName, xmlText: String): CatalogProblem \/ Unit =
-    \/.fromTryCatchNonFatal {
-      import javax.xml.transform.stream.StreamSource
-      import javax.xml.validation.SchemaFactory
+  // Compiled schemas by VOTable version, schemas are thread safe and can be shared
+  private val schemas = new java.util.concurrent.ConcurrentHashMap[String, Schema]()
 
-      val xsd        = s"/votable-${catalogName.voTableVersion.format}.xsd"
+  private[votable] def schema(catalogName: CatalogName): Schema = {
+    val xsd = s"/votable-${catalogName.voTableVersion.format}.xsd"
+    Option(schemas.get(xsd)).getOrElse {
       val schemaLang = "http://www.w3.org/2001/XMLSchema"
       val factory    = SchemaFactory.newInstance(schemaLang)
-      val schema     = factory.newSchema(new StreamSource(getClass.getResourceAsStream(xsd)))
-      val validator  = schema.newValidator()
+      val s          = factory.newSchema(new StreamSource(getClass.getResourceAsStream(xsd)))
+      schemas.putIfAbsent(xsd, s)
+      s
+    }
+  }
 
+  private def validate(catalogName: CatalogName, xmlText: String): CatalogProblem \/ Unit =
+    \/.fromTryCatchNonFatal {
+      val validator = schema(catalogName).newValidator()
       validator.validate(new StreamSource(new ByteArrayInputStream(xmlText.getBytes(java.nio.charset.Charset.forName("UTF-8")))))
     }.leftMap(_ => ValidationError(catalogName))
 
@@ -0,0 +1,338 @@
+package edu.gemini.catalog.votable
+
+import java.io.InputStream
+import java.nio.{BufferUnderflowException, ByteBuffer}
+import java.util.Base64
+import javax.xml.parsers.SAXParserFactory
+
+import edu.gemini.catalog.api.CatalogName
+import edu.gemini.spModel.core.SiderealTarget
+
+import org.xml.sax.{Attributes, InputSource, SAXException}
+import org.xml.sax.helpers.DefaultHandler
+
+import scala.collection.mutable.ListBuffer
+import scala.util.control.NonFatal
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Parses VOTables as they are read, converting each row into a target without keeping the document in
+ * memory.  Rows can be given in TABLEDATA or in the base64 encoded BINARY and BINARY2 serializations.
+ * Unlike the DOM based `parse`, targets can be filtered while reading and parsing stops once enough
+ * targets have been accepted.
+ *
+ * Schema validation is done on the same pass with a `ValidatorHandler`, which is why this is built on
+ * SAX events rather than a StAX reader.
+ */
+trait VoTableStreamParser extends VoTableParser {
+
+  /**
+   * Reads the VOTable from the input stream, keeping only the targets accepted by the given function
+   * (e.g. the magnitude constraints of a query) and stopping once `limit` targets have been accepted.
+   * Rows that can't be converted to targets are kept as problems.  The stream is not closed.
+   */
+  def parseStream(
+    catalog: CatalogName,
+    is:      InputStream,
+    accept:  SiderealTarget => Boolean = _ => true,
+    limit:   Option[Int]               = None
+  ): CatalogProblem \/ ParsedVoResource =
+    (CatalogAdapter.forCatalog(catalog) \/> UnknownCatalog).flatMap { adapter =>
+      val handler = new StreamHandler(catalog, adapter, accept, limit)
+      try {
+        val factory = SAXParserFactory.newInstance()
+        factory.setNamespaceAware(true)
+        val reader  = factory.newSAXParser().getXMLReader
+
+        catalog match {
+          case CatalogName.SIMBAD =>
+            // Simbad is not fully votable-compliant, see parse
+            reader.setContentHandler(handler)
+
+          case _                  =>
+            val validator = VoTableParser.schema(catalog).newValidatorHandler()
+            validator.setContentHandler(handler)
+            reader.setContentHandler(validator)
+        }
+
+        reader.parse(new InputSource(is))
+        handler.result
+      } catch {
+        case _ if handler.done  => handler.result
+        case _: SAXException    => \/.left(ValidationError(catalog))
+        case NonFatal(ex)       => \/.left(GenericError(ex.getMessage))
+      }
+    }
+
+  // Thrown to stop the parser once enough targets have been read.
+  private class Enough extends SAXException("Target limit reached") {
+    override def fillInStackTrace(): Throwable = this
+  }
+
+  /** Description of a field including what is needed to decode binary rows. */
+  private case class StreamField(descriptor: Option[FieldDescriptor], datatype: String, arraysize: Option[String], nullValue: Option[String]) {
+    // Fixed number of items and whether the last dimension is variable, e.g. "3x*"
+    val (fixed, variable) = arraysize.fold((1, false)) { s =>
+      val dims = s.split('x').toList
+      val last = dims.last
+      val v    = last.endsWith("*")
+      val ds   = if (v) dims.init else dims
+      (ds.map(_.toInt).product, v)
+    }
+  }
+
+  private final class StreamHandler(catalog: CatalogName, adapter: CatalogAdapter, accept: SiderealTarget => Boolean, limit: Option[Int]) extends DefaultHandler {
+    private val tables  = ListBuffer.empty[ParsedTable]
+    private var problem = none[CatalogProblem]
+
+    private var fields   = ListBuffer.empty[StreamField]
+    private var rows     = ListBuffer.empty[CatalogProblem \/ SiderealTarget]
+    private var inTable  = false
+    private var inField  = false
+    private var accepted = 0
+    var done             = false
+
+    // TABLEDATA state
+    private var descriptors = List.empty[FieldDescriptor]
+    private val tds         = ListBuffer.empty[String]
+    private var td          = none[java.lang.StringBuilder]
+
+    // BINARY/BINARY2 state
+    private var nullMask = false
+    private var stream   = none[BinaryStream]
+
+    def result: CatalogProblem \/ ParsedVoResource = {
+      if (inTable) endTable()
+      problem.fold(ParsedVoResource(tables.toList).right[CatalogProblem])(_.left)
+    }
+
+    override def startElement(uri: String, localName: String, qName: String, atts: Attributes): Unit =
+      localName match {
+        case "TABLE"     =>
+          fields  = ListBuffer.empty
+          rows    = ListBuffer.empty
+          inTable = true
+
+        case "FIELD"     =>
+          def attr(n: String) = Option(atts.getValue(n))
+          val name  = attr("name")
+          val field = ^^(attr("ID") orElse name, attr("ucd"), name) { (i, u, n) =>
+            FieldDescriptor(FieldId(i, Ucd(u)), n)
+          }
+          fields += StreamField(field, ~attr("datatype"), attr("arraysize"), None)
+          inField = true
+
+        case "VALUES" if inField =>
+          Option(atts.getValue("null")).foreach { n =>
+            fields(fields.size - 1) = fields.last.copy(nullValue = Some(n))
+          }
+
+        case "TABLEDATA" =>
+          descriptors = fields.toList.flatMap(_.descriptor)
+
+        case "TR"        =>
+          tds.clear()
+
+        case "TD"        =>
+          td = Some(new java.lang.StringBuilder)
+
+        case "BINARY"    =>
+          nullMask = false
+
+        case "BINARY2"   =>
+          nullMask = true
+
+        case "STREAM" if Option(atts.getValue("href")).isDefined =>
+          problem = Some(GenericError("Remote VOTable streams are not supported"))
+
+        case "STREAM"    =>
+          val fs = fields.toList
+          val ds = fs.flatMap(_.descriptor)
+          stream = Some(new BinaryStream(fs, nullMask, binaryRow(fs, ds)))
+
+        case "INFO" if catalog === CatalogName.SIMBAD =>
+          if (Option(atts.getValue("value")).exists(_.matches("java\\..*Exception"))) {
+            problem = Some(ValidationError(catalog))
+            stop()
+          }
+
+        case _           =>
+          ()
+      }
+
+    override def characters(ch: Array[Char], start: Int, length: Int): Unit = {
+      // Line breaks are dropped as in parse
+      td.foreach { sb =>
+        var i = start
+        while (i < start + length) {
+          val c = ch(i)
+          if (c != '\n' && c != '\r') sb.append(c)
+          i += 1
+        }
+      }
+      stream.foreach(_.feed(ch, start, length))
+    }
+
+    override def endElement(uri: String, localName: String, qName: String): Unit =
+      localName match {
+        case "FIELD"  =>
+          inField = false
+
+        case "TD"     =>
+          tds += td.map(_.toString).orZero
+          td   = None
+
+        case "TR"     =>
+          val items = if (tds.size == descriptors.size) descriptors.zip(tds).map(TableRowItem.tupled) else Nil
+          add(tableRow2Target(adapter, descriptors)(TableRow(items)))
+
+        case "STREAM" =>
+          stream.foreach(_.finish())
+          stream = None
+
+        case "TABLE"  =>
+          endTable()
+
+        case _        =>
+          ()
+      }
+
+    private def endTable(): Unit = {
+      tables += ParsedTable(rows.toList)
+      inTable = false
+    }
+
+    private def binaryRow(fs: List[StreamField], ds: List[FieldDescriptor])(values: List[String]): Unit = {
+      val items = fs.zip(values).collect { case (StreamField(Some(d), _, _, _), v) => TableRowItem(d, v) }
+      add(tableRow2Target(adapter, ds)(TableRow(items)))
+    }
+
+    private def add(r: CatalogProblem \/ SiderealTarget): Unit =
+      r match {
+        case \/-(t) if !accept(t) =>
+          ()
+        case \/-(_)               =>
+          rows     += r
+          accepted += 1
+          if (limit.exists(accepted >= _)) stop()
+        case -\/(_)               =>
+          rows += r
+      }
+
+    private def stop(): Unit = {
+      done = true
+      throw new Enough
+    }
+  }
+
+  /**
+   * Decodes the base64 content of a BINARY or BINARY2 stream as it arrives, passing each complete row to
+   * the given function with the values formatted as they would be in TABLEDATA.  Null values are empty.
+   */
+  private final class BinaryStream(fields: List[StreamField], nullMask: Boolean, row: List[String] => Unit) {
+    private val chars = new java.lang.StringBuilder
+    private var buf   = new Array[Byte](8192)
+    private var len   = 0
+
+    def feed(ch: Array[Char], start: Int, length: Int): Unit = {
+      var i = start
+      while (i < start + length) {
+        val c = ch(i)
+        if (!Character.isWhitespace(c)) chars.append(c)
+        i += 1
+      }
+      if (chars.length >= 8192) decode(chars.length / 4 * 4)
+    }
+
+    def finish(): Unit =
+      decode(chars.length)
+
+    private def decode(n: Int): Unit = {
+      val bytes = Base64.getDecoder.decode(chars.substring(0, n))
+      chars.delete(0, n)
+      if (len + bytes.length > buf.length) buf = java.util.Arrays.copyOf(buf, math.max(len + bytes.length, 2 * buf.length))
+      System.arraycopy(bytes, 0, buf, len, bytes.length)
+      len += bytes.length
+      readRows()
+    }
+
+    private def readRows(): Unit = {
+      val bb = ByteBuffer.wrap(buf, 0, len)
+      var more = true
+      while (more) {
+        val p = bb.position()
+        val r = try Some(readRow(bb)) catch {
+          case _: BufferUnderflowException =>
+            bb.position(p)
+            None
+        }
+        r.fold(more = false)(row)
+      }
+      // keep the incomplete row
+      val p = bb.position()
+      len -= p
+      System.arraycopy(buf, p, buf, 0, len)
+    }
+
+    private def readRow(bb: ByteBuffer): List[String] = {
+      val mask = if (nullMask) {
+        val m = new Array[Byte]((fields.size + 7) / 8)
+        bb.get(m)
+        Some(m)
+      } else None
+
+      fields.zipWithIndex.map { case (f, i) =>
+        val v = readValue(bb, f)
+        if (mask.exists(m => (m(i / 8) & (0x80 >>> (i % 8))) != 0)) "" else v
+      }
+    }
+
+    private def readValue(bb: ByteBuffer, f: StreamField): String = {
+      val count = if (f.variable) f.fixed * bb.getInt() else f.fixed
+
+      f.datatype match {
+        case "char"        =>
+          val a = new Array[Byte](count)
+          bb.get(a)
+          new String(a, "ISO-8859-1").takeWhile(_ != '\u0000')
+
+        case "unicodeChar" =>
+          List.fill(count)(bb.getChar()).mkString.takeWhile(_ != '\u0000')
+
+        case "bit"         =>
+          val a = new Array[Byte]((count + 7) / 8)
+          bb.get(a)
+          (0 until count).map(i => if ((a(i / 8) & (0x80 >>> (i % 8))) != 0) '1' else '0').mkString
+
+        case _             =>
+          List.fill(count)(readScalar(bb, f)).mkString(" ")
+      }
+    }
+
+    private def readScalar(bb: ByteBuffer, f: StreamField): String = {
+      def integral(s: String): String = if (f.nullValue.exists(_ == s)) "" else s
+      def real(d: Double, s: => String): String = if (d.isNaN) "" else s
+
+      f.datatype match {
+        case "boolean"       =>
+          bb.get().toChar match {
+            case 'T' | 't' | '1' => "true"
+            case 'F' | 'f' | '0' => "false"
+            case _               => ""
+          }
+        case "unsignedByte"  => integral((bb.get() & 0xff).toString)
+        case "short"         => integral(bb.getShort().toString)
+        case "int"           => integral(bb.getInt().toString)
+        case "long"          => integral(bb.getLong().toString)
+        case "float"         => val x = bb.getFloat(); real(x.toDouble, x.toString)
+        case "double"        => val x = bb.getDouble(); real(x, x.toString)
+        case "floatComplex"  => val (r, i) = (bb.getFloat(), bb.getFloat()); real(r.toDouble + i.toDouble, s"$r $i")
+        case "doubleComplex" => val (r, i) = (bb.getDouble(), bb.getDouble()); real(r + i, s"$r $i")
+        case t               => throw new IllegalArgumentException(s"Unsupported VOTable datatype '$t'")
+      }
+    }
+  }
+
+}
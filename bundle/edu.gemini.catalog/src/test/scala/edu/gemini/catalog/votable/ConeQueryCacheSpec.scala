@@ -0,0 +1,84 @@
+package edu.gemini.catalog.votable
+
+import java.io.File
+import java.nio.file.Files
+
+import edu.gemini.catalog.api._
+import edu.gemini.spModel.core._
+import org.specs2.mutable.Specification
+
+class ConeQueryCacheSpec extends Specification {
+  def coordinates(raDeg: Double, decDeg: Double): Coordinates =
+    Coordinates(RightAscension.fromAngle(Angle.fromDegrees(raDeg)), Declination.fromAngle(Angle.fromDegrees(decDeg)).getOrElse(Declination.zero))
+
+  def mags(faint: Double): MagnitudeConstraints =
+    MagnitudeConstraints(SingleBand(MagnitudeBand.J), FaintnessConstraint(faint), None)
+
+  def cone(raDeg: Double, decDeg: Double, radiusArcmin: Double, faint: Double = 100): ConeSearchCatalogQuery =
+    ConeSearchCatalogQuery(None, coordinates(raDeg, decDeg), RadiusConstraint.between(Angle.zero, Angle.fromArcmin(radiusArcmin)), List(mags(faint)), CatalogName.UCAC4)
+
+  def result(q: ConeSearchCatalogQuery, rows: Int): QueryResult =
+    QueryResult(q, CatalogQueryResult(TargetsTable(List.tabulate(rows)(i => SiderealTarget.empty.copy(name = s"t$i", coordinates = q.base))), Nil))
+
+  "ConeQueryCache" should {
+    "find results for cones inside a cached cone" in {
+      val c = new ConeQueryCache(1000, matchMagnitudes = false)
+      val r = result(cone(10, 20, 15), 5)
+      c.put(cone(10, 20, 15), r)
+
+      c.get(cone(10, 20, 5))      should beSome(r)
+      c.get(cone(10, 20.1, 5))    should beSome(r)
+      c.get(cone(10, 20, 20))     should beNone
+      c.get(cone(10, -20, 5))     should beNone
+      c.metrics("hits")           should beEqualTo(2L)
+    }
+    "find results for cones spanning declination bands" in {
+      val c = new ConeQueryCache(1000, matchMagnitudes = false)
+      c.put(cone(10, 19.95, 15), result(cone(10, 19.95, 15), 1))
+      c.get(cone(10, 20.05, 2)) should beSome
+    }
+    "ignore magnitude constraints unless the remote query is limited by them" in {
+      val c0 = new ConeQueryCache(1000, matchMagnitudes = false)
+      val c1 = new ConeQueryCache(1000, matchMagnitudes = true)
+      List(c0, c1).foreach(_.put(cone(10, 20, 15), result(cone(10, 20, 15), 1)))
+
+      c0.get(cone(10, 20, 5, faint = 15)) should beSome
+      c1.get(cone(10, 20, 5, faint = 15)) should beNone
+      c1.get(cone(10, 20, 5))             should beSome
+    }
+    "evict the least recently used results when there are too many rows" in {
+      val c = new ConeQueryCache(100, matchMagnitudes = false)
+      c.put(cone(10, 20, 15), result(cone(10, 20, 15), 40))
+      c.put(cone(50, 20, 15), result(cone(50, 20, 15), 40))
+      c.get(cone(10, 20, 5))
+      c.put(cone(90, 20, 15), result(cone(90, 20, 15), 40))
+
+      c.get(cone(10, 20, 5)) should beSome
+      c.get(cone(50, 20, 5)) should beNone
+      c.metrics("evictions") should beEqualTo(1L)
+      c.metrics("rows")      should beEqualTo(80L)
+    }
+    "only call the backend on a miss" in {
+      val c     = new ConeQueryCache(1000, matchMagnitudes = false)
+      var calls = 0
+      def calc  = { calls += 1; result(cone(10, 20, 15), 1) }
+
+      c.getOrElseUpdate(cone(10, 20, 10), cone(10, 20, 15))(calc)
+      c.getOrElseUpdate(cone(10, 20, 12), cone(10, 20, 18))(calc)
+      calls                  should beEqualTo(1)
+      c.metrics("misses")    should beEqualTo(1L)
+    }
+    "keep results between sessions" in {
+      val f = File.createTempFile("cone", ".cache")
+      try {
+        val c0 = new ConeQueryCache(1000, matchMagnitudes = false)
+        c0.put(cone(10, 20, 15), result(cone(10, 20, 15), 3))
+        c0.save(f)
+
+        val c1 = new ConeQueryCache(1000, matchMagnitudes = false)
+        c1.load(f)
+        c1.get(cone(10, 20, 5)).map(_.result.targets.rows.size) should beSome(3)
+      } finally Files.deleteIfExists(f.toPath)
+    }
+  }
+}
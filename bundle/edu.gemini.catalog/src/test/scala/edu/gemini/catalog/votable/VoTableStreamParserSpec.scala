@@ -0,0 +1,94 @@
+package edu.gemini.catalog.votable
+
+import java.io.ByteArrayInputStream
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.Base64
+
+import edu.gemini.catalog.api._
+import edu.gemini.spModel.core._
+import org.specs2.mutable.Specification
+
+import scalaz._
+import Scalaz._
+
+class VoTableStreamParserSpec extends Specification {
+
+  def stream(file: String) = getClass.getResourceAsStream(s"/$file")
+
+  def targets(r: CatalogProblem \/ ParsedVoResource): List[SiderealTarget] =
+    r.toList.flatMap(_.tables).flatMap(TargetsTable(_).rows)
+
+  // Gaia rows in BINARY2: designation, ra, dec, g mag and bp-rp, the last one possibly null
+  def gaiaBinary2(rows: List[(String, Double, Double, Float, Option[Float])]): String = {
+    val bb = ByteBuffer.allocate(1024)
+    rows.foreach { case (id, ra, dec, g, bpRp) =>
+      bb.put((if (bpRp.isDefined) 0x00 else 0x08).toByte) // null flags for the 5 fields
+      bb.putInt(id.length).put(id.getBytes(StandardCharsets.US_ASCII))
+      bb.putDouble(ra).putDouble(dec).putFloat(g).putFloat(bpRp.getOrElse(Float.NaN))
+    }
+    val data = Base64.getEncoder.encodeToString(java.util.Arrays.copyOf(bb.array, bb.position()))
+
+    s"""<?xml version="1.0" encoding="utf-8"?>
+       |<VOTABLE version="1.3" xmlns="http://www.ivoa.net/xml/VOTable/v1.3">
+       | <RESOURCE type="results">
+       |  <TABLE>
+       |   <FIELD name="designation" datatype="char" arraysize="*" ucd="meta.id;meta.main"/>
+       |   <FIELD name="ra" datatype="double" ucd="pos.eq.ra;meta.main"/>
+       |   <FIELD name="dec" datatype="double" ucd="pos.eq.dec;meta.main"/>
+       |   <FIELD name="phot_g_mean_mag" datatype="float" ucd="phot.mag;stat.mean;em.opt"/>
+       |   <FIELD name="bp_rp" datatype="float" ucd="phot.color"/>
+       |   <DATA>
+       |    <BINARY2>
+       |     <STREAM encoding="base64">
+       |${data.grouped(76).mkString("\n")}
+       |     </STREAM>
+       |    </BINARY2>
+       |   </DATA>
+       |  </TABLE>
+       | </RESOURCE>
+       |</VOTABLE>""".stripMargin
+  }
+
+  "The streaming VoTable parser" should {
+    "read the same targets as the DOM parser" in {
+      def same(c: CatalogName, f: String) =
+        VoTableParser.parseStream(c, stream(f)) should beEqualTo(VoTableParser.parse(c, stream(f)))
+
+      same(CatalogName.UCAC4,  "votable-ucac4.xml")
+      same(CatalogName.PPMXL,  "votable-ppmxl.xml")
+      same(CatalogName.SIMBAD, "simbad-vega.xml")
+    }
+    "reject documents that don't validate" in {
+      VoTableParser.parseStream(CatalogName.UCAC4, stream("votable-non-validating.xml")) should beEqualTo(-\/(ValidationError(CatalogName.UCAC4)))
+    }
+    "reject simbad errors" in {
+      VoTableParser.parseStream(CatalogName.SIMBAD, stream("simbad-npe.xml")) should beEqualTo(-\/(ValidationError(CatalogName.SIMBAD)))
+      VoTableParser.parseStream(CatalogName.SIMBAD, stream("simbad-not-found.xml")) should beEqualTo(\/-(ParsedVoResource(Nil)))
+    }
+    "detect unknown catalogs" in {
+      VoTableParser.parseStream(CatalogName.GSC234, stream("votable-unknown.xml")) should beEqualTo(-\/(UnknownCatalog))
+    }
+    "filter targets while reading" in {
+      val mc  = MagnitudeConstraints(SingleBand(MagnitudeBand.J), FaintnessConstraint(13.0), None)
+      val all = targets(VoTableParser.parse(CatalogName.UCAC4, stream("votable-ucac4.xml")))
+      targets(VoTableParser.parseStream(CatalogName.UCAC4, stream("votable-ucac4.xml"), mc.filter)) should beEqualTo(all.filter(mc.filter))
+    }
+    "stop once enough targets are read" in {
+      val all = targets(VoTableParser.parse(CatalogName.UCAC4, stream("votable-ucac4.xml")))
+      targets(VoTableParser.parseStream(CatalogName.UCAC4, stream("votable-ucac4.xml"), limit = Some(2))) should beEqualTo(all.take(2))
+    }
+    "read BINARY2 streams" in {
+      val xml = gaiaBinary2(List(
+        ("Gaia DR2 1", 10.0, 20.0, 14.3f, Some(1.07f)),
+        ("Gaia DR2 2", 10.1, 20.1, 15.0f, None)
+      ))
+      val ts  = targets(VoTableParser.parseStream(CatalogName.Gaia, new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))))
+
+      ts.map(_.name) should beEqualTo(List("Gaia DR2 1", "Gaia DR2 2"))
+      ts.map(_.coordinates.dec.toDegrees).head must beCloseTo(20.0, 0.000001)
+      ts.head.magnitudes.map(_.band).toSet should beEqualTo(CatalogAdapter.Gaia.conversions.map(_.b).toSet)
+      ts(1).magnitudes should beEmpty
+    }
+  }
+}
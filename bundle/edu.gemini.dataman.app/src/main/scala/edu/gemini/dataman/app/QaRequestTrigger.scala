@@ -2,7 +2,7 @@ package edu.gemini.dataman.app
 
 import edu.gemini.dataman.core._
 import edu.gemini.gsa.query.QaRequest
-import edu.gemini.pot.sp.{ISPProgram, SPCompositeChange}
+import edu.gemini.pot.sp.{ISPNode, ISPObsQaLog, ISPProgram, SPCompositeChange, SPUtil}
 import edu.gemini.pot.spdb.{ProgramEvent, ProgramEventListener, IDBTriggerAction, IDBTriggerCondition, IDBDatabaseService}
 import edu.gemini.spModel.dataset.{DatasetQaState, DatasetLabel}
 import edu.gemini.spModel.dataset.Implicits._
@@ -101,5 +101,11 @@ object QaRequestTrigger {
         case _                                    => null // see IDBTriggerCondition
       }
     }
+
+    override def getPropertyNames: java.util.Set[String] =
+      java.util.Collections.singleton(SPUtil.getDataObjectPropertyName)
+
+    override def getNodeType: Class[_ <: ISPNode] =
+      classOf[ISPObsQaLog]
   }
 }
@@ -199,6 +199,14 @@ trait ItcService {
    */
   def calculate(p: ItcParameters, headless: Boolean): Result
 
+  /**
+   * Performs several ITC calculations in a single call, e.g. for all the steps of a sequence.
+   * @param ps parameters for the ITC calculations.
+   * @param headless pass `true` for headless applications that do not require chart data.
+   * @return the results in the order of the given parameters
+   */
+  def calculateAll(ps: List[ItcParameters], headless: Boolean): List[Result]
+
 }
 
 sealed trait ItcMessage
@@ -222,4 +230,10 @@ object ItcService {
       r[ItcService].calculate(inputs, false)
     }
 
+  /** Performs several ITC calls on the given host with a single request. */
+  def calculateAll(peer: Peer, inputs: List[ItcParameters]): Future[List[Result]] =
+    TrpcClient(peer).withoutKeys future { r =>
+      r[ItcService].calculateAll(inputs, false)
+    }
+
 }
@@ -12,7 +12,11 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
     // The spectral data.  _data = new double[2][num_data_points]
     // data[0][i] = x values
     // data[1][i] = y values
-    private final double[][] _data;
+    private double[][] _data;
+
+    // Whether _data is shared with the data file cache (or another spectrum)
+    // and must be copied before it is modified.
+    private boolean _shared;
 
     public static DefaultArraySpectrum fromUserSpectrum(String spectrum) {
         final double[][] data = DatFile.fromUserSpectrum(spectrum);
@@ -59,19 +63,37 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
      *                 separated by whitespace or comma.
      */
     public DefaultArraySpectrum(String fileName) {
-        final double[][] data = DatFile.arrays().apply(fileName);
-        // for now make a copy of cached values, just to be on the safe side
-        _data = new double[2][];
-        _data[0] = data[0].clone();
-        _data[1] = data[1].clone();
+        // share the cached values, they are copied before any modification
+        this(DatFile.arrays().apply(fileName), true);
+    }
+
+    private DefaultArraySpectrum(final double[][] data, final boolean shared) {
+        _data   = data;
+        _shared = shared;
     }
 
     /**
      * Implements Cloneable interface
      */
     @Override public Object clone() {
-        // constructor will clone the data array
-        return new DefaultArraySpectrum(_data);
+        // both spectra share the data until one of them modifies it
+        _shared = true;
+        return new DefaultArraySpectrum(_data, true);
+    }
+
+    /**
+     * Gets the data for modification, making a private copy first if it is
+     * shared.
+     */
+    private double[][] _mutableData() {
+        if (_shared) {
+            final double[][] data = new double[2][];
+            data[0] = _data[0].clone();
+            data[1] = _data[1].clone();
+            _data   = data;
+            _shared = false;
+        }
+        return _data;
     }
 
     /**
@@ -146,9 +168,9 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
     }
 
     @Override public void applyWavelengthCorrection() {
-
+        final double[][] data = _mutableData();
         for (int i = 0; i < getLength(); ++i) {
-            _data[1][i] = _data[1][i] * _data[0][i];
+            data[1][i] = data[1][i] * data[0][i];
         }
     }
 
@@ -158,7 +180,7 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
      */
     @Override public void setY(int index, double y) {
         if (index < 0 || index >= getLength()) return;  // no-op
-        _data[1][index] = y;
+        _mutableData()[1][index] = y;
     }
 
     /**
@@ -166,8 +188,9 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
      */
     @Override public void rescaleX(double factor) {
         if (factor == 1.0) return;
+        final double[][] data = _mutableData();
         for (int i = 0; i < getLength(); ++i) {
-            _data[0][i] *= factor;
+            data[0][i] *= factor;
         }
     }
 
@@ -176,19 +199,21 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
      */
     @Override public void rescaleY(double factor) {
         if (factor == 1.0) return;
+        final double[][] data = _mutableData();
         for (int i = 0; i < getLength(); ++i) {
-            _data[1][i] *= factor;
+            data[1][i] *= factor;
         }
     }
 
     @Override public void smoothY(int smoothing_element) {
         if (smoothing_element == 1.0) return;
+        final double[][] data = _mutableData();
         for (int i = 0; i < getLength(); ++i) {
             try {
                 if (i + smoothing_element > getLength())
-                    _data[1][i] = getAverage(i, getLength());
+                    data[1][i] = getAverage(i, getLength());
                 else
-                    _data[1][i] = getAverage(i, i + smoothing_element);
+                    data[1][i] = getAverage(i, i + smoothing_element);
 
             } catch (Exception e) {
                 System.out.println(e.toString());
@@ -290,11 +315,12 @@ public final class DefaultArraySpectrum implements ArraySpectrum {
      * double data[][] = new double[2][getLength()];
      * data[0][i] = x values
      * data[1][i] = y values
-     * May return reference to member data, so client should not
-     * alter the return value.
+     * Returns a reference to member data.  Data shared with the data file
+     * cache or another spectrum is copied first, so altering the return
+     * value only affects this spectrum.
      */
     @Override public double[][] getData() {
-        return _data;
+        return _mutableData();
     }
 
     /**
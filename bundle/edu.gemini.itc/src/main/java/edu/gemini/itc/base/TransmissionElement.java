@@ -29,11 +29,37 @@ public class TransmissionElement implements SampledSpectrumVisitor {
 
     /**
      * Apply the transmission convolution for this component.
+     * The SED's x values are increasing, so instead of searching the
+     * transmission data for every one of them (see
+     * {@link ArraySpectrum#getY(double)}) we walk through both in step.  The
+     * interpolation is the same.  The transmission data is only read
+     * through the spectrum's accessors, so data shared with the data file
+     * cache is never copied.
      */
     public void visit(final SampledSpectrum sed) {
+        final int n = _trans.getLength();
+        final double start = _trans.getStart();
+        final double end   = _trans.getEnd();
+
+        int low = 0;
+        double lastX = Double.NEGATIVE_INFINITY;
         for (int i = 0; i < sed.getLength(); i++) {
-            final double startval = sed.getX(i);
-            final double multiplier = _trans.getY(startval);
+            final double x = sed.getX(i);
+            final double multiplier;
+            if (x < start || x > end) {
+                multiplier = 0;
+            } else {
+                // index of the largest transmission x value less than x (or 0)
+                if (x < lastX) low = 0;
+                while (low + 1 < n && _trans.getX(low + 1) < x) ++low;
+                final double x0 = _trans.getX(low);
+                final double x1 = _trans.getX(low + 1);
+                final double y0 = _trans.getY(low);
+                final double y1 = _trans.getY(low + 1);
+                final double slope = (y1 - y0) / (x1 - x0);
+                multiplier = slope * (x - x0) + y0;
+            }
+            lastX = x;
             sed.setY(i, sed.getY(i) * multiplier);
         }
     }
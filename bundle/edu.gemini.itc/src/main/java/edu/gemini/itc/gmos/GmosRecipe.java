@@ -106,23 +106,22 @@ public final class GmosRecipe implements ImagingArrayRecipe, SpectroscopyArrayRe
         return Recipe$.MODULE$.serviceGroupedResult(r, groups, headless);
     }
 
+    // Each CCD has its own instrument instance and the calculations for the different CCDs are independent
+    // of each other, so they can be done in parallel.
     public SpectroscopyResult[] calculateSpectroscopy() {
         final Gmos[] ccdArray = mainInstrument.getDetectorCcdInstruments();
-        final SpectroscopyResult[] results = new SpectroscopyResult[ccdArray.length];
-        for (int i = 0; i < ccdArray.length; i++) {
-            final Gmos instrument = ccdArray[i];
-            results[i] = calculateSpectroscopy(mainInstrument, instrument, ccdArray.length);
-        }
-        return results;
+        return Recipe$.MODULE$.evaluateAll(
+                ccdArray.length,
+                i -> calculateSpectroscopy(mainInstrument, ccdArray[i], ccdArray.length),
+                SpectroscopyResult[]::new);
     }
 
     public ImagingResult[] calculateImaging() {
         final Gmos[] ccdArray = mainInstrument.getDetectorCcdInstruments();
-        final List<ImagingResult> results = new ArrayList<>();
-        for (final Gmos instrument : ccdArray) {
-            results.add(calculateImagingDo(instrument));
-        }
-        return results.toArray(new ImagingResult[results.size()]);
+        return Recipe$.MODULE$.evaluateAll(
+                ccdArray.length,
+                i -> calculateImagingDo(ccdArray[i]),
+                ImagingResult[]::new);
     }
 
     private Gmos createGmos(final GmosParameters parameters, final ObservationDetails observationDetails) {
@@ -1,11 +1,13 @@
 package edu.gemini.itc.base
 
 import java.util.Scanner
+import java.util.concurrent.{ConcurrentHashMap, CopyOnWriteArrayList}
+import java.util.concurrent.atomic.AtomicLong
 import java.util.logging.Logger
 import java.util.regex.Pattern
 
 import scala.collection._
-import scalaz._
+import scala.collection.JavaConverters._
 
 /**
  * Set of tools to ingest dat files stored as resource files.
@@ -19,6 +21,11 @@ import scalaz._
 object DatFile {
   lazy val Log = Logger.getLogger(getClass.getName)
 
+  // All the data file caches and the number of times they have been invalidated.  These must be initialized
+  // before the caches below are created.
+  private val caches     = new CopyOnWriteArrayList[ConcurrentHashMap[String, _]]()
+  private val generation = new AtomicLong()
+
   // ===== Data containers
 
   type Data = Array[Array[Double]]
@@ -111,23 +118,52 @@ object DatFile {
     Instrument(s.next, s.nextInt, s.nextInt, s.nextDouble, s.next, s.nextDouble, s.nextDouble, s.nextDouble)
   }
 
+  // Reads pairs straight into growing primitive arrays, avoiding boxing and intermediate collections.
   private def scanArray(s: Scanner): Array[Array[Double]] = {
-    val l = mutable.MutableList[(Double, Double)]()
+    var xs = new Array[Double](1024)
+    var ys = new Array[Double](1024)
+    var n  = 0
     while (s.hasNext) {
-      val pair = (s.next().toDouble, s.next().toDouble)
-      l.+=(pair)
+      if (n == xs.length) {
+        xs = java.util.Arrays.copyOf(xs, 2 * n)
+        ys = java.util.Arrays.copyOf(ys, 2 * n)
+      }
+      xs(n) = s.next().toDouble
+      ys(n) = s.next().toDouble
+      n += 1
     }
-    val data = new Array[Array[Double]](2)
-    data(0) = l.map(_._1).toArray
-    data(1) = l.map(_._2).toArray
-    data
+    Array(java.util.Arrays.copyOf(xs, n), java.util.Arrays.copyOf(ys, n))
+  }
+
+  // ===== Invalidation
+
+  /** Counter that is incremented every time the cached data files are invalidated.  Anything derived from
+    * the data files (e.g. cached calculation results) is only valid as long as the generation doesn't change. */
+  def currentGeneration: Long = generation.get
+
+  /** Drops all cached data files so that they are read again from the resources the next time they are used.
+    * Call this after the dat file resources have changed. */
+  def invalidate(): Unit = {
+    Log.info("Invalidating cached data files")
+    caches.asScala.foreach(_.clear())
+    generation.incrementAndGet()
   }
 
   /** Loads a file and parses it using the given scanner unless it is already available in the cache. */
   // Note: this could be changed to use a weak hash map in case we run into memory issues
-  private def cache[T](load: Scanner => T): String => T = Memo.immutableHashMapMemo[String, T] { f =>
-    Log.fine(s"Caching file $f")
-    load(scanFile(f))
+  private def cache[T](load: Scanner => T): String => T = {
+    val m = new ConcurrentHashMap[String, T]()
+    caches.add(m)
+    f => {
+      val t = m.get(f)
+      if (t != null) t
+      else {
+        Log.fine(s"Caching file $f")
+        val l = load(scanFile(f))
+        m.putIfAbsent(f, l)
+        l
+      }
+    }
   }
 
 }
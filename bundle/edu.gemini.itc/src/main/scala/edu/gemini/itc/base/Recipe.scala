@@ -1,10 +1,13 @@
 package edu.gemini.itc.base
 
 import java.util. { ArrayList, List => JList }
+import java.util.concurrent.{CompletableFuture, CompletionException, ForkJoinPool}
+import java.util.function.{IntFunction, Supplier}
 
 import edu.gemini.itc.shared._
 
 import scala.collection.JavaConversions._
+import scala.util.{Failure, Try}
 
 import scalaz._
 import Scalaz._
@@ -36,6 +39,41 @@ trait SpectroscopyArrayRecipe extends Recipe {
 
 object Recipe {
 
+  // =============
+  // PARALLEL EVALUATION
+  // Independent parts of a calculation (e.g. the CCDs of a detector array) can be evaluated in parallel on the
+  // common fork-join pool. Set the system property "edu.gemini.itc.parallel" to "false" to evaluate them one
+  // after the other.
+
+  val ParallelProp = "edu.gemini.itc.parallel"
+
+  val Parallel: Boolean = !"false".equalsIgnoreCase(System.getProperty(ParallelProp))
+
+  /** Evaluates `f` for the indices `0 until n`, possibly in parallel. The results are in index order and if any
+    * of the evaluations fails, the exception of the one with the lowest index is thrown. */
+  def evaluateAll[A](n: Int)(f: Int => A): List[A] =
+    if (!Parallel || n < 2) (0 until n).toList.map(f)
+    else {
+      val rest  = (1 until n).toList.map { i =>
+        CompletableFuture.supplyAsync(new Supplier[A] { def get: A = f(i) }, ForkJoinPool.commonPool())
+      }
+      val first = Try(f(0))
+      val all   = first :: rest.map { cf =>
+        Try(cf.join()) match {
+          case Failure(e: CompletionException) if e.getCause != null => Failure(e.getCause)
+          case t                                                     => t
+        }
+      }
+      all.map(_.get)
+    }
+
+  /** Java friendly version of `evaluateAll`. */
+  def evaluateAll[A](n: Int, f: IntFunction[A], newArray: IntFunction[Array[A]]): Array[A] = {
+    val rs = newArray(n)
+    evaluateAll(n)(i => f(i)).zipWithIndex.foreach { case (r, i) => rs(i) = r }
+    rs
+  }
+
   // =============
   // GENERIC CHART CREATION
   // Utility functions that create generic signal and signal to noise charts for several instruments.
@@ -4,7 +4,7 @@ import java.util.logging.Level._
 import java.util.logging.Logger
 
 import edu.gemini.itc.osgi.Activator._
-import edu.gemini.itc.service.ItcServiceImpl
+import edu.gemini.itc.service.{ItcCacheMetrics, ItcServiceImpl}
 import edu.gemini.itc.shared.ItcService
 import org.osgi.framework.{BundleActivator, BundleContext, ServiceRegistration}
 
@@ -26,7 +26,9 @@ class Activator extends BundleActivator {
   def start(ctx: BundleContext): Unit = {
 
     Log.info(s"Starting itc services bundle")
-    
+
+    ItcCacheMetrics.register()
+
     // register the services..
     Future {
 
@@ -54,6 +56,8 @@ class Activator extends BundleActivator {
     itcService.foreach(_.unregister())
     itcService = None
 
+    ItcCacheMetrics.unregister()
+
   }
 
 }
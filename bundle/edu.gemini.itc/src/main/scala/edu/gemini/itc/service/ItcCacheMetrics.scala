@@ -0,0 +1,58 @@
+package edu.gemini.itc.service
+
+import java.lang.management.ManagementFactory
+import java.util.logging.{Level, Logger}
+import java.{lang => jl, util => ju}
+import javax.management.{InstanceAlreadyExistsException, InstanceNotFoundException, ObjectName}
+
+import edu.gemini.itc.base.DatFile
+
+import scala.collection.JavaConverters._
+
+/**
+ * Hit, miss and eviction counts and sizes of the caches shared by the ITC service instances, along with a
+ * hook to invalidate them after the data file resources have changed.  Published over JMX as
+ * `edu.gemini.itc:type=ItcCacheMetrics` while the ITC bundle is running.
+ */
+object ItcCacheMetrics extends ItcCacheMetricsMXBean {
+  private val Log = Logger.getLogger(getClass.getName)
+
+  val Name = new ObjectName("edu.gemini.itc:type=ItcCacheMetrics")
+
+  /** A snapshot of all counters, keyed by "itc.<cache>.<counter>". */
+  def snapshot: Map[String, Long] =
+    ItcServiceImpl.cacheMetrics.map { case (k, v) => s"itc.$k" -> v }
+
+  /** Java-friendly, sorted version of `snapshot`. */
+  def getMetrics: ju.Map[String, jl.Long] =
+    new ju.TreeMap[String, jl.Long](snapshot.mapValues(Long.box).asJava)
+
+  /** Drops the cached data files and with them all cached results, see `DatFile.invalidate()`. */
+  def invalidate(): Unit =
+    DatFile.invalidate()
+
+  /** Publishes the counters to the platform MBean server. */
+  def register(): Unit =
+    try {
+      ManagementFactory.getPlatformMBeanServer.registerMBean(this, Name)
+    } catch {
+      case _: InstanceAlreadyExistsException => // registered by an earlier start
+      case e: Exception                      => Log.log(Level.WARNING, s"Could not register $Name", e)
+    }
+
+  /** Withdraws the counters from the platform MBean server. */
+  def unregister(): Unit =
+    try {
+      ManagementFactory.getPlatformMBeanServer.unregisterMBean(Name)
+    } catch {
+      case _: InstanceNotFoundException => // never registered
+      case e: Exception                 => Log.log(Level.WARNING, s"Could not unregister $Name", e)
+    }
+
+}
+
+/** JMX view of `ItcCacheMetrics`. */
+trait ItcCacheMetricsMXBean {
+  def getMetrics: ju.Map[String, jl.Long]
+  def invalidate(): Unit
+}
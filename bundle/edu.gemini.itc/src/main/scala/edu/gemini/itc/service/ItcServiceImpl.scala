@@ -12,6 +12,8 @@ import edu.gemini.itc.niri.NiriRecipe
 import edu.gemini.itc.shared._
 import edu.gemini.spModel.core.{AuxFileSpectrum, UserDefinedSpectrum, SpectralDistribution, SPProgramID}
 
+import scala.collection.JavaConverters._
+
 import scalaz._
 import Scalaz._
 
@@ -24,6 +26,10 @@ import Scalaz._
 class ItcServiceImpl extends ItcService {
 
   import ItcService._
+  import ItcServiceImpl._
+
+  // Aux files are always read from the database running on the same machine (see readAuxFile below)
+  private val auxFileClient = new AuxFileClient("localhost", 8443)
 
   def calculate(p: ItcParameters, headless: Boolean): Result = try {
 
@@ -32,10 +38,19 @@ class ItcServiceImpl extends ItcService {
 
       // Get the SED data from an aux file. For now we can assume that the ITC service is running on the same
       // machine as the database (localhost). In case this setup changes, we need to change this here, too.
+      // The file is only fetched if it has changed since it was last read, which is a lot cheaper to check.
       def readAuxFile(id: String, name: String): SpectralDistribution = {
-        val programId     = SPProgramID.toProgramID(id)
-        val spectrumBytes = new AuxFileClient("localhost", 8443).fetchToMemory(programId, name)
-        val spectrum      = new String(spectrumBytes)
+        val programId = SPProgramID.toProgramID(id)
+        val key       = (programId, name)
+        val current   = auxFileClient.list(programId, java.util.Collections.singleton(name)).asScala.headOption
+        val cached    = auxFiles.get(key).filter { case (lastMod, size, _) =>
+          current.exists(af => af.getLastModified == lastMod && af.getSize == size)
+        }
+        val spectrum  = cached.fold {
+          val s = new String(auxFileClient.fetchToMemory(programId, name))
+          current.foreach(af => auxFiles.put(key, (af.getLastModified, af.getSize, s)))
+          s
+        }(_._3)
         UserDefinedSpectrum(name, spectrum)
       }
 
@@ -50,16 +65,25 @@ class ItcServiceImpl extends ItcService {
       p.copy(source = updatedSrc(p.source))
     }
 
-    // execute ITC service call with updated parameters
-    updatedParams.observation.calculationMethod match {
-      case _: Imaging       => calculateImaging(updatedParams)
-      case _: Spectroscopy  => calculateSpectroscopy(updatedParams, headless)
+    // execute ITC service call with updated parameters unless the same calculation was done before; the
+    // resolved parameters (including the SED content) are case classes and serve as canonical cache key
+    results.getOrElseUpdate((updatedParams, headless)) {
+      updatedParams.observation.calculationMethod match {
+        case _: Imaging       => calculateImaging(updatedParams)
+        case _: Spectroscopy  => calculateSpectroscopy(updatedParams, headless)
+      }
     }
 
   } catch {
     case e: Throwable => ItcResult.forException(e)
   }
 
+  // Calculations are independent of each other and are done in parallel, the results are kept in order.
+  def calculateAll(ps: List[ItcParameters], headless: Boolean): List[Result] = {
+    val params = ps.toVector
+    Recipe.evaluateAll(params.size)(i => calculate(params(i), headless))
+  }
+
   // === Imaging
 
   private def calculateImaging(p: ItcParameters): Result =
@@ -118,3 +142,19 @@ class ItcServiceImpl extends ItcService {
 
 
 }
+
+object ItcServiceImpl {
+
+  // The caches are shared by all service instances; the web servlets create a new instance per request.
+
+  // Contents of aux files that were read before, along with their modification time and size.
+  private val auxFiles = ResultCache.forAuxFiles()
+
+  private val results = ResultCache.forResults()
+
+  /** Hit, miss and eviction counts and sizes of the shared caches, keyed by "<cache>.<counter>". */
+  def cacheMetrics: Map[String, Long] =
+    results.metrics.map  { case (k, v) => s"results.$k"  -> v } ++
+    auxFiles.metrics.map { case (k, v) => s"auxFiles.$k" -> v }
+
+}
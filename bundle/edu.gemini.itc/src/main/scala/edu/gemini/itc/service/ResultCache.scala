@@ -0,0 +1,157 @@
+package edu.gemini.itc.service
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+
+import edu.gemini.itc.base.DatFile
+import edu.gemini.itc.shared._
+import edu.gemini.spModel.core.{SPProgramID, UserDefinedSpectrum}
+
+import scalaz._
+import Scalaz._
+
+/**
+ * A bounded least-recently-used cache of ITC results (and of the aux files they use).  The size of each entry is estimated by the given
+ * weigher and the least recently used entries are evicted when the total weight of all entries exceeds
+ * `maxWeight`.  Entries are dropped whenever the data files are invalidated (see `DatFile.invalidate()`)
+ * since results that were calculated using the old data are no longer valid.  The cache is thread-safe.
+ */
+final class ResultCache[K, V](maxWeight: Long, weigh: (K, V) => Long) {
+
+  private case class Entry(value: V, weight: Long)
+
+  // access ordered map, guarded by this
+  private val entries    = new java.util.LinkedHashMap[K, Entry](16, 0.75f, true)
+  private var weight     = 0L
+  private var generation = DatFile.currentGeneration
+
+  private val hits      = new AtomicLong()
+  private val misses    = new AtomicLong()
+  private val evictions = new AtomicLong()
+
+  /** Gets the cached value for the key or calculates and caches it. Values are calculated outside of the
+    * lock, so concurrent requests for the same key may calculate the same value more than once. */
+  def getOrElseUpdate(k: K)(calc: => V): V = {
+    val g = DatFile.currentGeneration
+    get(k).getOrElse {
+      val v = calc
+      put(k, v, g)
+      v
+    }
+  }
+
+  /** Gets the cached value for the key, if any. */
+  def get(k: K): Option[V] = synchronized {
+    checkGeneration()
+    val v = Option(entries.get(k)).map(_.value)
+    (if (v.isDefined) hits else misses).incrementAndGet()
+    v
+  }
+
+  /** Caches the value for the key, replacing any value cached before. */
+  def put(k: K, v: V): Unit =
+    put(k, v, DatFile.currentGeneration)
+
+  private def put(k: K, v: V, g: Long): Unit = synchronized {
+    checkGeneration()
+    val w = weigh(k, v)
+    // don't cache values calculated with outdated data files or that would evict everything else
+    if (g == generation && w <= maxWeight / 4) {
+      Option(entries.put(k, Entry(v, w))).foreach(old => weight -= old.weight)
+      weight += w
+      val it = entries.values.iterator
+      while (weight > maxWeight && it.hasNext) {
+        weight -= it.next().weight
+        it.remove()
+        evictions.incrementAndGet()
+      }
+    }
+  }
+
+  private def checkGeneration(): Unit =
+    if (generation != DatFile.currentGeneration) {
+      entries.clear()
+      weight     = 0
+      generation = DatFile.currentGeneration
+    }
+
+  /** Removes all entries. */
+  def clear(): Unit = synchronized {
+    entries.clear()
+    weight = 0
+  }
+
+  /** The number of cached entries. */
+  def size: Int = synchronized(entries.size)
+
+  /** The estimated total weight of the cached entries. */
+  def totalWeight: Long = synchronized(weight)
+
+  /** Hit, miss and eviction counts as well as the current size of the cache. */
+  def metrics: Map[String, Long] = synchronized {
+    Map(
+      "hits"      -> hits.get,
+      "misses"    -> misses.get,
+      "evictions" -> evictions.get,
+      "entries"   -> entries.size.toLong,
+      "bytes"     -> weight
+    )
+  }
+
+}
+
+object ResultCache {
+  val Log = Logger.getLogger(classOf[ResultCache[_, _]].getName)
+
+  val MaxBytesProp    = classOf[ResultCache[_, _]].getName + ".maxBytes"
+  val DefaultMaxBytes = 64L * 1024 * 1024
+
+  /** Results are cached by their (resolved) parameters and whether or not chart data was requested. */
+  type Key = (ItcParameters, Boolean)
+
+  val AuxFileMaxBytesProp    = classOf[ResultCache[_, _]].getName + ".auxFileMaxBytes"
+  val DefaultAuxFileMaxBytes = 16L * 1024 * 1024
+
+  /** Aux file contents are cached by program and file name, along with the file's modification time and size. */
+  type AuxFileKey   = (SPProgramID, String)
+  type AuxFileValue = (Long, Long, String)
+
+  def maxBytes: Long =
+    longProp(MaxBytesProp, DefaultMaxBytes)
+
+  def auxFileMaxBytes: Long =
+    longProp(AuxFileMaxBytesProp, DefaultAuxFileMaxBytes)
+
+  private def longProp(prop: String, default: Long): Long =
+    Option(System.getProperty(prop)).fold(default) { s =>
+      s.parseLong.toOption.filter(_ >= 0).getOrElse {
+        Log.warning(s"Could not parse value of property '$prop': $s")
+        default
+      }
+    }
+
+  /** Creates a cache for ITC results. */
+  def forResults(): ResultCache[Key, ItcService.Result] =
+    new ResultCache(maxBytes, (k, v) => weight(k) + weight(v))
+
+  /** Creates a cache for the contents of aux files holding user defined SEDs. */
+  def forAuxFiles(): ResultCache[AuxFileKey, AuxFileValue] =
+    new ResultCache(auxFileMaxBytes, (k, v) => Overhead + 2L * (k._2.length + v._3.length))
+
+  // === Size estimates in bytes, these only need to be roughly right.
+
+  private val Overhead = 1024L
+
+  private def weight(k: Key): Long = k._1.source.distribution match {
+    case UserDefinedSpectrum(_, spectrum) => Overhead + 2L * spectrum.length
+    case _                                => Overhead
+  }
+
+  private def weight(r: ItcService.Result): Long = r match {
+    case \/-(s: ItcSpectroscopyResult) =>
+      Overhead + s.chartGroups.flatMap(_.charts).flatMap(_.series).map(_.data.map(8L * _.length).sum).sum
+    case _                             =>
+      Overhead
+  }
+
+}
@@ -0,0 +1,27 @@
+package edu.gemini.itc.base
+
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Tests for the parallel evaluation of independent calculations.
+ */
+class RecipeTest {
+
+  @Test
+  def keepsOrder(): Unit = {
+    val rs = Recipe.evaluateAll(20) { i => Thread.sleep((20 - i).toLong); i * i }
+    assertEquals((0 until 20).map(i => i * i).toList, rs)
+  }
+
+  @Test
+  def throwsFirstFailure(): Unit = {
+    try {
+      Recipe.evaluateAll(5) { i => if (i >= 2) throw new IllegalArgumentException(s"failed $i") else i }
+      fail("expected an exception")
+    } catch {
+      case e: IllegalArgumentException => assertEquals("failed 2", e.getMessage)
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+package edu.gemini.itc.base
+
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Tests for applying transmission elements.
+ */
+class TransmissionElementTest {
+
+  @Test
+  def sameAsInterpolation(): Unit = {
+    val trans = new DefaultArraySpectrum("/flamingos2/HK.dat")
+    val sed   = new DefaultSampledSpectrum(Array.fill(5000)(2.0), trans.getStart - 10.0, 0.37)
+
+    new TransmissionElement(trans).visit(sed)
+
+    (0 until sed.getLength).foreach { i =>
+      assertEquals(2.0 * trans.getY(sed.getX(i)), sed.getY(i), 0.0)
+    }
+  }
+
+  @Test
+  def copiesSharedDataOnWrite(): Unit = {
+    val s0 = new DefaultArraySpectrum("/flamingos2/HK.dat")
+    val s1 = new DefaultArraySpectrum("/flamingos2/HK.dat")
+    val i  = s1.getLength / 2
+    val y  = s1.getY(i)
+    s0.rescaleY(2.0)
+    assertEquals(2.0 * y, s0.getY(i), 0.0)
+    assertEquals(y, s1.getY(i), 0.0)
+    assertEquals(y, DatFile.arrays("/flamingos2/HK.dat")(1)(i), 0.0)
+  }
+
+}
@@ -0,0 +1,61 @@
+package edu.gemini.itc.service
+
+import edu.gemini.itc.base.DatFile
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Tests for the ITC result cache.
+ */
+class ResultCacheTest {
+
+  private def cache(maxWeight: Long) = new ResultCache[String, String](maxWeight, (k, v) => v.length.toLong)
+
+  @Test
+  def cachesResults(): Unit = {
+    val c     = cache(100)
+    var calls = 0
+    def calc  = { calls += 1; "result" }
+
+    assertEquals("result", c.getOrElseUpdate("a")(calc))
+    assertEquals("result", c.getOrElseUpdate("a")(calc))
+    assertEquals(1, calls)
+    assertEquals(1, c.size)
+    assertEquals(1L, c.metrics("hits"))
+    assertEquals(1L, c.metrics("misses"))
+  }
+
+  @Test
+  def evictsLeastRecentlyUsed(): Unit = {
+    val c = cache(100)
+    c.getOrElseUpdate("a")("a" * 20)
+    c.getOrElseUpdate("b")("b" * 20)
+    c.getOrElseUpdate("a")("x")                // touch a, b is now least recently used
+    c.getOrElseUpdate("c")("c" * 20)
+    c.getOrElseUpdate("d")("d" * 20)
+    c.getOrElseUpdate("e")("e" * 20)           // exceeds the max weight
+
+    assertEquals(4, c.size)
+    assertEquals(80L, c.totalWeight)
+    assertEquals(1L, c.metrics("evictions"))
+    assertEquals("a" * 20, c.getOrElseUpdate("a")("x"))
+    assertEquals("x",      c.getOrElseUpdate("b")("x"))
+  }
+
+  @Test
+  def skipsHugeResults(): Unit = {
+    val c = cache(100)
+    c.getOrElseUpdate("a")("a" * 60)
+    assertEquals(0, c.size)
+  }
+
+  @Test
+  def clearsOnDatFileInvalidation(): Unit = {
+    val c = cache(100)
+    c.getOrElseUpdate("a")("a")
+    DatFile.invalidate()
+    assertEquals("b", c.getOrElseUpdate("a")("b"))
+    assertEquals(2L, c.metrics("misses"))
+  }
+
+}
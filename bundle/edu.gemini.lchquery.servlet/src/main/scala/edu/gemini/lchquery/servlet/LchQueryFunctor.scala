@@ -9,9 +9,12 @@ import java.util.logging.{Level, Logger}
 
 import edu.gemini.odb.browser._
 import edu.gemini.pot.sp.{ISPNode, ISPObservation, ISPProgram}
-import edu.gemini.pot.spdb.{DBAbstractQueryFunctor, IDBDatabaseService}
+import edu.gemini.pot.spdb.{DBAbstractQueryFunctor, DBQueryFilter, IDBDatabaseService}
 import edu.gemini.skycalc.{DDMMSS, HHMMSS}
-import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
+import edu.gemini.spModel.`type`.DisplayableSpType
+import edu.gemini.spModel.core.Semester
+import edu.gemini.spModel.data.YesNoType
+import edu.gemini.spModel.gemini.obscomp.{SPProgram, SPSiteQuality}
 import edu.gemini.spModel.obs.ObservationStatus
 import edu.gemini.spModel.rich.shared.immutable._
 import edu.gemini.spModel.target.{SPCoordinates, SPSkyObject, SPTarget}
@@ -267,4 +270,37 @@ object LchQueryFunctor {
 
   def queryType(pathInfo: String): Option[QueryType] =
     QueryTypes.find(q => pathInfo.startsWith(q.prefix))
+
+  /**
+   * A filter that limits the programs visited by a query to those that can match the given program
+   * parameters, as far as the program index can tell from the semester and the active and completed
+   * flags.  The functor still checks every parameter on the programs that it is given.
+   */
+  def programFilter(programParams: List[(LchQueryParam[ISPProgram], String)]): DBQueryFilter =
+    programParams.foldLeft(DBQueryFilter.ALL) {
+      case (f, (LchQueryParam.ProgramSemesterParam, expr))  =>
+        semesters(expr).fold(f)(ss => f.withSemesters(ss.asJava))
+      case (f, (LchQueryParam.ProgramActiveParam, expr))    =>
+        requiredFlag(expr, SPProgram.Active.YES, SPProgram.Active.NO).fold(f)(b => f.withActive(b))
+      case (f, (LchQueryParam.ProgramCompletedParam, expr)) =>
+        requiredFlag(expr, YesNoType.YES, YesNoType.NO).fold(f)(b => f.withCompleted(b))
+      case (f, _)                                           =>
+        f
+    }
+
+  // The semesters named by an expression that lists them literally, e.g. "2015A|2015B".
+  private def semesters(expression: String): Option[List[Semester]] =
+    expression.split('|').toList.traverse { s =>
+      \/.fromTryCatchNonFatal(Semester.parse(s.toUpperCase)).toOption
+    }
+
+  // The state a flag must have to match the expression, if only one of its states can.
+  private def requiredFlag(expression: String, yes: DisplayableSpType, no: DisplayableSpType): Option[Boolean] = {
+    import ValueMatcher.BooleanValueMatcher.matchesValue
+    (matchesValue(expression, yes), matchesValue(expression, no)) match {
+      case (true,  false) => Some(true)
+      case (false, true)  => Some(false)
+      case _              => None
+    }
+  }
 }
\ No newline at end of file
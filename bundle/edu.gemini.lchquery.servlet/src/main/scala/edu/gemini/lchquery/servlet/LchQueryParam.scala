@@ -56,16 +56,20 @@ object ValueMatcher {
   abstract class BooleanValueMatcher[A, B <: DisplayableSpType] extends ValueMatcher[A] {
     protected def extractor(a: A): Option[B]
 
+    override def matches(expression: String, x: A): Boolean =
+      Option(x).flatMap(extractor).exists(BooleanValueMatcher.matchesValue(expression, _))
+  }
+
+  object BooleanValueMatcher {
     private def transform(expression: String): String = expression.toLowerCase match {
       case "true" => YesNoType.YES.displayValue()
       case "false" => YesNoType.NO.displayValue()
       case _ => expression
     }
 
-    override def matches(expression: String, x: A): Boolean = (for {
-      r <- Option(expression).map(transform).map(_.toRegex)
-      m <- Option(x).flatMap(extractor).map(_.displayValue)
-    } yield r.findFirstMatchIn(m).isDefined).getOrElse(false)
+    /** Whether the expression matches the display value of the given value. */
+    def matchesValue(expression: String, b: DisplayableSpType): Boolean =
+      Option(expression).map(transform).map(_.toRegex).exists(_.findFirstMatchIn(b.displayValue).isDefined)
   }
 }
 
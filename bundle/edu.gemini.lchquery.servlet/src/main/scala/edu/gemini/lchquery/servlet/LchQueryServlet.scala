@@ -104,7 +104,7 @@ final case class LchQueryServlet(odb: IDBDatabaseService, user: Set[Principal])
           response.setContentType("application/xml")
 
           out.write(odb.getQueryRunner(user.asJava).
-            queryPrograms(new LchQueryFunctor(queryType, programParams, observationParams)).
+            queryPrograms(LchQueryFunctor.programFilter(programParams), new LchQueryFunctor(queryType, programParams, observationParams)).
             queryResult.toXml)
         } recover {
           case ex: IllegalArgumentException           => illegalArgument(ex)
@@ -0,0 +1,93 @@
+package edu.gemini.lchquery.servlet
+
+import java.security.Principal
+import java.util
+
+import edu.gemini.pot.sp.{ISPNode, ISPProgram}
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.spModel.core.{SPProgramID, Semester}
+import edu.gemini.spModel.gemini.obscomp.SPProgram
+import org.specs2.mutable.Specification
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+object LchQueryFilterSpec extends Specification {
+  import LchQueryParam._
+
+  // Records the programs that the query runner hands to the functor.
+  class RecordingFunctor(params: List[(LchQueryParam[ISPProgram], String)])
+      extends LchQueryFunctor(LchQueryFunctor.QueryType.ProgramQuery, params, Nil) {
+    val visited = ListBuffer.empty[String]
+
+    override def execute(db: IDBDatabaseService, node: ISPNode, principals: util.Set[Principal]): Unit = {
+      visited += node.asInstanceOf[ISPProgram].getProgramID.stringValue
+      super.execute(db, node, principals)
+    }
+  }
+
+  def withOdb[A](f: IDBDatabaseService => A): A = {
+    val odb = DBLocalDatabase.createTransient()
+    try {
+      def add(id: String, active: Boolean, completed: Boolean): Unit = {
+        val p   = odb.getFactory.createProgram(null, SPProgramID.toProgramID(id))
+        val dob = p.getDataObject.asInstanceOf[SPProgram]
+        dob.setActive(if (active) SPProgram.Active.YES else SPProgram.Active.NO)
+        dob.setCompleted(completed)
+        p.setDataObject(dob)
+        odb.put(p)
+      }
+      add("GS-2015A-Q-1", active = true,  completed = false)
+      add("GS-2015A-Q-2", active = false, completed = false)
+      add("GS-2015B-Q-3", active = true,  completed = true)
+      add("GS-2016A-Q-4", active = true,  completed = false)
+      f(odb)
+    } finally {
+      odb.getDBAdmin.shutdown()
+    }
+  }
+
+  def run(odb: IDBDatabaseService, params: (LchQueryParam[ISPProgram], String)*): (List[String], List[String]) = {
+    val f = odb.getQueryRunner(Set.empty[Principal].asJava).queryPrograms(LchQueryFunctor.programFilter(params.toList), new RecordingFunctor(params.toList))
+    f.getException must beNull
+    val found = f.queryResult.getProgramsNode.getPrograms.asScala.map(_.getReference).toList
+    (f.visited.toList.sorted, found.sorted)
+  }
+
+  "programFilter" should {
+    "restrict literal semesters" in {
+      val f = LchQueryFunctor.programFilter(List((ProgramSemesterParam, "2015a|2016A")))
+      f.getSemesters.asScala must_== Set(new Semester(2015, Semester.Half.A), new Semester(2016, Semester.Half.A))
+    }
+
+    "ignore semester wildcards" in {
+      LchQueryFunctor.programFilter(List((ProgramSemesterParam, "2015*"))).getSemesters must beNull
+    }
+
+    "restrict the active and completed flags" in {
+      val f = LchQueryFunctor.programFilter(List((ProgramActiveParam, "true"), (ProgramCompletedParam, "No")))
+      (f.getActive must_== java.lang.Boolean.TRUE) and (f.getCompleted must_== java.lang.Boolean.FALSE)
+    }
+
+    "not restrict flags that match either state" in {
+      LchQueryFunctor.programFilter(List((ProgramActiveParam, "*"))).getActive must beNull
+    }
+  }
+
+  "A filtered LCH query" should {
+    "visit only the programs in the requested semester" in withOdb { odb =>
+      val (visited, found) = run(odb, (ProgramSemesterParam, "2015A"))
+      (visited must_== List("GS-2015A-Q-1", "GS-2015A-Q-2")) and (found must_== visited)
+    }
+
+    "visit only active, incomplete programs" in withOdb { odb =>
+      val (visited, found) = run(odb, (ProgramActiveParam, "Yes"), (ProgramCompletedParam, "false"))
+      (visited must_== List("GS-2015A-Q-1", "GS-2016A-Q-4")) and (found must_== visited)
+    }
+
+    "still check the parameters the index cannot answer" in withOdb { odb =>
+      val (visited, found) = run(odb, (ProgramSemesterParam, "2015A"), (ProgramReferenceParam, "*-2"))
+      (visited must_== List("GS-2015A-Q-1", "GS-2015A-Q-2")) and (found must_== List("GS-2015A-Q-2"))
+    }
+  }
+}
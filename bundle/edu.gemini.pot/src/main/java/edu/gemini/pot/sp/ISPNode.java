@@ -181,6 +181,25 @@ public interface ISPNode {
      */
     ISPDataObject getDataObject();
 
+    /**
+     * Returns the data object for this node itself rather than a copy.  Data
+     * objects are copied when stored, so the instance held by the node is
+     * never modified; a later update replaces it with a new copy.  The
+     * returned object is therefore a consistent snapshot that may be read
+     * without cloning, which is much cheaper for functors that examine many
+     * nodes.
+     *
+     * <p><b>The returned object is shared and must not be modified.</b>  Use
+     * {@link #getDataObject()} to obtain a copy that may be edited and
+     * passed to {@link #setDataObject}.  Implementations that cannot share
+     * their data object return a copy.
+     *
+     * @return the node's data object, which must be treated as read-only
+     */
+    default ISPDataObject getReadOnlyDataObject() {
+        return getDataObject();
+    }
+
     /**
      * Replaces the data object for this node.  This is a convenience method
      * that allows direct access to the "DataObject" client data.  It is
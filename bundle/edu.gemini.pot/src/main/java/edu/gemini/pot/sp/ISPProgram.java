@@ -8,6 +8,7 @@
 package edu.gemini.pot.sp;
 
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionDigest;
 import edu.gemini.shared.util.VersionVector;
 
 
@@ -48,5 +49,11 @@ public interface ISPProgram extends ISPGroupContainer, ISPObservationContainer,
 
     VersionVector<LifespanId, Integer> getVersions(SPNodeKey key);
     void setVersions(SPNodeKey key, VersionVector<LifespanId, Integer> vv);
+
+    /**
+     * Gets a digest of the version map, maintained incrementally as nodes are
+     * modified, which allows a cheap check for whether anything changed.
+     */
+    VersionDigest getVersionDigest();
 }
 
@@ -1,42 +1,145 @@
 package edu.gemini.pot.sp;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Provides a low-level API for getting read/write locks associated with
- * SPNodeKeys.  Locks are created on demand but never removed.
+ * SPNodeKeys.  Locks are created on demand and idle locks are periodically
+ * evicted, so the table does not grow with every program that has ever been
+ * locked.
+ *
+ * <p>Entries are kept in a concurrent map, so threads locking distinct keys
+ * do not contend with one another.  Each entry counts the threads holding or
+ * waiting for its lock.  When the table has grown to twice its size after
+ * the previous sweep, entries with a zero count are marked dead and removed.
+ * A thread that finds a dead entry simply retries with a fresh one, so a
+ * lock is never evicted while in use.
  */
 public enum SPNodeKeyLocks {
     instance;
 
-    private Map<SPNodeKey, ReentrantReadWriteLock> locks = new HashMap<SPNodeKey, ReentrantReadWriteLock>();
+    // Don't bother sweeping tables smaller than this.
+    private static final int MIN_SWEEP_SIZE = 1024;
 
-    private synchronized ReentrantReadWriteLock getLock(SPNodeKey key) {
-        ReentrantReadWriteLock l = locks.get(key);
-        if (l == null) {
-            l = new ReentrantReadWriteLock();
-            locks.put(key, l);
+    private static final int DEAD = -1;
+
+    /** A lock plus the count of its outstanding acquisitions. */
+    private static final class Entry extends AtomicInteger {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Entry() { super(1); }
+
+        boolean retain() {
+            while (true) {
+                final int n = get();
+                if (n == DEAD) return false;
+                if (compareAndSet(n, n + 1)) return true;
+            }
+        }
+    }
+
+    private final ConcurrentMap<SPNodeKey, Entry> locks = new ConcurrentHashMap<SPNodeKey, Entry>();
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+
+    private Entry acquire(SPNodeKey key) {
+        while (true) {
+            final Entry e = locks.get(key);
+            if (e == null) {
+                final Entry n = new Entry();
+                if (locks.putIfAbsent(key, n) == null) return n;
+            } else if (e.retain()) {
+                return e;
+            } else {
+                // Evicted concurrently, help remove it and try again.
+                locks.remove(key, e);
+            }
         }
-        return l;
     }
 
-    private Lock getReadLock(SPNodeKey key)  { return getLock(key).readLock();  }
-    private Lock getWriteLock(SPNodeKey key) { return getLock(key).writeLock(); }
+    private void release(Entry e) {
+        e.decrementAndGet();
+        if (locks.size() >= sweepSize) sweep(false);
+    }
+
+    private Entry held(SPNodeKey key) {
+        final Entry e = locks.get(key);
+        if (e == null) throw new IllegalMonitorStateException("Lock not held: " + key);
+        return e;
+    }
+
+    public void readLock(SPNodeKey key) {
+        final Entry e = acquire(key);
+        try {
+            e.lock.readLock().lock();
+        } catch (RuntimeException | Error ex) {
+            release(e);
+            throw ex;
+        }
+    }
+
+    public void readUnlock(SPNodeKey key) {
+        final Entry e = held(key);
+        e.lock.readLock().unlock();
+        release(e);
+    }
 
-    public void readLock(SPNodeKey key)     { getReadLock(key).lock();   }
-    public void readUnlock(SPNodeKey key)   { getReadLock(key).unlock(); }
+    public void writeLock(SPNodeKey key) {
+        final Entry e = acquire(key);
+        try {
+            e.lock.writeLock().lock();
+        } catch (RuntimeException | Error ex) {
+            release(e);
+            throw ex;
+        }
+    }
 
-    public void writeLock(SPNodeKey key)    { getWriteLock(key).lock();   }
-    public void writeUnlock(SPNodeKey key)  { getWriteLock(key).unlock(); }
+    public void writeUnlock(SPNodeKey key) {
+        final Entry e = held(key);
+        e.lock.writeLock().unlock();
+        release(e);
+    }
 
     /**
      * Returns <code>true</code> if the current thread has a write lock for the
      * indicated program key.
      */
     public boolean isWriteLockHeld(SPNodeKey key) {
-        return getLock(key).isWriteLockedByCurrentThread();
+        final Entry e = locks.get(key);
+        return (e != null) && e.lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Removes the locks that are neither held nor awaited.  This happens
+     * automatically as the table grows, but may be called explicitly.
+     *
+     * @return number of locks removed
+     */
+    public int evictIdle() {
+        return sweep(true);
+    }
+
+    private synchronized int sweep(boolean force) {
+        // Another thread may have just swept.
+        if (!force && (locks.size() < sweepSize)) return 0;
+
+        int count = 0;
+        for (Map.Entry<SPNodeKey, Entry> me : locks.entrySet()) {
+            final Entry e = me.getValue();
+            if (e.compareAndSet(0, DEAD) && locks.remove(me.getKey(), e)) ++count;
+        }
+        sweepSize = Math.max(MIN_SWEEP_SIZE, locks.size() * 2);
+        return count;
+    }
+
+    /**
+     * Gets the number of locks currently in the table, including idle locks
+     * not yet evicted.
+     */
+    public int size() {
+        return locks.size();
     }
 }
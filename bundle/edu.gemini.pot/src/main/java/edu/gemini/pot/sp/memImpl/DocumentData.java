@@ -3,6 +3,7 @@ package edu.gemini.pot.sp.memImpl;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.version.JavaVersionMapOps;
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionDigest;
 import edu.gemini.pot.spdb.Locking;
 import edu.gemini.pot.sp.SPNodeKeyLocks;
 import edu.gemini.pot.sp.SPNodeKey;
@@ -33,6 +34,10 @@ public class DocumentData implements Serializable {
     private final Map<Object, Object> _programClientData;
     private scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = JavaVersionMapOps.emptyVersionMap();
 
+    // Digest of versions, computed on demand and then kept up-to-date as
+    // individual version vectors change.  Null until first requested.
+    private transient volatile VersionDigest digest;
+
     // The last modification timestamp.
     private long _lastModified;
 
@@ -71,6 +76,19 @@ public class DocumentData implements Serializable {
         }
     }
 
+    /**
+     * Restores the last modification timestamp of a document read from
+     * storage.
+     */
+    void setLastModified(long time) {
+        getProgramWriteLock();
+        try {
+            _lastModified = time;
+        } finally {
+            returnProgramWriteLock();
+        }
+    }
+
     void markModified(MemAbstractBase node) {
         getProgramWriteLock();
         try {
@@ -105,7 +123,7 @@ public class DocumentData implements Serializable {
             getProgramWriteLock();
             try {
                 _lastModified = System.currentTimeMillis();
-                versions = versions.updated(node.getNodeKey(), newVersion);
+                _updateVersion(node.getNodeKey(), newVersion);
             } finally {
                 returnProgramWriteLock();
             }
@@ -125,6 +143,7 @@ public class DocumentData implements Serializable {
         getProgramWriteLock();
         try {
             this.versions = versions;
+            this.digest   = null;
         } finally {
             returnProgramWriteLock();
         }
@@ -151,12 +170,33 @@ public class DocumentData implements Serializable {
     void setVersionVector(SPNodeKey key, VersionVector<LifespanId, Integer> vv) {
         getProgramWriteLock();
         try {
-            versions = versions.updated(key, vv);
+            _updateVersion(key, vv);
         } finally {
             returnProgramWriteLock();
         }
     }
 
+    // Called with the write lock held.
+    private void _updateVersion(SPNodeKey key, VersionVector<LifespanId, Integer> vv) {
+        final VersionDigest d = digest;
+        if (d != null) digest = d.updated(key, JavaVersionMapOps.getOrEmpty(versions, key), vv);
+        versions = versions.updated(key, vv);
+    }
+
+    VersionDigest getVersionDigest() {
+        getProgramReadLock();
+        try {
+            VersionDigest d = digest;
+            if (d == null) {
+                d      = VersionDigest.of(versions);
+                digest = d;
+            }
+            return d;
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     Integer version(SPNodeKey key, LifespanId lifespanId) {
         return versionVector(key).apply(lifespanId);
     }
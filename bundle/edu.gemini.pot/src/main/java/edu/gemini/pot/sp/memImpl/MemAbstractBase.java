@@ -365,6 +365,18 @@ public abstract class MemAbstractBase implements ISPNode, Serializable {
         return (ISPDataObject) getClientData(DATA_OBJECT_KEY);
     }
 
+    @Override
+    public ISPDataObject getReadOnlyDataObject() {
+        getProgramReadLock();
+        try {
+            // Safe to share since putClientDataAndVersion always stores a
+            // private copy that is replaced, never modified, on update.
+            return (ISPDataObject) _clientData.get(DATA_OBJECT_KEY);
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     public PropagationId setDataObject(ISPDataObject newValue) {
         return setDataObject(newValue, false);
     }
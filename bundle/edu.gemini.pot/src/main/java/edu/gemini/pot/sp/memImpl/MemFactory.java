@@ -171,15 +171,20 @@ public final class MemFactory extends SPAbstractFactory {
                                                 preserveKeys);
 
         // Find the node initializer to use.
-        final Option<Instrument> inst = ImOption.fromOptional(
+        NodeInitializers.instance.obs(instrumentOf(observation)).updateNode(obs);
+        return obs;
+    }
+
+    /**
+     * Gets the instrument in the given observation, if any.
+     */
+    static Option<Instrument> instrumentOf(ISPObservation observation) {
+        return ImOption.fromOptional(
             observation.getObsComponents().stream()
                     .filter(c -> c.getType().broadType == SPComponentBroadType.INSTRUMENT)
                     .flatMap(c -> Instrument.fromComponentType(c.getType()).toStream())
                     .findFirst()
         );
-
-        NodeInitializers.instance.obs(inst).updateNode(obs);
-        return obs;
     }
 
     /**
@@ -0,0 +1,527 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.version.JavaVersionMapOps;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.shared.util.immutable.DefaultImList;
+import edu.gemini.shared.util.immutable.ImOption;
+import edu.gemini.shared.util.immutable.None;
+import edu.gemini.shared.util.immutable.Option;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.gemini.init.NodeInitializers;
+import edu.gemini.spModel.pio.ParamSet;
+import edu.gemini.spModel.pio.PioNode;
+import edu.gemini.spModel.pio.xml.PioXmlException;
+import edu.gemini.spModel.pio.xml.PioXmlFactory;
+import edu.gemini.spModel.pio.xml.PioXmlUtil;
+import scala.collection.JavaConversions;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Writes and reads a program or nightly record field by field rather than as
+ * a Java serialized object graph.  The document fields and version map are
+ * written explicitly, followed by the node tree in which each node is a kind
+ * tag, its key, its data object as a PIO XML parameter set, its conflicts and
+ * its children.  Since the format depends neither on the layout of the
+ * implementation classes nor on the data object classes (beyond their ability
+ * to read their own parameter sets, which XML import already requires) it
+ * survives changes to either.
+ *
+ * <p>Client data other than the data object and conflicts (configuration
+ * builders, sequence synchronization) is not written but re-created by the
+ * node initializers as the tree is read, just as when copying a program.
+ */
+public final class MemFieldSerializer {
+
+    private static final byte PROGRAM             = 0;
+    private static final byte NIGHTLY_RECORD      = 1;
+    private static final byte OBSERVATION         = 2;
+    private static final byte OBS_COMPONENT       = 3;
+    private static final byte SEQ_COMPONENT       = 4;
+    private static final byte GROUP               = 5;
+    private static final byte OBS_QA_LOG          = 6;
+    private static final byte OBS_EXEC_LOG        = 7;
+    private static final byte CONFLICT_FOLDER     = 8;
+    private static final byte TEMPLATE_FOLDER     = 9;
+    private static final byte TEMPLATE_GROUP      = 10;
+    private static final byte TEMPLATE_PARAMETERS = 11;
+
+    private static final byte NOTE_MOVED                    = 0;
+    private static final byte NOTE_RESURRECTED_LOCAL_DELETE = 1;
+    private static final byte NOTE_REPLACED_REMOTE_DELETE   = 2;
+    private static final byte NOTE_CREATE_PERMISSION_FAIL   = 3;
+    private static final byte NOTE_UPDATE_PERMISSION_FAIL   = 4;
+    private static final byte NOTE_DELETE_PERMISSION_FAIL   = 5;
+    private static final byte NOTE_CONSTRAINT_VIOLATION     = 6;
+    private static final byte NOTE_CONFLICT_FOLDER          = 7;
+
+    /**
+     * Writes the given root node, holding the program read lock while doing
+     * so.
+     */
+    public void write(ISPRootNode root, DataOutputStream out) throws IOException {
+        root.getProgramReadLock();
+        try {
+            final MemAbstractBase node = (MemAbstractBase) root;
+            final DocumentData dd      = node.getDocumentData();
+
+            if (node instanceof MemProgram) {
+                out.writeByte(PROGRAM);
+            } else if (node instanceof MemNightlyRecord) {
+                out.writeByte(NIGHTLY_RECORD);
+            } else {
+                throw new IOException("Unsupported root node: " + node.getClass().getName());
+            }
+
+            final SPProgramID id = dd.getDocumentID();
+            writeKey(out, dd.getDocumentKey());
+            out.writeUTF((id == null) ? "" : id.stringValue());
+            writeUuid(out, dd.getDatabaseUuid());
+            writeUuid(out, dd.getLifespanId().uuid());
+            out.writeLong(dd.lastModified());
+            out.writeInt((dd instanceof ProgramData) ? ((ProgramData) dd).getMaxObsNumber() : 0);
+            writeVersions(out, dd.getVersions());
+            writeBody(out, node);
+        } finally {
+            root.returnProgramReadLock();
+        }
+    }
+
+    /**
+     * Reads a root node written by {@link #write}.
+     */
+    public ISPRootNode read(DataInputStream in) throws IOException {
+        final byte kind           = in.readByte();
+        final SPNodeKey key       = readKey(in);
+        final String id           = in.readUTF();
+        final UUID databaseId     = readUuid(in);
+        final LifespanId lifespan = new LifespanId(readUuid(in));
+        final long lastModified   = in.readLong();
+        final int maxObsNumber    = in.readInt();
+        final scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = readVersions(in);
+
+        final SPProgramID progId;
+        try {
+            progId = id.isEmpty() ? null : SPProgramID.toProgramID(id);
+        } catch (Exception ex) {
+            throw new IOException("Invalid program id: " + id, ex);
+        }
+
+        final MemAbstractBase root;
+        switch (kind) {
+            case PROGRAM: {
+                final MemProgram prog = MemProgram.restore(key, progId, databaseId, lifespan);
+                readBody(in, prog, prog, NodeInitializers.instance.program::createDataObject);
+                NodeInitializers.instance.program.updateNode(prog);
+                ((ProgramData) prog.getDocumentData()).ensureMaxEqualToOrGreaterThan(maxObsNumber);
+                root = prog;
+                break;
+            }
+            case NIGHTLY_RECORD: {
+                final MemNightlyRecord rec = MemNightlyRecord.restore(key, progId, databaseId, lifespan);
+                readBody(in, null, rec, NodeInitializers.instance.record::createDataObject);
+                NodeInitializers.instance.record.updateNode(rec);
+                root = rec;
+                break;
+            }
+            default:
+                throw new IOException("Unsupported root node kind: " + kind);
+        }
+
+        // Building the tree bumped versions and timestamps, put back the
+        // stored ones.
+        final DocumentData dd = root.getDocumentData();
+        dd.setVersions(versions);
+        dd.setLastModified(lastModified);
+        return (ISPRootNode) root;
+    }
+
+    // ------------------------------------------------------------------
+    // Nodes
+    // ------------------------------------------------------------------
+
+    private static void writeBody(DataOutputStream out, MemAbstractBase node) throws IOException {
+        final ISPDataObject dobj = node.getReadOnlyDataObject();
+        out.writeBoolean(dobj != null);
+        if (dobj != null) writeDataObject(out, dobj);
+
+        final Conflicts c = node.getConflicts();
+        out.writeBoolean(!c.dataObjectConflict.isEmpty());
+        if (!c.dataObjectConflict.isEmpty()) {
+            final DataObjectConflict doc = c.dataObjectConflict.getValue();
+            out.writeUTF(doc.perspective.name());
+            writeDataObject(out, doc.dataObject);
+        }
+        out.writeInt(c.notes.size());
+        for (Conflict.Note n : c.notes) writeNote(out, n);
+
+        final List<ISPNode> children = (node instanceof ISPContainerNode) ?
+                ((ISPContainerNode) node).getChildren() : new ArrayList<>();
+        out.writeInt(children.size());
+        for (ISPNode child : children) writeChild(out, (MemAbstractBase) child);
+    }
+
+    private static void writeChild(DataOutputStream out, MemAbstractBase node) throws IOException {
+        if (node instanceof MemObservation) {
+            out.writeByte(OBSERVATION);
+            writeKey(out, node.getNodeKey());
+            out.writeInt(((MemObservation) node).getObservationNumber());
+        } else if (node instanceof MemObsComponent) {
+            out.writeByte(OBS_COMPONENT);
+            writeKey(out, node.getNodeKey());
+            out.writeUTF(((MemObsComponent) node).getType().name());
+        } else if (node instanceof MemSeqComponent) {
+            out.writeByte(SEQ_COMPONENT);
+            writeKey(out, node.getNodeKey());
+            out.writeUTF(((MemSeqComponent) node).getType().name());
+        } else {
+            out.writeByte(kindOf(node));
+            writeKey(out, node.getNodeKey());
+        }
+        writeBody(out, node);
+    }
+
+    private static byte kindOf(MemAbstractBase node) throws IOException {
+        if (node instanceof MemGroup)              return GROUP;
+        if (node instanceof MemObsQaLog)           return OBS_QA_LOG;
+        if (node instanceof MemObsExecLog)         return OBS_EXEC_LOG;
+        if (node instanceof MemConflictFolder)     return CONFLICT_FOLDER;
+        if (node instanceof MemTemplateFolder)     return TEMPLATE_FOLDER;
+        if (node instanceof MemTemplateGroup)      return TEMPLATE_GROUP;
+        if (node instanceof MemTemplateParameters) return TEMPLATE_PARAMETERS;
+        throw new IOException("Unsupported node: " + node.getClass().getName());
+    }
+
+    private static void readBody(DataInputStream in, MemProgram prog, MemAbstractBase node, Supplier<? extends ISPDataObject> fresh) throws IOException {
+        if (in.readBoolean()) {
+            // An empty version leaves the version map alone.
+            node.setDataObjectAndVersion(readDataObject(in, fresh.get()), JavaVersionMapOps.emptyNodeVersions());
+        }
+
+        final Option<DataObjectConflict> doc;
+        if (in.readBoolean()) {
+            final DataObjectConflict.Perspective p = readEnum(DataObjectConflict.Perspective.class, in.readUTF());
+            doc = ImOption.apply(new DataObjectConflict(p, readDataObject(in, fresh.get())));
+        } else {
+            doc = None.instance();
+        }
+        final List<Conflict.Note> notes = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; --i) notes.add(readNote(in));
+        node.setConflicts(Conflicts.apply(doc, DefaultImList.create(notes)));
+
+        final int count = in.readInt();
+        if (count == 0) return;
+        if (!(node instanceof MemAbstractContainer) || (prog == null)) {
+            throw new IOException("Unexpected children of " + node.getClass().getName());
+        }
+        final List<ISPNode> children = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) children.add(readChild(in, prog));
+        try {
+            ((MemAbstractContainer) node).setChildren(children);
+        } catch (SPException ex) {
+            throw new IOException("Couldn't rebuild " + node.getNodeKey(), ex);
+        }
+    }
+
+    private static ISPNode readChild(DataInputStream in, MemProgram prog) throws IOException {
+        final byte kind     = in.readByte();
+        final SPNodeKey key = readKey(in);
+        final NodeInitializers ni = NodeInitializers.instance;
+        switch (kind) {
+            case OBSERVATION: {
+                final MemObservation obs;
+                try {
+                    obs = new MemObservation(prog, in.readInt(), key);
+                } catch (SPException ex) {
+                    throw new IOException("Couldn't create observation " + key, ex);
+                }
+                readBody(in, prog, obs, ni.obsNoInstrument::createDataObject);
+                // The initializer depends upon the instrument, so wait until
+                // the children are in place.
+                ni.obs(MemFactory.instrumentOf(obs)).updateNode(obs);
+                return obs;
+            }
+            case OBS_COMPONENT: {
+                final SPComponentType type = readEnum(SPComponentType.class, in.readUTF());
+                final ISPNodeInitializer<ISPObsComponent, ? extends ISPDataObject> init = ni.obsComp.get(type);
+                if (init == null) throw new IOException("Missing initializer for " + type);
+                final MemObsComponent n = new MemObsComponent(prog, type, key);
+                readBody(in, prog, n, init::createDataObject);
+                init.updateNode(n);
+                return n;
+            }
+            case SEQ_COMPONENT: {
+                final SPComponentType type = readEnum(SPComponentType.class, in.readUTF());
+                final ISPNodeInitializer<ISPSeqComponent, ? extends ISPSeqObject> init = ni.seqComp.get(type);
+                if (init == null) throw new IOException("Missing initializer for " + type);
+                final MemSeqComponent n = new MemSeqComponent(prog, type, key);
+                readBody(in, prog, n, init::createDataObject);
+                init.updateNode(n);
+                return n;
+            }
+            case GROUP: {
+                final MemGroup n = new MemGroup(prog, key);
+                readBody(in, prog, n, ni.group::createDataObject);
+                ni.group.updateNode(n);
+                return n;
+            }
+            case OBS_QA_LOG: {
+                final MemObsQaLog n = new MemObsQaLog(prog, key);
+                readBody(in, prog, n, ni.obsQaLog::createDataObject);
+                ni.obsQaLog.updateNode(n);
+                return n;
+            }
+            case OBS_EXEC_LOG: {
+                final MemObsExecLog n = new MemObsExecLog(prog, key);
+                readBody(in, prog, n, ni.obsExecLog::createDataObject);
+                ni.obsExecLog.updateNode(n);
+                return n;
+            }
+            case CONFLICT_FOLDER: {
+                final MemConflictFolder n = new MemConflictFolder(prog, key);
+                readBody(in, prog, n, ni.conflict::createDataObject);
+                ni.conflict.updateNode(n);
+                return n;
+            }
+            case TEMPLATE_FOLDER: {
+                final MemTemplateFolder n = new MemTemplateFolder(prog, key);
+                readBody(in, prog, n, ni.templateFolder::createDataObject);
+                ni.templateFolder.updateNode(n);
+                return n;
+            }
+            case TEMPLATE_GROUP: {
+                final MemTemplateGroup n = new MemTemplateGroup(prog, key);
+                readBody(in, prog, n, ni.templateGroup::createDataObject);
+                ni.templateGroup.updateNode(n);
+                return n;
+            }
+            case TEMPLATE_PARAMETERS: {
+                final MemTemplateParameters n = new MemTemplateParameters(prog, key);
+                readBody(in, prog, n, ni.templateParameters::createDataObject);
+                ni.templateParameters.updateNode(n);
+                return n;
+            }
+            default:
+                throw new IOException("Unsupported node kind: " + kind);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Data objects and conflicts
+    // ------------------------------------------------------------------
+
+    /**
+     * Writes a single data object as its class name and PIO XML parameter
+     * set, for use outside of a program file (see {@link #readDataObject(DataInputStream, ISPNode)}).
+     */
+    public static void writeDataObject(DataOutputStream out, ISPDataObject dobj) throws IOException {
+        out.writeUTF(dobj.getClass().getName());
+        try {
+            writeLongString(out, PioXmlUtil.toXmlString(dobj.getParamSet(new PioXmlFactory())));
+        } catch (PioXmlException ex) {
+            throw new IOException("Couldn't write " + dobj.getClass().getName(), ex);
+        }
+    }
+
+    // Reads the parameter set into the given empty data object, which must be
+    // of the same class that was written.
+    private static ISPDataObject readDataObject(DataInputStream in, ISPDataObject dobj) throws IOException {
+        final String className = in.readUTF();
+        final String xml       = readLongString(in);
+        if (!className.equals(dobj.getClass().getName())) {
+            throw new IOException("Expected a " + dobj.getClass().getName() + " data object, not " + className);
+        }
+        final PioNode pn;
+        try {
+            pn = PioXmlUtil.read(xml);
+        } catch (PioXmlException ex) {
+            throw new IOException("Couldn't read " + className, ex);
+        }
+        if (!(pn instanceof ParamSet)) throw new IOException("Expected a param set for " + className);
+        dobj.setParamSet((ParamSet) pn);
+        return dobj;
+    }
+
+    /**
+     * Reads a data object written by {@link #writeDataObject} for the given
+     * node.  The parameter set is read into an empty data object created by
+     * the node's initializer, as when reading a program file.
+     */
+    public static ISPDataObject readDataObject(DataInputStream in, ISPNode node) throws IOException {
+        return readDataObject(in, emptyDataObject(node));
+    }
+
+    /**
+     * Skips over a data object written by {@link #writeDataObject}.
+     */
+    public static void skipDataObject(DataInputStream in) throws IOException {
+        in.readUTF();
+        in.skipBytes(in.readInt());
+    }
+
+    private static ISPDataObject emptyDataObject(ISPNode node) throws IOException {
+        final NodeInitializers ni = NodeInitializers.instance;
+        if (node instanceof ISPProgram)            return ni.program.createDataObject();
+        if (node instanceof ISPNightlyRecord)      return ni.record.createDataObject();
+        if (node instanceof ISPObservation)        return ni.obsNoInstrument.createDataObject();
+        if (node instanceof ISPGroup)              return ni.group.createDataObject();
+        if (node instanceof ISPObsQaLog)           return ni.obsQaLog.createDataObject();
+        if (node instanceof ISPObsExecLog)         return ni.obsExecLog.createDataObject();
+        if (node instanceof ISPConflictFolder)     return ni.conflict.createDataObject();
+        if (node instanceof ISPTemplateFolder)     return ni.templateFolder.createDataObject();
+        if (node instanceof ISPTemplateGroup)      return ni.templateGroup.createDataObject();
+        if (node instanceof ISPTemplateParameters) return ni.templateParameters.createDataObject();
+
+        final ISPNodeInitializer<?, ? extends ISPDataObject> init;
+        if (node instanceof ISPObsComponent) {
+            init = ni.obsComp.get(((ISPObsComponent) node).getType());
+        } else if (node instanceof ISPSeqComponent) {
+            init = ni.seqComp.get(((ISPSeqComponent) node).getType());
+        } else {
+            init = null;
+        }
+        if (init == null) throw new IOException("Missing initializer for " + node.getClass().getName());
+        return init.createDataObject();
+    }
+
+    private static void writeNote(final DataOutputStream out, Conflict.Note note) throws IOException {
+        final byte[] tag = new byte[1];
+        note.accept(new Conflict.NoteVisitor() {
+            @Override public void visitMoved(Conflict.Moved n)                                   { tag[0] = NOTE_MOVED; }
+            @Override public void visitResurrectedLocalDelete(Conflict.ResurrectedLocalDelete n) { tag[0] = NOTE_RESURRECTED_LOCAL_DELETE; }
+            @Override public void visitReplacedRemoteDelete(Conflict.ReplacedRemoteDelete n)     { tag[0] = NOTE_REPLACED_REMOTE_DELETE; }
+            @Override public void visitCreatePermissionFail(Conflict.CreatePermissionFail n)     { tag[0] = NOTE_CREATE_PERMISSION_FAIL; }
+            @Override public void visitUpdatePermissionFail(Conflict.UpdatePermissionFail n)     { tag[0] = NOTE_UPDATE_PERMISSION_FAIL; }
+            @Override public void visitDeletePermissionFail(Conflict.DeletePermissionFail n)     { tag[0] = NOTE_DELETE_PERMISSION_FAIL; }
+            @Override public void visitConstraintViolation(Conflict.ConstraintViolation n)       { tag[0] = NOTE_CONSTRAINT_VIOLATION; }
+            @Override public void visitConflictFolder(Conflict.ConflictFolder n)                 { tag[0] = NOTE_CONFLICT_FOLDER; }
+        });
+        out.writeByte(tag[0]);
+        writeKey(out, note.getNodeKey());
+        if (note instanceof Conflict.Moved) writeKey(out, ((Conflict.Moved) note).getDestinationKey());
+    }
+
+    private static Conflict.Note readNote(DataInputStream in) throws IOException {
+        final byte tag      = in.readByte();
+        final SPNodeKey key = readKey(in);
+        switch (tag) {
+            case NOTE_MOVED:                    return new Conflict.Moved(key, readKey(in));
+            case NOTE_RESURRECTED_LOCAL_DELETE: return new Conflict.ResurrectedLocalDelete(key);
+            case NOTE_REPLACED_REMOTE_DELETE:   return new Conflict.ReplacedRemoteDelete(key);
+            case NOTE_CREATE_PERMISSION_FAIL:   return new Conflict.CreatePermissionFail(key);
+            case NOTE_UPDATE_PERMISSION_FAIL:   return new Conflict.UpdatePermissionFail(key);
+            case NOTE_DELETE_PERMISSION_FAIL:   return new Conflict.DeletePermissionFail(key);
+            case NOTE_CONSTRAINT_VIOLATION:     return new Conflict.ConstraintViolation(key);
+            case NOTE_CONFLICT_FOLDER:          return new Conflict.ConflictFolder(key);
+            default: throw new IOException("Unsupported conflict note: " + tag);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Version map
+    // ------------------------------------------------------------------
+
+    /**
+     * Writes a program's version map.
+     */
+    public static void writeVersions(DataOutputStream out, scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions) throws IOException {
+        final Map<SPNodeKey, VersionVector<LifespanId, Integer>> vm = JavaConversions.mapAsJavaMap(versions);
+        out.writeInt(vm.size());
+        for (Map.Entry<SPNodeKey, VersionVector<LifespanId, Integer>> e : vm.entrySet()) {
+            writeKey(out, e.getKey());
+            writeNodeVersion(out, e.getValue());
+        }
+    }
+
+    /**
+     * Writes the version of a single node.
+     */
+    public static void writeNodeVersion(DataOutputStream out, VersionVector<LifespanId, Integer> version) throws IOException {
+        final Map<LifespanId, Integer> clocks = JavaConversions.mapAsJavaMap(version.clocks());
+        out.writeInt(clocks.size());
+        for (Map.Entry<LifespanId, Integer> c : clocks.entrySet()) {
+            writeUuid(out, c.getKey().uuid());
+            out.writeInt(c.getValue());
+        }
+    }
+
+    /**
+     * Reads a node version written by {@link #writeNodeVersion}.
+     */
+    public static VersionVector<LifespanId, Integer> readNodeVersion(DataInputStream in) throws IOException {
+        final Map<LifespanId, Integer> clocks = new LinkedHashMap<>();
+        for (int j = in.readInt(); j > 0; --j) {
+            final LifespanId lid = new LifespanId(readUuid(in));
+            clocks.put(lid, in.readInt());
+        }
+        return VersionVector.javaInt(clocks);
+    }
+
+    /**
+     * Reads a version map written by {@link #writeVersions}.
+     */
+    public static scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> readVersions(DataInputStream in) throws IOException {
+        scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> vm = JavaVersionMapOps.emptyVersionMap();
+        for (int i = in.readInt(); i > 0; --i) {
+            final SPNodeKey key = readKey(in);
+            vm = vm.updated(key, readNodeVersion(in));
+        }
+        return vm;
+    }
+
+    // ------------------------------------------------------------------
+    // Primitives
+    // ------------------------------------------------------------------
+
+    public static void writeKey(DataOutputStream out, SPNodeKey key) throws IOException {
+        writeUuid(out, key.uuid);
+    }
+
+    public static SPNodeKey readKey(DataInputStream in) throws IOException {
+        return new SPNodeKey(readUuid(in));
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        final long msb = in.readLong();
+        final long lsb = in.readLong();
+        return new UUID(msb, lsb);
+    }
+
+    // Data object XML may exceed the 64K limit of writeUTF.
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static <E extends Enum<E>> E readEnum(Class<E> c, String name) throws IOException {
+        try {
+            return Enum.valueOf(c, name);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown " + c.getSimpleName() + ": " + name, ex);
+        }
+    }
+}
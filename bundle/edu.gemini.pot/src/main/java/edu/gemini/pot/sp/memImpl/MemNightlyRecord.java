@@ -20,6 +20,10 @@ public final class MemNightlyRecord extends MemAbstractBase implements ISPNightl
         return new MemNightlyRecord(new NightlyRecordData(key, progId, databaseId, LifespanId.random()));
     }
 
+    static MemNightlyRecord restore(SPNodeKey key, SPProgramID progId, UUID databaseId, LifespanId lifespanId) {
+        return new MemNightlyRecord(new NightlyRecordData(key, progId, databaseId, lifespanId));
+    }
+
     public static MemNightlyRecord rename(ISPNightlyRecord that, SPNodeKey key, SPProgramID progId, UUID databaseId) {
         if (key == null) key = new SPNodeKey();
         return new MemNightlyRecord(new NightlyRecordData(key, progId, databaseId, LifespanId.random()), that);
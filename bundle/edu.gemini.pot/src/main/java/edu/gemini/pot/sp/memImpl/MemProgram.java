@@ -2,6 +2,7 @@ package edu.gemini.pot.sp.memImpl;
 
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionDigest;
 import edu.gemini.shared.util.VersionVector;
 import edu.gemini.spModel.core.SPProgramID;
 
@@ -23,6 +24,14 @@ public final class MemProgram extends MemAbstractContainer implements ISPProgram
         return new MemProgram(new ProgramData(key, progId, databaseId, LifespanId.random()));
     }
 
+    /**
+     * Creates an empty program that keeps the given life span id, for use when
+     * reading a program from storage.
+     */
+    static MemProgram restore(SPNodeKey key, SPProgramID progId, UUID databaseId, LifespanId lifespanId) {
+        return new MemProgram(new ProgramData(key, progId, databaseId, lifespanId));
+    }
+
     /**
      * Creates a copy of the given program with new keys and a new program id.
      * The copy is identical in structure but each node has unique keys and the
@@ -138,6 +147,10 @@ public final class MemProgram extends MemAbstractContainer implements ISPProgram
         getDocumentData().setVersionVector(key, vv);
     }
 
+    public VersionDigest getVersionDigest() {
+        return getDocumentData().getVersionDigest();
+    }
+
     public long lastModified() {
         return getDocumentData().lastModified();
     }
@@ -37,6 +37,10 @@ public final class MemSerializer {
         return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new BufferedInputStream(fis)));
     }
 
+    public MemAbstractBase load(InputStream is) throws IOException {
+        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), is));
+    }
+
     public MemAbstractBase load(byte[] blob) throws IOException {
         return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new ByteArrayInputStream(blob)));
     }
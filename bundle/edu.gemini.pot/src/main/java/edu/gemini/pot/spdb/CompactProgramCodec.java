@@ -0,0 +1,217 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.memImpl.MemFieldSerializer;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.io.*;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact, versioned program file format.  Each file is a single record:
+ *
+ * <pre>
+ *   int     magic ("SPDB")
+ *   short   format version
+ *   long[2] root node key
+ *   UTF     program id, or empty if none
+ *   int     payload length
+ *   long    payload CRC32
+ *   byte[]  deflated program fields
+ * </pre>
+ *
+ * The program is written field by field with the
+ * <code>{@link MemFieldSerializer}</code>, each data object as its PIO XML
+ * parameter set, so the format does not depend on the serialized form of any
+ * class.  The header makes it possible to identify the program in a file
+ * without reading it.
+ *
+ * <p>Files that do not start with the magic number are assumed to be in the
+ * original Java serialization format and are read as such.
+ *
+ * <p>This codec is opt-in (see <code>{@link ProgramCodec#CODEC_PROP}</code>).
+ * Since an older ODB can only read the Java serialization format, a database
+ * is converted in either direction with
+ * <code>{@link ProgramFileMigrator}</code>: to this format after opting in, or
+ * back to <code>java</code> before rolling back to a release that predates
+ * it.
+ */
+final class CompactProgramCodec implements ProgramCodec {
+    static final String NAME = "compact";
+
+    static final int MAGIC = 0x53504442; // "SPDB"
+    static final short FORMAT_VERSION = 1;
+
+    private final MemSerializer _legacy = new MemSerializer();
+    private final MemFieldSerializer _fields = new MemFieldSerializer();
+
+    /**
+     * Header information that can be read from a compact program file without
+     * deserializing the program itself.
+     */
+    static final class Header {
+        final short version;
+        final SPNodeKey key;
+        final SPProgramID id;
+
+        Header(short version, SPNodeKey key, SPProgramID id) {
+            this.version = version;
+            this.key     = key;
+            this.id      = id;
+        }
+    }
+
+    @Override public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Returns <code>true</code> if the given file starts with the compact
+     * format magic number.
+     */
+    static boolean isCompact(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads just the header of a compact program file.
+     *
+     * @throws IOException if the file is not in the compact format
+     */
+    static Header readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a compact program file: " + file);
+            return readHeader(in);
+        }
+    }
+
+    private static Header readHeader(DataInputStream in) throws IOException {
+        final short version = in.readShort();
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Unsupported program file format version: " + version);
+        }
+        final SPNodeKey key = readKey(in);
+        final String id     = in.readUTF();
+        try {
+            return new Header(version, key, id.isEmpty() ? null : SPProgramID.toProgramID(id));
+        } catch (Exception ex) {
+            throw new IOException("Invalid program id in header: " + id, ex);
+        }
+    }
+
+    @Override public ISPRootNode load(File file) throws IOException {
+        return load(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @Override public ISPRootNode load(InputStream is) throws IOException {
+        final InputStream in = is.markSupported() ? is : new BufferedInputStream(is);
+
+        // Peek at the magic number to decide which format to read.
+        in.mark(4);
+        final boolean compact;
+        try {
+            compact = new DataInputStream(in).readInt() == MAGIC;
+        } catch (EOFException ex) {
+            in.close();
+            throw ex;
+        }
+        if (!compact) {
+            in.reset();
+            return (ISPRootNode) _legacy.load(in);
+        }
+
+        try (DataInputStream din = new DataInputStream(in)) {
+            return load(din);
+        }
+    }
+
+    /**
+     * Loads a program from a stream positioned just after the magic number.
+     */
+    ISPRootNode load(DataInputStream in) throws IOException {
+        readHeader(in);
+
+        try (DataInputStream din = new DataInputStream(new BufferedInputStream(inflate(readPayload(in))))) {
+            return _fields.read(din);
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream in) throws IOException {
+        final byte[] payload = new byte[in.readInt()];
+        final long crc       = in.readLong();
+        in.readFully(payload);
+
+        final CRC32 check = new CRC32();
+        check.update(payload, 0, payload.length);
+        if (check.getValue() != crc) throw new IOException("Program file checksum mismatch");
+        return payload;
+    }
+
+    private static InputStream inflate(byte[] payload) {
+        return new InflaterInputStream(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Encodes the program, including the magic number.  The program read lock
+     * is held only while the program fields are written into memory;
+     * compression and framing happen afterwards.
+     */
+    @Override public byte[] encode(ISPRootNode node) throws IOException {
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        final SPProgramID id;
+        try (DataOutputStream dos = new DataOutputStream(raw)) {
+            node.getProgramReadLock();
+            try {
+                id = node.getProgramID();
+                _fields.write(node, dos);
+            } finally {
+                node.returnProgramReadLock();
+            }
+        }
+
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.size() / 4 + 64);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream dos = new DeflaterOutputStream(deflated, deflater)) {
+            raw.writeTo(dos);
+        } finally {
+            deflater.end();
+        }
+        final byte[] payload = deflated.toByteArray();
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 1024);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        writeKey(out, node.getProgramKey());
+        out.writeUTF((id == null) ? "" : id.stringValue());
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeKey(DataOutputStream out, SPNodeKey key) throws IOException {
+        out.writeLong(key.uuid.getMostSignificantBits());
+        out.writeLong(key.uuid.getLeastSignificantBits());
+    }
+
+    private static SPNodeKey readKey(DataInputStream in) throws IOException {
+        final long msb = in.readLong();
+        final long lsb = in.readLong();
+        return new SPNodeKey(new UUID(msb, lsb));
+    }
+}
@@ -8,6 +8,8 @@
 package edu.gemini.pot.spdb;
 
 import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
 
 
 
@@ -30,13 +32,16 @@ public class DBAdmin implements IDBAdmin {
     }
 
     private DatabaseManager _dataMan;
+    private TriggerRegistrar _triggers;
     private State _state;
 
     /**
-     * Constructs with the program and storage managers to administer.
+     * Constructs with the database manager and trigger registrar to
+     * administer.
      */
-    DBAdmin(DatabaseManager dm) {
-        _dataMan = dm;
+    DBAdmin(DatabaseManager dm, TriggerRegistrar tr) {
+        _dataMan  = dm;
+        _triggers = tr;
         _state = new State(_dataMan.getProgramStorageManager().getStorageInterval());
         _setStorageInterval(_state.storageInterval);
     }
@@ -85,6 +90,7 @@ public class DBAdmin implements IDBAdmin {
     }
 
     public void stopDb() {
+        _triggers.shutdown();
         _dataMan.shutdown();
     }
 
@@ -104,4 +110,14 @@ public class DBAdmin implements IDBAdmin {
         return _dataMan.getTotalStorage();
     }
 
+    /**
+     * Returns the current values of the database metrics.
+     */
+    public Map<String, Long> getMetrics() {
+        final Map<String, Long> metrics = new TreeMap<>();
+        _dataMan.addMetrics(metrics);
+        _triggers.addMetrics(metrics);
+        return metrics;
+    }
+
 }
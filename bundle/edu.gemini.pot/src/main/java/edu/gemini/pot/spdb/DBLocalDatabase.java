@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Scanner;
 import java.util.Set;
@@ -83,10 +84,10 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         LOG.log(Level.FINE, "Set ODB UUID to " + uuid);
         this.uuid    = uuid;
         _dataMan     = new DatabaseManager(persister, uuid);
-        _admin       = new DBAdmin(_dataMan);
 
         // Handle trigger registrations.
         _triggerRegistrar = new TriggerRegistrar(_dataMan.getProgramManager());
+        _admin       = new DBAdmin(_dataMan, _triggerRegistrar);
     }
 
     private static final class UuidIo {
@@ -142,6 +143,14 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         _dataMan.getProgramStorageManager().checkpoint(prog);
     }
 
+    /**
+     * Persists changes made with the program's events turned off.
+     * See <code>{@link IDBDatabaseService#commit(ISPProgram, Collection)}</code>.
+     */
+    public void commit(ISPProgram prog, Collection<ISPNode> nodes) {
+        _dataMan.getProgramStorageManager().commit(prog, nodes);
+    }
+
     /**
      * Checkpoints all outstanding modifications.
      * See <code>{@link IDBDatabaseService#checkpoint()}</code>.
@@ -204,7 +213,7 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         LOG.fine("DBDatabase.remove(program)");
 
         if (_dataMan.getProgramManager().removeProgram(program.getProgramKey())) {
-            _dataMan.getPersister().remove(program.getProgramKey());
+            _dataMan.getPersister().remove(program);
             return true;
         } else {
             return false;
@@ -215,7 +224,7 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         LOG.fine("DBDatabase.removeNightlyRecord(nightlyRecord)");
 
         if (_dataMan.getNightlyPlanManager().removeProgram(nightlyRecord.getProgramKey())) {
-            _dataMan.getPersister().remove(nightlyRecord.getProgramKey());
+            _dataMan.getPersister().remove(nightlyRecord);
             return true;
         } else {
             return false;
@@ -323,6 +332,10 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         return new QueryRunner(this, _dataMan, principals);
     }
 
+    public ProgramChangeFeed getProgramChangeFeed() {
+        return _dataMan.getProgramChangeFeed();
+    }
+
     public IDBQueryRunner getQueryRunner() {
         return getQueryRunner(Collections.<Principal>emptySet());
     }
@@ -0,0 +1,168 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.spModel.core.ProgramType;
+import edu.gemini.spModel.core.Semester;
+import edu.gemini.spModel.core.Site;
+import edu.gemini.spModel.obs.ObservationStatus;
+import edu.gemini.spModel.obsclass.ObsClass;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable description of the programs or observations that a query
+ * should visit, answered from the database's program index rather than by
+ * examining every program.  Each criterion is optional; an unset criterion
+ * matches everything.  Criteria are combined with "and", the values within
+ * a criterion with "or".
+ *
+ * <pre>
+ *   DBQueryFilter f = DBQueryFilter.ALL
+ *       .withSites(Site.GS)
+ *       .withSemesters(sem)
+ *       .withCompleted(false);
+ *   runner.queryPrograms(f, functor);
+ * </pre>
+ *
+ * Programs whose id cannot be parsed have no semester, type or site and so
+ * never match a filter on those criteria.
+ */
+public final class DBQueryFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** A filter that matches everything. */
+    public static final DBQueryFilter ALL = new DBQueryFilter(null, null, null, null, null, null, null);
+
+    private final Set<Semester> _semesters;
+    private final Set<ProgramType> _types;
+    private final Set<Site> _sites;
+    private final Boolean _active;
+    private final Boolean _completed;
+    private final Set<ObservationStatus> _obsStatuses;
+    private final Set<ObsClass> _obsClasses;
+
+    private DBQueryFilter(Set<Semester> semesters, Set<ProgramType> types, Set<Site> sites,
+                          Boolean active, Boolean completed,
+                          Set<ObservationStatus> obsStatuses, Set<ObsClass> obsClasses) {
+        _semesters   = semesters;
+        _types       = types;
+        _sites       = sites;
+        _active      = active;
+        _completed   = completed;
+        _obsStatuses = obsStatuses;
+        _obsClasses  = obsClasses;
+    }
+
+    private static <T> Set<T> _set(Collection<T> c) {
+        return (c == null) ? null : Collections.unmodifiableSet(new HashSet<T>(c));
+    }
+
+    public DBQueryFilter withSemesters(Collection<Semester> semesters) {
+        return new DBQueryFilter(_set(semesters), _types, _sites, _active, _completed, _obsStatuses, _obsClasses);
+    }
+
+    public DBQueryFilter withSemesters(Semester... semesters) {
+        return withSemesters(Arrays.asList(semesters));
+    }
+
+    public DBQueryFilter withTypes(Collection<ProgramType> types) {
+        return new DBQueryFilter(_semesters, _set(types), _sites, _active, _completed, _obsStatuses, _obsClasses);
+    }
+
+    public DBQueryFilter withTypes(ProgramType... types) {
+        return withTypes(Arrays.asList(types));
+    }
+
+    public DBQueryFilter withSites(Collection<Site> sites) {
+        return new DBQueryFilter(_semesters, _types, _set(sites), _active, _completed, _obsStatuses, _obsClasses);
+    }
+
+    public DBQueryFilter withSites(Site... sites) {
+        return withSites(Arrays.asList(sites));
+    }
+
+    /**
+     * Restricts the query to programs that are (or are not) active, or
+     * removes the restriction if <code>null</code>.
+     */
+    public DBQueryFilter withActive(Boolean active) {
+        return new DBQueryFilter(_semesters, _types, _sites, active, _completed, _obsStatuses, _obsClasses);
+    }
+
+    /**
+     * Restricts the query to programs that are (or are not) completed, or
+     * removes the restriction if <code>null</code>.
+     */
+    public DBQueryFilter withCompleted(Boolean completed) {
+        return new DBQueryFilter(_semesters, _types, _sites, _active, completed, _obsStatuses, _obsClasses);
+    }
+
+    /**
+     * Restricts observation queries to observations with one of the given
+     * statuses.  Ignored by program queries.
+     */
+    public DBQueryFilter withObsStatuses(Collection<ObservationStatus> statuses) {
+        return new DBQueryFilter(_semesters, _types, _sites, _active, _completed, _set(statuses), _obsClasses);
+    }
+
+    public DBQueryFilter withObsStatuses(ObservationStatus... statuses) {
+        return withObsStatuses(Arrays.asList(statuses));
+    }
+
+    /**
+     * Restricts observation queries to observations with one of the given
+     * observation classes.  Ignored by program queries.
+     */
+    public DBQueryFilter withObsClasses(Collection<ObsClass> obsClasses) {
+        return new DBQueryFilter(_semesters, _types, _sites, _active, _completed, _obsStatuses, _set(obsClasses));
+    }
+
+    public DBQueryFilter withObsClasses(ObsClass... obsClasses) {
+        return withObsClasses(Arrays.asList(obsClasses));
+    }
+
+    /** Gets the matching semesters, or <code>null</code> if unrestricted. */
+    public Set<Semester> getSemesters() { return _semesters; }
+
+    /** Gets the matching program types, or <code>null</code> if unrestricted. */
+    public Set<ProgramType> getTypes() { return _types; }
+
+    /** Gets the matching sites, or <code>null</code> if unrestricted. */
+    public Set<Site> getSites() { return _sites; }
+
+    /** Gets the required active state, or <code>null</code> if unrestricted. */
+    public Boolean getActive() { return _active; }
+
+    /** Gets the required completed state, or <code>null</code> if unrestricted. */
+    public Boolean getCompleted() { return _completed; }
+
+    /** Gets the matching observation statuses, or <code>null</code> if unrestricted. */
+    public Set<ObservationStatus> getObsStatuses() { return _obsStatuses; }
+
+    /** Gets the matching observation classes, or <code>null</code> if unrestricted. */
+    public Set<ObsClass> getObsClasses() { return _obsClasses; }
+
+    /**
+     * Returns <code>true</code> if this filter places no restriction on
+     * observations.
+     */
+    public boolean isObsUnrestricted() {
+        return (_obsStatuses == null) && (_obsClasses == null);
+    }
+
+    @Override public String toString() {
+        return "DBQueryFilter{" +
+                "semesters="   + _semesters   +
+                ", types="     + _types       +
+                ", sites="     + _sites       +
+                ", active="    + _active      +
+                ", completed=" + _completed   +
+                ", obsStatuses=" + _obsStatuses +
+                ", obsClasses="  + _obsClasses  +
+                '}';
+    }
+}
@@ -24,6 +24,9 @@ public class DBStatus implements Serializable {
     protected long totalMemory = 0;
     protected long storageInterval = 0;
 
+    // Named database performance metrics, see IDBAdmin.getMetrics().
+    protected Map<String, Long> metrics = Collections.emptyMap();
+
     public static DBStatus getStatus(IDBAdmin admin) {
         dbStatus.updateStatus(admin);
         return dbStatus;
@@ -71,8 +74,10 @@ public class DBStatus implements Serializable {
     protected void updateDatabaseMetrics(IDBAdmin admin) {
         if (admin != null) {
             storageInterval = admin.getStorageInterval();
+            metrics         = admin.getMetrics();
         } else {
             storageInterval = 0;
+            metrics         = Collections.emptyMap();
         }
     }
 
@@ -97,6 +102,10 @@ public class DBStatus implements Serializable {
         return threadMap;
     }
 
+    public Map<String, Long> getMetrics() {
+        return metrics;
+    }
+
     public static void main(String[] args) {
         DBStatus status = DBStatus.getStatus(null);
         System.out.println("Free Memory: " + status.getFreeMemory());
@@ -11,7 +11,10 @@ import edu.gemini.pot.sp.*;
 import edu.gemini.pot.util.POTUtil;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -25,12 +28,23 @@ final class DatabaseManager {
     private final ProgramManager<ISPNightlyRecord> _planMan;
     private final StorageManager<ISPProgram> _progStoreMan;
     private final StorageManager<ISPNightlyRecord> _planStoreMan;
+    private final ProgramChangeFeed _changeFeed;
 
     //private DBAdmin _admin;
     private final ISPFactory _fact;
 
     final FunctorLogger functorLogger;
 
+    /**
+     * Pool used to execute the partitions of splittable query functors.
+     */
+    final ForkJoinPool queryPool;
+
+    /**
+     * Pool shared by the storage managers to write modified programs.
+     */
+    private final ExecutorService _storePool;
+
     /**
      * Constructs with the database directory to use.
      *
@@ -39,6 +53,7 @@ final class DatabaseManager {
      */
     DatabaseManager(IDBPersister persister, UUID uuid) throws IOException {
         this.functorLogger = new FunctorLogger();
+        this.queryPool     = new ForkJoinPool(QueryRunner.getParallelism());
 
         // Create the file manager and load the programs in the database.
         _persister = persister;
@@ -47,11 +62,13 @@ final class DatabaseManager {
         // them and provide access to them.
         _progMan = new ProgramManager<ISPProgram>(_persister.reloadPrograms());
         _planMan = new ProgramManager<ISPNightlyRecord>(_persister.reloadPlans());
+        _changeFeed = new ProgramChangeFeed(_progMan);
 
         // Create the storage manager to keep the program files up-to-date
         // as they change and to store/remove programs as necessary.
-        _progStoreMan = new StorageManager<ISPProgram>(_progMan, _persister);
-        _planStoreMan = new StorageManager<ISPNightlyRecord>(_planMan, _persister);
+        _storePool    = StorageManager.createStorePool();
+        _progStoreMan = new StorageManager<ISPProgram>("program", _progMan, _persister, _storePool);
+        _planStoreMan = new StorageManager<ISPNightlyRecord>("plan", _planMan, _persister, _storePool);
 
         _fact = POTUtil.createFactory(uuid);
     }
@@ -78,6 +95,13 @@ final class DatabaseManager {
         return _progMan;
     }
 
+    /**
+     * Obtains a reference to the feed of program changes.
+     */
+    ProgramChangeFeed getProgramChangeFeed() {
+        return _changeFeed;
+    }
+
     /**
      * Obtains a reference to the <code>NightlyPlanManager</code>
      */
@@ -105,9 +129,22 @@ final class DatabaseManager {
     void shutdown() {
         _progStoreMan.shutdown();
         _planStoreMan.shutdown();
+        _storePool.shutdown();
+        _persister.close();
+        _changeFeed.shutdown();
         _progMan.shutdown();
         _planMan.shutdown();
         functorLogger.cancel();
+        queryPool.shutdown();
+    }
+
+    /**
+     * Adds the persister and storage manager metrics to the given map.
+     */
+    void addMetrics(Map<String, Long> metrics) {
+        _persister.addMetrics(metrics);
+        _progStoreMan.addMetrics(metrics);
+        _planStoreMan.addMetrics(metrics);
     }
 
     /**
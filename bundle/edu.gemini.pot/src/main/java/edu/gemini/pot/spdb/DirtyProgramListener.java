@@ -8,12 +8,16 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPUtil;
+import edu.gemini.spModel.data.ISPDataObject;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -24,17 +28,46 @@ import java.util.*;
  * <code>{@link StorageManager}</code>.  It contains a thread that
  * periodically checks for "dirty" programs (via the
  * <code>getDirtyPrograms()</code> method of this class) and saves.
+ *
+ * <p>Updates to a node's data object are first offered to the persister's
+ * journal.  If journaled, the program is not marked dirty but is instead
+ * remembered as having journaled updates that must eventually be compacted
+ * into the program file (see <code>getProgramsToCompact()</code>).
+ *
+ * <p>Changes made while a program's events are turned off are persisted by
+ * <code>{@link StorageManager#commit}</code> before the events are turned
+ * back on, in which case the resulting {@link ISPNode#EVENTS_ACTIVATED}
+ * change does not mark the program dirty.
  */
 @SuppressWarnings("unchecked")
 final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(DirtyProgramListener.class.getName());
+
+    private static final String DATA_OBJECT_PROP = SPUtil.getDataObjectPropertyName();
+
     private final Set<N> _progSet;
+    private final Map<N, Long> _journaled;  // program -> time of first journaled update
+    private final Set<N> _committed;        // programs with silent changes already persisted
+    private final IDBPersister _persister;
+    private long _coalesced;                // updates to already dirty programs
 
     /**
      * Default constructor declared because superclass default constructor
      * throws <code>RemoteException</code>.
      */
     DirtyProgramListener()  {
-        _progSet = new HashSet<N>();
+        this(null);
+    }
+
+    /**
+     * Constructs with the persister whose journal should record data object
+     * updates, if any.
+     */
+    DirtyProgramListener(IDBPersister persister)  {
+        _progSet   = new HashSet<N>();
+        _journaled = new HashMap<N, Long>();
+        _committed = new HashSet<N>();
+        _persister = persister;
     }
 
     @Override public void propertyChange(PropertyChangeEvent pce) {
@@ -43,12 +76,67 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
         final Object src = pce.getSource();
         if (!(src instanceof ISPNode)) return;
 
-        ISPRootNode root = ((ISPNode) src).getRootAncestor();
-        if (root != null) {
-            synchronized (this) { _progSet.add((N)root); }
+        final ISPNode node = (ISPNode) src;
+        ISPRootNode root = node.getRootAncestor();
+        if (root == null) return;
+
+        if ((node == root) && ISPNode.EVENTS_ACTIVATED.equals(pce.getPropertyName())) {
+            synchronized (this) {
+                if (_committed.remove(root)) return;
+            }
+        }
+        if (DATA_OBJECT_PROP.equals(pce.getPropertyName()) && (pce.getNewValue() instanceof ISPDataObject)) {
+            if (_journal((N) root, node, (ISPDataObject) pce.getNewValue())) return;
+        }
+        synchronized (this) {
+            if (!_progSet.add((N) root)) ++_coalesced;
         }
     }
 
+    private boolean _journal(N root, ISPNode node, ISPDataObject dataObject) {
+        if (_persister == null) return false;
+        try {
+            if (!_persister.journal(root, node, dataObject)) return false;
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Couldn't journal update, will store the program instead", ex);
+            return false;
+        }
+        synchronized (this) {
+            if (!_journaled.containsKey(root)) _journaled.put(root, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * Journals the given nodes' data objects and the program's versions as a
+     * single update.
+     *
+     * @return <code>true</code> if journaled, <code>false</code> if the
+     * program must be stored instead
+     */
+    boolean journalCommit(N root, Collection<ISPNode> nodes) {
+        if ((_persister == null) || !(root instanceof ISPProgram)) return false;
+        try {
+            if (!_persister.journalCommit((ISPProgram) root, nodes)) return false;
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Couldn't journal update, will store the program instead", ex);
+            return false;
+        }
+        synchronized (this) {
+            if (!_journaled.containsKey(root)) _journaled.put(root, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * Records that the changes made to the given program while its events
+     * were turned off have been persisted, so that turning them back on
+     * doesn't mark the program dirty.
+     */
+    synchronized void committed(N root) {
+        _committed.add(root);
+    }
+
     /**
      * Gets the modified, "dirty", programs and clears the record of their
      * being dirty.  In other words, immediately after this method is called
@@ -59,6 +147,58 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
     synchronized List<N> getDirtyPrograms() {
         final List<N> lst = _progSet.isEmpty() ? Collections.<N>emptyList() : new ArrayList<N>(_progSet);
         _progSet.clear();
+
+        // Storing the program compacts its journal.
+        for (N n : lst) _journaled.remove(n);
+        return lst;
+    }
+
+    /**
+     * Gets the number of programs currently marked dirty.
+     */
+    synchronized int getDirtyCount() {
+        return _progSet.size();
+    }
+
+    /**
+     * Gets the number of updates to programs that were already dirty, each
+     * of which was folded into a single pending store rather than causing
+     * another.
+     */
+    synchronized long getCoalescedCount() {
+        return _coalesced;
+    }
+
+    /**
+     * Gets the programs with journaled updates that should be compacted into
+     * their program files, either because the updates have been pending
+     * longer than <code>maxAgeMs</code> or because the journal has grown
+     * beyond <code>maxBytes</code>.  The returned programs are no longer
+     * considered to have journaled updates.
+     */
+    synchronized List<N> getProgramsToCompact(long maxAgeMs, long maxBytes) {
+        if (_journaled.isEmpty()) return Collections.<N>emptyList();
+
+        final long now    = System.currentTimeMillis();
+        final List<N> lst = new ArrayList<N>();
+        for (Iterator<Map.Entry<N, Long>> it = _journaled.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<N, Long> me = it.next();
+            final N prog = me.getKey();
+            if ((now - me.getValue() >= maxAgeMs) || (_persister.journalSize(prog.getProgramKey()) >= maxBytes)) {
+                lst.add(prog);
+                it.remove();
+            }
+        }
+        return lst;
+    }
+
+    /**
+     * Gets all the programs with journaled updates and clears the record of
+     * them.
+     */
+    synchronized List<N> getJournaledPrograms() {
+        final List<N> lst = new ArrayList<N>(_journaled.keySet());
+        _journaled.clear();
         return lst;
     }
 
@@ -67,6 +207,8 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
      * programs.  If the program isn't in the collection, then nothing is done.
      */
     synchronized void removeProgram(N prog) {
+        _journaled.remove(prog);
+        _committed.remove(prog);
         if (_progSet.size() == 0) return;
         _progSet.remove(prog);
     }
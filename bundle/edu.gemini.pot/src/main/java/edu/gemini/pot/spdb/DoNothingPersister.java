@@ -1,11 +1,16 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPNightlyRecord;
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A persister implemenation that returns nothing and does nothing.  Useful for
@@ -31,7 +36,11 @@ public final class DoNothingPersister implements IDBPersister {
         // Do nothing.
     }
 
-    @Override public void remove(SPNodeKey key) {
+    @Override public void add(ISPRootNode node) {
+        // Do nothing.
+    }
+
+    @Override public void remove(ISPRootNode node) {
         // Do nothing.
     }
 
@@ -42,4 +51,24 @@ public final class DoNothingPersister implements IDBPersister {
     @Override public long getTotalStorage() {
         return 0L;
     }
+
+    @Override public boolean journal(ISPRootNode root, ISPNode node, ISPDataObject dataObject) {
+        return false;
+    }
+
+    @Override public boolean journalCommit(ISPProgram prog, Collection<ISPNode> nodes) {
+        return false;
+    }
+
+    @Override public long journalSize(SPNodeKey key) {
+        return 0L;
+    }
+
+    @Override public void addMetrics(Map<String, Long> metrics) {
+        // Nothing to report.
+    }
+
+    @Override public void close() {
+        // Do nothing.
+    }
 }
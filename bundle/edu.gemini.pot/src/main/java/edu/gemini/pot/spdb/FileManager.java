@@ -1,22 +1,37 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.*;
-import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.spModel.data.ISPDataObject;
 import edu.gemini.shared.util.GeminiRuntimeException;
 import edu.gemini.spModel.core.SPProgramID;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
- * Handles file I/O for the database.  Currently, the locking is not very
- * sophisticated.  Only one thread at a time is permitted to execute any
- * of the public methods.  That is sufficient for now because after startup
- * only the <code>{@link StorageManager}</code> uses the
- * <code>FileManager</code>.
+ * Handles file I/O for the database.  After startup only the
+ * <code>{@link StorageManager}</code> uses the <code>FileManager</code>, but
+ * it may store distinct programs concurrently.  Stores of the same program
+ * are serialized and bookkeeping of program files is synchronized.
  */
 final class FileManager implements IDBPersister {
+    private static final Logger LOG = Logger.getLogger(FileManager.class.getName());
 
     /** The file suffix that is appended to programs in the database. */
     public static final String PROGRAM_SUFFIX = ".sp";
@@ -45,12 +60,54 @@ final class FileManager implements IDBPersister {
 
     }
 
+    /**
+     * The lock serializing stores and removal of one program, along with the
+     * number of threads holding or waiting for it.  As in
+     * <code>SPNodeKeyLocks</code>, an unused lock is marked dead before it is
+     * removed from the table, and a thread that finds a dead lock retries with
+     * a fresh one, so a lock is never dropped while in use.
+     */
+    private static final class StoreLock extends AtomicInteger {
+        static final int DEAD = -1;
+
+        StoreLock() { super(1); }
+
+        boolean retain() {
+            while (true) {
+                final int n = get();
+                if (n == DEAD) return false;
+                if (compareAndSet(n, n + 1)) return true;
+            }
+        }
+    }
+
+    /** System property that sets the number of threads used to load files at startup. */
+    private static final String LOAD_THREADS_PROP = FileManager.class.getName() + ".loadThreads";
+
+    /** Subdirectory of the database directory that holds program journals. */
+    private static final String JOURNAL_DIR = "journal";
+
+    /** Number of the slowest files to report after loading. */
+    private static final int SLOWEST_REPORT_COUNT = 10;
+
     private static final ISPFileFilter _progFilter = new ISPFileFilter(PROGRAM_SUFFIX);
     private static final ISPFileFilter _planFilter = new ISPFileFilter(PLAN_SUFFIX);
 
     private final File _dbDir;
-    private final MemSerializer _ser;
+    private final ProgramCodec _codec;
+    private final ProgramJournal _journal;
     private final Map<SPNodeKey, File> _fileMap = new HashMap<SPNodeKey, File>();
+    private final ConcurrentMap<SPNodeKey, StoreLock> _storeLocks = new ConcurrentHashMap<SPNodeKey, StoreLock>();
+
+    // Programs that have been removed.  A store of one of these that was
+    // already under way when it was removed must not bring its file back.
+    // Weak, so removed programs may still be collected.
+    private final Set<ISPRootNode> _removed =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ISPRootNode, Boolean>()));
+
+    // Programs whose journal couldn't be replayed and whose program file has
+    // not been set aside yet.
+    private final Set<SPNodeKey> _replayFailed = ConcurrentHashMap.newKeySet();
 
     /**
      * Constructs the <code>FileManager</code> with the database directory
@@ -60,9 +117,20 @@ final class FileManager implements IDBPersister {
      * @throws IOException if <code>dbDir</code> is not valid
      */
     FileManager(final File dbDir) throws IOException {
+        this(dbDir, ProgramCodec.fromSystemProperties());
+    }
+
+    /**
+     * Constructs the <code>FileManager</code> with the database directory and
+     * the codec used to read and write program files.
+     *
+     * @throws IOException if <code>dbDir</code> is not valid
+     */
+    FileManager(final File dbDir, final ProgramCodec codec) throws IOException {
         _setupDbDirectory(dbDir);
-        _dbDir = dbDir;
-        _ser   = new MemSerializer();
+        _dbDir   = dbDir;
+        _codec   = codec;
+        _journal = new ProgramJournal(new File(dbDir, JOURNAL_DIR));
     }
 
     /**
@@ -137,30 +205,106 @@ final class FileManager implements IDBPersister {
         return reload("plan", _planFilter);
     }
 
+    /**
+     * The result of loading a single file at startup.
+     */
+    private static final class LoadResult {
+        final File file;
+        final ISPRootNode node;
+        final Exception ex;
+        final long ms;
+        final long bytes;
+
+        LoadResult(File file, ISPRootNode node, Exception ex, long ms, long bytes) {
+            this.file  = file;
+            this.node  = node;
+            this.ex    = ex;
+            this.ms    = ms;
+            this.bytes = bytes;
+        }
+    }
+
+    private LoadResult _load(File progFile) {
+        final long start = System.nanoTime();
+        long bytes = 0;
+        ISPRootNode node = null;
+        Exception ex     = null;
+        try {
+            final MappedFileInputStream in = new MappedFileInputStream(progFile);
+            bytes = in.size();
+            node  = _codec.load(in);
+        } catch (Exception e) {
+            ex = e;
+        }
+        final long ms = (System.nanoTime() - start) / 1000000;
+        return new LoadResult(progFile, node, ex, ms, bytes);
+    }
+
+    private static int getLoadThreads() {
+        final String propStr = System.getProperty(LOAD_THREADS_PROP);
+        if (propStr != null) {
+            try {
+                final int threads = Integer.parseInt(propStr);
+                if (threads > 0) return threads;
+            } catch (NumberFormatException ex) {
+                // fall through to the default
+            }
+            System.err.println("Ignoring invalid value of " + LOAD_THREADS_PROP + ": " + propStr);
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Loads all the files matching the filter.  Files are deserialized
+     * concurrently but the results are processed in directory listing order so
+     * that duplicate detection picks the same file as a sequential load would.
+     */
+    @SuppressWarnings("unchecked")
     private <T extends ISPRootNode> List<T> reload(final String name, final FileFilter filter) throws IOException {
-        System.out.println(String.format("Loading the %s database ...", name));
+        final int threads = getLoadThreads();
+        System.out.println(String.format("Loading the %s database (%s format, %d threads) ...", name, _codec.getName(), threads));
 
         final long time1      = System.currentTimeMillis();
         final File[] fileA    = _dbDir.listFiles(filter);
         final List<T> retList = new ArrayList<T>(fileA.length);
 
-        // Try to load each file.
-        for (final File progFile : fileA) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "ODB Loader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
 
-            // Load the program file.
-            final T prog;
-            try {
-                prog = (T) _ser.load(progFile);
-                if (prog == null) continue;
-            } catch (Exception ex) {
-                String path = _getPath(progFile);
-                if (ex.getCause() instanceof InvalidClassException) {
+        final List<LoadResult> results = new ArrayList<LoadResult>(fileA.length);
+        try {
+            final List<Future<LoadResult>> futures = new ArrayList<Future<LoadResult>>(fileA.length);
+            for (final File progFile : fileA) futures.add(pool.submit(() -> _load(progFile)));
+            for (final Future<LoadResult> f : futures) results.add(f.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the " + name + " database", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Problem loading the " + name + " database", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long totalBytes = 0;
+        for (final LoadResult res : results) {
+            totalBytes += res.bytes;
+
+            // Report any problem loading the file.
+            if (res.ex != null) {
+                String path = _getPath(res.file);
+                if ((res.ex instanceof InvalidClassException) || (res.ex.getCause() instanceof InvalidClassException)) {
                     System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
                 } else {
-                    System.err.println("Problem reading program file `" + path + "': " + ex);
+                    System.err.println("Problem reading program file `" + path + "': " + res.ex);
                 }
                 continue;
             }
+            if (res.node == null) continue;
+            final T prog = (T) res.node;
 
             // If there are two program files with the same program (i.e.,
             // with the same key), just skip the next one read.
@@ -169,19 +313,60 @@ final class FileManager implements IDBPersister {
                 System.out.println("Already loaded: " + key);
                 continue; // already loaded
             }
-            _fileMap.put(key, progFile);
+            _fileMap.put(key, res.file);
+
+            // Apply any edits that were journaled but not yet written to the
+            // program file, then compact the journal into the file.
+            final int replayed;
+            try {
+                replayed = _journal.replay(prog);
+            } catch (ProgramJournal.ReplayException ex) {
+                // Keep the program file as it is, since the failed journal
+                // applies to it.  See _compact.
+                LOG.log(Level.SEVERE, String.format(
+                        "Couldn't replay the journal for `%s' after %d entries. Later journaled edits are NOT loaded, the journal was moved to `%s'.",
+                        _getPath(res.file), ex.applied, _getPath(ex.failedFile)), ex);
+                _replayFailed.add(key);
+                retList.add(prog);
+                continue;
+            }
+            if (replayed > 0) {
+                System.out.println(String.format("Replayed %d journal entries for %s", replayed, res.file.getName()));
+                try {
+                    _compact(prog, res.file);
+                } catch (IOException ex) {
+                    System.err.println("Problem compacting journal for `" + _getPath(res.file) + "': " + ex);
+                }
+            }
 
             retList.add(prog);
         }
 
         final long time2 = System.currentTimeMillis();
 
-        final String msg = String.format("Finished loading: %d ms, %d %ss", time2-time1, fileA.length, name);
+        final String msg = String.format("Finished loading: %d ms, %d %ss, %d bytes", time2-time1, fileA.length, name, totalBytes);
         System.out.println(msg);
+        _reportSlowest(name, results);
         return retList;
 
     }
 
+    /**
+     * Prints the files that took the longest to load, which typically
+     * dominate the startup time.
+     */
+    private static void _reportSlowest(String name, List<LoadResult> results) {
+        final List<LoadResult> sorted = new ArrayList<LoadResult>(results);
+        sorted.sort((a, b) -> Long.compare(b.ms, a.ms));
+
+        final int n = Math.min(SLOWEST_REPORT_COUNT, sorted.size());
+        if (n == 0) return;
+        System.out.println(String.format("Slowest %d %s files:", n, name));
+        for (final LoadResult res : sorted.subList(0, n)) {
+            System.out.println(String.format("  %6d ms %,12d bytes  %s", res.ms, res.bytes, res.file.getName()));
+        }
+    }
+
     public void store(ISPRootNode mab) throws IOException {
         if (mab instanceof ISPNightlyRecord) {
             _storeProgram(mab, PLAN_SUFFIX);
@@ -191,42 +376,182 @@ final class FileManager implements IDBPersister {
     }
 
 
+    @Override public void add(ISPRootNode node) throws IOException {
+        _removed.remove(node);
+        store(node);
+    }
+
+    /**
+     * Stores the given program in a file named for it, unless it has been
+     * removed in the meantime.
+     *
+     * @return the program file, or <code>null</code> if the program has been
+     * removed
+     */
     private File _storeProgram(ISPRootNode node, String suffix) throws IOException {
         final SPNodeKey key = node.getNodeKey();
-        final File newFile = _getDocumentFile(node, suffix);
 
-        _storeProgram(node, newFile);
+        // Distinct programs may be stored concurrently but stores of the same
+        // program are serialized, which keeps an older snapshot from
+        // replacing a newer one.
+        final StoreLock lock = _acquireStoreLock(key);
+        try {
+            synchronized (lock) {
+                if (_removed.contains(node)) return null;
+
+                final File newFile = _getDocumentFile(node, suffix);
+
+                _compact(node, newFile);
+
+                synchronized (this) {
+                    final File oldFile = _fileMap.get(key);
+                    if ((oldFile != null) && !newFile.equals(oldFile) && oldFile.exists()) {
+                        // Cleanup the old file
+                        oldFile.delete();
+                    }
+                    _fileMap.put(key, newFile);
+                }
+
+                return newFile;
+            }
+        } finally {
+            _releaseStoreLock(key, lock);
+        }
+    }
+
+    /**
+     * Stores the given program in the given file, folding any journaled
+     * updates into it.
+     */
+    private void _compact(ISPRootNode node, File file) throws IOException {
+        final SPNodeKey key = node.getProgramKey();
+
+        // If the journal couldn't be replayed, preserve the program file it
+        // applies to before it is replaced for the first time.
+        if (_replayFailed.contains(key)) {
+            final File oldFile;
+            synchronized (this) {
+                oldFile = _fileMap.get(key);
+            }
+            if (oldFile != null) _journal.setAsideSnapshot(key, oldFile);
+            _replayFailed.remove(key);
+        }
 
-        synchronized (this) {
-            final File oldFile = _fileMap.get(key);
-            if ((oldFile != null) && !newFile.equals(oldFile) && oldFile.exists()) {
-                // Cleanup the old file
-                oldFile.delete();
+        final long start    = System.nanoTime();
+        final boolean journaled = _journal.rotate(key);
+        _storeProgram(node, file);
+        if (journaled) _journal.finishCompaction(key, System.nanoTime() - start);
+    }
+
+    private StoreLock _acquireStoreLock(SPNodeKey key) {
+        while (true) {
+            final StoreLock l = _storeLocks.get(key);
+            if (l == null) {
+                final StoreLock n = new StoreLock();
+                if (_storeLocks.putIfAbsent(key, n) == null) return n;
+            } else if (l.retain()) {
+                return l;
+            } else {
+                // Released concurrently, help remove it and try again.
+                _storeLocks.remove(key, l);
             }
-            _fileMap.put(key, newFile);
         }
+    }
+
+    private void _releaseStoreLock(SPNodeKey key, StoreLock l) {
+        if ((l.decrementAndGet() == 0) && l.compareAndSet(0, StoreLock.DEAD)) {
+            _storeLocks.remove(key, l);
+        }
+    }
+
+    /**
+     * Appends the node's new data object to its program's journal.
+     */
+    @Override public boolean journal(ISPRootNode root, ISPNode node, ISPDataObject dataObject) throws IOException {
+        _journal.append(root.getProgramKey(), node, dataObject);
+        return true;
+    }
 
-        return newFile;
+    /**
+     * Appends the nodes' data objects and the program's versions to its
+     * journal as a single entry.
+     */
+    @Override public boolean journalCommit(ISPProgram prog, Collection<ISPNode> nodes) throws IOException {
+        _journal.appendCommit(prog, nodes);
+        return true;
+    }
+
+    @Override public long journalSize(SPNodeKey key) {
+        return _journal.size(key);
+    }
+
+    @Override public void addMetrics(Map<String, Long> metrics) {
+        _journal.addMetrics(metrics);
+    }
+
+    /**
+     * Forces and closes the journals and stops their periodic flush.
+     */
+    @Override public void close() {
+        _journal.close();
     }
 
     /**
      * Stores the given <code>prog</code>ram in the given <code>progFile</code>.
      */
     private void _storeProgram(ISPRootNode node, File file) throws IOException {
+        // Capture the program state in memory.  The codec holds the program
+        // read lock only while doing so.
+        final byte[] bytes = _codec.encode(node);
+
         // Create a temp file to write the object.
         final File tmpFile = _createTempFile(file);
 
-        final SPNodeKey key = node.getProgramKey();
-        SPNodeKeyLocks.instance.readLock(key);
+        // Write the object to the temp file and force it to disk, so that the
+        // rename below can't expose an empty or partially written file after
+        // an operating system crash.
+        try (FileChannel ch = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+            final ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw ex;
+        }
+
+        // Move the temp file over the destination file.
         try {
-            // Write the object to the temp file.
-            _ser.store(node, tmpFile);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw new IOException("Couldn't store the program.", ex);
+        }
+
+        // Sync the directory so that the rename itself is durable before the
+        // caller deletes the journal it replaces.
+        _syncDirectory(file.getParentFile());
+    }
 
-            // Rename the temp file to the destination file.
-            file.delete(); // under win2k, rename fails if file exists
-            if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
+    /**
+     * Forces the directory entries of the given directory to disk.  Not all
+     * platforms allow opening a directory (Windows doesn't), in which case
+     * this does nothing.
+     */
+    private static void _syncDirectory(File dir) throws IOException {
+        if (dir == null) return;
+        final FileChannel ch;
+        try {
+            ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Couldn't open directory '" + dir + "' to sync it", ex);
+            return;
+        }
+        try {
+            ch.force(true);
         } finally {
-            SPNodeKeyLocks.instance.readUnlock(key);
+            ch.close();
         }
     }
 
@@ -236,11 +561,26 @@ final class FileManager implements IDBPersister {
     }
 
     /**
-     * Removes the given program, erasing the file associated with it.
+     * Removes the given program, erasing the file associated with it.  Waits
+     * for a store of the program that is under way to finish, and keeps any
+     * later store of the removed program from writing it again.
      */
-    public synchronized void remove(SPNodeKey key) {
-        final File progFile = _fileMap.remove(key);
-        if (progFile != null) progFile.delete();
+    public void remove(ISPRootNode node) {
+        final SPNodeKey key = node.getProgramKey();
+        final StoreLock lock = _acquireStoreLock(key);
+        try {
+            synchronized (lock) {
+                _removed.add(node);
+                synchronized (this) {
+                    final File progFile = _fileMap.remove(key);
+                    if (progFile != null) progFile.delete();
+                }
+                _journal.remove(key);
+                _replayFailed.remove(key);
+            }
+        } finally {
+            _releaseStoreLock(key, lock);
+        }
     }
 
     /**
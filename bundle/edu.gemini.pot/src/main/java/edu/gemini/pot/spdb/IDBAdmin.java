@@ -7,6 +7,7 @@
 
 package edu.gemini.pot.spdb;
 
+import java.util.Map;
 
 
 
@@ -62,4 +63,11 @@ public interface IDBAdmin {
      */
     long getTotalStorage();
 
+    /**
+     * Returns a snapshot of the database's internal performance metrics,
+     * keyed by a dotted metric name (for example "journal.bytes").
+     * @return metric values by name, sorted by name
+     */
+    Map<String, Long> getMetrics();
+
 }
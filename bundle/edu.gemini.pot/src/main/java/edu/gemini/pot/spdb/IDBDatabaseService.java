@@ -11,6 +11,7 @@ import edu.gemini.pot.sp.*;
 import edu.gemini.spModel.core.SPProgramID;
 
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Set;
 import java.util.UUID;
 
@@ -160,6 +161,19 @@ public interface IDBDatabaseService {
      */
     void checkpoint(ISPProgram prog);
 
+    /**
+     * Persists changes made to the given program while its events were
+     * turned off (see {@link ISPNode#setSendingEvents}).  Must be called
+     * before the events are turned back on.  If the changes were limited to
+     * the data objects of <code>nodes</code>, they are journaled together
+     * with the program's version map as a single update, which is replayed
+     * entirely or not at all after a crash.  Otherwise, or if
+     * <code>nodes</code> is <code>null</code>, the program is stored.  The
+     * composite change sent when events are turned back on then doesn't
+     * cause the program to be stored again.
+     */
+    void commit(ISPProgram prog, Collection<ISPNode> nodes);
+
     /**
      * Gets the database administration object.
      */
@@ -177,6 +191,12 @@ public interface IDBDatabaseService {
      */
     IDBQueryRunner getQueryRunner(Set<Principal> user);
 
+    /**
+     * Gets the feed of program changes, which clients can use to wait for
+     * programs to be modified.
+     */
+    ProgramChangeFeed getProgramChangeFeed();
+
     /**
      * Registers a trigger action under the given condition.  When the condition
      * is met, the action is executed.  A Lease for the trigger registration is
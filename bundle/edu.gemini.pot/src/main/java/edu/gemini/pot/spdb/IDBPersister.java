@@ -1,9 +1,12 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.*;
+import edu.gemini.spModel.data.ISPDataObject;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 // A lame interface that closely matches the existing FileManager so as to
 // easily allow one to choice between it and a truly transient database.
@@ -12,11 +15,55 @@ interface IDBPersister {
     List<ISPProgram> reloadPrograms() throws IOException;
     List<ISPNightlyRecord> reloadPlans() throws IOException;
     void store(ISPRootNode node) throws IOException;
-    void remove(SPNodeKey key);
+
+    /**
+     * Stores a program that has just been added to the database, which may
+     * be one that was removed from it before.
+     */
+    void add(ISPRootNode node) throws IOException;
+
+    /**
+     * Removes the given program.  A store of the same program instance
+     * after it has been removed does nothing.
+     */
+    void remove(ISPRootNode node);
 
     /** Gets the size of the program file on disk, or -1 if not known. */
     long size(SPNodeKey key);
 
     /** Returns the total storage size, on disk, or zero for transient databases. */
     long getTotalStorage();
+
+    /**
+     * Records an update to a node's data object without storing the whole
+     * program.  The update is folded into the program file on the next call
+     * to {@link #store}.
+     *
+     * @return <code>true</code> if the update was recorded, <code>false</code>
+     * if the program must be stored in full to persist it
+     */
+    boolean journal(ISPRootNode root, ISPNode node, ISPDataObject dataObject) throws IOException;
+
+    /**
+     * Records the current data objects of the given nodes together with the
+     * program's version map as a single update, which is either replayed
+     * entirely or not at all.
+     *
+     * @return <code>true</code> if the update was recorded, <code>false</code>
+     * if the program must be stored in full to persist it
+     */
+    boolean journalCommit(ISPProgram prog, Collection<ISPNode> nodes) throws IOException;
+
+    /** Gets the number of bytes of journaled updates awaiting a store. */
+    long journalSize(SPNodeKey key);
+
+    /** Adds persistence metrics, if any, to the given map. */
+    void addMetrics(Map<String, Long> metrics);
+
+    /**
+     * Forces any pending writes to disk and releases the resources held by
+     * the persister.  Called when the database shuts down, after the last
+     * program has been stored.
+     */
+    void close();
 }
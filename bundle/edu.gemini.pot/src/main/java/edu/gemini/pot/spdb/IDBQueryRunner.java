@@ -45,6 +45,27 @@ public interface IDBQueryRunner {
      */
     <T extends IDBQueryFunctor> T queryNightlyPlans(T functor) ;
 
+    /**
+     * Queries the observations matching the given <code>filter</code>,
+     * applying the given <code>functor</code> on each.  The matching
+     * observations are found with the database's program indexes, so the
+     * functor only visits observations that pass the filter.
+     *
+     * @return the query functor itself; if called remotely the return
+     * value will (of course) be a distinct copy of the method argument
+     */
+    <T extends IDBQueryFunctor> T queryObservations(DBQueryFilter filter, T functor) ;
+
+    /**
+     * Queries the programs matching the given <code>filter</code>, applying
+     * the given <code>functor</code> on each.  Observation criteria in the
+     * filter are ignored.
+     *
+     * @return the query functor itself; if called remotely the return
+     * value will (of course) be a distinct copy of the method argument
+     */
+    <T extends IDBQueryFunctor> T queryPrograms(DBQueryFilter filter, T functor) ;
+
     /**
      * Executes the given functor on the given node.  The remote reference is
      * first converted to a local reference by the database before it is passed
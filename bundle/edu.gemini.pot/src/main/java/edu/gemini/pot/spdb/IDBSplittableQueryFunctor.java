@@ -0,0 +1,38 @@
+package edu.gemini.pot.spdb;
+
+import java.util.Collection;
+
+/**
+ * A query functor that may be executed in parallel by the
+ * <code>{@link IDBQueryRunner}</code>.  The list of nodes to query is split
+ * into partitions, each of which is handled by a fresh functor obtained from
+ * {@link #split}.  When all partitions have finished, the partition functors
+ * are handed (in node order) to {@link #mergeResults} on the original functor
+ * before its {@link IDBQueryFunctor#finished} method is called.
+ *
+ * <p>This is the local, multi-core analog of the (deprecated)
+ * <code>{@link IDBParallelFunctor}</code>.  Functors that implement this
+ * interface must be safe to execute concurrently with their siblings, which
+ * typically means that each partition collects results only into its own
+ * state.  Note that {@link IDBQueryFunctor#isDone} is consulted per partition
+ * so a partition that is done does not stop its siblings.
+ */
+public interface IDBSplittableQueryFunctor extends IDBQueryFunctor {
+
+    /**
+     * Creates a new, empty functor that will be applied to one partition of
+     * the nodes being queried.  The partition's <code>init</code>,
+     * <code>isDone</code>, <code>execute</code> and <code>finished</code>
+     * methods are called as for any query functor.
+     */
+    IDBSplittableQueryFunctor split();
+
+    /**
+     * Merges the results contained in the collection of partition functors
+     * into this functor.  The collection is ordered in the same order as the
+     * nodes that were queried.
+     *
+     * @param functorCollection partition functors created by {@link #split}
+     */
+    void mergeResults(Collection<IDBFunctor> functorCollection);
+}
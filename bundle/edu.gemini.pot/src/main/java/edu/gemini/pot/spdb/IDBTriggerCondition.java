@@ -3,9 +3,11 @@
 //
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.SPCompositeChange;
 
 import java.io.Serializable;
+import java.util.Set;
 
 /**
  * This interface defines a mechanism whereby the client may specify the
@@ -19,6 +21,10 @@ import java.io.Serializable;
  *
  * <p>When a trigger condition is matched, the associated
  * {@link IDBTriggerAction} registered with it is executed.
+ *
+ * <p>Implementations may narrow the changes they are shown by overriding
+ * {@link #getPropertyNames()} and {@link #getNodeType()}.  These are consulted
+ * once, when the condition is registered.
  */
 public interface IDBTriggerCondition extends Serializable {
 
@@ -34,4 +40,22 @@ public interface IDBTriggerCondition extends Serializable {
      * passed to the corresponding {@link IDBTriggerAction}
      */
     Object matches(SPCompositeChange change);
+
+    /**
+     * Gets the names of the properties whose changes can match this condition,
+     * or <code>null</code> (the default) if a change to any property can.
+     * Changes to other properties are not passed to {@link #matches}.
+     */
+    default Set<String> getPropertyNames() {
+        return null;
+    }
+
+    /**
+     * Gets the type of node whose changes can match this condition.  Changes
+     * to other types of nodes are not passed to {@link #matches}.  By default,
+     * changes to any node are considered.
+     */
+    default Class<? extends ISPNode> getNodeType() {
+        return ISPNode.class;
+    }
 }
@@ -0,0 +1,46 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The original program file format: the root node written with plain Java
+ * serialization via the <code>{@link MemSerializer}</code>.  This is the
+ * default format.
+ *
+ * <p>Files in the <code>{@link CompactProgramCodec compact}</code> format are
+ * recognized and read as well, so that a database that opted in to that
+ * format can simply switch back.  Such files are rewritten in this format on
+ * their next store, or all at once by the
+ * <code>{@link ProgramFileMigrator}</code>.
+ */
+final class JavaSerializationCodec implements ProgramCodec {
+    static final String NAME = "java";
+
+    private final MemSerializer _ser = new MemSerializer();
+    private final CompactProgramCodec _compact = new CompactProgramCodec();
+
+    @Override public String getName() {
+        return NAME;
+    }
+
+    @Override public ISPRootNode load(File file) throws IOException {
+        return load(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @Override public ISPRootNode load(InputStream in) throws IOException {
+        // The compact codec falls back to plain Java serialization for files
+        // without its magic number.
+        return _compact.load(in);
+    }
+
+    @Override public byte[] encode(ISPRootNode node) throws IOException {
+        return _ser.store(node);
+    }
+}
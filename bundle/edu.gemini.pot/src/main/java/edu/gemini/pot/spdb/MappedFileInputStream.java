@@ -0,0 +1,65 @@
+package edu.gemini.pot.spdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An <code>InputStream</code> over a read-only memory mapping of a file.
+ * Reading a program file through the mapping avoids copying it through a
+ * user-space buffer, which adds up when loading the whole database at
+ * startup.
+ */
+final class MappedFileInputStream extends InputStream {
+    private final ByteBuffer _buf;
+    private int _mark;
+
+    MappedFileInputStream(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed.
+            _buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /** Gets the size of the mapped file in bytes. */
+    int size() {
+        return _buf.limit();
+    }
+
+    @Override public int read() {
+        return _buf.hasRemaining() ? (_buf.get() & 0xff) : -1;
+    }
+
+    @Override public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (!_buf.hasRemaining()) return -1;
+        final int n = Math.min(len, _buf.remaining());
+        _buf.get(b, off, n);
+        return n;
+    }
+
+    @Override public long skip(long n) {
+        final int k = (int) Math.max(0, Math.min(n, _buf.remaining()));
+        _buf.position(_buf.position() + k);
+        return k;
+    }
+
+    @Override public int available() {
+        return _buf.remaining();
+    }
+
+    @Override public boolean markSupported() {
+        return true;
+    }
+
+    @Override public void mark(int readLimit) {
+        _mark = _buf.position();
+    }
+
+    @Override public void reset() {
+        _buf.position(_mark);
+    }
+}
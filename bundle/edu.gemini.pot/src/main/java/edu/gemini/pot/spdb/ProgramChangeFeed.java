@@ -0,0 +1,251 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPUtil;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A feed of the ids of programs that have changed, so that clients can wait
+ * for changes instead of repeatedly polling for version information.
+ *
+ * <p>The feed listens to program events and to composite changes on every
+ * program, recording the id of the affected program in a fixed size ring
+ * buffer.  Each record has a sequence number.  A client holds a
+ * <code>{@link Cursor}</code> and asks for the changes that happened after
+ * it, waiting if there are none yet.  If the cursor is too old (its records
+ * have been overwritten) or was issued by another feed instance (e.g., before
+ * a restart), the client is told that anything may have changed and must
+ * check all the programs it is interested in.
+ *
+ * <p>Each waiting client holds a request thread, so only a limited number
+ * may wait at once.  Others are turned away with a
+ * <code>{@link BusyException}</code> and are expected to poll instead.
+ *
+ * <p>Set the system property
+ * <code>edu.gemini.pot.spdb.ProgramChangeFeed.capacity</code> to change the
+ * size of the buffer (default 4096), and
+ * <code>edu.gemini.pot.spdb.ProgramChangeFeed.maxWaiters</code> to change
+ * the number of clients that may wait at once (default 64).
+ */
+public final class ProgramChangeFeed implements ProgramEventListener<ISPProgram>, PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(ProgramChangeFeed.class.getName());
+
+    private static final String CAPACITY_PROP = ProgramChangeFeed.class.getName() + ".capacity";
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private static final String MAX_WAITERS_PROP = ProgramChangeFeed.class.getName() + ".maxWaiters";
+    private static final int DEFAULT_MAX_WAITERS = 64;
+
+    /**
+     * Thrown to a client that would have to wait for changes while the
+     * maximum number of clients are already waiting.
+     */
+    public static final class BusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BusyException(int maxWaiters) {
+            super("Already " + maxWaiters + " clients waiting for program changes.");
+        }
+    }
+
+    /**
+     * A position in the feed.
+     */
+    public static final class Cursor implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final UUID _epoch;
+        private final long _seq;
+
+        Cursor(UUID epoch, long seq) {
+            _epoch = epoch;
+            _seq   = seq;
+        }
+
+        @Override public String toString() {
+            return "Cursor{" + _epoch + ", " + _seq + '}';
+        }
+    }
+
+    /**
+     * The programs that changed between two cursors.
+     */
+    public static final class Changes {
+        private final Cursor _cursor;
+        private final Set<SPProgramID> _programs;
+
+        Changes(Cursor cursor, Set<SPProgramID> programs) {
+            _cursor   = cursor;
+            _programs = programs;
+        }
+
+        /** Gets the cursor to use when asking for subsequent changes. */
+        public Cursor getCursor() { return _cursor; }
+
+        /**
+         * Returns <code>true</code> if the changes are unknown, in which case
+         * any program may have changed.
+         */
+        public boolean isUnknown() { return _programs == null; }
+
+        /**
+         * Gets the ids of the programs that changed, or <code>null</code> if
+         * the changes are unknown.
+         */
+        public Set<SPProgramID> getPrograms() { return _programs; }
+
+        /**
+         * Returns <code>true</code> if the given program may have changed.
+         */
+        public boolean mayContain(SPProgramID id) {
+            return (_programs == null) || _programs.contains(id);
+        }
+    }
+
+    private final ProgramManager<ISPProgram> _progMan;
+    private final UUID _epoch = UUID.randomUUID();
+
+    // Ring buffer of program ids, guarded by this.  Record n is stored at
+    // index n % capacity.
+    private final SPProgramID[] _ring;
+    private long _seq;
+    private boolean _shutdown;
+    private int _waiters;
+
+    private final int _maxWaiters = _intProp(MAX_WAITERS_PROP, DEFAULT_MAX_WAITERS);
+
+    ProgramChangeFeed(ProgramManager<ISPProgram> pm) {
+        _progMan = pm;
+        _ring    = new SPProgramID[_intProp(CAPACITY_PROP, DEFAULT_CAPACITY)];
+        for (ISPProgram prog : pm.getPrograms()) prog.addCompositeChangeListener(this);
+        pm.addListener(this);
+    }
+
+    private static int _intProp(String prop, int def) {
+        final String s = System.getProperty(prop);
+        if (s == null) return def;
+        try {
+            final int i = Integer.parseInt(s);
+            if (i > 0) return i;
+        } catch (NumberFormatException ex) {
+            // fall through
+        }
+        LOG.warning("Could not parse value of property '" + prop + "': " + s);
+        return def;
+    }
+
+    /**
+     * Stops tracking programs and releases any waiting clients.
+     */
+    void shutdown() {
+        _progMan.removeListener(this);
+        for (ISPProgram prog : _progMan.getPrograms()) prog.removeCompositeChangeListener(this);
+        synchronized (this) {
+            _shutdown = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gets a cursor positioned after the most recent change.
+     */
+    public synchronized Cursor current() {
+        return new Cursor(_epoch, _seq);
+    }
+
+    /**
+     * Gets the number of clients currently waiting for changes.
+     */
+    public synchronized int getWaiterCount() {
+        return _waiters;
+    }
+
+    /**
+     * Gets the programs that changed after the given cursor, waiting up to
+     * <code>timeoutMs</code> milliseconds for a change if there are none
+     * yet.  The result is empty if the time runs out.
+     *
+     * @param since cursor returned by a previous call, or <code>null</code>
+     * if none, in which case the changes are unknown
+     *
+     * @throws BusyException if there are no changes yet and too many other
+     * clients are already waiting
+     */
+    public synchronized Changes await(Cursor since, long timeoutMs) throws InterruptedException, BusyException {
+        if ((since == null) || !_epoch.equals(since._epoch) || (since._seq > _seq) || (_seq - since._seq > _ring.length)) {
+            return new Changes(current(), null);
+        }
+
+        if ((_seq == since._seq) && !_shutdown && (timeoutMs > 0)) {
+            if (_waiters >= _maxWaiters) throw new BusyException(_maxWaiters);
+
+            ++_waiters;
+            try {
+                final long deadline = System.currentTimeMillis() + timeoutMs;
+                long remaining = timeoutMs;
+                while ((_seq == since._seq) && !_shutdown && (remaining > 0)) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                --_waiters;
+            }
+        }
+
+        // Records may have been overwritten while we waited.
+        if (_seq - since._seq > _ring.length) return new Changes(current(), null);
+
+        final Set<SPProgramID> res = new HashSet<>();
+        for (long n = since._seq; n < _seq; ++n) res.add(_ring[(int) (n % _ring.length)]);
+        return new Changes(current(), Collections.unmodifiableSet(res));
+    }
+
+    private synchronized void _record(SPProgramID id) {
+        if (id == null) return;
+
+        // Edits come in bursts, don't fill the buffer with duplicates.
+        if ((_seq > 0) && id.equals(_ring[(int) ((_seq - 1) % _ring.length)])) return;
+
+        _ring[(int) (_seq % _ring.length)] = id;
+        ++_seq;
+        notifyAll();
+    }
+
+    public void programAdded(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getNewProgram();
+        prog.addCompositeChangeListener(this);
+        _record(prog.getProgramID());
+    }
+
+    public void programReplaced(ProgramEvent<ISPProgram> pme) {
+        pme.getOldProgram().removeCompositeChangeListener(this);
+        programAdded(pme);
+    }
+
+    public void programRemoved(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getOldProgram();
+        prog.removeCompositeChangeListener(this);
+        _record(prog.getProgramID());
+    }
+
+    @Override public void propertyChange(PropertyChangeEvent pce) {
+        if (SPUtil.isTransientClientDataPropertyName(pce.getPropertyName())) return;
+
+        final Object src = pce.getSource();
+        if (!(src instanceof ISPNode)) return;
+
+        final ISPRootNode root = ((ISPNode) src).getRootAncestor();
+        if (root != null) _record(root.getProgramID());
+    }
+}
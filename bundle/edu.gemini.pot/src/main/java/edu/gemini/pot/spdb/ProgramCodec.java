@@ -0,0 +1,74 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPRootNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes a single root node (program or nightly record) to a file.
+ * The <code>{@link FileManager}</code> persister delegates all file encoding
+ * to a codec so that the on-disk format can be selected independently of the
+ * rest of the storage machinery.
+ *
+ * <p>Every codec reads every format, the choice only determines how programs
+ * are written.  The default remains the original Java serialization format,
+ * which older releases can read.  Set the {@link #CODEC_PROP} property to
+ * <code>compact</code> to opt in to the compact format, and use the
+ * <code>{@link ProgramFileMigrator}</code> to convert a database to the
+ * <code>java</code> format before rolling back to an older release.
+ */
+interface ProgramCodec {
+
+    /** System property used to pick the codec for a file-based database. */
+    String CODEC_PROP = ProgramCodec.class.getName();
+
+    /** Short name of the codec, as used in the {@link #CODEC_PROP} property. */
+    String getName();
+
+    /** Loads the root node stored in the given file. */
+    ISPRootNode load(File file) throws IOException;
+
+    /** Loads the root node from the given stream, closing it when done. */
+    ISPRootNode load(InputStream in) throws IOException;
+
+    /**
+     * Encodes the given root node in memory.  Implementations hold the
+     * program read lock only for as long as it takes to capture the program
+     * state, so that the (slower) file write happens without blocking edits.
+     */
+    byte[] encode(ISPRootNode node) throws IOException;
+
+    /** Stores the given root node in the given file. */
+    default void store(ISPRootNode node, File file) throws IOException {
+        Files.write(file.toPath(), encode(node));
+    }
+
+    /**
+     * Gets the codec with the given name.
+     *
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    static ProgramCodec forName(String name) {
+        if (JavaSerializationCodec.NAME.equals(name)) return new JavaSerializationCodec();
+        if (CompactProgramCodec.NAME.equals(name))    return new CompactProgramCodec();
+        throw new IllegalArgumentException("Unknown program codec: " + name);
+    }
+
+    /**
+     * Gets the codec named by the {@link #CODEC_PROP} system property, or the
+     * Java serialization codec if unset or unrecognized.
+     */
+    static ProgramCodec fromSystemProperties() {
+        final String name = System.getProperty(CODEC_PROP, JavaSerializationCodec.NAME);
+        try {
+            return forName(name);
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(ProgramCodec.class.getName()).warning(ex.getMessage() + ", using " + JavaSerializationCodec.NAME);
+            return new JavaSerializationCodec();
+        }
+    }
+}
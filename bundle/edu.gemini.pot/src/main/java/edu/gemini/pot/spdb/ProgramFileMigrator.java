@@ -0,0 +1,92 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPRootNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites every program and plan file in a database directory using the
+ * given codec.  Files that are already in the target format are left alone.
+ * Each file is written to a temporary file first and only renamed over the
+ * original when the write succeeds, so an interrupted migration leaves a
+ * readable database.
+ *
+ * <pre>
+ *   java edu.gemini.pot.spdb.ProgramFileMigrator &lt;dbDir&gt; compact|java
+ * </pre>
+ *
+ * Run it with <code>compact</code> after opting in to the compact format, or
+ * with <code>java</code> to roll a database back to the format that older
+ * releases read.  The ODB must not be running.
+ */
+public final class ProgramFileMigrator {
+    private static final Logger LOG = Logger.getLogger(ProgramFileMigrator.class.getName());
+
+    private final ProgramCodec _source = new CompactProgramCodec(); // reads any format
+    private final ProgramCodec _target;
+
+    private int _converted;
+    private int _skipped;
+    private int _failed;
+
+    ProgramFileMigrator(ProgramCodec target) {
+        _target = target;
+    }
+
+    private boolean isTargetFormat(File f) throws IOException {
+        if (!CompactProgramCodec.NAME.equals(_target.getName())) return !CompactProgramCodec.isCompact(f);
+
+        // Also rewrite compact files in an older version of the format.
+        return CompactProgramCodec.isCompact(f) &&
+               (CompactProgramCodec.readHeader(f).version == CompactProgramCodec.FORMAT_VERSION);
+    }
+
+    void migrate(File dbDir) throws IOException {
+        final File[] files = dbDir.listFiles((dir, name) ->
+                name.endsWith(FileManager.PROGRAM_SUFFIX) || name.endsWith(FileManager.PLAN_SUFFIX));
+        if (files == null) throw new IOException("Not a directory: " + dbDir);
+
+        for (File f : files) {
+            try {
+                if (isTargetFormat(f)) {
+                    ++_skipped;
+                    continue;
+                }
+                final ISPRootNode node = _source.load(f);
+                final File tmp = File.createTempFile("_spdb", null, dbDir);
+                try {
+                    _target.store(node, tmp);
+                    Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    if (tmp.exists()) tmp.delete();
+                }
+                ++_converted;
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Couldn't migrate " + f, ex);
+                ++_failed;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ProgramFileMigrator <dbDir> " + CompactProgramCodec.NAME + "|" + JavaSerializationCodec.NAME);
+            System.exit(1);
+        }
+
+        final ProgramCodec target = ProgramCodec.forName(args[1]);
+        final ProgramFileMigrator m = new ProgramFileMigrator(target);
+
+        final long start = System.currentTimeMillis();
+        m.migrate(new File(args[0]));
+        final long end   = System.currentTimeMillis();
+
+        System.out.println(String.format("Migrated to %s format in %d ms: %d converted, %d already converted, %d failed",
+                target.getName(), end - start, m._converted, m._skipped, m._failed));
+    }
+}
@@ -0,0 +1,335 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPUtil;
+import edu.gemini.spModel.core.ProgramId;
+import edu.gemini.spModel.core.ProgramId$;
+import edu.gemini.spModel.core.ProgramType;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.core.Semester;
+import edu.gemini.spModel.core.Site;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spModel.obs.ObsClassService;
+import edu.gemini.spModel.obs.ObservationStatus;
+import edu.gemini.spModel.obsclass.ObsClass;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Secondary indexes over the programs held by a
+ * <code>{@link ProgramManager}</code>, used to answer
+ * <code>{@link DBQueryFilter}</code> queries without visiting every program.
+ *
+ * <p>Semester, program type and site come from the program id and are kept
+ * in inverted indexes.  The active and completed flags of each program and
+ * the status and class of each observation are cached.  The index listens to
+ * program events and to composite changes on every program.  A change only
+ * marks the affected observation (or, for changes outside of any
+ * observation, the program) stale.  Stale entries are recomputed lazily by
+ * the next query that needs them, so edits pay almost nothing and a query
+ * only re-derives what changed since the last one.
+ */
+final class ProgramIndex<N extends ISPRootNode> implements ProgramEventListener<N>, PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(ProgramIndex.class.getName());
+
+    /** Cached observation attributes. */
+    private static final class ObsEntry {
+        final ISPObservation obs;
+        ObservationStatus status;
+        ObsClass obsClass;
+
+        ObsEntry(ISPObservation obs) {
+            this.obs = obs;
+        }
+
+        void refresh() {
+            try {
+                status   = ObservationStatus.computeFor(obs);
+                obsClass = ObsClassService.lookupObsClass(obs);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Couldn't index observation " + obs.getObservationID(), ex);
+                status   = null;
+                obsClass = null;
+            }
+        }
+    }
+
+    /** Cached program attributes. */
+    private final class Entry {
+        final N prog;
+
+        // Derived from the program id, guarded by the ProgramIndex.
+        Semester semester;
+        ProgramType type;
+        Site site;
+
+        // Guarded by this entry.
+        boolean active;
+        boolean completed;
+        List<ObsEntry> obsList = Collections.emptyList();
+        final Map<SPNodeKey, ObsEntry> obsMap = new HashMap<>();
+
+        // Invalidation flags, set by change events.
+        volatile boolean stale = true;
+        final Set<SPNodeKey> staleObs = ConcurrentHashMap.newKeySet();
+
+        Entry(N prog) {
+            this.prog = prog;
+        }
+
+        synchronized void refresh() {
+            if (stale) {
+                stale = false;
+                staleObs.clear();
+                _reindexId(this);
+
+                final Object dataObj = prog.getReadOnlyDataObject();
+                if (dataObj instanceof SPProgram) {
+                    active    = ((SPProgram) dataObj).isActive();
+                    completed = ((SPProgram) dataObj).isCompleted();
+                } else {
+                    active    = false;
+                    completed = false;
+                }
+
+                final List<ObsEntry> lst = new ArrayList<>();
+                obsMap.clear();
+                if (prog instanceof ISPProgram) {
+                    for (ISPObservation obs : ((ISPProgram) prog).getAllObservations()) {
+                        final ObsEntry oe = new ObsEntry(obs);
+                        oe.refresh();
+                        lst.add(oe);
+                        obsMap.put(obs.getNodeKey(), oe);
+                    }
+                }
+                obsList = lst;
+            } else if (!staleObs.isEmpty()) {
+                for (Iterator<SPNodeKey> it = staleObs.iterator(); it.hasNext(); ) {
+                    final ObsEntry oe = obsMap.get(it.next());
+                    it.remove();
+                    if (oe != null) oe.refresh();
+                }
+            }
+        }
+    }
+
+    private final ProgramManager<N> _progMan;
+    private final Map<SPNodeKey, Entry> _entries = new ConcurrentHashMap<>();
+
+    // Inverted indexes, guarded by this.
+    private final Map<Semester, Set<Entry>> _bySemester = new HashMap<>();
+    private final Map<ProgramType, Set<Entry>> _byType  = new HashMap<>();
+    private final Map<Site, Set<Entry>> _bySite         = new HashMap<>();
+
+    /**
+     * Creates the index, adding all the programs currently known to the
+     * program manager and listening for programs that are added or removed.
+     */
+    ProgramIndex(ProgramManager<N> pm) {
+        _progMan = pm;
+        for (N prog : pm.getPrograms()) _add(prog);
+        pm.addListener(this);
+    }
+
+    /**
+     * Stops tracking programs.
+     */
+    void shutdown() {
+        _progMan.removeListener(this);
+        for (Entry e : _entries.values()) e.prog.removeCompositeChangeListener(this);
+        _entries.clear();
+        synchronized (this) {
+            _bySemester.clear();
+            _byType.clear();
+            _bySite.clear();
+        }
+    }
+
+    private void _add(N prog) {
+        final Entry e = new Entry(prog);
+        final Entry old = _entries.put(prog.getProgramKey(), e);
+        if (old != null) _remove(old);
+        prog.addCompositeChangeListener(this);
+        _reindexId(e);
+    }
+
+    private void _remove(Entry e) {
+        e.prog.removeCompositeChangeListener(this);
+        synchronized (this) {
+            _unindex(_bySemester, e.semester, e);
+            _unindex(_byType, e.type, e);
+            _unindex(_bySite, e.site, e);
+        }
+    }
+
+    public void programAdded(ProgramEvent<N> pme) {
+        _add(pme.getNewProgram());
+    }
+
+    public void programReplaced(ProgramEvent<N> pme) {
+        programRemoved(pme);
+        programAdded(pme);
+    }
+
+    public void programRemoved(ProgramEvent<N> pme) {
+        final N prog  = pme.getOldProgram();
+        final Entry e = _entries.get(prog.getProgramKey());
+        if ((e != null) && (e.prog == prog)) {
+            _entries.remove(prog.getProgramKey());
+            _remove(e);
+        }
+    }
+
+    @Override public void propertyChange(PropertyChangeEvent pce) {
+        if (SPUtil.isTransientClientDataPropertyName(pce.getPropertyName())) return;
+
+        final Object src = pce.getSource();
+        if (!(src instanceof ISPNode)) return;
+
+        final ISPNode node = (ISPNode) src;
+        final ISPRootNode root = node.getRootAncestor();
+        if (root == null) return;
+
+        final Entry e = _entries.get(root.getProgramKey());
+        if (e == null) return;
+
+        // Changes inside an observation (its data object, components, logs)
+        // only affect that observation.  Anything else may have changed the
+        // program's data object, id or set of observations.
+        final ISPObservation obs = (node instanceof ISPObservation) ? (ISPObservation) node : node.getContextObservation();
+        if (obs == null) {
+            e.stale = true;
+        } else {
+            e.staleObs.add(obs.getNodeKey());
+        }
+    }
+
+    private synchronized void _reindexId(Entry e) {
+        Semester semester = null;
+        ProgramType type  = null;
+        Site site         = null;
+
+        final SPProgramID id = e.prog.getProgramID();
+        if (id != null) {
+            final ProgramId pid = ProgramId$.MODULE$.parse(id.stringValue());
+            if (pid.semester().isDefined()) semester = pid.semester().get();
+            if (pid.ptype().isDefined())    type     = pid.ptype().get();
+            if (pid.site().isDefined())     site     = pid.site().get();
+        }
+
+        _reindex(_bySemester, e.semester, semester, e);
+        _reindex(_byType, e.type, type, e);
+        _reindex(_bySite, e.site, site, e);
+        e.semester = semester;
+        e.type     = type;
+        e.site     = site;
+    }
+
+    private static <K> void _reindex(Map<K, Set<Entry>> index, K oldKey, K newKey, Entry e) {
+        _unindex(index, oldKey, e);
+        if (newKey != null) index.computeIfAbsent(newKey, k -> new HashSet<>()).add(e);
+    }
+
+    private static <K> void _unindex(Map<K, Set<Entry>> index, K key, Entry e) {
+        if (key == null) return;
+        final Set<Entry> s = index.get(key);
+        if (s == null) return;
+        s.remove(e);
+        if (s.isEmpty()) index.remove(key);
+    }
+
+    private static <K> Set<Entry> _lookup(Map<K, Set<Entry>> index, Set<K> keys) {
+        final Set<Entry> res = new HashSet<>();
+        for (K k : keys) {
+            final Set<Entry> s = index.get(k);
+            if (s != null) res.addAll(s);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the candidate entries for the filter's id-based criteria, or all
+     * entries if there are none.
+     */
+    private Collection<Entry> _candidates(DBQueryFilter filter) {
+        // Program ids rarely change, but bring any stale entries up to date
+        // before consulting the id indexes.
+        for (Entry e : _entries.values()) if (e.stale) e.refresh();
+
+        Set<Entry> res = null;
+        synchronized (this) {
+            if (filter.getSemesters() != null) res = _lookup(_bySemester, filter.getSemesters());
+            if (filter.getTypes() != null) {
+                final Set<Entry> s = _lookup(_byType, filter.getTypes());
+                if (res == null) res = s; else res.retainAll(s);
+            }
+            if (filter.getSites() != null) {
+                final Set<Entry> s = _lookup(_bySite, filter.getSites());
+                if (res == null) res = s; else res.retainAll(s);
+            }
+        }
+        return (res == null) ? new ArrayList<>(_entries.values()) : res;
+    }
+
+    private static boolean _matches(Boolean required, boolean actual) {
+        return (required == null) || (required == actual);
+    }
+
+    private static <T> boolean _matches(Set<T> required, T actual) {
+        return (required == null) || ((actual != null) && required.contains(actual));
+    }
+
+    /**
+     * Gets the programs matching the given filter, ordered by program key as
+     * in <code>{@link ProgramManager#getPrograms}</code>.
+     */
+    List<N> programs(DBQueryFilter filter) {
+        final List<N> res = new ArrayList<>();
+        for (Entry e : _sorted(_candidates(filter))) {
+            synchronized (e) {
+                e.refresh();
+                if (_matches(filter.getActive(), e.active) && _matches(filter.getCompleted(), e.completed)) {
+                    res.add(e.prog);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Gets the observations of the programs matching the given filter that
+     * also match its observation criteria.
+     */
+    List<ISPObservation> observations(DBQueryFilter filter) {
+        final List<ISPObservation> res = new ArrayList<>();
+        for (Entry e : _sorted(_candidates(filter))) {
+            synchronized (e) {
+                e.refresh();
+                if (!_matches(filter.getActive(), e.active) || !_matches(filter.getCompleted(), e.completed)) {
+                    continue;
+                }
+                for (ObsEntry oe : e.obsList) {
+                    if (_matches(filter.getObsStatuses(), oe.status) && _matches(filter.getObsClasses(), oe.obsClass)) {
+                        res.add(oe.obs);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    private List<Entry> _sorted(Collection<Entry> entries) {
+        final List<Entry> lst = new ArrayList<>(entries);
+        lst.sort((e0, e1) -> e0.prog.getProgramKey().compareTo(e1.prog.getProgramKey()));
+        return lst;
+    }
+}
@@ -0,0 +1,605 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.memImpl.MemFieldSerializer;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, per-program journal of data object updates.  Rather than
+ * rewriting an entire program file for every edit, the new data object and
+ * node version of each modified node are appended to a small journal file.
+ * The program file itself (the "snapshot") is only rewritten when the
+ * journal is compacted.
+ *
+ * <p>Appends are not forced to disk by the thread making the change, which
+ * holds the program's write lock.  Instead, journals with new entries are
+ * forced together by a flusher thread every few milliseconds (group commit),
+ * so a large edit costs one disk flush per interval rather than one per
+ * node.  The durability window is therefore the flush interval: after an
+ * operating system crash or power loss, updates appended up to
+ * <code>flushMs</code> (plus the duration of a flush) before the crash may be
+ * lost, while a crash of the ODB process alone loses nothing that was
+ * appended.  The interval is set with the
+ * <code>edu.gemini.pot.spdb.ProgramJournal.flushMs</code> property (default
+ * 10 ms).  Journals are also forced when they are rotated for compaction.
+ *
+ * <p>Compaction works in three steps so that a crash at any point leaves a
+ * recoverable database:
+ * <ol>
+ *   <li>{@link #rotate} moves the current journal aside to an
+ *   <code>.old</code> file (merging it with any left over from a failed
+ *   compaction), so that edits made while the snapshot is written go to a
+ *   fresh journal</li>
+ *   <li>the snapshot is written to a temp file, forced to disk and moved
+ *   over the program file, and the directory is synced</li>
+ *   <li>{@link #finishCompaction} deletes the <code>.old</code> file</li>
+ * </ol>
+ *
+ * Each entry records the complete state of the node's data object, so
+ * replaying an entry that is already reflected in the snapshot is harmless.
+ * An update spanning several nodes may instead be appended as a single
+ * commit entry (see {@link #appendCommit}) holding each node's data object
+ * and the program's complete version map, so that it is replayed all or
+ * nothing.
+ * On startup {@link #replay} applies the <code>.old</code> journal and then
+ * the current journal to the freshly loaded snapshot.
+ *
+ * <p>Entries are framed as <code>[int length][long crc32][bytes]</code>.  A
+ * torn final entry left by a crash is detected and ignored.  The bytes start
+ * with a format version and record kind, and data objects are written as PIO
+ * XML parameter sets with the <code>{@link MemFieldSerializer}</code>, as in
+ * the compact program file format, so that journaled updates remain readable
+ * as the data object classes evolve.
+ *
+ * <p>If an entry nevertheless can't be read, the remaining entries can't be
+ * applied either.  Rather than letting the next compaction delete them,
+ * {@link #replay} moves the journal aside to a <code>.jnl.failed</code> file
+ * and throws a {@link ReplayException}.  The failed journal is never touched
+ * again, it is left for manual recovery.
+ */
+final class ProgramJournal {
+    private static final Logger LOG = Logger.getLogger(ProgramJournal.class.getName());
+
+    static final String SUFFIX        = ".jnl";
+    static final String OLD_SUFFIX    = ".jnl.old";
+    static final String FAILED_SUFFIX = ".failed";
+
+    /** Version of the journal record format. */
+    static final byte FORMAT_VERSION = 1;
+
+    private static final byte ENTRY  = 0;
+    private static final byte COMMIT = 1;
+
+    private static final String FLUSH_MS_PROP    = ProgramJournal.class.getName() + ".flushMs";
+    private static final long   DEFAULT_FLUSH_MS = 10;
+
+    static long getFlushMs() {
+        final String s = System.getProperty(FLUSH_MS_PROP);
+        if (s == null) return DEFAULT_FLUSH_MS;
+        try {
+            final long ms = Long.parseLong(s);
+            if (ms > 0) return ms;
+        } catch (NumberFormatException ex) {
+            // fall through to the default
+        }
+        LOG.warning("Could not parse value of property '" + FLUSH_MS_PROP + "': " + s);
+        return DEFAULT_FLUSH_MS;
+    }
+
+    // Forces the journals of all databases, a single daemon thread.
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "ProgramJournal flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Thrown by {@link #replay} when journaled updates can't be read.  Any
+     * entries preceding the unreadable one have been applied, the journal
+     * itself has been moved aside to {@link #failedFile}.
+     */
+    static final class ReplayException extends IOException {
+        final int applied;
+        final File failedFile;
+
+        ReplayException(String message, Throwable cause, int applied, File failedFile) {
+            super(message, cause);
+            this.applied    = applied;
+            this.failedFile = failedFile;
+        }
+    }
+
+    /** A single journaled data object update. */
+    private static final class Entry {
+        final SPNodeKey key;
+        final ISPDataObject dataObject;
+        final VersionVector<LifespanId, Integer> version;
+
+        Entry(SPNodeKey key, ISPDataObject dataObject, VersionVector<LifespanId, Integer> version) {
+            this.key        = key;
+            this.dataObject = dataObject;
+            this.version    = version;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            MemFieldSerializer.writeKey(out, key);
+            MemFieldSerializer.writeDataObject(out, dataObject);
+            MemFieldSerializer.writeNodeVersion(out, version);
+        }
+
+        // Reads an entry for one of the given nodes, or returns null if the
+        // node no longer exists.
+        static Entry read(DataInputStream in, Map<SPNodeKey, ISPNode> nodes, File f) throws IOException {
+            final SPNodeKey key = MemFieldSerializer.readKey(in);
+            final ISPNode node  = nodes.get(key);
+            if (node == null) {
+                LOG.warning("Journal " + f + " refers to missing node " + key);
+                MemFieldSerializer.skipDataObject(in);
+                MemFieldSerializer.readNodeVersion(in);
+                return null;
+            }
+            final ISPDataObject dobj = MemFieldSerializer.readDataObject(in, node);
+            return new Entry(key, dobj, MemFieldSerializer.readNodeVersion(in));
+        }
+
+        void apply(Map<SPNodeKey, ISPNode> nodes) {
+            nodes.get(key).setDataObjectAndVersion(dataObject, version);
+        }
+    }
+
+    /** The open journal file for one program. */
+    private static final class Writer {
+        final File file;
+        FileChannel channel;
+        long size;
+
+        Writer(File file) {
+            this.file = file;
+            this.size = file.length();
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Couldn't close journal " + file, ex);
+            }
+            channel = null;
+        }
+    }
+
+    private final File _dir;
+    private final Map<SPNodeKey, Writer> _writers = new HashMap<>();
+
+    // Writers with entries that have not been forced to disk yet.
+    private final Set<Writer> _unforced = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> _flushTask;
+
+    private final AtomicLong _appends            = new AtomicLong();
+    private final AtomicLong _appendBytes        = new AtomicLong();
+    private final AtomicLong _fsyncs             = new AtomicLong();
+    private final AtomicLong _fsyncNanos         = new AtomicLong();
+    private final AtomicLong _fsyncMaxNanos      = new AtomicLong();
+    private final AtomicLong _compactions        = new AtomicLong();
+    private final AtomicLong _compactionNanos    = new AtomicLong();
+    private final AtomicLong _compactionMaxNanos = new AtomicLong();
+    private final AtomicLong _replayed           = new AtomicLong();
+
+    ProgramJournal(File dir) throws IOException {
+        if (!(dir.isDirectory() || dir.mkdirs())) {
+            throw new IOException("Could not create the journal directory: " + dir.getPath());
+        }
+        _dir = dir;
+
+        final long flushMs = getFlushMs();
+        _flushTask = FLUSHER.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    private File _file(SPNodeKey key) {
+        return new File(_dir, key.toString() + SUFFIX);
+    }
+
+    private File _oldFile(SPNodeKey key) {
+        return new File(_dir, key.toString() + OLD_SUFFIX);
+    }
+
+    private synchronized Writer _writer(SPNodeKey key) {
+        Writer w = _writers.get(key);
+        if (w == null) {
+            w = new Writer(_file(key));
+            _writers.put(key, w);
+        }
+        return w;
+    }
+
+    private static void _max(AtomicLong max, long value) {
+        long cur;
+        do {
+            cur = max.get();
+        } while ((value > cur) && !max.compareAndSet(cur, value));
+    }
+
+    /**
+     * Appends the given node's data object and version to the journal of the
+     * program with key <code>progKey</code>.  The entry is forced to disk by
+     * the next {@link #flush}.
+     */
+    void append(SPNodeKey progKey, ISPNode node, ISPDataObject dataObject) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(ENTRY);
+            new Entry(node.getNodeKey(), dataObject, node.getVersion()).write(out);
+        }
+        _append(progKey, bytes.toByteArray());
+    }
+
+    /**
+     * Appends the current data objects and versions of the given nodes and
+     * the program's version map to its journal as a single entry.
+     */
+    void appendCommit(ISPProgram prog, Collection<ISPNode> nodes) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(COMMIT);
+            out.writeInt(nodes.size());
+            for (ISPNode n : nodes) new Entry(n.getNodeKey(), n.getDataObject(), n.getVersion()).write(out);
+            MemFieldSerializer.writeVersions(out, prog.getVersions());
+        }
+        _append(prog.getProgramKey(), bytes.toByteArray());
+    }
+
+    private void _append(SPNodeKey progKey, byte[] payload) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        final ByteBuffer buf = ByteBuffer.allocate(12 + payload.length);
+        buf.putInt(payload.length).putLong(crc.getValue()).put(payload);
+        buf.flip();
+
+        final Writer w = _writer(progKey);
+        synchronized (w) {
+            if (w.channel == null) {
+                w.channel = FileChannel.open(w.file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (buf.hasRemaining()) w.channel.write(buf);
+            w.size += 12 + payload.length;
+        }
+        _unforced.add(w);
+        _appends.incrementAndGet();
+        _appendBytes.addAndGet(12 + payload.length);
+    }
+
+    /**
+     * Forces the journals with new entries to disk.  Called periodically by
+     * the flusher thread.  Appends to a journal aren't blocked while it is
+     * forced.
+     */
+    void flush() {
+        for (Writer w : _unforced) {
+            _unforced.remove(w);
+            final FileChannel channel;
+            synchronized (w) {
+                channel = w.channel;
+            }
+            if (channel == null) continue; // rotated or removed, see _force
+            try {
+                _force(channel);
+            } catch (ClosedChannelException ex) {
+                // rotated or removed in the meantime, which forces it first
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Couldn't force journal " + w.file, ex);
+                _unforced.add(w);
+            }
+        }
+    }
+
+    private void _force(FileChannel channel) throws IOException {
+        final long start = System.nanoTime();
+        channel.force(false);
+        final long elapsed = System.nanoTime() - start;
+        _fsyncs.incrementAndGet();
+        _fsyncNanos.addAndGet(elapsed);
+        _max(_fsyncMaxNanos, elapsed);
+    }
+
+    // Forces and closes the journal file, called with the writer's lock held.
+    private void _forceAndClose(Writer w) {
+        if (w.channel == null) return;
+        try {
+            _force(w.channel);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Couldn't force journal " + w.file, ex);
+        }
+        w.close();
+        _unforced.remove(w);
+    }
+
+    /**
+     * Gets the number of bytes currently journaled for the given program.
+     */
+    long size(SPNodeKey progKey) {
+        final Writer w;
+        synchronized (this) {
+            w = _writers.get(progKey);
+        }
+        if (w == null) return 0;
+        synchronized (w) {
+            return w.size;
+        }
+    }
+
+    /**
+     * Moves the current journal aside in preparation for writing a new
+     * snapshot of the program.
+     *
+     * @return <code>true</code> if there was anything journaled for the
+     * program, in which case {@link #finishCompaction} should be called once
+     * the snapshot is safely written
+     */
+    boolean rotate(SPNodeKey progKey) throws IOException {
+        final File old = _oldFile(progKey);
+        final Writer w = _writer(progKey);
+        synchronized (w) {
+            _forceAndClose(w);
+            w.size = 0;
+            if (!w.file.exists()) return old.exists();
+
+            if (old.exists()) {
+                // A previous compaction failed, keep its entries ahead of ours.
+                // Force them before deleting the journal they came from.
+                try (FileChannel ch = FileChannel.open(old.toPath(), StandardOpenOption.APPEND)) {
+                    final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(w.file.toPath()));
+                    while (buf.hasRemaining()) ch.write(buf);
+                    ch.force(false);
+                }
+                Files.delete(w.file.toPath());
+            } else {
+                Files.move(w.file.toPath(), old.toPath());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Discards the rotated journal now that a snapshot containing its updates
+     * has been written, forced to disk and moved into place.
+     *
+     * @param nanos time taken to write the snapshot
+     */
+    void finishCompaction(SPNodeKey progKey, long nanos) {
+        final File old = _oldFile(progKey);
+        if (old.exists() && !old.delete()) LOG.warning("Couldn't delete journal " + old);
+        _compactions.incrementAndGet();
+        _compactionNanos.addAndGet(nanos);
+        _max(_compactionMaxNanos, nanos);
+    }
+
+    /**
+     * Deletes all journal files for the given program.
+     */
+    void remove(SPNodeKey progKey) {
+        final Writer w;
+        synchronized (this) {
+            w = _writers.remove(progKey);
+        }
+        if (w != null) {
+            synchronized (w) { w.close(); }
+            _unforced.remove(w);
+        }
+        _file(progKey).delete();
+        _oldFile(progKey).delete();
+    }
+
+    /**
+     * Stops the periodic flush, then forces and closes all open journal
+     * files.
+     */
+    synchronized void close() {
+        _flushTask.cancel(false);
+        for (Writer w : _writers.values()) {
+            synchronized (w) { _forceAndClose(w); }
+        }
+    }
+
+    /**
+     * Applies any journaled updates to the given freshly loaded program.
+     *
+     * @return number of entries applied
+     *
+     * @throws ReplayException if an entry couldn't be read, in which case the
+     * journal has been moved aside
+     */
+    int replay(ISPRootNode root) throws ReplayException {
+        final SPNodeKey progKey = root.getProgramKey();
+        final File old = _oldFile(progKey);
+        final File cur = _file(progKey);
+        if (!old.exists() && !cur.exists()) return 0;
+
+        final Map<SPNodeKey, ISPNode> nodes = new HashMap<>();
+        _index(root, nodes);
+
+        final int[] count = new int[1];
+        try {
+            _replay(root, old, nodes, count);
+            _replay(root, cur, nodes, count);
+        } catch (Exception ex) {
+            _replayed.addAndGet(count[0]);
+            final File failed = _setAside(progKey);
+            throw new ReplayException("Couldn't replay journal for " + progKey, ex, count[0], failed);
+        }
+        _replayed.addAndGet(count[0]);
+        return count[0];
+    }
+
+    private static void _index(ISPNode node, Map<SPNodeKey, ISPNode> nodes) {
+        nodes.put(node.getNodeKey(), node);
+        if (node instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) node).getChildren()) _index(child, nodes);
+        }
+    }
+
+    private static void _replay(ISPRootNode root, File f, Map<SPNodeKey, ISPNode> nodes, int[] count) throws IOException {
+        if (!f.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            while (true) {
+                final int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException ex) {
+                    break; // clean end of journal
+                }
+                final long crc = in.readLong();
+                final byte[] payload = new byte[len];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException ex) {
+                    LOG.warning("Ignoring truncated journal entry in " + f);
+                    break;
+                }
+
+                final CRC32 check = new CRC32();
+                check.update(payload, 0, payload.length);
+                if (check.getValue() != crc) {
+                    LOG.warning("Ignoring corrupt journal entry in " + f);
+                    break;
+                }
+
+                if (_apply(root, new DataInputStream(new ByteArrayInputStream(payload)), nodes, f)) ++count[0];
+            }
+        }
+    }
+
+    // Reads a complete record before applying any of it, so that a commit is
+    // applied entirely or not at all.
+    private static boolean _apply(ISPRootNode root, DataInputStream in, Map<SPNodeKey, ISPNode> nodes, File f) throws IOException {
+        final byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported journal format version: " + version);
+        }
+
+        final byte kind = in.readByte();
+        switch (kind) {
+            case ENTRY: {
+                final Entry e = Entry.read(in, nodes, f);
+                if (e == null) return false;
+                e.apply(nodes);
+                return true;
+            }
+            case COMMIT: {
+                final List<Entry> entries = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; --i) {
+                    final Entry e = Entry.read(in, nodes, f);
+                    if (e != null) entries.add(e);
+                }
+                final scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions =
+                        MemFieldSerializer.readVersions(in);
+                for (Entry e : entries) e.apply(nodes);
+                if (root instanceof ISPProgram) ((ISPProgram) root).setVersions(versions);
+                return true;
+            }
+            default:
+                throw new IOException("Unsupported journal record: " + kind);
+        }
+    }
+
+    /**
+     * Moves the journal files of the given program aside to a single
+     * <code>.jnl.failed</code> file, oldest entries first, so that they are
+     * neither replayed nor deleted by compaction.
+     *
+     * @return the failed journal file
+     */
+    private File _setAside(SPNodeKey progKey) {
+        final Writer w = _writer(progKey);
+        synchronized (w) {
+            _forceAndClose(w);
+            w.size = 0;
+
+            File failed = new File(_dir, progKey + SUFFIX + FAILED_SUFFIX);
+            for (int i = 1; failed.exists(); ++i) {
+                failed = new File(_dir, progKey + SUFFIX + FAILED_SUFFIX + "." + i);
+            }
+            try {
+                for (File f : new File[] { _oldFile(progKey), _file(progKey) }) {
+                    if (!f.exists()) continue;
+                    Files.write(failed.toPath(), Files.readAllBytes(f.toPath()),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    Files.delete(f.toPath());
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "Couldn't move journal of " + progKey + " aside to " + failed, ex);
+            }
+            return failed;
+        }
+    }
+
+    /**
+     * Copies the given program file next to the program's failed journal,
+     * keeping the snapshot that the failed journal applies to before it is
+     * replaced.  Does nothing if a copy has already been made.
+     */
+    void setAsideSnapshot(SPNodeKey progKey, File snapshot) throws IOException {
+        final File copy = new File(_dir, progKey + FAILED_SUFFIX);
+        if (copy.exists() || !snapshot.exists()) return;
+        Files.copy(snapshot.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private synchronized long _totalSize() {
+        long total = 0;
+        for (Writer w : _writers.values()) total += w.size;
+        return total;
+    }
+
+    /**
+     * Adds the journal metrics to the given map.
+     */
+    void addMetrics(Map<String, Long> metrics) {
+        final long appends = _appends.get();
+        final long fsyncs  = _fsyncs.get();
+        final long comps   = _compactions.get();
+        metrics.put("journal.bytes",              _totalSize());
+        metrics.put("journal.appends",            appends);
+        metrics.put("journal.appendBytes",        _appendBytes.get());
+        metrics.put("journal.fsyncs",             fsyncs);
+        metrics.put("journal.fsyncAvgMicros",     (fsyncs == 0) ? 0 : _fsyncNanos.get() / fsyncs / 1000);
+        metrics.put("journal.fsyncMaxMicros",     _fsyncMaxNanos.get() / 1000);
+        metrics.put("journal.compactions",        comps);
+        metrics.put("journal.compactionAvgMs",    (comps == 0) ? 0 : _compactionNanos.get() / comps / 1000000);
+        metrics.put("journal.compactionMaxMs",    _compactionMaxNanos.get() / 1000000);
+        metrics.put("journal.replayedEntries",    _replayed.get());
+    }
+}
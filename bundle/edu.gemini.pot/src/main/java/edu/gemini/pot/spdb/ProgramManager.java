@@ -14,7 +14,8 @@ import java.util.logging.Logger;
  * The <code>ProgramManager</code> is the centralized place where references
  * to all the programs in the database are kept.  It provides access to those
  * programs and support for listening to changes when programs are added or
- * removed.
+ * removed.  It also maintains a <code>{@link ProgramIndex}</code> used to
+ * answer filtered queries.
  */
 final class ProgramManager<N extends ISPRootNode> {
     private static final Logger LOG = Logger.getLogger(ProgramManager.class.getName());
@@ -22,6 +23,7 @@ final class ProgramManager<N extends ISPRootNode> {
     private final List<ProgramEventListener<N>> _listeners;  // Can't use EventSupport with non-public inf.
     private final Map<SPNodeKey, N>   _progKeyMap;
     private final Map<SPProgramID, N> _progIdMap;
+    private final ProgramIndex<N> _index;
 
     /**
      * Constructs with the initial collection of programs.
@@ -36,6 +38,15 @@ final class ProgramManager<N extends ISPRootNode> {
             final SPProgramID progId = prog.getProgramID();
             if (progId != null) _progIdMap.put(progId, prog);
         }
+
+        _index = new ProgramIndex<>(this);
+    }
+
+    /**
+     * Gets the secondary indexes over the programs.
+     */
+    ProgramIndex<N> getIndex() {
+        return _index;
     }
 
     /**
@@ -188,6 +199,7 @@ final class ProgramManager<N extends ISPRootNode> {
      * Shuts down the program manager, un-exporting all of its programs.
      */
     synchronized void shutdown() {
+        _index.shutdown();
         _progKeyMap.clear();
         _progIdMap.clear();
     }
@@ -3,10 +3,12 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +20,44 @@ import java.util.logging.Logger;
 final class QueryRunner implements IDBQueryRunner {
     private static final Logger LOG = Logger.getLogger(QueryRunner.class.getName());
 
+    private static final String PARALLELISM_PROP    = QueryRunner.class.getName() + ".parallelism";
+    private static final String PARTITION_SIZE_PROP = QueryRunner.class.getName() + ".partitionSize";
+
+    private static final int DEFAULT_PARTITION_SIZE = 32;
+
+    /**
+     * Gets the number of threads used to execute the partitions of
+     * <code>{@link IDBSplittableQueryFunctor}</code>s.  Defaults to the number
+     * of available processors.
+     */
+    static int getParallelism() {
+        return parseProp(PARALLELISM_PROP, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the smallest number of nodes that will be handled by a single
+     * partition functor.  Node lists smaller than twice this size are not
+     * split at all.
+     */
+    static int getPartitionSize() {
+        return parseProp(PARTITION_SIZE_PROP, DEFAULT_PARTITION_SIZE);
+    }
+
+    private static int parseProp(String propName, int defaultVal) {
+        final String propStr = System.getProperty(propName);
+        if (propStr == null) return defaultVal;
+
+        try {
+            final int intVal = Integer.parseInt(propStr);
+            if (intVal > 0) return intVal;
+            LOG.warning("Value of property '" + propName + "' was less than 1 (" +
+                        propStr + ") using default value: " + defaultVal);
+        } catch (NumberFormatException ex) {
+            LOG.warning("Could not parse value of property '" + propName + "': " + propStr);
+        }
+        return defaultVal;
+    }
+
     private DBLocalDatabase _database;
     private DatabaseManager _dataMan;
     private Set<Principal> _principals;
@@ -35,7 +75,7 @@ final class QueryRunner implements IDBQueryRunner {
      * Runs a query on the available observations.
      */
     public <T extends IDBQueryFunctor> T queryObservations(T queryFunctor) {
-        List<ISPObservation> lst = new LinkedList<>();
+        List<ISPObservation> lst = new ArrayList<>();
         for (ISPProgram prog : _dataMan.getProgramManager().getPrograms()) {
             lst.addAll(prog.getAllObservations());
         }
@@ -50,6 +90,22 @@ final class QueryRunner implements IDBQueryRunner {
         return _doQuery(lst, queryFunctor);
     }
 
+    /**
+     * Runs a query on the observations matching the filter.
+     */
+    public <T extends IDBQueryFunctor> T queryObservations(DBQueryFilter filter, T queryFunctor) {
+        final List<ISPObservation> lst = _dataMan.getProgramManager().getIndex().observations(filter);
+        return _doQuery(lst, queryFunctor);
+    }
+
+    /**
+     * Runs a query on the programs matching the filter.
+     */
+    public <T extends IDBQueryFunctor> T queryPrograms(DBQueryFilter filter, T queryFunctor) {
+        final List<ISPProgram> lst = _dataMan.getProgramManager().getIndex().programs(filter);
+        return _doQuery(lst, queryFunctor);
+    }
+
     /**
      * Runs a query on the available nightly plans.
      */
@@ -67,15 +123,16 @@ final class QueryRunner implements IDBQueryRunner {
      */
     <T extends IDBQueryFunctor> T _doQuery(final List<? extends ISPNode> nodeList, final T queryFunctor) {
         WithPriority.exec(queryFunctor.getPriority(), () -> {
-            Iterator<? extends ISPNode> it = nodeList.iterator();
             FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor);
             try {
-                queryFunctor.init();
-                while (!queryFunctor.isDone() && it.hasNext()) {
-                    ISPNode node = it.next();
-                    queryFunctor.execute(_database, node, _principals);
+                final int partitionSize = getPartitionSize();
+                if ((queryFunctor instanceof IDBSplittableQueryFunctor) && (nodeList.size() >= 2 * partitionSize)) {
+                    _doParallelQuery(nodeList, (IDBSplittableQueryFunctor) queryFunctor, partitionSize);
+                } else {
+                    queryFunctor.init();
+                    _applyFunctor(nodeList, queryFunctor);
+                    queryFunctor.finished();
                 }
-                queryFunctor.finished();
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, "Problem running functor: " + queryFunctor, ex);
                 queryFunctor.setException(ex);
@@ -85,4 +142,70 @@ final class QueryRunner implements IDBQueryRunner {
         return queryFunctor;
     }
 
+    /**
+     * Applies the functor to each node in the list in turn, until the list is
+     * exhausted or the functor reports that it is done.
+     */
+    private void _applyFunctor(List<? extends ISPNode> nodeList, IDBQueryFunctor queryFunctor) {
+        Iterator<? extends ISPNode> it = nodeList.iterator();
+        while (!queryFunctor.isDone() && it.hasNext()) {
+            ISPNode node = it.next();
+            queryFunctor.execute(_database, node, _principals);
+        }
+    }
+
+    /**
+     * Splits the node list into partitions that are executed by the query
+     * pool, each with its own functor, and then merges the partition results
+     * back into the original functor.
+     */
+    private void _doParallelQuery(List<? extends ISPNode> nodeList, IDBSplittableQueryFunctor queryFunctor, int partitionSize) {
+        queryFunctor.init();
+        final PartitionTask root = new PartitionTask(nodeList, queryFunctor, partitionSize);
+        final List<IDBFunctor> parts = _dataMan.queryPool.invoke(root);
+        queryFunctor.mergeResults(parts);
+        queryFunctor.finished();
+    }
+
+    /**
+     * Recursively divides the node list in half until it is no larger than
+     * the partition size, then applies a fresh partition functor to it.  The
+     * result is the list of partition functors in node order.
+     */
+    private final class PartitionTask extends RecursiveTask<List<IDBFunctor>> {
+        private final List<? extends ISPNode> _nodeList;
+        private final IDBSplittableQueryFunctor _parent;
+        private final int _partitionSize;
+
+        PartitionTask(List<? extends ISPNode> nodeList, IDBSplittableQueryFunctor parent, int partitionSize) {
+            _nodeList      = nodeList;
+            _parent        = parent;
+            _partitionSize = partitionSize;
+        }
+
+        @Override protected List<IDBFunctor> compute() {
+            final int size = _nodeList.size();
+            if (size < 2 * _partitionSize) return Collections.singletonList(_runPartition());
+
+            final int mid = size / 2;
+            final PartitionTask left  = new PartitionTask(_nodeList.subList(0, mid), _parent, _partitionSize);
+            final PartitionTask right = new PartitionTask(_nodeList.subList(mid, size), _parent, _partitionSize);
+            right.fork();
+
+            final List<IDBFunctor> res = new ArrayList<>(left.compute());
+            res.addAll(right.join());
+            return res;
+        }
+
+        private IDBFunctor _runPartition() {
+            final IDBSplittableQueryFunctor part = _parent.split();
+            WithPriority.exec(_parent.getPriority(), () -> {
+                part.init();
+                _applyFunctor(_nodeList, part);
+                part.finished();
+            });
+            return part;
+        }
+    }
+
 }
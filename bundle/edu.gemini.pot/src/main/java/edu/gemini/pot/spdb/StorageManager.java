@@ -7,14 +7,32 @@
 
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.spModel.core.SPProgramID;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The <code>StorageManager</code>
+ * The <code>StorageManager</code> periodically stores programs that have been
+ * modified.  The programs that are dirty at each storage interval are written
+ * concurrently on a shared, bounded pool of storage threads (see
+ * {@link #createStorePool}).  A program modified many times between storage
+ * intervals is written only once, and a program is never written by two
+ * threads at once.
  */
 final class StorageManager<N extends ISPRootNode> implements ProgramEventListener<N> {
     private static final Logger LOG = Logger.getLogger(StorageManager.class.getName());
@@ -25,6 +43,64 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
      */
     public static final long DEFAULT_STORAGE_INTERVAL = 1000 * 10;
 
+    /**
+     * The default maximum time that data object updates remain in a
+     * program's journal before being compacted into the program file.  By
+     * default the value is 10 minutes.
+     */
+    public static final long DEFAULT_COMPACTION_INTERVAL = 1000 * 60 * 10;
+
+    /**
+     * The default journal size beyond which a program's journal is compacted
+     * into the program file at the next storage interval.  By default the
+     * value is 1 MB.
+     */
+    public static final long DEFAULT_COMPACTION_SIZE = 1024 * 1024;
+
+    private static final String COMPACTION_INTERVAL_PROP = StorageManager.class.getName() + ".compactionInterval";
+    private static final String COMPACTION_SIZE_PROP     = StorageManager.class.getName() + ".compactionSize";
+    private static final String STORE_THREADS_PROP       = StorageManager.class.getName() + ".storeThreads";
+
+    /** Number of per-program store latencies reported in the metrics. */
+    private static final int SLOWEST_COUNT = 10;
+
+    private static long parseProp(String propName, long defaultVal) {
+        final String propStr = System.getProperty(propName);
+        if (propStr == null) return defaultVal;
+        try {
+            final long val = Long.parseLong(propStr);
+            if (val > 0) return val;
+        } catch (NumberFormatException ex) {
+            // fall through to the default
+        }
+        LOG.warning("Could not parse value of property '" + propName + "': " + propStr);
+        return defaultVal;
+    }
+
+    /**
+     * Gets the number of threads used to store programs, which may be set
+     * with the <code>StorageManager.storeThreads</code> property.  Defaults
+     * to the number of processors, but no more than 4 since the work is
+     * ultimately bound by the disk.
+     */
+    static int getStoreThreads() {
+        final int def = Math.min(4, Runtime.getRuntime().availableProcessors());
+        return (int) parseProp(STORE_THREADS_PROP, def);
+    }
+
+    /**
+     * Creates the pool of daemon threads used to store programs.
+     */
+    static ExecutorService createStorePool() {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(getStoreThreads(), r -> {
+            final Thread t = new Thread(r, "ODB Storage-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+    }
+
 
     /**
      * The StorageWorker is a helper class that contains a thread that
@@ -107,20 +183,43 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
 
+    private final String _name;
     private final ProgramManager<N> _progMan;
     private final IDBPersister _persister;
+    private final ExecutorService _storePool;
     private final DirtyProgramListener<N> _dirty;
     private final StorageWorker _storeWorker;
+    private final long _compactionInterval;
+    private final long _compactionSize;
+
+    // Storage metrics, see addMetrics().
+    private final AtomicInteger _queued       = new AtomicInteger();
+    private final AtomicInteger _active       = new AtomicInteger();
+    private final AtomicLong _stores          = new AtomicLong();
+    private final AtomicLong _failures        = new AtomicLong();
+    private final AtomicLong _storeNanos      = new AtomicLong();
+    private final AtomicLong _storeMaxNanos   = new AtomicLong();
+    private final Map<String, Long> _latency  = new ConcurrentHashMap<String, Long>();
 
 
     /**
      * Creates the <code>StorageManager</code> with the <code>FileManager</code>
      * used to store modified/added programs.
+     *
+     * @param name short name of the kind of program managed (for example
+     * "program" or "plan"), used to label metrics
+     * @param storePool executor on which programs are stored; may be shared
+     * with other storage managers and is not shut down by this one
      */
-    StorageManager(ProgramManager<N> pm, IDBPersister persister)  {
+    StorageManager(String name, ProgramManager<N> pm, IDBPersister persister, ExecutorService storePool)  {
+        _name      = name;
         _progMan   = pm;
         _persister = persister;
-        _dirty     = new DirtyProgramListener<N>();
+        _storePool = storePool;
+        _dirty     = new DirtyProgramListener<N>(persister);
+
+        _compactionInterval = parseProp(COMPACTION_INTERVAL_PROP, DEFAULT_COMPACTION_INTERVAL);
+        _compactionSize     = parseProp(COMPACTION_SIZE_PROP, DEFAULT_COMPACTION_SIZE);
 
         pm.addListener(this);
 
@@ -145,8 +244,10 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
 
         for (N prog : _progMan.getPrograms()) prog.removeCompositeChangeListener(_dirty);
 
-        // Write out any last modifications.
+        // Write out any last modifications, including journaled updates so
+        // that a clean shutdown leaves no journals behind.
         _storeDirtyPrograms();
+        _store(_dirty.getJournaledPrograms());
     }
 
     /**
@@ -173,7 +274,7 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     public void programAdded(ProgramEvent<N> pme) {
         final N prog = pme.getNewProgram();
         try {
-            _persister.store(prog);
+            _persister.add(prog);
             prog.addCompositeChangeListener(_dirty);
         } catch (Exception ex) {
             LOG.log(Level.WARNING, "Program adding program", ex);
@@ -194,20 +295,101 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
         N prog = pme.getOldProgram();
         prog.removeCompositeChangeListener(_dirty);
         _dirty.removeProgram(prog);
-        _persister.remove(prog.getNodeKey());
+        _persister.remove(prog);
+        _latency.remove(getId(prog));
     }
 
     /**
-     * Stores all the modified programs, if any.
+     * Stores all the modified programs, if any, and compacts the journals of
+     * programs whose journaled updates are old enough or large enough.
      */
     private void _storeDirtyPrograms() {
-        for (N n : _dirty.getDirtyPrograms()) {
-            try {
-                _persister.store(n);
-            } catch (Exception ex) {
-                log(n, ex);
+        _store(_dirty.getDirtyPrograms());
+        _store(_dirty.getProgramsToCompact(_compactionInterval, _compactionSize));
+    }
+
+    /**
+     * Stores the given programs concurrently on the store pool, returning
+     * when all have been written (or have failed).
+     */
+    private void _store(List<N> progs) {
+        if (progs.isEmpty()) return;
+        if (progs.size() == 1) {
+            _storeOne(progs.get(0));
+            return;
+        }
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(progs.size());
+        for (final N n : progs) {
+            _queued.incrementAndGet();
+            futures.add(_storePool.submit(() -> {
+                _queued.decrementAndGet();
+                _storeOne(n);
+            }));
+        }
+
+        // Wait for all the stores to finish even if interrupted, since the
+        // programs are no longer marked dirty.
+        boolean interrupted = false;
+        for (Future<?> f : futures) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    LOG.log(Level.SEVERE, "Unexpected problem storing programs", ex.getCause());
+                    break;
+                }
             }
         }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void _storeOne(N n) {
+        _active.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+            _persister.store(n);
+        } catch (Exception ex) {
+            _failures.incrementAndGet();
+            log(n, ex);
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            _active.decrementAndGet();
+            _stores.incrementAndGet();
+            _storeNanos.addAndGet(elapsed);
+            long max;
+            do {
+                max = _storeMaxNanos.get();
+            } while ((elapsed > max) && !_storeMaxNanos.compareAndSet(max, elapsed));
+            _latency.put(getId(n), elapsed / 1000000);
+        }
+    }
+
+    /**
+     * Adds the storage metrics to the given map, under keys prefixed with
+     * "storage.<i>name</i>".  Besides the aggregate counts, the most recent
+     * store latency of the slowest programs is reported.
+     */
+    void addMetrics(Map<String, Long> metrics) {
+        final String prefix = "storage." + _name + ".";
+        final long stores   = _stores.get();
+        metrics.put(prefix + "dirty",      (long) _dirty.getDirtyCount());
+        metrics.put(prefix + "queueDepth", (long) _queued.get());
+        metrics.put(prefix + "active",     (long) _active.get());
+        metrics.put(prefix + "stores",     stores);
+        metrics.put(prefix + "failures",   _failures.get());
+        metrics.put(prefix + "coalesced",  _dirty.getCoalescedCount());
+        metrics.put(prefix + "storeAvgMs", (stores == 0) ? 0 : _storeNanos.get() / stores / 1000000);
+        metrics.put(prefix + "storeMaxMs", _storeMaxNanos.get() / 1000000);
+
+        final List<Map.Entry<String, Long>> lat = new ArrayList<Map.Entry<String, Long>>(_latency.entrySet());
+        Collections.sort(lat, (e0, e1) -> Long.compare(e1.getValue(), e0.getValue()));
+        for (Map.Entry<String, Long> me : lat.subList(0, Math.min(SLOWEST_COUNT, lat.size()))) {
+            metrics.put(prefix + "latencyMs." + me.getKey(), me.getValue());
+        }
     }
 
     /**
@@ -216,12 +398,18 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
      */
     void checkpoint(N prog) {
         _dirty.removeProgram(prog);
+        _storeOne(prog);
+    }
 
-        try {
-            _persister.store(prog);
-        } catch (Exception ex) {
-            log(prog, ex);
-        }
+    /**
+     * Persists the changes made to the given program while its events were
+     * turned off, journaling the data objects of <code>nodes</code> if they
+     * are all that changed and otherwise storing the program.  See
+     * <code>{@link IDBDatabaseService#commit}</code>.
+     */
+    void commit(N prog, Collection<ISPNode> nodes) {
+        if ((nodes == null) || !_dirty.journalCommit(prog, nodes)) checkpoint(prog);
+        _dirty.committed(prog);
     }
 
     private static void log(ISPRootNode prog, Exception ex) {
@@ -1,35 +1,255 @@
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.SPCompositeChange;
+import edu.gemini.pot.sp.SPNodeKey;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles trigger registration (and execution).
+ *
+ * <p>Conditions are indexed by the property names and node types they
+ * declare (see {@link IDBTriggerCondition#getPropertyNames()} and
+ * {@link IDBTriggerCondition#getNodeType()}) so that a change is only
+ * matched against the conditions that could possibly care about it.  The
+ * index is rebuilt on (un)registration and read without locking.
+ *
+ * <p>Actions are executed by a dispatcher per trigger action type.  Each
+ * dispatcher has a fixed number of lanes, each a single thread with a
+ * bounded queue.  Changes are assigned to lanes by program, so the actions
+ * for any one program run in the order in which the changes happened.  The
+ * thread making the change (which holds the program's write lock) never
+ * waits for a lane.  A warning is logged when a lane's queue grows beyond a
+ * threshold, and if the queue fills up the action is dropped, logged and
+ * counted in the "trigger.<i>action class</i>.dropped" metric (see
+ * {@link IDBAdmin#getMetrics()}).  The following system properties configure
+ * the dispatchers (prefixed with
+ * <code>edu.gemini.pot.spdb.TriggerRegistrar</code>):
+ *
+ * <ul>
+ *     <li><code>.lanes</code> - lanes per trigger type (default 8)</li>
+ *     <li><code>.warnDepth</code> - queue depth of a lane above which a
+ *     warning is logged (default 1000)</li>
+ *     <li><code>.queueCapacity</code> - maximum number of actions queued
+ *     in a lane (default 10000)</li>
+ * </ul>
  */
 final class TriggerRegistrar implements PropertyChangeListener, ProgramEventListener<ISPProgram> {
     private static final Logger LOG = Logger.getLogger(TriggerRegistrar.class.getName());
 
+    private static final String LANES_PROP      = TriggerRegistrar.class.getName() + ".lanes";
+    private static final String WARN_DEPTH_PROP = TriggerRegistrar.class.getName() + ".warnDepth";
+    private static final String CAPACITY_PROP   = TriggerRegistrar.class.getName() + ".queueCapacity";
+
+    private static final int LANES          = _intProp(LANES_PROP, 8);
+    private static final int WARN_DEPTH     = _intProp(WARN_DEPTH_PROP, 1000);
+    private static final int QUEUE_CAPACITY = _intProp(CAPACITY_PROP, 10000);
+
+    // Actions taking longer than this (including time spent in the queue)
+    // are logged.
+    private static final long SLOW_MS = 5000;
+
+    private static int _intProp(String name, int def) {
+        final String s = System.getProperty(name);
+        if (s == null) return def;
+        try {
+            final int i = Integer.parseInt(s);
+            if (i > 0) return i;
+        } catch (NumberFormatException ex) {
+            // fall through
+        }
+        LOG.warning("Could not parse value of property '" + name + "': " + s);
+        return def;
+    }
+
+    /**
+     * Executes the actions of one trigger type, keeping counts and timing
+     * information.
+     */
+    private static final class Dispatcher {
+        private final String _name;
+        private final ThreadPoolExecutor[] _lanes;
+
+        // Number of registrations using this dispatcher, guarded by the
+        // registrar.
+        private int _refCount;
+
+        private final AtomicLong _executed     = new AtomicLong();
+        private final AtomicLong _failures     = new AtomicLong();
+        private final AtomicLong _rejected     = new AtomicLong();
+        private final AtomicLong _dropped      = new AtomicLong();
+        private final AtomicLong _waitNanos    = new AtomicLong();
+        private final AtomicLong _execNanos    = new AtomicLong();
+        private final AtomicLong _maxExecNanos = new AtomicLong();
+
+        // Whether a backlog (or overflow) warning has been logged and not
+        // yet cleared.
+        private final AtomicBoolean _backlogged  = new AtomicBoolean();
+        private final AtomicBoolean _overflowing = new AtomicBoolean();
+
+        Dispatcher(String name) {
+            _name  = name;
+            _lanes = new ThreadPoolExecutor[LANES];
+
+            // Actions are rejected when the dispatcher has been shut down or
+            // when the lane's queue is full.  Either way the action is lost,
+            // but the thread making the change must not wait.
+            final RejectedExecutionHandler handler = (r, ex) -> {
+                if (ex.isShutdown()) {
+                    _rejected.incrementAndGet();
+                    LOG.log(Level.SEVERE, "Trigger dispatcher shut down, dropped action: " + _name);
+                } else {
+                    final long dropped = _dropped.incrementAndGet();
+                    if (_overflowing.compareAndSet(false, true)) {
+                        LOG.log(Level.SEVERE, "Trigger action queue full, dropping actions: " + _name + " (" + dropped + " dropped so far)");
+                    }
+                }
+            };
+
+            for (int i = 0; i < _lanes.length; ++i) {
+                final String threadName = "Trigger " + name + " " + i;
+                _lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                        r -> {
+                            final Thread t = new Thread(r, threadName);
+                            t.setDaemon(true);
+                            return t;
+                        },
+                        handler);
+            }
+        }
+
+        void submit(IDBTriggerAction action, SPCompositeChange change, Object handback) {
+            final SPNodeKey progKey = change.getModifiedNode().getProgramKey();
+            final int lane = (progKey == null) ? 0 : Math.floorMod(progKey.hashCode(), _lanes.length);
+
+            final ThreadPoolExecutor ex = _lanes[lane];
+            final int depth = ex.getQueue().size();
+            if (depth >= WARN_DEPTH) {
+                if (_backlogged.compareAndSet(false, true)) {
+                    LOG.log(Level.WARNING, "Trigger actions are backing up: " + _name + ", lane " + lane + " has " + depth + " queued");
+                }
+            } else if (depth < WARN_DEPTH / 2) {
+                _backlogged.set(false);
+                _overflowing.set(false);
+            }
+
+            final long queuedAt = System.nanoTime();
+            ex.execute(() -> {
+                final long start = System.nanoTime();
+                try {
+                    action.doTriggerAction(change, handback);
+                } catch (Exception ex) {
+                    _failures.incrementAndGet();
+                    LOG.log(Level.WARNING, "Trigger action failed: " + _name, ex);
+                }
+                final long end  = System.nanoTime();
+                final long exec = end - start;
+                _executed.incrementAndGet();
+                _waitNanos.addAndGet(start - queuedAt);
+                _execNanos.addAndGet(exec);
+                long max;
+                do {
+                    max = _maxExecNanos.get();
+                } while ((exec > max) && !_maxExecNanos.compareAndSet(max, exec));
+
+                final long totalMs = (end - queuedAt) / 1000000;
+                if (totalMs > SLOW_MS) {
+                    LOG.log(Level.WARNING, "Long delay executing trigger action " + _name + ": " + totalMs + " ms");
+                }
+            });
+        }
+
+        int queueDepth() {
+            int depth = 0;
+            for (ThreadPoolExecutor lane : _lanes) depth += lane.getQueue().size();
+            return depth;
+        }
+
+        void addMetrics(Map<String, Long> metrics) {
+            final String prefix = "trigger." + _name + ".";
+            final long executed = _executed.get();
+            metrics.put(prefix + "queueDepth", (long) queueDepth());
+            metrics.put(prefix + "executed",   executed);
+            metrics.put(prefix + "failures",   _failures.get());
+            metrics.put(prefix + "rejected",   _rejected.get());
+            metrics.put(prefix + "dropped",    _dropped.get());
+            metrics.put(prefix + "waitAvgMs",  (executed == 0) ? 0 : _waitNanos.get() / executed / 1000000);
+            metrics.put(prefix + "execAvgMs",  (executed == 0) ? 0 : _execNanos.get() / executed / 1000000);
+            metrics.put(prefix + "execMaxMs",  _maxExecNanos.get() / 1000000);
+        }
+
+        /** Lets queued actions finish but accepts no more. */
+        void shutdown() {
+            for (ThreadPoolExecutor lane : _lanes) lane.shutdown();
+        }
+
+        void shutdownNow() {
+            for (ThreadPoolExecutor lane : _lanes) lane.shutdownNow();
+        }
+    }
+
+    /**
+     * A registered condition along with the actions to run when it matches
+     * and their dispatchers.
+     */
+    private static final class Entry {
+        final IDBTriggerCondition condition;
+        final Class<? extends ISPNode> nodeType;
+        final List<IDBTriggerAction> actions = new ArrayList<>();
+        final List<Dispatcher> dispatchers   = new ArrayList<>();
+
+        Entry(IDBTriggerCondition condition) {
+            this.condition = condition;
+            this.nodeType  = condition.getNodeType();
+        }
+    }
+
+    /**
+     * Immutable lookup of conditions by property name.
+     */
+    private static final class Index {
+        static final Index EMPTY = new Index(Collections.emptyMap(), Collections.emptyList());
+
+        final Map<String, List<Entry>> byProperty;
+        final List<Entry> anyProperty;
+
+        Index(Map<String, List<Entry>> byProperty, List<Entry> anyProperty) {
+            this.byProperty  = byProperty;
+            this.anyProperty = anyProperty;
+        }
+    }
+
     private final ProgramManager<ISPProgram> _progMan;
-    private final ExecutorService _pool;
-    private Map<IDBTriggerCondition, List<TriggerReg>> _triggerMap = new HashMap<>();
+
+    // Registrations and dispatchers, guarded by this.
+    private final Map<IDBTriggerCondition, List<TriggerReg>> _triggerMap = new HashMap<>();
+    private final Map<String, Dispatcher> _dispatchers = new HashMap<>();
+
+    private volatile Index _index = Index.EMPTY;
 
     /**
      * Constructs with the program manager.
      */
     TriggerRegistrar(ProgramManager<ISPProgram> programMan) {
         _progMan = programMan;
-        _pool = Executors.newCachedThreadPool();
 
         // Listen to all the programs.
         List<ISPProgram> progs = programMan.getPrograms();
@@ -41,6 +261,9 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         programMan.addListener(this);
     }
 
+    private static String _typeName(IDBTriggerAction action) {
+        return action.getClass().getName();
+    }
 
     public void register(IDBTriggerCondition condition, IDBTriggerAction action) {
         LOG.log(Level.INFO, "Registering trigger condition: " + condition);
@@ -52,6 +275,16 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
                 _triggerMap.put(condition, actionList);
             }
             actionList.add(tr);
+
+            final String name = _typeName(action);
+            Dispatcher d = _dispatchers.get(name);
+            if (d == null) {
+                d = new Dispatcher(name);
+                _dispatchers.put(name, d);
+            }
+            ++d._refCount;
+
+            _rebuildIndex();
         }
     }
 
@@ -60,103 +293,67 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         TriggerReg tr = new TriggerReg(condition, action);
         synchronized (this) {
             List<TriggerReg> actionList = _triggerMap.get(condition);
-            if (actionList != null) {
-                actionList.remove(tr);
-                if (actionList.isEmpty())
-                    _triggerMap.remove(condition);
+            if ((actionList == null) || !actionList.remove(tr)) return;
+            if (actionList.isEmpty()) _triggerMap.remove(condition);
+
+            final String name = _typeName(action);
+            final Dispatcher d = _dispatchers.get(name);
+            if ((d != null) && (--d._refCount == 0)) {
+                _dispatchers.remove(name);
+                d.shutdown();
             }
-        }
-    }
 
-
-    private static class TriggerEvent {
-        TriggerReg reg;
-        Object handback;
-        TriggerEvent(TriggerReg reg, Object handback) {
-            this.reg = reg;
-            this.handback = handback;
+            _rebuildIndex();
         }
     }
 
-    /**
-     * Extracts the TriggerReg objects that are interested in
-     * handling the given composite change event.
-     *
-     * @return List of {@link TriggerEvent}
-     */
-    private synchronized List<TriggerEvent> _getMatchingRegs(SPCompositeChange change) {
-        List<TriggerEvent> res = null;
+    private void _rebuildIndex() {
+        final Map<String, List<Entry>> byProperty = new HashMap<>();
+        final List<Entry> anyProperty = new ArrayList<>();
 
         for (Map.Entry<IDBTriggerCondition, List<TriggerReg>> me : _triggerMap.entrySet()) {
+            final Entry e = new Entry(me.getKey());
+            for (TriggerReg reg : me.getValue()) {
+                e.actions.add(reg.getTriggerAction());
+                e.dispatchers.add(_dispatchers.get(_typeName(reg.getTriggerAction())));
+            }
 
-            IDBTriggerCondition tc = me.getKey();
-            Object handback = tc.matches(change);
-            if (handback != null) {
-                if (res == null) res = new ArrayList<>();
-                List<TriggerReg> triggerRegList = me.getValue();
-                for (TriggerReg reg : triggerRegList) {
-                    res.add(new TriggerEvent(reg, handback));
+            final Set<String> props = me.getKey().getPropertyNames();
+            if (props == null) {
+                anyProperty.add(e);
+            } else {
+                for (String prop : props) {
+                    byProperty.computeIfAbsent(prop, k -> new ArrayList<>()).add(e);
                 }
             }
         }
 
-        return res;
+        _index = new Index(byProperty, anyProperty);
     }
 
-    /**
-     * A Runnable used to execute a trigger action within a thread pool.
-     */
-    private static class TriggerTask implements Runnable {
-        private final SPCompositeChange change;
-
-        private final IDBTriggerAction action;
-        private final Object handback;
+    private void _match(Entry e, SPCompositeChange change) {
+        if (!e.nodeType.isInstance(change.getModifiedNode())) return;
 
-        TriggerTask(SPCompositeChange change, TriggerEvent evt) {
-            this.change = change;
-
-            TriggerReg ltr = evt.reg;
-            this.action = ltr.getTriggerAction();
-            this.handback = evt.handback;
-        }
-
-        public void run() {
-
-            // Record the start time
-            long startTime = 0;
-            if (action.getClass().getName().contains("TooAction")) {
-                startTime = System.currentTimeMillis();
-                LOG.log(Level.WARNING, "Sending a ToO alert...");
-            }
-
-            action.doTriggerAction(change, handback);
-
-            // Record the end time and warn if it took too long.
-            if (startTime != 0) {
-                long curTime = System.currentTimeMillis();
-                LOG.log(Level.WARNING, "Sent ToO alert");
-
-                long elapsed = curTime - startTime;
-                if (elapsed > 5000) {
-                    LOG.log(Level.WARNING, "Long delay sending ToO alert: " + elapsed);
-                }
-            }
+        final Object handback = e.condition.matches(change);
+        if (handback == null) return;
 
+        for (int i = 0; i < e.actions.size(); ++i) {
+            e.dispatchers.get(i).submit(e.actions.get(i), change, handback);
         }
     }
 
     /**
-     * Fires a composite event to registered listeners.  Passes the event
-     * along to any parent(s) to notify their composite listeners.
+     * Matches the change against the interested conditions and dispatches
+     * the actions of those that match.
      */
     void handleEvent(SPCompositeChange change) {
-        List<TriggerEvent> actionList = _getMatchingRegs(change);
-        if (actionList == null) return;  // nobody cares
+        final Index index = _index;
 
-        // notify everyone
-        for (TriggerEvent evt : actionList) {
-            _pool.submit(new TriggerTask(change, evt));
+        final List<Entry> byProp = index.byProperty.get(change.getPropertyName());
+        if (byProp != null) {
+            for (Entry e : byProp) _match(e, change);
         }
+        for (Entry e : index.anyProperty) _match(e, change);
     }
 
     @Override
@@ -178,15 +375,28 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         pme.getOldProgram().removeCompositeChangeListener(TriggerRegistrar.this);
     }
 
+    /**
+     * Adds the queue depth, counts and latency of each trigger type to the
+     * given map, under keys prefixed with "trigger.<i>action class</i>".
+     */
+    synchronized void addMetrics(Map<String, Long> metrics) {
+        for (Dispatcher d : _dispatchers.values()) d.addMetrics(metrics);
+    }
+
     /**
      * Cleans up.
      */
     void shutdown() {
-        _pool.shutdownNow();
         _progMan.removeListener(this);
 
         for (ISPProgram o : _progMan.getPrograms())
             o.removeCompositeChangeListener(this);
 
+        synchronized (this) {
+            for (Dispatcher d : _dispatchers.values()) d.shutdownNow();
+            _dispatchers.clear();
+            _triggerMap.clear();
+            _index = Index.EMPTY;
+        }
     }
 }
@@ -39,7 +39,7 @@ public final class ObsTimesService {
         res = ObsTimes.ZERO_TIMES;
 
         // Ask the ObsRecord for the raw observation times.
-        final ObsLog nodes = ObsLog.getIfExists(obs);
+        final ObsLog nodes = ObsLog.getReadOnlyIfExists(obs);
         if (nodes != null) {
             final Option<Instrument> inst = InstrumentService.lookupInstrument(obs);
 
@@ -69,7 +69,7 @@ public final class ObsTimesService {
         ObsTimes rawTimes = getRawObsTimes(obs);
 
         // Now get any corrections from the observation's data object.
-        SPObservation dataObj = (SPObservation) obs.getDataObject();
+        SPObservation dataObj = (SPObservation) obs.getReadOnlyDataObject();
         ObsTimeCharges corrections = dataObj.sumObsTimeCorrections();
 
         // Apply the corrections.
@@ -115,7 +115,7 @@ public final class ObsTimesService {
      * i.e. the corrected time across the observations.
      */
     public static long getRemainingProgramTime(final ISPProgram prog) {
-        final long awarded = ImOption.apply(prog.getDataObject()).
+        final long awarded = ImOption.apply(prog.getReadOnlyDataObject()).
                 map(dataObj -> ((SPProgram)dataObj).getAwardedProgramTime()).
                 getOrElse(TimeValue.ZERO_HOURS).
                 getMilliseconds();
@@ -39,6 +39,25 @@ public final class ObsLog {
         }
     }
 
+    /**
+     * Like {@link #getIfExists} but wraps the nodes' shared, read-only data
+     * objects (see {@link edu.gemini.pot.sp.ISPNode#getReadOnlyDataObject})
+     * rather than copies.  The resulting log must only be read, never
+     * updated.
+     */
+    public static ObsLog getReadOnlyIfExists(ISPObservation obs) {
+        obs.getProgramReadLock();
+        try {
+            final ISPObsQaLog qaLog     = obs.getObsQaLog();
+            final ISPObsExecLog execLog = obs.getObsExecLog();
+            if ((qaLog == null) || (execLog == null)) return null;
+            return new ObsLog(qaLog, (ObsQaLog) qaLog.getReadOnlyDataObject(),
+                              execLog, (ObsExecLog) execLog.getReadOnlyDataObject());
+        } finally {
+            obs.returnProgramReadLock();
+        }
+    }
+
     public static boolean isEmpty(ISPObservation obs) {
         final ObsLog obsLog = getIfExists(obs);
         return (obsLog == null) || obsLog.isEmpty();
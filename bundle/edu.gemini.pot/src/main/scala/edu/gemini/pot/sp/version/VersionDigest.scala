@@ -0,0 +1,104 @@
+package edu.gemini.pot.sp.version
+
+import edu.gemini.pot.sp.SPNodeKey
+
+import java.util.UUID
+
+/**
+ * A two-level hash of a `VersionMap`.  Node keys are spread over a fixed
+ * number of buckets and each bucket holds the sum of the hashes of its
+ * entries, so the digest can be updated in constant time as a single node's
+ * versions change.  The root hash summarizes all the buckets.
+ *
+ * Two parties can compare root hashes to find out whether anything changed
+ * at all and, if so, compare buckets to exchange only the version map
+ * entries that fall in differing buckets.
+ *
+ * Entries with empty `NodeVersions` contribute nothing, so a map with such
+ * an entry has the same digest as the map without it.
+ */
+final class VersionDigest private (private val buckets: Array[Long]) extends Serializable {
+  import VersionDigest._
+
+  /** Hash of the whole version map. */
+  lazy val root: Long =
+    mix(buckets.foldLeft(0L) { (h, b) => h * 31 + b })
+
+  /** Returns the digest with the entry for `k` changed from `oldNv` to `newNv`. */
+  def updated(k: SPNodeKey, oldNv: NodeVersions, newNv: NodeVersions): VersionDigest = {
+    val delta = hash(k, newNv) - hash(k, oldNv)
+    if (delta == 0L) this
+    else {
+      val bs = buckets.clone()
+      bs(bucket(k)) += delta
+      new VersionDigest(bs)
+    }
+  }
+
+  /** Indices of the buckets that differ between this digest and `that`. */
+  def diff(that: VersionDigest): Set[Int] =
+    if (root == that.root) Set.empty
+    else buckets.indices.filter(i => buckets(i) != that.buckets(i)).toSet
+
+  override def equals(o: Any): Boolean = o match {
+    case that: VersionDigest => java.util.Arrays.equals(buckets, that.buckets)
+    case _                   => false
+  }
+
+  override def hashCode: Int = root.##
+
+  override def toString: String = f"VersionDigest($root%016x)"
+}
+
+object VersionDigest {
+
+  /** Number of buckets.  Must be a power of two. */
+  val BucketCount = 64
+
+  private val BucketBits = Integer.numberOfTrailingZeros(BucketCount)
+
+  val Empty: VersionDigest = new VersionDigest(new Array[Long](BucketCount))
+
+  /** Computes the digest of the given version map. */
+  def of(vm: VersionMap): VersionDigest = {
+    val bs = new Array[Long](BucketCount)
+    vm.foreach { case (k, nv) => bs(bucket(k)) += hash(k, nv) }
+    new VersionDigest(bs)
+  }
+
+  /** The bucket in which the entry for key `k` falls. */
+  def bucket(k: SPNodeKey): Int =
+    (uuidHash(k.uuid) >>> (64 - BucketBits)).toInt
+
+  /** The entries of `vm` that fall in the given buckets. */
+  def select(vm: VersionMap, bs: Set[Int]): VersionMap =
+    vm.filter { case (k, _) => bs.contains(bucket(k)) }
+
+  /** Replaces the entries of `vm` in the given buckets with `entries`. */
+  def patch(vm: VersionMap, bs: Set[Int], entries: VersionMap): VersionMap =
+    vm.filterNot { case (k, _) => bs.contains(bucket(k)) } ++ entries
+
+  // Clock contributions are summed so their order doesn't matter.
+  private def hash(k: SPNodeKey, nv: NodeVersions): Long =
+    if (nv.isEmpty) 0L
+    else {
+      val clocks = nv.clocks.foldLeft(0L) { case (h, (id, n)) =>
+        h + mix(uuidHash(id.uuid) + n.longValue)
+      }
+      mix(uuidHash(k.uuid) ^ clocks)
+    }
+
+  private def uuidHash(u: UUID): Long =
+    mix(u.getMostSignificantBits ^ mix(u.getLeastSignificantBits))
+
+  // The finalizer from MurmurHash3's 64-bit variant.
+  private def mix(l: Long): Long = {
+    var h = l
+    h ^= h >>> 33
+    h *= 0xff51afd7ed558ccdL
+    h ^= h >>> 33
+    h *= 0xc4ceb9fe1a85ec53L
+    h ^= h >>> 33
+    h
+  }
+}
@@ -0,0 +1,97 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.util.POTUtil;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Compares reading every data object in a synthetic set of programs with
+ * <code>getDataObject()</code> (a clone per read) and with
+ * <code>getReadOnlyDataObject()</code> (shared, no clone), reporting
+ * throughput and bytes allocated per pass.
+ *
+ * <pre>
+ *   DataObjectAccessBenchmark [programs] [observationsPerProgram] [passes]
+ * </pre>
+ */
+public final class DataObjectAccessBenchmark {
+
+    private static volatile int sink;
+
+    private static List<ISPNode> createNodes(int progCount, int obsCount) throws Exception {
+        final ISPFactory fact = POTUtil.createFactory(UUID.randomUUID());
+        final List<ISPNode> nodes = new ArrayList<>();
+        for (int p = 0; p < progCount; ++p) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), null);
+            for (int o = 0; o < obsCount; ++o) {
+                final ISPObservation obs = fact.createObservation(prog, Instrument.none, null);
+                prog.addObservation(obs);
+            }
+            collect(prog, nodes);
+        }
+        return nodes;
+    }
+
+    private static void collect(ISPNode node, List<ISPNode> nodes) {
+        nodes.add(node);
+        if (node instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) node).getChildren()) collect(child, nodes);
+        }
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void run(String name, List<ISPNode> nodes, int passes, Function<ISPNode, ISPDataObject> read) {
+        // warm up
+        for (int i = 0; i < Math.max(1, passes / 5); ++i) pass(nodes, read);
+
+        final long a0 = allocatedBytes();
+        final long t0 = System.nanoTime();
+        for (int i = 0; i < passes; ++i) pass(nodes, read);
+        final long t1 = System.nanoTime();
+        final long a1 = allocatedBytes();
+
+        final double reads = (double) nodes.size() * passes;
+        System.out.println(String.format("%-10s %,12.0f reads/s  %,10.1f bytes/read",
+                name, reads / ((t1 - t0) / 1e9), (a1 - a0) / reads));
+    }
+
+    private static void pass(List<ISPNode> nodes, Function<ISPNode, ISPDataObject> read) {
+        int h = 0;
+        for (ISPNode n : nodes) {
+            final ISPDataObject dobj = read.apply(n);
+            if (dobj != null) h += dobj.getType().hashCode();
+        }
+        sink += h;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int progCount = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        final int obsCount  = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        final int passes    = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+
+        final List<ISPNode> nodes = createNodes(progCount, obsCount);
+        System.out.println(String.format("%d programs, %d observations each, %d nodes", progCount, obsCount, nodes.size()));
+
+        run("copy",      nodes, passes, ISPNode::getDataObject);
+        run("read-only", nodes, passes, ISPNode::getReadOnlyDataObject);
+    }
+}
@@ -0,0 +1,49 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.util.POTUtil;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests sharing of read-only data objects.
+ */
+public final class ReadOnlyDataObjectTest {
+
+    private static ISPProgram createProgram() throws Exception {
+        final ISPFactory fact = POTUtil.createFactory(UUID.randomUUID());
+        return fact.createProgram(new SPNodeKey(), null);
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final ISPProgram prog = createProgram();
+        assertSame(prog.getReadOnlyDataObject(), prog.getReadOnlyDataObject());
+        assertNotSame(prog.getReadOnlyDataObject(), prog.getDataObject());
+    }
+
+    @Test
+    public void testSnapshotUnaffectedByUpdate() throws Exception {
+        final ISPProgram prog = createProgram();
+        final SPProgram before = (SPProgram) prog.getReadOnlyDataObject();
+        final String title     = before.getTitle();
+
+        final SPProgram edit = (SPProgram) prog.getDataObject();
+        edit.setTitle("Updated " + title);
+        prog.setDataObject(edit);
+
+        // The old snapshot is unchanged, and the update isn't shared with
+        // the caller's copy either.
+        assertEquals(title, before.getTitle());
+        final SPProgram after = (SPProgram) prog.getReadOnlyDataObject();
+        assertNotSame(before, after);
+        assertNotSame(edit, after);
+        assertEquals("Updated " + title, after.getTitle());
+    }
+}
@@ -0,0 +1,129 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures lock throughput under a simulated mix of VCS syncs (brief write
+ * locks) and storage flushes (longer read locks) on distinct programs,
+ * comparing <code>SPNodeKeyLocks</code> with the original table guarded by a
+ * single monitor.
+ *
+ * <pre>
+ *   SPNodeKeyLocksBenchmark [threads] [programs] [seconds]
+ * </pre>
+ *
+ * Each operation locks a freshly chosen program, so with the original
+ * implementation every acquisition funnels through the one monitor.
+ */
+public final class SPNodeKeyLocksBenchmark {
+
+    private interface Locks {
+        void readLock(SPNodeKey key);
+        void readUnlock(SPNodeKey key);
+        void writeLock(SPNodeKey key);
+        void writeUnlock(SPNodeKey key);
+    }
+
+    /** The original, never evicting, single-monitor lock table. */
+    private static final class MonitorLocks implements Locks {
+        private final Map<SPNodeKey, ReentrantReadWriteLock> locks = new HashMap<SPNodeKey, ReentrantReadWriteLock>();
+
+        private synchronized ReentrantReadWriteLock getLock(SPNodeKey key) {
+            ReentrantReadWriteLock l = locks.get(key);
+            if (l == null) {
+                l = new ReentrantReadWriteLock();
+                locks.put(key, l);
+            }
+            return l;
+        }
+
+        public void readLock(SPNodeKey key)    { getLock(key).readLock().lock();    }
+        public void readUnlock(SPNodeKey key)  { getLock(key).readLock().unlock();  }
+        public void writeLock(SPNodeKey key)   { getLock(key).writeLock().lock();   }
+        public void writeUnlock(SPNodeKey key) { getLock(key).writeLock().unlock(); }
+    }
+
+    private static final class CurrentLocks implements Locks {
+        private final SPNodeKeyLocks locks = SPNodeKeyLocks.instance;
+
+        public void readLock(SPNodeKey key)    { locks.readLock(key);    }
+        public void readUnlock(SPNodeKey key)  { locks.readUnlock(key);  }
+        public void writeLock(SPNodeKey key)   { locks.writeLock(key);   }
+        public void writeUnlock(SPNodeKey key) { locks.writeUnlock(key); }
+    }
+
+    // Simulated work done while holding a lock.
+    private static long work(int iterations) {
+        long x = 0;
+        for (int i = 0; i < iterations; ++i) x += (x ^ i) * 31;
+        return x;
+    }
+
+    private static volatile long sink;
+
+    private static long run(final Locks locks, final SPNodeKey[] keys, int threads, long millis) throws InterruptedException {
+        final AtomicLong ops           = new AtomicLong();
+        final CountDownLatch start     = new CountDownLatch(1);
+        final long end                 = System.currentTimeMillis() + millis;
+        final Thread[] workers         = new Thread[threads];
+
+        for (int t = 0; t < threads; ++t) {
+            workers[t] = new Thread(() -> {
+                final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long count = 0;
+                long local = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                while (System.currentTimeMillis() < end) {
+                    for (int i = 0; i < 1000; ++i) {
+                        final SPNodeKey key = keys[rnd.nextInt(keys.length)];
+                        if (rnd.nextInt(4) == 0) {
+                            // storage flush
+                            locks.readLock(key);
+                            try { local += work(200); } finally { locks.readUnlock(key); }
+                        } else {
+                            // vcs sync
+                            locks.writeLock(key);
+                            try { local += work(20); } finally { locks.writeUnlock(key); }
+                        }
+                        ++count;
+                    }
+                }
+                ops.addAndGet(count);
+                sink += local;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers) w.join();
+        return ops.get();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int threads  = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        final int programs = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+        final int seconds  = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        final SPNodeKey[] keys = new SPNodeKey[programs];
+        for (int i = 0; i < programs; ++i) keys[i] = new SPNodeKey();
+
+        System.out.println(String.format("%d threads, %d programs, %d s per run", threads, programs, seconds));
+        for (int round = 0; round < 2; ++round) {  // first round is warm-up
+            final long mon = run(new MonitorLocks(), keys, threads, seconds * 1000L);
+            final long cur = run(new CurrentLocks(), keys, threads, seconds * 1000L);
+            System.out.println(String.format("%-8s monitor: %,12d ops/s   current: %,12d ops/s   (entries: %d)",
+                    (round == 0) ? "warm-up" : "measured", mon / seconds, cur / seconds, SPNodeKeyLocks.instance.size()));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the evicting lock table in <code>SPNodeKeyLocks</code>.
+ */
+public final class SPNodeKeyLocksTest {
+    private static final SPNodeKeyLocks LOCKS = SPNodeKeyLocks.instance;
+
+    @Test
+    public void testEvictedWhenReleased() {
+        final SPNodeKey key = new SPNodeKey();
+        LOCKS.evictIdle();
+        final int before    = LOCKS.size();
+
+        LOCKS.writeLock(key);
+        LOCKS.readLock(key);   // downgrade while holding the write lock
+        assertTrue(LOCKS.isWriteLockHeld(key));
+        assertEquals(before + 1, LOCKS.size());
+
+        LOCKS.writeUnlock(key);
+        assertFalse(LOCKS.isWriteLockHeld(key));
+        assertEquals(0, LOCKS.evictIdle());  // still read locked
+        assertEquals(before + 1, LOCKS.size());
+
+        LOCKS.readUnlock(key);
+        assertEquals(1, LOCKS.evictIdle());
+        assertEquals(before, LOCKS.size());
+    }
+
+    @Test
+    public void testReentrant() {
+        final SPNodeKey key = new SPNodeKey();
+        LOCKS.writeLock(key);
+        LOCKS.writeLock(key);
+        LOCKS.writeUnlock(key);
+        LOCKS.evictIdle();
+        assertTrue(LOCKS.isWriteLockHeld(key));
+        LOCKS.writeUnlock(key);
+        assertFalse(LOCKS.isWriteLockHeld(key));
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        LOCKS.readUnlock(new SPNodeKey());
+    }
+
+    @Test
+    public void testWaiterKeepsEntry() throws Exception {
+        final SPNodeKey key = new SPNodeKey();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+
+        LOCKS.writeLock(key);
+        final Thread t = new Thread(() -> {
+            started.countDown();
+            LOCKS.writeLock(key);
+            acquired.set(true);
+            LOCKS.writeUnlock(key);
+        });
+        t.start();
+        started.await();
+
+        // Give the other thread time to block on the lock, then release.
+        Thread.sleep(50);
+        assertFalse(acquired.get());
+        LOCKS.evictIdle();  // must not evict the lock being waited on
+        LOCKS.writeUnlock(key);
+
+        t.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(acquired.get());
+        assertFalse(LOCKS.isWriteLockHeld(key));
+    }
+}
@@ -0,0 +1,135 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.pio.xml.PioXmlFactory;
+import edu.gemini.spModel.pio.xml.PioXmlUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip tests for the compact program file format.
+ */
+public final class CompactProgramCodecTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2020A-Q-1"));
+        for (int i = 0; i < 3; ++i) {
+            prog.addObservation(odb.getFactory().createObservation(prog, Instrument.none, null));
+        }
+
+        dir = File.createTempFile("codec", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private static String xml(ISPDataObject dobj) throws Exception {
+        return PioXmlUtil.toXmlString(dobj.getParamSet(new PioXmlFactory()));
+    }
+
+    private static void assertSameTree(ISPNode expected, ISPNode actual) throws Exception {
+        assertEquals(expected.getNodeKey(), actual.getNodeKey());
+        assertEquals(expected.getDataObject().getType(), actual.getDataObject().getType());
+        assertEquals(xml(expected.getDataObject()), xml(actual.getDataObject()));
+        assertEquals(expected.getConflicts().notes, actual.getConflicts().notes);
+        if (expected instanceof ISPContainerNode) {
+            final List<ISPNode> ec = ((ISPContainerNode) expected).getChildren();
+            final List<ISPNode> ac = ((ISPContainerNode) actual).getChildren();
+            assertEquals(ec.size(), ac.size());
+            for (int i = 0; i < ec.size(); ++i) assertSameTree(ec.get(i), ac.get(i));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ISPObservation obs = prog.getAllObservations().get(0);
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle("Round trip");
+        obs.setDataObject(dobj);
+        obs.addConflictNote(new Conflict.Moved(obs.getNodeKey(), prog.getNodeKey()));
+
+        final File f = new File(dir, "prog.sp");
+        new CompactProgramCodec().store(prog, f);
+        assertTrue(CompactProgramCodec.isCompact(f));
+
+        final CompactProgramCodec.Header h = CompactProgramCodec.readHeader(f);
+        assertEquals(CompactProgramCodec.FORMAT_VERSION, h.version);
+        assertEquals(prog.getProgramKey(), h.key);
+        assertEquals(prog.getProgramID(), h.id);
+
+        final ISPProgram copy = (ISPProgram) new CompactProgramCodec().load(f);
+        assertSameTree(prog, copy);
+        assertEquals(prog.getVersions(), copy.getVersions());
+        assertEquals(prog.getLifespanId(), copy.getLifespanId());
+        assertEquals(prog.lastModified(), copy.lastModified());
+        assertEquals("Round trip", copy.getAllObservations().get(0).getDataObject().getTitle());
+    }
+
+    @Test
+    public void testDefaultsToJava() throws Exception {
+        assertNull(System.getProperty(ProgramCodec.CODEC_PROP));
+        assertEquals(JavaSerializationCodec.NAME, ProgramCodec.fromSystemProperties().getName());
+    }
+
+    @Test
+    public void testJavaReadsCompactFormat() throws Exception {
+        final File f = new File(dir, "prog.sp");
+        new CompactProgramCodec().store(prog, f);
+
+        // Switching back to the default codec still opens the database.
+        assertSameTree(prog, new JavaSerializationCodec().load(f));
+    }
+
+    @Test
+    public void testReadsLegacyFormat() throws Exception {
+        final File f = new File(dir, "prog.sp");
+        new JavaSerializationCodec().store(prog, f);
+        assertFalse(CompactProgramCodec.isCompact(f));
+
+        final ISPProgram copy = (ISPProgram) new CompactProgramCodec().load(f);
+        assertSameTree(prog, copy);
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        final File f = new File(dir, "prog.sp");
+        new JavaSerializationCodec().store(prog, f);
+
+        new ProgramFileMigrator(new CompactProgramCodec()).migrate(dir);
+        assertTrue(CompactProgramCodec.isCompact(f));
+        assertSameTree(prog, new CompactProgramCodec().load(f));
+    }
+
+    @Test
+    public void testMigrateBack() throws Exception {
+        final File f = new File(dir, "prog.sp");
+        new CompactProgramCodec().store(prog, f);
+
+        new ProgramFileMigrator(new JavaSerializationCodec()).migrate(dir);
+        assertFalse(CompactProgramCodec.isCompact(f));
+
+        // Readable without any knowledge of the compact format.
+        assertSameTree(prog, (ISPProgram) new MemSerializer().load(f));
+    }
+}
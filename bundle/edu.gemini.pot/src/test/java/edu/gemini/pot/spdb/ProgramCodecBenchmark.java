@@ -0,0 +1,87 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPRootNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares store and reload throughput and file size of the program codecs.
+ * Run against a <em>copy</em> of a real database directory:
+ *
+ * <pre>
+ *   ProgramCodecBenchmark &lt;dbDir&gt; [iterations]
+ * </pre>
+ *
+ * The programs are loaded once and then repeatedly written to and read back
+ * from a scratch directory with each codec.
+ */
+public final class ProgramCodecBenchmark {
+
+    private static final class Result {
+        long storeMs;
+        long loadMs;
+        long bytes;
+    }
+
+    private static Result run(ProgramCodec codec, List<ISPRootNode> progs, File scratch) throws IOException {
+        final Result r = new Result();
+        final List<File> files = new ArrayList<>(progs.size());
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < progs.size(); ++i) {
+            final File f = new File(scratch, i + FileManager.PROGRAM_SUFFIX);
+            codec.store(progs.get(i), f);
+            files.add(f);
+        }
+        long t1 = System.nanoTime();
+        for (File f : files) codec.load(f);
+        long t2 = System.nanoTime();
+
+        r.storeMs = (t1 - t0) / 1000000;
+        r.loadMs  = (t2 - t1) / 1000000;
+        for (File f : files) {
+            r.bytes += f.length();
+            f.delete();
+        }
+        return r;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ProgramCodecBenchmark <dbDir> [iterations]");
+            System.exit(1);
+        }
+        final File dbDir     = new File(args[0]);
+        final int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+
+        final File[] files = dbDir.listFiles((dir, name) -> name.endsWith(FileManager.PROGRAM_SUFFIX));
+        if (files == null) throw new IOException("Not a directory: " + dbDir);
+
+        final List<ISPRootNode> progs = new ArrayList<>(files.length);
+        final ProgramCodec reader = new CompactProgramCodec();
+        for (File f : files) progs.add(reader.load(f));
+        System.out.println(String.format("Loaded %d programs from %s", progs.size(), dbDir));
+
+        final File scratch = File.createTempFile("codecBench", "");
+        if (!scratch.delete() || !scratch.mkdir()) throw new IOException("Couldn't create " + scratch);
+
+        final ProgramCodec[] codecs = { new JavaSerializationCodec(), new CompactProgramCodec() };
+        try {
+            for (int i = 0; i < iterations; ++i) {
+                for (ProgramCodec c : codecs) {
+                    final Result r = run(c, progs, scratch);
+                    System.out.println(String.format("%-8s iter %d: store %6d ms (%5.1f progs/s), load %6d ms (%5.1f progs/s), %,d bytes",
+                            c.getName(), i,
+                            r.storeMs, progs.size() * 1000.0 / Math.max(1, r.storeMs),
+                            r.loadMs,  progs.size() * 1000.0 / Math.max(1, r.loadMs),
+                            r.bytes));
+                }
+            }
+        } finally {
+            scratch.delete();
+        }
+    }
+}
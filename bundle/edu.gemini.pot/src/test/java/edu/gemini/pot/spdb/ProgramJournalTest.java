@@ -0,0 +1,204 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests journaling of data object updates and their replay on reload.
+ */
+public final class ProgramJournalTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private ISPObservation obs;
+    private File dir;
+    private final List<IDBPersister> persisters = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2020A-Q-2"));
+        obs  = odb.getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+
+        dir = File.createTempFile("journal", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (IDBPersister p : persisters) p.close();
+        odb.getDBAdmin().shutdown();
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        final File[] files = f.listFiles();
+        if (files != null) for (File c : files) delete(c);
+        f.delete();
+    }
+
+    private FileManager fileManager() throws Exception {
+        final FileManager fm = new FileManager(dir, new CompactProgramCodec());
+        persisters.add(fm);
+        return fm;
+    }
+
+    private static ISPDataObject retitle(ISPNode node, String title) {
+        final ISPDataObject dobj = node.getDataObject();
+        dobj.setTitle(title);
+        node.setDataObject(dobj);
+        return node.getDataObject();
+    }
+
+    private static ISPObservation findObs(ISPProgram p, SPNodeKey key) {
+        for (ISPObservation o : p.getAllObservations()) {
+            if (o.getNodeKey().equals(key)) return o;
+        }
+        return null;
+    }
+
+    @Test
+    public void testReplayOnReload() throws Exception {
+        final FileManager fm = fileManager();
+        fm.store(prog);
+
+        // Update without storing the program, as after a crash.
+        assertTrue(fm.journal(prog, obs, retitle(obs, "Journaled")));
+        assertTrue(fm.journalSize(prog.getProgramKey()) > 0);
+
+        final List<ISPProgram> progs = fileManager().reloadPrograms();
+        assertEquals(1, progs.size());
+
+        final ISPObservation copy = findObs(progs.get(0), obs.getNodeKey());
+        assertNotNull(copy);
+        assertEquals("Journaled", copy.getDataObject().getTitle());
+        assertEquals(obs.getVersion(), copy.getVersion());
+
+        // Replay compacts the journal into the program file.
+        assertFalse(new File(new File(dir, "journal"), prog.getProgramKey() + ProgramJournal.SUFFIX).exists());
+    }
+
+    @Test
+    public void testReplayCommit() throws Exception {
+        final FileManager fm = fileManager();
+        fm.store(prog);
+
+        // Several updates committed together, then a crash.
+        retitle(prog, "Committed program");
+        retitle(obs, "Committed observation");
+        assertTrue(fm.journalCommit(prog, Arrays.<ISPNode>asList(prog, obs)));
+
+        final List<ISPProgram> progs = fileManager().reloadPrograms();
+        final ISPProgram copy = progs.get(0);
+        assertEquals("Committed program", copy.getDataObject().getTitle());
+        assertEquals("Committed observation", findObs(copy, obs.getNodeKey()).getDataObject().getTitle());
+        assertEquals(prog.getVersions(), copy.getVersions());
+    }
+
+    @Test
+    public void testUnreadableEntry() throws Exception {
+        final FileManager fm = fileManager();
+        fm.store(prog);
+        final File progFile = new File(dir, "GS-2020A-Q-2" + FileManager.PROGRAM_SUFFIX);
+        final long progFileSize = progFile.length();
+
+        assertTrue(fm.journal(prog, obs, retitle(obs, "Readable")));
+        fm.close();
+
+        // Append a well-framed record that can't be decoded, then a good one.
+        final File jdir = new File(dir, "journal");
+        final File jnl  = new File(jdir, prog.getProgramKey() + ProgramJournal.SUFFIX);
+        final byte[] bad = new byte[] { 99, 0 };
+        final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(bad, 0, bad.length);
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.FileOutputStream(jnl, true))) {
+            out.writeInt(bad.length);
+            out.writeLong(crc.getValue());
+            out.write(bad);
+        }
+        final ProgramJournal j = new ProgramJournal(jdir);
+        j.append(prog.getProgramKey(), obs, retitle(obs, "Lost"));
+        j.close();
+
+        final FileManager fm2 = fileManager();
+        final ISPProgram copy = fm2.reloadPrograms().get(0);
+        assertEquals("Readable", findObs(copy, obs.getNodeKey()).getDataObject().getTitle());
+
+        // The journal is moved aside and the program file isn't compacted.
+        final File failed = new File(jdir, prog.getProgramKey() + ProgramJournal.SUFFIX + ProgramJournal.FAILED_SUFFIX);
+        assertFalse(jnl.exists());
+        assertTrue(failed.exists());
+        assertEquals(progFileSize, progFile.length());
+
+        // The next store keeps a copy of the program file the journal applies to.
+        fm2.store(copy);
+        assertTrue(failed.exists());
+        assertTrue(new File(jdir, prog.getProgramKey() + ProgramJournal.FAILED_SUFFIX).exists());
+    }
+
+    @Test
+    public void testStoreCompacts() throws Exception {
+        final FileManager fm = fileManager();
+        fm.store(prog);
+        fm.journal(prog, obs, retitle(obs, "First"));
+        fm.store(prog);
+        assertEquals(0, fm.journalSize(prog.getProgramKey()));
+
+        final ISPObservation copy = findObs(fileManager().reloadPrograms().get(0), obs.getNodeKey());
+        assertEquals("First", copy.getDataObject().getTitle());
+    }
+
+    @Test
+    public void testStoreAfterRemove() throws Exception {
+        final FileManager fm = fileManager();
+        fm.store(prog);
+        final File progFile = new File(dir, "GS-2020A-Q-2" + FileManager.PROGRAM_SUFFIX);
+        assertTrue(progFile.exists());
+
+        // A store of the removed program that was already under way.
+        fm.remove(prog);
+        fm.store(prog);
+        assertFalse(progFile.exists());
+        assertTrue(fileManager().reloadPrograms().isEmpty());
+
+        // Adding it back again stores it.
+        fm.add(prog);
+        assertTrue(progFile.exists());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final ProgramJournal j = new ProgramJournal(new File(dir, "journal"));
+        final Map<String, Long> before = new HashMap<>();
+        j.addMetrics(before);
+
+        // Appends don't force the journal, the flush forces all of them at once.
+        for (int i = 0; i < 100; ++i) j.append(prog.getProgramKey(), obs, retitle(obs, "Title " + i));
+        j.flush();
+        j.flush();
+
+        final Map<String, Long> after = new HashMap<>();
+        j.addMetrics(after);
+        assertEquals(100, after.get("journal.appends") - before.get("journal.appends"));
+        final long fsyncs = after.get("journal.fsyncs") - before.get("journal.fsyncs");
+        assertTrue(fsyncs >= 1);
+        j.close();
+
+        j.replay(prog);
+        assertEquals("Title 99", obs.getDataObject().getTitle());
+    }
+}
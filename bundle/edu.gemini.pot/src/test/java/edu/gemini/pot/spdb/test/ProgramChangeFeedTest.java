@@ -0,0 +1,118 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.ProgramChangeFeed;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the program change feed.
+ */
+public final class ProgramChangeFeedTest extends SpdbBaseTestCase {
+
+    private ISPProgram createProgram(String id) throws Exception {
+        final ISPProgram prog = getDatabase().getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID(id));
+        recordProgram(prog);
+        return prog;
+    }
+
+    private static void edit(ISPProgram prog) {
+        final SPProgram dataObj = (SPProgram) prog.getDataObject();
+        dataObj.setTitle(dataObj.getTitle() + " (edited)");
+        prog.setDataObject(dataObj);
+    }
+
+    @Test
+    public void testUnknownWithoutCursor() throws Exception {
+        final ProgramChangeFeed.Changes c = getDatabase().getProgramChangeFeed().await(null, 0);
+        assertTrue(c.isUnknown());
+        assertNotNull(c.getCursor());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final ProgramChangeFeed feed = getDatabase().getProgramChangeFeed();
+        final ProgramChangeFeed.Changes c = feed.await(feed.current(), 10);
+        assertFalse(c.isUnknown());
+        assertTrue(c.getPrograms().isEmpty());
+    }
+
+    @Test
+    public void testEdits() throws Exception {
+        final ProgramChangeFeed feed = getDatabase().getProgramChangeFeed();
+        final ISPProgram p1 = createProgram("GS-2015A-Q-1");
+        final ISPProgram p2 = createProgram("GS-2015A-Q-2");
+
+        final ProgramChangeFeed.Cursor start = feed.current();
+        edit(p1);
+        edit(p1);
+
+        final ProgramChangeFeed.Changes c1 = feed.await(start, 0);
+        assertEquals(Collections.singleton(p1.getProgramID()), c1.getPrograms());
+        assertFalse(c1.mayContain(p2.getProgramID()));
+
+        // Resume from the returned cursor.
+        edit(p2);
+        final ProgramChangeFeed.Changes c2 = feed.await(c1.getCursor(), 0);
+        assertEquals(Collections.singleton(p2.getProgramID()), c2.getPrograms());
+    }
+
+    @Test
+    public void testWakesWaiter() throws Exception {
+        final ProgramChangeFeed feed = getDatabase().getProgramChangeFeed();
+        final ISPProgram p = createProgram("GS-2015A-Q-1");
+        final ProgramChangeFeed.Cursor start = feed.current();
+
+        final Thread t = new Thread(() -> {
+            try { Thread.sleep(50); } catch (InterruptedException ex) { /* ignore */ }
+            edit(p);
+        });
+        t.start();
+
+        final ProgramChangeFeed.Changes c = feed.await(start, 10000);
+        t.join();
+        assertTrue(c.mayContain(p.getProgramID()));
+        assertFalse(c.isUnknown());
+    }
+
+    @Test
+    public void testLimitsWaiters() throws Exception {
+        final ProgramChangeFeed feed = getDatabase().getProgramChangeFeed();
+        final ISPProgram p = createProgram("GS-2015A-Q-1");
+        final ProgramChangeFeed.Cursor start = feed.current();
+
+        // Fill up the default number of waiters.
+        final int max = 64;
+        final List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < max; ++i) {
+            final Thread t = new Thread(() -> {
+                try { feed.await(start, 10000); } catch (Exception ex) { /* ignore */ }
+            });
+            t.start();
+            waiters.add(t);
+        }
+        while (feed.getWaiterCount() < max) Thread.sleep(10);
+
+        try {
+            feed.await(start, 10000);
+            fail("Expected BusyException");
+        } catch (ProgramChangeFeed.BusyException ex) {
+            // expected
+        }
+
+        // Asking without waiting is still fine.
+        assertTrue(feed.await(start, 0).getPrograms().isEmpty());
+
+        edit(p);
+        for (Thread t : waiters) t.join();
+        assertEquals(0, feed.getWaiterCount());
+    }
+}
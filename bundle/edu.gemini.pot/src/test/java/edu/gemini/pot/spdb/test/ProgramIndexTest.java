@@ -0,0 +1,110 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBQueryFilter;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.ProgramType;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.core.Semester;
+import edu.gemini.spModel.core.Site;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spModel.obs.ObservationStatus;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests filtered queries answered from the program index.
+ */
+public final class ProgramIndexTest extends SpdbBaseTestCase {
+
+    private static final class CollectingFunctor extends DBAbstractQueryFunctor {
+        final List<ISPNode> nodes = new ArrayList<>();
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            nodes.add(node);
+        }
+    }
+
+    private ISPProgram createProgram(String id) throws Exception {
+        final ISPProgram prog = getDatabase().getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID(id));
+        recordProgram(prog);
+        return prog;
+    }
+
+    private int countPrograms(DBQueryFilter filter) {
+        final CollectingFunctor f = getDatabase().getQueryRunner().queryPrograms(filter, new CollectingFunctor());
+        assertNull(f.getException());
+        return f.nodes.size();
+    }
+
+    private List<ISPNode> observations(DBQueryFilter filter) {
+        final CollectingFunctor f = getDatabase().getQueryRunner().queryObservations(filter, new CollectingFunctor());
+        assertNull(f.getException());
+        return f.nodes;
+    }
+
+    @Test
+    public void testIdCriteria() throws Exception {
+        createProgram("GS-2015A-Q-1");
+        createProgram("GN-2015A-Q-2");
+        createProgram("GS-2015B-C-3");
+        createProgram("JamesBond-007");
+
+        final Semester sem15A = new Semester(2015, Semester.Half.A);
+
+        assertEquals(4, countPrograms(DBQueryFilter.ALL));
+        assertEquals(2, countPrograms(DBQueryFilter.ALL.withSites(Site.GS)));
+        assertEquals(2, countPrograms(DBQueryFilter.ALL.withSemesters(sem15A)));
+        assertEquals(1, countPrograms(DBQueryFilter.ALL.withSemesters(sem15A).withSites(Site.GS)));
+        assertEquals(1, countPrograms(DBQueryFilter.ALL.withTypes(ProgramType.Classical$.MODULE$)));
+        assertEquals(0, countPrograms(DBQueryFilter.ALL.withTypes(ProgramType.Engineering$.MODULE$)));
+    }
+
+    @Test
+    public void testCompletedUpdated() throws Exception {
+        final ISPProgram prog = createProgram("GS-2015A-Q-1");
+        createProgram("GS-2015A-Q-2");
+
+        final DBQueryFilter incomplete = DBQueryFilter.ALL.withCompleted(false);
+        assertEquals(2, countPrograms(incomplete));
+
+        final SPProgram dataObj = (SPProgram) prog.getDataObject();
+        dataObj.setCompleted(true);
+        prog.setDataObject(dataObj);
+
+        assertEquals(1, countPrograms(incomplete));
+        assertEquals(1, countPrograms(DBQueryFilter.ALL.withCompleted(true)));
+    }
+
+    @Test
+    public void testObservations() throws Exception {
+        final ISPProgram prog = createProgram("GS-2015A-Q-1");
+        assertTrue(observations(DBQueryFilter.ALL).isEmpty());
+
+        final ISPObservation obs = getDatabase().getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+
+        final ObservationStatus status = ObservationStatus.computeFor(obs);
+        ObservationStatus other = null;
+        for (ObservationStatus os : ObservationStatus.values()) if (os != status) other = os;
+
+        assertEquals(1, observations(DBQueryFilter.ALL).size());
+        assertEquals(1, observations(DBQueryFilter.ALL.withObsStatuses(status)).size());
+        assertEquals(0, observations(DBQueryFilter.ALL.withObsStatuses(other)).size());
+        assertEquals(0, observations(DBQueryFilter.ALL.withSites(Site.GN)).size());
+
+        prog.removeObservation(obs);
+        assertTrue(observations(DBQueryFilter.ALL).isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBProgramListFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBFunctor;
+import edu.gemini.pot.spdb.IDBSplittableQueryFunctor;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that splittable query functors see every program exactly once and
+ * that partition results are merged in program order.
+ */
+public final class SplittableQueryTest extends SpdbBaseTestCase {
+
+    private static final int PROGRAM_COUNT = 200;
+
+    private static final class CountingFunctor extends DBAbstractQueryFunctor implements IDBSplittableQueryFunctor {
+        private int count;
+        private int partitions = 1;
+        private boolean finished;
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            ++count;
+        }
+
+        public void finished() {
+            finished = true;
+        }
+
+        public CountingFunctor split() {
+            return new CountingFunctor();
+        }
+
+        public void mergeResults(Collection<IDBFunctor> functorCollection) {
+            partitions = functorCollection.size();
+            for (IDBFunctor f : functorCollection) {
+                final CountingFunctor cf = (CountingFunctor) f;
+                assertTrue(cf.finished);
+                count += cf.count;
+            }
+        }
+    }
+
+    private static final class FailingFunctor extends DBAbstractQueryFunctor implements IDBSplittableQueryFunctor {
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            throw new IllegalStateException("boom");
+        }
+
+        public FailingFunctor split() {
+            return new FailingFunctor();
+        }
+
+        public void mergeResults(Collection<IDBFunctor> functorCollection) {
+            fail("should not merge after a failure");
+        }
+    }
+
+    private List<SPNodeKey> createPrograms() throws Exception {
+        final List<SPNodeKey> keys = new ArrayList<>();
+        for (int i = 0; i < PROGRAM_COUNT; ++i) keys.add(createProgram().getProgramKey());
+        return keys;
+    }
+
+    @Test
+    public void testAllProgramsVisited() throws Exception {
+        createPrograms();
+        final CountingFunctor f = getDatabase().getQueryRunner().queryPrograms(new CountingFunctor());
+        assertNull(f.getException());
+        assertTrue(f.finished);
+        assertTrue(f.partitions > 1);
+        assertEquals(PROGRAM_COUNT, f.count);
+    }
+
+    @Test
+    public void testMergedInOrder() throws Exception {
+        final List<SPNodeKey> expected = new ArrayList<>(new TreeSet<>(createPrograms()));
+        final DBProgramListFunctor f = getDatabase().getQueryRunner().queryPrograms(new DBProgramListFunctor());
+        assertNull(f.getException());
+        assertEquals(expected, f.getKeyList());
+    }
+
+    @Test
+    public void testPartitionException() throws Exception {
+        createPrograms();
+        final FailingFunctor f = getDatabase().getQueryRunner().queryPrograms(new FailingFunctor());
+        assertNotNull(f.getException());
+    }
+}
@@ -18,7 +18,10 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -178,6 +181,14 @@ public class TriggerCase extends SpdbBaseTestCase {
      * non-null trigger message, generate a trigger.
      */
     public static class TestTriggerCondition implements IDBTriggerCondition {
+        public Set<String> getPropertyNames() {
+            return Collections.singleton(SPUtil.getDataObjectPropertyName());
+        }
+
+        public Class<? extends ISPNode> getNodeType() {
+            return ISPObsComponent.class;
+        }
+
         public Object matches(SPCompositeChange change) {
 //            System.out.println("*** composite change");
             String propName = SPUtil.getDataObjectPropertyName();
@@ -303,4 +314,21 @@ public class TriggerCase extends SpdbBaseTestCase {
         _assertMessages(new String[] {"message1", "message2"});
      }
 
+    @Test public void testMetrics() throws Exception {
+        _leaseTrigger();
+
+        TriggerDataObject tdo = (TriggerDataObject) _triggerComp.getDataObject();
+        tdo.setTriggerMessage("message1");
+        _triggerComp.setDataObject(tdo);
+        Thread.sleep(1000);
+        _assertMessages(new String[] {"message1"});
+
+        final String prefix = "trigger." + TestTriggerAction.class.getName() + ".";
+        final Map<String, Long> metrics = getDatabase().getDBAdmin().getMetrics();
+        assertEquals(Long.valueOf(1), metrics.get(prefix + "executed"));
+        assertEquals(Long.valueOf(0), metrics.get(prefix + "failures"));
+        assertEquals(Long.valueOf(0), metrics.get(prefix + "queueDepth"));
+        assertEquals(Long.valueOf(0), metrics.get(prefix + "dropped"));
+    }
+
 }
@@ -0,0 +1,46 @@
+package edu.gemini.pot.sp
+
+import edu.gemini.pot.sp.ProgramGen.genProg
+import edu.gemini.pot.sp.version._
+import org.scalacheck.Gen
+
+object VersionDigestSpec extends ProgramTestSupport {
+
+  val genTestProg: Gen[ISPFactory => ISPProgram] = genProg
+
+  private def edit(p: ISPProgram): Unit = {
+    val dob = p.getDataObject
+    dob.setTitle(dob.getTitle + " (edited)")
+    p.setDataObject(dob)
+  }
+
+  "VersionDigest" should {
+    "be kept up-to-date as the program is edited" ! forAllPrograms { (odb, progs) =>
+      progs.forall { p =>
+        val before = p.getVersionDigest
+        edit(p)
+        val after  = p.getVersionDigest
+        (before != after) && (after == VersionDigest.of(p.getVersions))
+      }
+    }
+
+    "ignore empty node versions" ! forAllPrograms { (odb, progs) =>
+      progs.forall { p =>
+        val vm = p.getVersions
+        VersionDigest.of(vm + (new SPNodeKey -> EmptyNodeVersions)) == VersionDigest.of(vm)
+      }
+    }
+
+    "find all the entries that differ" ! forAllPrograms { (odb, progs) =>
+      progs.forall { p =>
+        val local  = p.getVersions
+        val same   = p.getVersionDigest.diff(VersionDigest.of(local)).isEmpty
+        edit(p)
+        val bs     = p.getVersionDigest.diff(VersionDigest.of(local))
+        val merged = VersionDigest.patch(local, bs, VersionDigest.select(p.getVersions, bs))
+        same && bs.nonEmpty && (merged == p.getVersions)
+      }
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+package edu.gemini.qpt.core.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Solver for conditions of the form <code>min &lt;= g(t) &lt;= max</code> on a continuous quantity
+ * <code>g</code> such as airmass, hour angle or sky brightness.
+ * <p>
+ * In {@link Mode#BRACKET} mode {@link #solve(Interval)} samples <code>g</code> on a coarse grid,
+ * looks for hidden windows where <code>g</code> passes through the range between two samples or
+ * has an extremum close to one of them, and then refines each transition by inverse quadratic
+ * interpolation on <code>g</code> as in Brent's method, falling back to bisection when this does not
+ * converge quickly (e.g. at the discontinuities of the hour angle).
+ * The boundaries are found to the same tolerance as in {@link Mode#STEP} mode, which scans at the
+ * step size like any other {@link Solver}.
+ * <p>
+ * Values of <code>g</code> are remembered, so overlapping queries on the same solver do not
+ * calculate them again. Solvers are not thread-safe.
+ */
+public abstract class BracketingSolver extends Solver {
+
+    public enum Mode {
+        STEP,
+        BRACKET
+    }
+
+    private final long bracketSize, tolerance;
+    private final double min, max;
+    private final Map<Long, Double> values = new HashMap<Long, Double>();
+    private Mode mode = Mode.BRACKET;
+    private int evaluations;
+
+    /**
+     * @param stepSize the step size in STEP mode
+     * @param bracketSize the sampling interval in BRACKET mode; transitions and excursions of g must be
+     *        at least this far apart
+     * @param tolerance the precision of the interval boundaries
+     * @param min the smallest value of g for which the condition is met
+     * @param max the largest value of g for which the condition is met
+     */
+    protected BracketingSolver(long stepSize, long bracketSize, long tolerance, double min, double max) {
+        super(stepSize, tolerance);
+        this.bracketSize = bracketSize;
+        this.tolerance = Math.max(1, tolerance);
+        this.min = min;
+        this.max = max;
+    }
+
+    /** The continuous quantity. */
+    protected abstract double g(long t);
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the number of times g has been calculated by this solver.
+     */
+    @Override
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    protected final boolean f(long t) {
+        return meets(value(t));
+    }
+
+    @Override
+    public Union<Interval> solve(Interval interval) {
+        if (mode == Mode.STEP) return super.solve(interval);
+
+        final Union<Interval> ret = new Union<Interval>();
+        if (interval.getLength() == 0) return ret;
+
+        final List<Long> ts = samples(interval);
+
+        long start = 0;
+        boolean in = false;
+        for (int i = 0; i < ts.size(); ++i) {
+            final long t = ts.get(i);
+            final boolean p = f(t);
+            if (p != in && i > 0) {
+                final Long c = (i > 1) ? ts.get(i - 2) : (i + 1 < ts.size()) ? ts.get(i + 1) : null;
+                final long b = transition(ts.get(i - 1), t, c, in);
+                if (p) start = b;
+                else ret.add(new Interval(start, b + 1));
+            } else if (p && i == 0) {
+                start = t;
+            }
+            in = p;
+        }
+        if (in) ret.add(new Interval(start, interval.getEnd()));
+
+        ret.intersect(new Union<Interval>(interval));
+        return ret;
+    }
+
+    // The ends of the interval and the multiples of the bracket size in between, so that overlapping
+    // queries share their samples, with the times of hidden windows added
+    private List<Long> samples(Interval interval) {
+        final long last = interval.getEnd() - 1;
+        final List<Long> grid = new ArrayList<Long>();
+        grid.add(interval.getStart());
+        for (long t = (Math.floorDiv(interval.getStart(), bracketSize) + 1) * bracketSize; t < last; t += bracketSize) grid.add(t);
+        if (last > interval.getStart()) grid.add(last);
+
+        final SortedSet<Long> ts = new TreeSet<Long>(grid);
+        for (int i = 0; i + 1 < grid.size(); ++i) {
+            final Long c = crossing(grid.get(i), grid.get(i + 1));
+            if (c != null) ts.add(c);
+            if (i > 0) {
+                final Long e = excursion(grid.get(i - 1), grid.get(i), grid.get(i + 1));
+                if (e != null) ts.add(e);
+            }
+        }
+        return new ArrayList<Long>(ts);
+    }
+
+    /**
+     * If g is below the range at one end and above it at the other, a time in between at which
+     * the condition is met, or null if there is none to within the tolerance (e.g. at a
+     * discontinuity).
+     */
+    private Long crossing(long t0, long t1) {
+        while (t1 - t0 > tolerance) {
+            final double g0 = value(t0), g1 = value(t1);
+            if (!((g0 < min && g1 > max) || (g0 > max && g1 < min))) return null;
+
+            // aim for the middle of the range
+            final double x = t0 + ((min + max) / 2 - g0) / (g1 - g0) * (t1 - t0);
+            final long t = (x > t0 && x < t1) ? Math.min(t1 - 1, Math.max(t0 + 1, Math.round(x))) : t0 + (t1 - t0) / 2;
+            if (f(t)) return t;
+            if ((value(t) < min) == (g0 < min)) t0 = t; else t1 = t;
+        }
+        return null;
+    }
+
+    /**
+     * If g has a local extremum at the middle sample and the parabola through the three samples
+     * predicts that the condition changes around it, the time of the vertex of the parabola,
+     * otherwise null.
+     */
+    private Long excursion(long t0, long t1, long t2) {
+        final double g0 = value(t0), g1 = value(t1), g2 = value(t2);
+        if ((g1 - g0) * (g2 - g1) > 0) return null;
+        final boolean p = meets(g1);
+        if (p != meets(g0) || p != meets(g2)) return null;
+
+        // vertex of the parabola A x^2 + B x through the three points, relative to (t1, g1)
+        final double a = t0 - t1, b = t2 - t1;
+        final double A = ((g0 - g1) / a - (g2 - g1) / b) / (a - b);
+        final double B = (g0 - g1) / a - A * a;
+        if (A == 0 || Double.isNaN(A)) return null;
+        final double v = -B / (2 * A);
+        if (!(v > a && v < b)) return null;
+        final double gv = g1 + (A * v + B) * v;
+
+        final long tv = t1 + Math.round(v);
+        if (tv == t1 || meets(gv) == p) return null;
+        return tv;
+    }
+
+    /**
+     * Finds the transition between lo and hi, where the condition is met at lo if
+     * <code>falling</code> and at hi otherwise. The neighbouring sample c, which may be null,
+     * helps with the first interpolation. Returns the time closest to the transition at which
+     * the condition is met.
+     */
+    private long transition(long lo, long hi, Long c, boolean falling) {
+        // the limit that g crosses, and the distances of g to it at lo, hi and the last point dropped
+        final double gOut = value(falling ? hi : lo);
+        final double level = (gOut < min) ? min : max;
+        double dlo = value(lo) - level, dhi = value(hi) - level;
+        long tc = (c == null) ? lo : c;
+        double dc = value(tc) - level;
+
+        final long half = tolerance / 2;
+        long before = Long.MAX_VALUE, last = Long.MAX_VALUE; // the widths of the bracket in the last two steps
+        while (hi - lo > tolerance) {
+            final long width = hi - lo;
+            long t = lo + width / 2;
+            if (width <= before / 2) {
+                // inverse quadratic interpolation, or regula falsi if that fails
+                double x = Double.NaN;
+                if (dlo != dhi && dlo != dc && dhi != dc)
+                    x = lo * dhi * dc / ((dlo - dhi) * (dlo - dc)) +
+                        hi * dlo * dc / ((dhi - dlo) * (dhi - dc)) +
+                        tc * dlo * dhi / ((dc - dlo) * (dc - dhi));
+                if (!(x > lo && x < hi) && dlo * dhi < 0)
+                    x = lo + dlo / (dlo - dhi) * width;
+                // stay at least half the tolerance away from the ends of the bracket
+                if (x > lo && x < hi) t = Math.min(hi - 1 - half, Math.max(lo + 1 + half, Math.round(x)));
+            } // otherwise bisect, the last two steps didn't halve the bracket
+
+            final double dt = value(t) - level;
+            if (f(t) == falling) {
+                tc = lo; dc = dlo;
+                lo = t;  dlo = dt;
+            } else {
+                tc = hi; dc = dhi;
+                hi = t;  dhi = dt;
+            }
+            before = last;
+            last = width;
+        }
+        return falling ? lo : hi;
+    }
+
+    private boolean meets(double g) {
+        return (min <= g) && (g <= max);
+    }
+
+    private double value(long t) {
+        Double g = values.get(t);
+        if (g == null) {
+            ++evaluations;
+            g = g(t);
+            values.put(t, g);
+        }
+        return g;
+    }
+
+}
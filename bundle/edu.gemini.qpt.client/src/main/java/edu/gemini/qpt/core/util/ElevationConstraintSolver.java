@@ -1,27 +1,27 @@
 package edu.gemini.qpt.core.util;
 
-import java.util.Date;
 import java.util.function.Function;
 import java.util.logging.Logger;
 
 import edu.gemini.qpt.shared.util.TimeUtils;
+import edu.gemini.skycalc.BatchSkyCalc;
 import edu.gemini.spModel.core.Site;
 import jsky.coords.WorldCoords;
 import edu.gemini.qpt.shared.sp.Obs;
 
-public abstract class ElevationConstraintSolver extends Solver {
+public abstract class ElevationConstraintSolver extends BracketingSolver {
 
     @SuppressWarnings("unused")
     private static final Logger LOGGER = Logger.getLogger(ElevationConstraintSolver.class.getName());
 
-    protected final ImprovedSkyCalc calc;
+    protected final Site site;
     protected final Function<Long, WorldCoords> coords;
     protected final double min, max;
 
     protected ElevationConstraintSolver(Site site, Function<Long, WorldCoords> coords, double min, double max) {
-        super(TimeUtils.MS_PER_HOUR / 4, TimeUtils.MS_PER_MINUTE);
+        super(TimeUtils.MS_PER_HOUR / 4, TimeUtils.MS_PER_HOUR * 2, TimeUtils.MS_PER_MINUTE, min, max);
         this.coords = coords;
-        this.calc = new ImprovedSkyCalc(site);
+        this.site = site;
         this.max = max;
         this.min = min;
     }
@@ -47,10 +47,11 @@ public abstract class ElevationConstraintSolver extends Solver {
         }
 
         @Override
-        protected boolean f(long t) {
-            calc.calculate(coords.apply(t), new Date(t), false);
-            double airmass = calc.getAirmass();
-            return (min <= airmass) && (airmass <= max);
+        protected double g(long t) {
+            final WorldCoords c = coords.apply(t);
+            double airmass = BatchSkyCalc.calculate(site, t, c.getRaDeg(), c.getDecDeg(), false).airmass[0];
+            // skycalc returns 0 below the horizon, which is beyond any limit as far as the solver is concerned
+            return (airmass == 0) ? Double.POSITIVE_INFINITY : airmass;
         }
 
     }
@@ -62,10 +63,9 @@ public abstract class ElevationConstraintSolver extends Solver {
         }
 
         @Override
-        protected boolean f(long t) {
-            calc.calculate(coords.apply(t), new Date(t), false);
-            double ha = calc.getHourAngle();
-            return (min <= ha) && (ha <= max);
+        protected double g(long t) {
+            final WorldCoords c = coords.apply(t);
+            return BatchSkyCalc.calculate(site, t, c.getRaDeg(), c.getDecDeg(), false).hourAngle[0];
         }
 
     }
@@ -5,6 +5,7 @@ package edu.gemini.qpt.core.util;
 public abstract class Solver {
 
     private final long stepSize, tolerance;
+    private int evaluations;
 
     public Solver(long stepSize, long tolerance) {
         this.stepSize = stepSize;
@@ -19,7 +20,7 @@ public abstract class Solver {
     public Interval solve(Interval bounds, long t) {
         try {
             long[] ret = new long[2];
-            if (f(t)) {
+            if (test(t)) {
                 ret[0] = solve(bounds, t, -stepSize, true);
                 ret[1] = solve(bounds, t, stepSize, true);
             } else {
@@ -59,7 +60,7 @@ public abstract class Solver {
     
     private long solve(Interval bounds, long t, long stepSize, boolean findFalse) throws NoSolutionException {
 //        System.out.print("Starting at " + t + " and counting by " + stepSize + " until condition is " + !findFalse);
-        while (findFalse ? f(t) : !f(t)) {
+        while (findFalse ? test(t) : !test(t)) {
             if (!bounds.contains(t)) {
                 
                 
@@ -106,6 +107,18 @@ public abstract class Solver {
     }
     
     protected abstract boolean f(long t);
+
+    /**
+     * Returns the number of times the condition has been evaluated by this solver.
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    private boolean test(long t) {
+        ++evaluations;
+        return f(t);
+    }
     
 
     
@@ -0,0 +1,191 @@
+package edu.gemini.qpt.core.util;
+
+import edu.gemini.qpt.shared.util.TimeUtils;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.sin;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BracketingSolverTest {
+
+    private static void assertSameIntervals(Union<Interval> expected, Union<Interval> actual, long tolerance) {
+        SortedSet<Interval> es = expected.getIntervals();
+        SortedSet<Interval> as = actual.getIntervals();
+        assertEquals(es.size(), as.size());
+        Iterator<Interval> it = as.iterator();
+        for (Interval e: es) {
+            Interval a = it.next();
+            assertTrue(e + " != " + a, Math.abs(e.getStart() - a.getStart()) <= tolerance);
+            assertTrue(e + " != " + a, Math.abs(e.getEnd() - a.getEnd()) <= tolerance);
+        }
+    }
+
+    @Test public void testSameAsStep() {
+
+        // Same solutions as stepping for all bracket sizes < period, see SolverTest.
+        for (int period = 2; period < 1024; period *= 2) {
+            for (int bracket = 1; bracket < period; bracket += 1 + bracket / 4) {
+                for (int cycles = 1; cycles < 5; cycles++) {
+                    Solver step = new TestSolver(bracket, 1, period);
+                    BracketingSolver s = new SineSolver(bracket, 1, period);
+                    assertEquals(step.solve(0, period * cycles * 2).getIntervals(), s.solve(0, period * cycles * 2).getIntervals());
+                }
+            }
+        }
+
+    }
+
+    @Test public void testBoundedSearch() {
+
+        // True from (1..100] and (201..300], same cases as SolverTest
+        Solver step = new TestSolver(99, 1, 100);
+        BracketingSolver s = new SineSolver(99, 1, 100);
+
+        long[][] bounds = { {40, 60}, {40, 160}, {40, 240}, {70, 160}, {-40, 60}, {-40, 160}, {-100, 2}, {140, 160}, {40, 41}, {99, 100} };
+        for (long[] b: bounds) {
+            assertEquals(step.solve(b[0], b[1]).getIntervals(), s.solve(b[0], b[1]).getIntervals());
+        }
+
+    }
+
+    @Test public void testHiddenExcursion() {
+
+        // True on [510..550], which falls between two samples.
+        BracketingSolver s = new BracketingSolver(100, 200, 1, 0, 400) {
+            @Override
+            protected double g(long t) {
+                return (t - 530) * (t - 530);
+            }
+        };
+        assertEquals(new Union<Interval>(new Interval(510, 551)).getIntervals(), s.solve(0, 1000).getIntervals());
+
+        // False on (1010..1050).
+        s = new BracketingSolver(100, 200, 1, 400, Double.MAX_VALUE) {
+            @Override
+            protected double g(long t) {
+                return (t - 1030) * (t - 1030);
+            }
+        };
+        assertEquals(new Union<Interval>(new Interval(0, 1011), new Interval(1050, 2000)).getIntervals(), s.solve(0, 2000).getIntervals());
+
+        // True on [490..510] of a monotonic quantity.
+        s = new BracketingSolver(100, 200, 1, -1, 1) {
+            @Override
+            protected double g(long t) {
+                return t / 10.0 - 50;
+            }
+        };
+        assertEquals(new Union<Interval>(new Interval(490, 511)).getIntervals(), s.solve(0, 1000).getIntervals());
+
+    }
+
+    @Test public void testDiscontinuity() {
+
+        // An hour angle that wraps around.
+        BracketingSolver step = new WrappingSolver(50, 1);
+        BracketingSolver s = new WrappingSolver(200, 1);
+        step.setMode(BracketingSolver.Mode.STEP);
+        assertEquals(step.solve(0, 10000).getIntervals(), s.solve(0, 10000).getIntervals());
+
+    }
+
+    @Test public void testEvaluations() {
+
+        // An airmass-like quantity over a 12 hour night, at the rates used for elevation constraints.
+        long night = 12 * TimeUtils.MS_PER_HOUR;
+        for (double max = 1.1; max < 3; max += 0.1) {
+            final double m = max;
+            Solver step = new Solver(TimeUtils.MS_PER_HOUR / 4, TimeUtils.MS_PER_MINUTE) {
+                @Override
+                protected boolean f(long t) {
+                    double airmass = AirmassLikeSolver.airmass(t);
+                    return (1.0 <= airmass) && (airmass <= m);
+                }
+            };
+            AirmassLikeSolver s = new AirmassLikeSolver(max);
+            Union<Interval> expected = step.solve(0, night);
+            Union<Interval> actual = s.solve(0, night);
+            assertSameIntervals(expected, actual, TimeUtils.MS_PER_MINUTE);
+            assertTrue(step.getEvaluations() + " vs " + s.getEvaluations(), s.getEvaluations() * 4 <= step.getEvaluations());
+
+            // the same in STEP mode
+            s.setMode(BracketingSolver.Mode.STEP);
+            assertSameIntervals(expected, s.solve(0, night), 0);
+            s.setMode(BracketingSolver.Mode.BRACKET);
+
+            // overlapping queries reuse the values
+            s = new AirmassLikeSolver(max);
+            s.solve(0, night);
+            int n = s.getEvaluations();
+            s.solve(TimeUtils.MS_PER_HOUR, night);
+            s.solve(0, night);
+            assertTrue(n + " vs " + s.getEvaluations(), s.getEvaluations() < n + 4);
+        }
+
+    }
+
+}
+
+/**
+ * Solver for (sine wave with period p) > 0, as TestSolver
+ */
+class SineSolver extends BracketingSolver {
+
+    private final double period;
+
+    public SineSolver(long bracketSize, long tolerance, double period) {
+        super(bracketSize, bracketSize, tolerance, 0.5, Double.MAX_VALUE);
+        this.period = period;
+    }
+
+    @Override
+    protected double g(long x) {
+        return period * sin(x * PI / period);
+    }
+
+}
+
+/**
+ * Solver for -100 <= ((t + 500) % 1000) - 500 <= 100
+ */
+class WrappingSolver extends BracketingSolver {
+
+    public WrappingSolver(long stepSize, long tolerance) {
+        super(stepSize, stepSize, tolerance, -100, 100);
+    }
+
+    @Override
+    protected double g(long t) {
+        return ((t + 500) % 1000) - 500;
+    }
+
+}
+
+/**
+ * Solver for an airmass-like quantity that has its minimum at 8 hours and is 0 below the horizon,
+ * as in skycalc.
+ */
+class AirmassLikeSolver extends BracketingSolver {
+
+    public AirmassLikeSolver(double max) {
+        super(TimeUtils.MS_PER_HOUR / 4, 2 * TimeUtils.MS_PER_HOUR, TimeUtils.MS_PER_MINUTE, 1.0, max);
+    }
+
+    static double airmass(long t) {
+        double h = (t - 8.0 * TimeUtils.MS_PER_HOUR) / TimeUtils.MS_PER_HOUR;
+        double el = 80 - h * h * 2.5;
+        return (el <= 0) ? 0 : 1 / sin(el * PI / 180);
+    }
+
+    @Override
+    protected double g(long t) {
+        double airmass = airmass(t);
+        return (airmass == 0) ? Double.POSITIVE_INFINITY : airmass;
+    }
+
+}
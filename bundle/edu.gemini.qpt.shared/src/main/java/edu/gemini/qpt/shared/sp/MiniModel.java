@@ -215,7 +215,7 @@ public class MiniModel {
             }
 
             final IDBQueryRunner qr = TrpcClient$.MODULE$.apply(peer.host, peer.port).withKeyChain(kc).proxy(IDBQueryRunner.class);
-            final ObsQueryFunctor result = qr.queryPrograms(functor);
+            final ObsQueryFunctor result = qr.queryPrograms(functor.getProgramFilter(), functor);
             return newInstanceFromExecuted(peer, result);
 
         } catch (UndeclaredThrowableException ute) {
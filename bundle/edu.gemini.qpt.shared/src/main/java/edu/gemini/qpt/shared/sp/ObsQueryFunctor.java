@@ -3,7 +3,10 @@ package edu.gemini.qpt.shared.sp;
 import edu.gemini.ags.api.*;
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBFunctor;
+import edu.gemini.pot.spdb.IDBSplittableQueryFunctor;
 import edu.gemini.shared.util.TimeValue;
 import edu.gemini.shared.util.immutable.ApplyOp;
 import edu.gemini.shared.util.immutable.DefaultImList;
@@ -66,9 +69,11 @@ import java.util.logging.Logger;
 import scala.collection.JavaConversions;
 
 /**
- * Query functor that generates the sp mini-model snapshot.
+ * Query functor that generates the sp mini-model snapshot.  Each program is
+ * handled independently and the results are kept in sorted collections, so
+ * the query may be split into partitions whose results are simply combined.
  */
-public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<Prog> {
+public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<Prog>, IDBSplittableQueryFunctor {
     /**
      * TODO: Temporary system property to indicate whether or not we should calculate the
      * TODO: AGS anaylsis
@@ -167,6 +172,57 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
         this.magTable = magTable;
     }
 
+    /**
+     * Creates an empty functor with the same query parameters as the given
+     * one.
+     */
+    private ObsQueryFunctor(ObsQueryFunctor that) {
+        this.site = that.site;
+        // Calendar lazily computes its fields, so it can't be shared.
+        this.date = (that.date == null) ? null : (Calendar) that.date.clone();
+        this.progTypes = that.progTypes;
+        this.relevantObsClasses = that.relevantObsClasses;
+        this.relevantObsStatuses = that.relevantObsStatuses;
+        this.relevantSemesters = that.relevantSemesters;
+        this.rolloverSemesters = that.rolloverSemesters;
+        this.skipCompletedPrograms = that.skipCompletedPrograms;
+        this.skipInactivePrograms = that.skipInactivePrograms;
+        this.skipInvalidObservations = that.skipInvalidObservations;
+        this.skipNoStepsObservations = that.skipNoStepsObservations;
+        this.magTable = that.magTable;
+    }
+
+    public ObsQueryFunctor split() {
+        return new ObsQueryFunctor(this);
+    }
+
+    /**
+     * Gets a filter that limits the query to the programs this functor can
+     * accept, to be passed to <code>IDBQueryRunner.queryPrograms</code>
+     * along with the functor.  The QPT functor records the semester and
+     * exclusion reason of every program it sees (and accepts rollovers from
+     * earlier semesters), so only the QV functor is actually restricted.
+     */
+    public DBQueryFilter getProgramFilter() {
+        if (date != null) return DBQueryFilter.ALL;
+        return DBQueryFilter.ALL
+                .withTypes(progTypes)
+                .withSemesters(relevantSemesters)
+                .withCompleted(skipCompletedPrograms ? Boolean.FALSE : null)
+                .withActive(skipInactivePrograms ? Boolean.TRUE : null);
+    }
+
+    public void mergeResults(Collection<IDBFunctor> functorCollection) {
+        for (IDBFunctor f : functorCollection) {
+            final ObsQueryFunctor that = (ObsQueryFunctor) f;
+            programSet.addAll(that.programSet);
+            misconfiguredObservations.addAll(that.misconfiguredObservations);
+            allSemesters.addAll(that.allSemesters);
+            programExclusions.putAll(that.programExclusions);
+            obsExclusions.putAll(that.obsExclusions);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public void execute(IDBDatabaseService db, ISPNode progNode, Set<Principal> principals) {
         try {
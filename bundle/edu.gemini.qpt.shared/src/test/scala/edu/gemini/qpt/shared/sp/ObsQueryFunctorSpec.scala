@@ -0,0 +1,109 @@
+package edu.gemini.qpt.shared.sp
+
+import edu.gemini.ags.api.AgsMagnitude
+import edu.gemini.pot.sp.Instrument
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.shared.util.immutable.ImOption
+import edu.gemini.spModel.core.{ProgramType, SPProgramID, Semester, Site}
+import edu.gemini.spModel.gemini.obscomp.SPProgram
+import edu.gemini.spModel.guide.GuideProbe
+import edu.gemini.spModel.obs.ObservationStatus
+import edu.gemini.spModel.obs.context.ObsContext
+import edu.gemini.spModel.obsclass.ObsClass
+import org.specs2.mutable.Specification
+
+import java.security.Principal
+import scala.collection.JavaConverters._
+
+/**
+ * Checks that a split ObsQueryFunctor finds the same programs and exclusions
+ * as a serial run, and that its program filter only hands it the programs it
+ * accepts.
+ */
+object ObsQueryFunctorSpec extends Specification {
+
+  private val PartitionSizeProp = "edu.gemini.pot.spdb.QueryRunner.partitionSize"
+
+  private val NoMagnitudes = new AgsMagnitude.MagnitudeTable {
+    def apply(ctx: ObsContext, gp: GuideProbe): Option[AgsMagnitude.MagnitudeCalc] = None
+  }
+
+  private def functor: ObsQueryFunctor =
+    new ObsQueryFunctor(
+      Site.GS,
+      Set(new Semester(2015, Semester.Half.A)).asJava,
+      List[ProgramType](ProgramType.Queue).asJava,
+      ObsClass.values.toSet.asJava,
+      ObservationStatus.values.toSet.asJava,
+      false,
+      false,
+      NoMagnitudes)
+
+  private def populate(odb: IDBDatabaseService): Unit =
+    (1 to 200).foreach { i =>
+      // Spread the programs over two semesters and leave some without a
+      // numeric band so that there are exclusions to merge as well.
+      val sem = if (i % 3 == 0) "2014B" else "2015A"
+      val p   = odb.getFactory.createProgram(null, SPProgramID.toProgramID(s"GS-$sem-Q-$i"))
+      val dob = p.getDataObject.asInstanceOf[SPProgram]
+      if (i % 5 != 0) dob.setQueueBand("1")
+      p.setDataObject(dob)
+
+      val o = odb.getFactory.createObservation(p, ImOption.apply(Instrument.GmosSouth), null)
+      p.addObservation(o)
+      odb.put(p)
+    }
+
+  private def run(odb: IDBDatabaseService, partitionSize: Option[Int]): ObsQueryFunctor = {
+    val old = Option(System.getProperty(PartitionSizeProp))
+    partitionSize.foreach(s => System.setProperty(PartitionSizeProp, s.toString))
+    try {
+      odb.getQueryRunner(new java.util.HashSet[Principal]).queryPrograms(functor)
+    } finally {
+      old.fold(System.clearProperty(PartitionSizeProp))(System.setProperty(PartitionSizeProp, _))
+    }
+  }
+
+  "ObsQueryFunctor" should {
+    "produce the same results split as serially" in {
+      val odb = DBLocalDatabase.createTransient
+      try {
+        populate(odb)
+
+        val serial   = run(odb, Some(1000000))
+        val parallel = run(odb, Some(8))
+
+        serial.getException must beNull
+        parallel.getException must beNull
+        serial.getProgramSet.asScala.map(_.getProgramId).toList must not be empty
+        parallel.getProgramSet.asScala.map(_.getProgramId).toList must_== serial.getProgramSet.asScala.map(_.getProgramId).toList
+        parallel.getProgramExclusions.asScala must_== serial.getProgramExclusions.asScala
+        parallel.getObsExclusions.asScala must_== serial.getObsExclusions.asScala
+        parallel.getAllSemesters.asScala must_== serial.getAllSemesters.asScala
+        parallel.getMisconfiguredObservations.asScala must_== serial.getMisconfiguredObservations.asScala
+      } finally {
+        odb.getDBAdmin.shutdown()
+      }
+    }
+
+    "visit only the programs matching its filter" in {
+      val odb = DBLocalDatabase.createTransient
+      try {
+        populate(odb)
+
+        val qr       = odb.getQueryRunner(new java.util.HashSet[Principal])
+        val all      = qr.queryPrograms(functor)
+        val filtered = qr.queryPrograms(functor.getProgramFilter, functor)
+
+        all.getException must beNull
+        filtered.getException must beNull
+        all.getAllSemesters.asScala must_== Set("2014B", "2015A")
+        filtered.getAllSemesters.asScala must_== Set("2015A")
+        filtered.getProgramExclusions.asScala.keySet.map(_.stringValue).forall(_.contains("2015A")) must beTrue
+        filtered.getProgramSet.asScala.map(_.getProgramId).toList must_== all.getProgramSet.asScala.map(_.getProgramId).toList
+      } finally {
+        odb.getDBAdmin.shutdown()
+      }
+    }
+  }
+}
@@ -70,7 +70,7 @@ class OdbDataSource(val peer: Peer, mt: MagnitudeTable) extends DataSource {
 
     val obsSet = client.future[Set[Obs]] { r =>
 
-      val result = r[IDBQueryRunner].queryPrograms(functor)
+      val result = r[IDBQueryRunner].queryPrograms(functor.getProgramFilter, functor)
       val model  = MiniModel.newInstanceFromExecuted(peer, result)
       val obs    = model.getAllObservations
       scala.collection.JavaConversions.asScalaSet[Obs](obs).toSet
@@ -33,7 +33,7 @@ class RefreshDialog(owner: Window, ctx: QvContext) extends Dialog(owner) {
 
   val clearCacheAction = Action("Clear Cache") {
     Future {
-      SolutionProvider(ctx).clear()
+      SolutionProvider(ctx).clear(discardStored = true)
       Runtime.getRuntime.gc()
     }.onComplete({
       case _ => Swing.onEDT(memoryBar.update())
@@ -1,6 +1,11 @@
 package edu.gemini.qv.plugin.util
 
+import java.io.File
 import java.time.Instant
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.{Level, Logger}
 
 import ConstraintsCache._
 import edu.gemini.qpt.shared.sp.{Conds, Obs}
@@ -28,6 +33,17 @@ import scala.swing.{Publisher, Swing}
 
 object ConstraintsCache {
 
+  private val LOG = Logger.getLogger(classOf[ConstraintsCache].getName)
+
+  // writes and deletes the stored solutions one after the other in the background
+  private val storeContext = ExecutionContext.fromExecutorService(Executors.newSingleThreadExecutor(new java.util.concurrent.ThreadFactory {
+    def newThread(r: Runnable): Thread = {
+      val t = new Thread(r, "QV constraints store")
+      t.setDaemon(true)
+      t
+    }
+  }))
+
   sealed trait CalculationEvent extends Event
   case class ConstraintCalculationStart(constraint: ConstraintType, cnt: Int = 1) extends CalculationEvent
   case class ConstraintCalculationEnd(constraint: ConstraintType, cnt: Int = 1) extends CalculationEvent
@@ -49,7 +65,12 @@ object ConstraintsCache {
 
 }
 
-class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
+/**
+ * Cache for the constraint solutions of all observations over all nights.
+ * The solutions are also kept by a hash of the inputs they depend on and night, and stored in the given file if
+ * any, so that after a refresh or restart only the nights of observations with changed inputs are recalculated.
+ */
+class ConstraintsCache(allNights: Seq[Night], store: Option[File] = None) extends Publisher {
 
   sealed trait SolutionKey
   case class ObsKey(ct: ConstraintType, obsId: String) extends SolutionKey
@@ -61,6 +82,10 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
   private val solutionMap: concurrent.Map[SolutionKey, Solution] = concurrent.TrieMap()
   private val valueMap: concurrent.Map[ValueKey, Seq[Double]] = concurrent.TrieMap()
 
+  // solutions by input hash and night start, read from the store on the first update
+  private val nightsMap: concurrent.Map[UUID, Map[Long, CachedNight]] = concurrent.TrieMap()
+  @volatile private var loaded = false
+
   private def add(key: SolutionKey, value: Solution) = {
     solutionMap.put(key, value)
   }
@@ -109,15 +134,26 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
   }
 
 
-  def clear() = {
+  /**
+   * Clears all solutions held in memory. Stored solutions are read again on the next update unless they are
+   * discarded too, in which case everything is recalculated.
+   */
+  def clear(discardStored: Boolean = false) = synchronized {
     solutionMap.clear()
     valueMap.clear()
+    nightsMap.clear()
+    if (discardStored) store.foreach(f => Future(f.delete())(storeContext))
+    loaded = discardStored
   }
 
 
   def update(ctx: QvContext, nights: Seq[Night], observations: Set[Obs]): Future[Unit] = Future {
     require(nights.nonEmpty)
 
+    load()
+    val seen    = concurrent.TrieMap[UUID, Unit]()
+    val changed = new AtomicBoolean(false)
+
     val constraints = Set(AboveHorizon, SkyBrightness, TimingWindows, Elevation)
     val foldedMap = FoldedTargetsProvider.observationsMap(observations, ctx)
     val foldedObs = foldedMap.keys
@@ -138,7 +174,9 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
     foldedObs.par.foreach(obs => {                                   // work on observation groups in parallel!
 
       val target = (t: Long) => obs.getTargetEnvironment.getAsterism.basePosition(Some(Instant.ofEpochMilli(t))).getOrElse(Coordinates.zero)
-      calculatePosSemester(nights, target, obs, foldedMap(obs))
+      val (key, updated) = calculatePosSemester(nights, target, obs, foldedMap(obs))
+      seen.put(key, ())
+      if (updated) changed.set(true)
 
       // update progress, we've calculated all constraints for obs.size observations for all nights in the semester
       Swing.onEDT({
@@ -147,6 +185,11 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
 
     })
 
+    // forget observations that are gone or whose inputs have changed and store the solutions if anything changed
+    val stale = nightsMap.keySet.filterNot(seen.contains)
+    stale.foreach(nightsMap.remove)
+    if (changed.get || stale.nonEmpty) save()
+
     onEDT(constraints.foreach(c => {
       publish(ConstraintCalculationEnd(c, 0))
     }))
@@ -154,15 +197,27 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
   }
 
 
-  private def calculatePosSemester(nights: Seq[Night], target: Long => Coordinates, foldedObs: Obs, obs: Set[Obs]): Unit = {
+  /** Returns the key of the cached nights for the observation and whether they have changed. */
+  private def calculatePosSemester(nights: Seq[Night], target: Long => Coordinates, foldedObs: Obs, obs: Set[Obs]): (UUID, Boolean) = {
+
+    // calculate all constraints on a per-night basis unless they are cached for the same inputs and target
+    // positions, and then concatenate the results
+    val key    = inputsKey(nights.head.site, foldedObs)
+    val cached = nightsMap.getOrElse(key, Map())
+    val cc = nights.map { n =>
+      val pos = positionHash(n, target)
+      cached.get(n.start).filter(_.position == pos).getOrElse(calculatePosNight(n, target, foldedObs, pos))
+    }
+    val updated = (cached ++ cc.map(n => n.start -> n)).filter { case (start, _) =>
+      start >= allNights.head.start && start < allNights.last.end
+    }
+    nightsMap.put(key, updated)
 
-    // calculate all constraints on a per-night basis and then concatenate the results
-    val cc = nights.map(n => calculatePosNight(n, target, foldedObs))
-    val ah = cc.map(_._1).reduce(_ add _)
-    val sb = cc.map(_._2).reduce(_ add _)
-    val el = cc.map(_._3).reduce(_ add _)
-    val minEl = cc.map(_._4)
-    val maxEl = cc.map(_._5)
+    val ah = cc.map(_.aboveHorizon).reduce(_ add _)
+    val sb = cc.map(_.skyBrightness).reduce(_ add _)
+    val el = cc.map(_.elevation).reduce(_ add _)
+    val minEl = cc.map(_.minElevation)
+    val maxEl = cc.map(_.maxElevation)
     // timing windows for an observation are calculated once per semester only, convert windows to immutable sequence
     val tws = Seq(scala.collection.JavaConversions.asScalaBuffer(foldedObs.getTimingWindows):_*)
     val twsSol = TimingWindowConstraint(tws).solve(nights, foldedObs)
@@ -177,9 +232,12 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
       valueMap.put(ObsValueKey(MaxElevation, o.getObsId), maxEl)
     })
 
+    // reused nights are the very same instances
+    (key, updated.size != cached.size || cc.exists(n => !cached.get(n.start).exists(_ eq n)))
+
   }
 
-  private def calculatePosNight(night: Night, target: Long => Coordinates, o: Obs): (Solution, Solution, Solution, Double, Double) = {
+  private def calculatePosNight(night: Night, target: Long => Coordinates, o: Obs, position: Long): CachedNight = {
 
     import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.ElevationConstraintType._
 
@@ -187,8 +245,10 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
     val bounds = night.scienceTime
     val tc = TargetCalculator(night.site, target, bounds, TimeUtils.minutes(10))
 
-    // return a tuple with all values of interest
-    (
+    // return all values of interest
+    CachedNight(
+      night.start,
+      position,
       // calculate and return the three constraints for AboveHorizon, SkyBrightness and Elevation
       {
         ElevationConstraint(0, Double.MaxValue, TimeUtils.minutes(3)).solve(bounds, tc)
@@ -213,6 +273,51 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
     )
   }
 
+  /** Hash of all inputs except for the target positions the solutions for an observation depend on. */
+  private def inputsKey(site: Site, o: Obs): UUID =
+    UUID.nameUUIDFromBytes(Seq(
+      o.getObsId,
+      site.abbreviation,
+      o.getConditions.getSB,
+      o.getElevationConstraintType,
+      o.getElevationConstraintMin,
+      o.getElevationConstraintMax,
+      o.getLGS
+    ).mkString("|").getBytes("UTF-8"))
+
+  /** Hash of the target positions at the start, middle and end of the science time of a night. */
+  private def positionHash(night: Night, target: Long => Coordinates): Long = {
+    val i = night.scienceTime
+    Seq(i.start, (i.start + i.end) / 2, i.end).map(target).foldLeft(17L) { (h, c) =>
+      val h0 = h * 1000003 ^ java.lang.Double.doubleToLongBits(c.ra.toDegrees)
+      h0 * 1000003 ^ java.lang.Double.doubleToLongBits(c.dec.toDegrees)
+    }
+  }
+
+  private def load(): Unit = synchronized {
+    if (!loaded) {
+      store.filter(_.exists).foreach { f =>
+        ConstraintsStore.read(f).fold(
+          t => LOG.log(Level.WARNING, s"Could not read stored constraints from $f, recalculating them.", t),
+          es => es.foreach { case (k, v) => nightsMap.putIfAbsent(k, v) }
+        )
+      }
+      loaded = true
+    }
+  }
+
+  // writes a snapshot of the cached nights in the background
+  private def save(): Unit = {
+    store.foreach { f =>
+      val entries = nightsMap.toMap
+      Future {
+        ConstraintsStore.write(f, entries).failed.foreach { t =>
+          LOG.log(Level.WARNING, s"Could not store constraints in $f.", t)
+        }
+      }(storeContext)
+    }
+  }
+
   /**
    * Gets the minimal elevation for an observation to be observable depending on LGS or not.
    * NOTE: This should be done by checking for the actual instrument used by the observation from o.instruments
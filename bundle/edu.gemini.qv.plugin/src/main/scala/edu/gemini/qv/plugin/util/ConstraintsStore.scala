@@ -0,0 +1,93 @@
+package edu.gemini.qv.plugin.util
+
+import java.io._
+import java.nio.file.{Files, StandardCopyOption}
+import java.util.UUID
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
+
+import edu.gemini.util.skycalc.calc.{Interval, Solution}
+
+import scala.util.Try
+
+/**
+ * Constraint solutions for one observation and night as calculated by the constraints cache.
+ * The position is a hash of the target positions during the night; if it changes the values for
+ * the night need to be recalculated.
+ */
+case class CachedNight(start: Long, position: Long, aboveHorizon: Solution, skyBrightness: Solution, elevation: Solution, minElevation: Double, maxElevation: Double)
+
+/**
+ * Reads and writes cached constraint solutions from and to a local file, so that they don't need to be
+ * recalculated from scratch every time QV is started. The entries are keyed by a hash of the observation
+ * inputs that the solutions depend on and hold the solutions by night start.
+ */
+object ConstraintsStore {
+
+  type Entries = Map[UUID, Map[Long, CachedNight]]
+
+  // change the version whenever the format or the way the solutions are calculated changes
+  private val Magic   = 0x51564353 // "QVCS"
+  private val Version = 1
+
+  def read(file: File): Try[Entries] = Try {
+    val in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))
+    try {
+      if (in.readInt() != Magic || in.readInt() != Version) throw new IOException(s"unknown format: $file")
+      Vector.fill(in.readInt()) {
+        val key = new UUID(in.readLong(), in.readLong())
+        key -> Vector.fill(in.readInt())(readNight(in)).map(n => n.start -> n).toMap
+      }.toMap
+    } finally {
+      in.close()
+    }
+  }
+
+  /** Writes the entries to a temporary file first and then replaces the given file. */
+  def write(file: File, entries: Entries): Try[Unit] = Try {
+    val tmp = File.createTempFile(file.getName, ".tmp", file.getAbsoluteFile.getParentFile)
+    try {
+      val out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+      try {
+        out.writeInt(Magic)
+        out.writeInt(Version)
+        out.writeInt(entries.size)
+        entries.foreach { case (key, nights) =>
+          out.writeLong(key.getMostSignificantBits)
+          out.writeLong(key.getLeastSignificantBits)
+          out.writeInt(nights.size)
+          nights.values.foreach(writeNight(out, _))
+        }
+      } finally {
+        out.close()
+      }
+      Files.move(tmp.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      tmp.delete()
+    }
+  }
+
+  private def readNight(in: DataInputStream): CachedNight =
+    CachedNight(in.readLong(), in.readLong(), readSolution(in), readSolution(in), readSolution(in), in.readDouble(), in.readDouble())
+
+  private def writeNight(out: DataOutputStream, n: CachedNight): Unit = {
+    out.writeLong(n.start)
+    out.writeLong(n.position)
+    writeSolution(out, n.aboveHorizon)
+    writeSolution(out, n.skyBrightness)
+    writeSolution(out, n.elevation)
+    out.writeDouble(n.minElevation)
+    out.writeDouble(n.maxElevation)
+  }
+
+  private def readSolution(in: DataInputStream): Solution =
+    Solution(Vector.fill(in.readInt())(Interval(in.readLong(), in.readLong())))
+
+  private def writeSolution(out: DataOutputStream, s: Solution): Unit = {
+    out.writeInt(s.intervals.size)
+    s.intervals.foreach { i =>
+      out.writeLong(i.start)
+      out.writeLong(i.end)
+    }
+  }
+
+}
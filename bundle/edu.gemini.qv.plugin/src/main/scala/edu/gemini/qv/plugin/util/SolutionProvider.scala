@@ -1,9 +1,10 @@
 package edu.gemini.qv.plugin.util
 
+import java.io.File
 import java.net.URI
 
 import edu.gemini.qpt.shared.sp.Obs
-import edu.gemini.qv.plugin.QvContext
+import edu.gemini.qv.plugin.{QvContext, QvTool}
 import edu.gemini.qv.plugin.ui.QvGui
 import edu.gemini.qv.plugin.util.ConstraintsCache._
 import edu.gemini.qv.plugin.util.ScheduleCache.ScheduleEvent
@@ -52,7 +53,7 @@ sealed class SolutionProvider(site: Site) extends Publisher {
   // ====================================================================
 
   val scheduleCache = new ScheduleCache()
-  val constraintsCache = new ConstraintsCache(nights)
+  val constraintsCache = new ConstraintsCache(nights, QvTool.cacheDir.map(new File(_, s"constraints-${site.abbreviation}.bin")))
 
   deafTo(this) // avoid cycles
   listenTo(scheduleCache, constraintsCache)
@@ -61,9 +62,10 @@ sealed class SolutionProvider(site: Site) extends Publisher {
     case e: ScheduleEvent => publish(e) // forward
   }
 
-  def clear(): Unit = {
+  /** Clears the cached schedules and solutions, and optionally also the solutions stored on disk. */
+  def clear(discardStored: Boolean = false): Unit = {
     scheduleCache.clear()
-    constraintsCache.clear()
+    constraintsCache.clear(discardStored)
   }
 
   /** Reloads and recalculates all constraints in the background. */
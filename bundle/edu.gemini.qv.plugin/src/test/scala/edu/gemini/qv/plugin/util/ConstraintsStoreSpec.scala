@@ -0,0 +1,54 @@
+package edu.gemini.qv.plugin.util
+
+import java.io.{DataOutputStream, File, FileOutputStream}
+import java.util.UUID
+
+import edu.gemini.util.skycalc.calc.{Interval, Solution}
+import org.specs2.mutable.Specification
+
+class ConstraintsStoreSpec extends Specification {
+
+  def tempFile(): File = {
+    val f = File.createTempFile("constraints", ".bin")
+    f.deleteOnExit()
+    f
+  }
+
+  val night0 = CachedNight(1000, 42, Solution(Interval(1000, 2000)), Solution(Seq(Interval(1100, 1200), Interval(1500, 1900))), Solution(), 10.5, 80.25)
+  val night1 = CachedNight(5000, -7, Solution(), Solution(), Solution(Interval(5000, 5001)), Double.NaN, 0)
+  val entries = Map(
+    UUID.nameUUIDFromBytes("GS-2016B-Q-1-1".getBytes("UTF-8")) -> Map(night0.start -> night0, night1.start -> night1),
+    UUID.nameUUIDFromBytes("GS-2016B-Q-1-2".getBytes("UTF-8")) -> Map[Long, CachedNight]()
+  )
+
+  "ConstraintsStore" should {
+    "read the entries it has written" in {
+      val f = tempFile()
+      ConstraintsStore.write(f, entries) should beSuccessfulTry
+      val read = ConstraintsStore.read(f).get
+      read.keySet should beEqualTo(entries.keySet)
+      read.values.map(_.size).sum should beEqualTo(2)
+      val n = read.values.flatMap(_.values).find(_.start == night0.start).get
+      n should beEqualTo(night0)
+      read.values.flatMap(_.values).find(_.start == night1.start).get.minElevation.isNaN should beTrue
+    }
+    "replace existing files" in {
+      val f = tempFile()
+      ConstraintsStore.write(f, entries)
+      ConstraintsStore.write(f, Map())
+      ConstraintsStore.read(f).get should beEmpty
+    }
+    "fail on files in an unknown format" in {
+      val f = tempFile()
+      val out = new DataOutputStream(new FileOutputStream(f))
+      out.writeInt(0)
+      out.close()
+      ConstraintsStore.read(f) should beFailedTry
+    }
+    "fail on missing files" in {
+      val f = tempFile()
+      f.delete()
+      ConstraintsStore.read(f) should beFailedTry
+    }
+  }
+}
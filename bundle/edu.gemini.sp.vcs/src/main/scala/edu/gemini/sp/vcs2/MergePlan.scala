@@ -7,8 +7,13 @@ import edu.gemini.shared.util.IntegerIsIntegral._
 import edu.gemini.sp.vcs2.NodeDetail.Obs
 import edu.gemini.sp.vcs2.VcsFailure._
 import edu.gemini.spModel.gemini.init.ObservationNI
+import edu.gemini.spModel.data.ISPDataObject
 import edu.gemini.spModel.rich.pot.sp._
 
+import java.util.logging.{Level, Logger}
+
+import scala.util.control.NonFatal
+
 import scalaz._
 import Scalaz._
 
@@ -141,9 +146,74 @@ case class MergePlan(update: Tree[MergeNode], delete: Set[Missing]) {
 
     mergeTree >>= doEdit
   }
+
+  /** Like `merge` but meant for the live program in the database rather than a
+    * copy.  Only the nodes in the `update` tree are touched.  If the merge
+    * fails part way through, the data objects, conflicts and children of any
+    * nodes it may have edited are put back along with the program's version
+    * map.  The caller must hold the program's write lock and should turn off
+    * the program's events until the result is committed (see
+    * `VcsServer.writeInPlace`).
+    *
+    * @return the edited nodes if the merge did nothing but replace their data
+    *         objects, `None` if it changed the program structure or conflicts
+    */
+  def mergeInPlace(f: ISPFactory, p: ISPProgram): VcsAction[Option[List[ISPNode]]] =
+    VcsAction(MergePlan.Rollback(this, p)) >>= { rb =>
+      EitherT(merge(f, p).run.map(_.bimap({ failure => rb.restore(); failure }, _ => rb.dataObjectEdits)))
+    }
 }
 
 object MergePlan {
+  private val Log = Logger.getLogger(classOf[MergePlan].getName)
+
+  /** The state of the parts of a program that a merge plan may edit, which can
+    * be restored if an in-place merge fails.
+    */
+  final class Rollback private (p: ISPProgram,
+                                nodes: List[(ISPNode, ISPDataObject, Conflicts)],
+                                containers: List[(ISPNode, List[ISPNode])],
+                                vm: VersionMap) {
+
+    /** The edited nodes, provided that the merge did nothing but replace their
+      * data objects.
+      */
+    def dataObjectEdits: Option[List[ISPNode]] = {
+      val sameChildren  = containers.forall { case (c, cs) => c.children.corresponds(cs)(_ eq _) }
+      val sameConflicts = nodes.forall { case (n, _, con) => con.isEmpty && n.getConflicts.isEmpty }
+      (sameChildren && sameConflicts) option nodes.map(_._1)
+    }
+
+    def restore(): Unit =
+      try {
+        containers.foreach { case (c, cs)       => c.children = cs }
+        nodes.foreach      { case (n, dob, con) => n.setDataObject(dob); n.setConflicts(con) }
+        p.setVersions(vm)
+      } catch {
+        case NonFatal(ex) =>
+          Log.log(Level.SEVERE, s"Could not roll back failed merge of ${p.getProgramID}", ex)
+      }
+  }
+
+  object Rollback {
+    def apply(mp: MergePlan, p: ISPProgram): Rollback = {
+      val nodeMap  = p.nodeMap
+      val existing = mp.update.flatten.toList.flatMap(mn => nodeMap.get(mn.key))
+      val modified = mp.update.flatten.toList.collect {
+        case Modified(k, _, _, _, _) => nodeMap.get(k)
+      }.flatten
+
+      // Setting the children of a modified node can move nodes from any other
+      // container, so remember the children of their current parents too.
+      val parents    = existing.flatMap(n => Option(n.getParent): Option[ISPNode])
+      val containers = (modified ++ parents).map(n => n.key -> n).toMap.values.toList
+
+      new Rollback(p,
+        modified.map(n => (n, n.getDataObject, n.getConflicts)),
+        containers.map(c => (c, c.children)),
+        p.getVersions)
+    }
+  }
 
   /** A serializable Tree[MergeNode].  Sadly scalaz.Tree is not serializable. */
   case class TreeTransport(mn: MergeNode, children: List[TreeTransport]) {
@@ -1,6 +1,6 @@
 package edu.gemini.sp.vcs2
 
-import edu.gemini.pot.sp.{SPNodeKey, ISPFactory, ISPProgram}
+import edu.gemini.pot.sp.{SPNodeKey, ISPFactory, ISPNode, ISPProgram}
 import edu.gemini.pot.sp.version._
 import edu.gemini.shared.util.VersionComparison.{Conflicting, Same, Newer}
 import edu.gemini.sp.vcs2.ProgramLocation.Remote
@@ -33,6 +33,12 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
   def version(id: SPProgramID, peer: Peer): VcsAction[VersionMap] =
     Client(peer).version(id)
 
+  /** Provides access to the `VersionMap`s associated with the given programs
+    * in the remote peer, fetched together.  Each program's result is
+    * reported separately. */
+  def versions(ids: List[SPProgramID], peer: Peer): VcsAction[Map[SPProgramID, TryVcs[VersionMap]]] =
+    Client(peer).versions(ids)
+
   private def checkCancel(cancelled: AtomicBoolean): VcsAction[Unit] =
     if (cancelled.get()) VcsAction.fail(Cancelled) else VcsAction.unit
 
@@ -87,10 +93,10 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
     // Only do the merge if the merge plan has something new to offer.
     def filter(eval: MergeEval): Boolean = eval.localUpdate
 
-    def update(f: ISPFactory, p: ISPProgram, eval: MergeEval): VcsAction[Unit] =
-      checkCancel(cancelled) >> eval.plan.merge(f, p)
+    def update(f: ISPFactory, p: ISPProgram, eval: MergeEval): VcsAction[Option[List[ISPNode]]] =
+      checkCancel(cancelled) >> eval.plan.mergeInPlace(f, p)
 
-    user >>= { u => server.write[MergeEval](id, u, evaluate, filter, update) }
+    user >>= { u => server.writeInPlace[MergeEval](id, u, evaluate, filter, update) }
   }
 
   /** Provides an action that will pull changes from the indicated remote peer
@@ -181,6 +187,7 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
     val s = service(peer)
 
     def version(id: SPProgramID): VcsAction[VersionMap]  = s.version(id).liftVcs
+    def versions(ids: List[SPProgramID]): VcsAction[Map[SPProgramID, TryVcs[VersionMap]]] = VcsAction(s.versions(ids))
     def add(p: ISPProgram): VcsAction[Unit]              = s.add(p).liftVcs
     def checkout(id: SPProgramID): VcsAction[ISPProgram] = s.checkout(id).liftVcs
     def diffState(id: SPProgramID): VcsAction[DiffState] = s.diffState(id).liftVcs
@@ -1,6 +1,6 @@
 package edu.gemini.sp.vcs2
 
-import edu.gemini.pot.sp.{ISPFactory, SPNodeKeyLocks, ISPProgram, SPNodeKey}
+import edu.gemini.pot.sp.{ISPFactory, ISPNode, SPNodeKeyLocks, ISPProgram, SPNodeKey}
 import edu.gemini.pot.sp.version.VersionMap
 import edu.gemini.pot.spdb.{DBIDClashException, IDBDatabaseService}
 import edu.gemini.shared.util.VersionComparison.{Same, Newer}
@@ -17,8 +17,10 @@ import edu.gemini.util.security.principal.GeminiPrincipal
 
 import java.util.logging.Logger
 
+import scala.collection.JavaConverters._
 import scalaz._
 import Scalaz._
+import scalaz.concurrent.Task
 
 /** VcsServer provides access-controlled locked read/write methods to generate
   * actions that read from and write to programs in the database. It also
@@ -80,6 +82,32 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
       }
     }
 
+  /** Like `write` but `update` edits the program in the database itself rather
+    * than a copy, so the cost of the write depends on the size of the change
+    * instead of the size of the program.  The write lock is held throughout,
+    * so readers never see a partial update, but `update` is responsible for
+    * leaving the program unchanged if it fails (see `MergePlan.mergeInPlace`).
+    *
+    * The program's events are turned off while `update` runs, so listeners
+    * such as the storage manager, triggers and the program change feed see
+    * neither intermediate nor rolled back states.  A successful update is
+    * committed to the database before events are turned back on, which sends
+    * listeners a single change.  If `update` returns the nodes whose data
+    * objects alone it replaced, these are journaled along with the final
+    * version map as one entry.  Otherwise the program is stored.
+    */
+  def writeInPlace[A](id:       SPProgramID,
+                      user:     Set[Principal],
+                      evaluate: ISPProgram => VcsAction[A],
+                      filter:   A => Boolean,
+                      update:   (ISPFactory, ISPProgram, A) => VcsAction[Option[List[ISPNode]]]): VcsAction[A] =
+    managed(id, user, instance.writeLock, instance.writeUnlock) { prog =>
+      evaluate(prog) >>= { a =>
+        if (filter(a)) silent(prog)(update(odb.getFactory, prog, a) >>= { edits => commit(prog, edits) }).as(a)
+        else VcsAction(a)
+      }
+    }
+
   /** Adds the given program to the database, provided it doesn't share the
     * same key or id with an existing program in the database and the user has
     * appropriate keys.
@@ -155,13 +183,13 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
         if (mp.hasConflicts) VcsAction.fail(HasConflict) else VcsAction(true)
 
       val mp = mpt.decode
-      vs.write[Boolean](id, user,
+      vs.writeInPlace[Boolean](id, user,
         p => for {
           vc <- versionCheck(p, mp)
           cc <- conflictCheck(mp)
         } yield vc && cc,
         identity,
-        (f, p, _) => (mp.merge(f, p) >> VcsAction(vcsLog.log(OpStore, id, geminiPrincipals))).as(())
+        (f, p, _) => mp.mergeInPlace(f, p) >>= { edits => VcsAction(vcsLog.log(OpStore, id, geminiPrincipals)).as(edits) }
       ).unsafeRun
     }
 
@@ -190,6 +218,12 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
   private def locked[A](k: SPNodeKey, lock: SPNodeKey => Unit, unlock: SPNodeKey => Unit)(body: => VcsAction[A]): VcsAction[A] =
     VcsAction(lock(k)) >> { try { body} finally { unlock(k) } }
 
+  private def silent[A](n: ISPNode)(body: => VcsAction[A]): VcsAction[A] =
+    VcsAction(n.setSendingEvents(false)) >> EitherT(body.run.onFinish(_ => Task.delay { n.setSendingEvents(true); () }))
+
+  private def commit(p: ISPProgram, edits: Option[List[ISPNode]]): VcsAction[Unit] =
+    \/.fromTryCatchNonFatal(odb.commit(p, edits.map(_.asJava).orNull)).leftMap(VcsException).liftVcs
+
   private  def putProg(p: ISPProgram): TryVcs[Unit] =
     \/.fromTryCatchNonFatal(odb.put(p)).leftMap {
       case clash: DBIDClashException => VcsFailure.idClash(clash)
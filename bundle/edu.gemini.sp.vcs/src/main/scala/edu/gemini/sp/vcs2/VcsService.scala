@@ -20,6 +20,12 @@ trait VcsService {
   /** Fetches the `VersionMap`. */
   def version(id: SPProgramID): TryVcs[VersionMap]
 
+  /** Fetches the `VersionMap` of each of the given programs, any of which
+    * may fail independently.  The trpc client sends all the `version` calls
+    * in one round trip. */
+  def versions(ids: List[SPProgramID]): Map[SPProgramID, TryVcs[VersionMap]] =
+    ids.map(id => id -> version(id)).toMap
+
   /** Add the given program, copying it to the remote database. */
   def add(p: ISPProgram): TryVcs[Unit]
 
@@ -68,5 +74,19 @@ object VcsService {
 
     override def version(id: SPProgramID) =
       call(_.version(id))
+
+    // Falls back to one request per program for peers that predate batches.
+    override def versions(ids: List[SPProgramID]) =
+      if (ids.size < 2) super.versions(ids)
+      else {
+        val b  = trpc.batch(concurrent = true)
+        val rs = ids.map(id => id -> b.call[VcsService, TryVcs[VersionMap]](_.version(id)))
+        try {
+          b.run()
+          rs.map { case (id, r) => id -> r.toTry.valueOr(ex => VcsException(ex).left) }.toMap
+        } catch {
+          case _: Exception => super.versions(ids)
+        }
+      }
   }
 }
\ No newline at end of file
@@ -763,6 +763,29 @@ class MergeTest extends JUnitSuite {
           newObs.getObservationNumber > max
         }.unsafePerformSync
       }
+    ),
+
+    ("rolling back an in-place merge restores the local program",
+      (start, local, remote, pc) => {
+        def obsNum(n: ISPNode): Option[Int] = n match {
+          case o: ISPObservation => Some(o.getObservationNumber)
+          case _                 => None
+        }
+
+        def shape(p: ISPProgram): Map[SPNodeKey, (List[SPNodeKey], Option[Int], Conflicts)] =
+          p.fold(Map.empty[SPNodeKey, (List[SPNodeKey], Option[Int], Conflicts)]) { (m, n) =>
+            m + (n.key -> ((n.children.map(_.key), obsNum(n), n.getConflicts)))
+          }
+
+        pc.correctedMergePlan.exists { cmp =>
+          val localCopy = pc.fact.copyWithSameKeys(pc.lp)
+          val before    = (shape(localCopy), localCopy.getVersions)
+          val rollback  = MergePlan.Rollback(cmp, localCopy)
+          cmp.merge(pc.fact, localCopy).run.unsafePerformSync
+          rollback.restore()
+          before == ((shape(localCopy), localCopy.getVersions))
+        }.unsafePerformSync
+      }
     )
   )
 
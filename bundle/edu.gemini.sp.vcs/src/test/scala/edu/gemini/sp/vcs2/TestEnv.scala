@@ -191,9 +191,8 @@ object MockVcsLog extends VcsLog {
 
 trait VcsSpecification extends Specification {
 
-  private def newTestEnv: TestEnv = {
+  private def newTestEnv(remoteOdb: IDBDatabaseService): TestEnv = {
     val localOdb  = DBLocalDatabase.createTransient()
-    val remoteOdb = DBLocalDatabase.createTransient()
 
     // Initialize the remote database with a test program
     import TestEnv._
@@ -220,8 +219,12 @@ trait VcsSpecification extends Specification {
     TestEnv(local, remote)
   }
 
-  def withVcs[A](body: TestEnv => A): A = {
-    val env = newTestEnv
+  def withVcs[A](body: TestEnv => A): A =
+    withRemoteOdb(DBLocalDatabase.createTransient())(body)
+
+  // Like withVcs, but with the given database as the remote peer's.
+  def withRemoteOdb[A](remoteOdb: IDBDatabaseService)(body: TestEnv => A): A = {
+    val env = newTestEnv(remoteOdb)
     try {
       body(env)
     } finally {
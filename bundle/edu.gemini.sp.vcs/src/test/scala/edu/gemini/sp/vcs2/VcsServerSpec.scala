@@ -4,16 +4,21 @@ package edu.gemini.sp.vcs2
 import edu.gemini.pot.sp.Conflict.ReplacedRemoteDelete
 import edu.gemini.pot.sp._
 import edu.gemini.pot.sp.version._
-import edu.gemini.pot.spdb.IDBDatabaseService
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
 import edu.gemini.sp.vcs2.VcsAction._
 import edu.gemini.sp.vcs2.VcsFailure._
 import edu.gemini.spModel.core.SPProgramID
 import edu.gemini.spModel.gemini.obscomp.SPProgram
+import edu.gemini.spModel.rich.pot.sp._
 import edu.gemini.util.security.principal.{ProgramPrincipal, StaffPrincipal}
 
+import java.io.File
+import java.nio.file.Files
 import java.security.Principal
+import java.util.concurrent.atomic.AtomicBoolean
 
 import org.specs2.control.LanguageFeatures
+import org.specs2.matcher.MatchResult
 
 import scala.language.postfixOps
 import scalaz._
@@ -123,6 +128,80 @@ class VcsServerSpec extends VcsSpecification with NoLanguageFeatures {
     }
   }
 
+  "writeInPlace" should {
+    val newTitle     = "The Myth of Sisyphus"
+    val readTitle    = (p: ISPProgram) => VcsAction(p.getDataObject.getTitle)
+    val titleMatches = (t: String)     => Title == t
+    val updateTitle  = (_: ISPFactory, p: ISPProgram, _: String) => VcsAction {
+      val dob = p.getDataObject <| (_.setTitle(newTitle))
+      p.setDataObject(dob)
+    }.as(some(List(p: ISPNode)))
+
+    def ihc(odb: IDBDatabaseService): Long = System.identityHashCode(odb.lookupProgram(Key))
+
+    def delete(f: File): Unit = {
+      Option(f.listFiles).foreach(_.foreach(delete))
+      f.delete()
+    }
+
+    def withDbDir[A](body: File => A): A = {
+      val dir = Files.createTempDirectory("odb").toFile
+      try body(dir) finally delete(dir)
+    }
+
+    def journal(dir: File): File =
+      new File(new File(DBLocalDatabase.getVersionedDatabaseDir(dir), "journal"), s"$Key.jnl")
+
+    // Opens the database in `dir` again without shutting down the one using
+    // it, which is what the next startup sees after a crash.
+    def afterCrash[A](dir: File)(body: ISPProgram => A): A = {
+      val odb = DBLocalDatabase.create(dir)
+      try body(odb.lookupProgram(Key)) finally odb.getDBAdmin.shutdown()
+    }
+
+    def push(env: TestEnv): MatchResult[_] =
+      expect(env.local.superStaffVcs.push(Q1, DummyPeer, new AtomicBoolean(false))) { case \/-(_) => ok("") }
+
+    "fail if the user doesn't have access to the program" in withVcs { env =>
+      forbidden(env.local.server.writeInPlace[String](Q1, Set(ProgramPrincipal(Q2)), readTitle, titleMatches, updateTitle))
+    }
+
+    "do nothing if the filter returns false" in withVcs { env =>
+      val t = env.local.server.writeInPlace[String](Q1, StaffUser, readTitle, Function.const(false), updateTitle).unsafeRun
+      (t.isRight must beTrue) and (env.local.progTitle must_== Title)
+    }
+
+    "update the program in the database without replacing it" in withVcs { env =>
+      val hc = ihc(env.local.odb)
+      val t  = env.local.server.writeInPlace[String](Q1, StaffUser, readTitle, titleMatches, updateTitle).unsafeRun
+      (t.isRight must beTrue) and (env.local.progTitle must_== newTitle) and (hc must_== ihc(env.local.odb))
+    }
+
+    "journal a merge of data objects as a single entry that is replayed after a crash" in withDbDir { dir =>
+      withRemoteOdb(DBLocalDatabase.create(dir)) { env =>
+        env.local.progTitle = newTitle
+        env.local.setObsDataObject(ObsKey)(_.setTitle("Journaled"))
+
+        push(env) and (journal(dir).exists must beTrue) and afterCrash(dir) { p =>
+          (p.getVersions must_== env.remote.prog.getVersions) and
+            (p.getDataObject.getTitle must_== newTitle) and
+            (p.findDescendant(_.key == ObsKey).map(_.getDataObject.getTitle) must beSome("Journaled"))
+        }
+      }
+    }
+
+    "store a merge that changes the program structure" in withDbDir { dir =>
+      withRemoteOdb(DBLocalDatabase.create(dir)) { env =>
+        val obsKey = env.local.addObservation()
+
+        push(env) and (journal(dir).exists must beFalse) and afterCrash(dir) { p =>
+          (p.getVersions must_== env.remote.prog.getVersions) and
+            (p.findDescendant(_.key == obsKey) must beSome)
+        }
+      }
+    }
+  }
+
   "add" should {
     "fail if a program with the same key already exists" in withVcs { env =>
       val newProg = env.local.odb.getFactory.createProgram(Key, Q2)
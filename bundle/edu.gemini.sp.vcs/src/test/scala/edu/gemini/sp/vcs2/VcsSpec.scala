@@ -20,6 +20,27 @@ class VcsSpec extends VcsSpecification {
   val cancelled    = new AtomicBoolean(true)
   val notCancelled = new AtomicBoolean(false)
 
+  "versions" should {
+    "report the same result for each program as fetching its version alone" in withVcs { env =>
+      env.remote.addNewProgram(Q2)
+      val vcs = env.local.superStaffVcs
+      expect(vcs.versions(List(Q1, Q2, Q3), DummyPeer)) { case \/-(vms) =>
+        (vms.keySet must_== Set(Q1, Q2, Q3))                    and
+        (vms(Q1) must_== vcs.version(Q1, DummyPeer).unsafeRun) and
+        (vms(Q2) must_== vcs.version(Q2, DummyPeer).unsafeRun) and
+        (vms(Q3) must beLike { case -\/(VcsFailure.NotFound(id)) => id must_== Q3 })
+      }
+    }
+
+    "fail only the programs the user can't access" in withVcs { env =>
+      env.remote.addNewProgram(Q2)
+      expect(env.local.vcs(ProgramPrincipal(Q1)).versions(List(Q1, Q2), DummyPeer)) { case \/-(vms) =>
+        (vms(Q1).isRight must beTrue) and
+        (vms(Q2) must beLike { case -\/(VcsFailure.Forbidden(_)) => ok })
+      }
+    }
+  }
+
   "checkout" should {
     "fail if the indicated program doesn't exist remotely" in withVcs { env =>
       notFound(env.local.superStaffVcs.checkout(Q2, DummyPeer, notCancelled), Q2)
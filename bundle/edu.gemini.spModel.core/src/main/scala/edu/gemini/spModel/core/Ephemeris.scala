@@ -1,69 +1,67 @@
 package edu.gemini.spModel.core
 
-import java.util.TimerTask
 import java.util.logging.Logger
 
 import scalaz._, Scalaz._
 
 final class Ephemeris(val site: Site, val compressedData: Deflated[List[(Long, Float, Float)]]) extends Serializable {
 
-  // Internal state for managing the inflated ephemeris data.
-  @transient @volatile private var _data: Long ==>> Coordinates = null
-  @transient @volatile private var _task: TimerTask = null
+  // Inflated ephemeris data, set and cleared by the cache in the companion.
+  @transient @volatile private[core] var _table: EphemerisTable = null
+  @transient @volatile private[core] var _used: Boolean = false
 
   /**
-   * A map from time to coordinates. This value is stored in compressed form and is deflated (and
-   * cached for a while) on demand. The deflated value is transient, and is thus not serialized.
+   * The inflated ephemeris data. This value is stored in compressed form and is inflated on demand
+   * and kept in a cache shared by all ephemerides, bounded by the total number of elements. The
+   * inflated value is transient, and is thus not serialized.
    */
-  def data: Long ==>> Coordinates = synchronized {
-    import Ephemeris.{ timer, logger }
-
-    // Decompress if needed
-    if (_data == null) {
-      logger.fine("Inflating compressed ephemeris.")
-      _data = ==>>.fromList(compressedData.inflate.map { case (t, r, d) =>
-        t -> Coordinates.fromDegrees(r, d).getOrElse(sys.error(s"corrupted ephemeris data: $t $r $d"))
-      })
-    }
-
-    // Reset the cache timer to a point the future
-    if (_task != null) _task.cancel()
-    _task = new TimerTask {
-      def run(): Unit = {
-        logger.fine("Discarding inflated ephemeris.")
-        Ephemeris.this.synchronized {_data = null}
-      }
-    }
-    timer.schedule(_task, 3000)
+  private[core] def table: EphemerisTable = {
+    val t = _table
+    if (t != null) {
+      _used = true
+      t
+    } else Ephemeris.cache.inflate(this)
+  }
 
-    // Done
-    _data
+  /** Is the inflated data currently cached? */
+  private[core] def isInflated: Boolean =
+    _table != null
 
-  }
+  /**
+   * A map from time to coordinates. This is created from the inflated data on each call, so prefer
+   * the lookup methods below where possible.
+   */
+  def data: Long ==>> Coordinates =
+    ==>>.fromList(table.toList)
 
   /** Perform an exact or interpolated lookup. */
   def iLookup(k: Long): Option[Coordinates] =
-    data.iLookup(k)
+    table.iLookup(k)
 
   /** Construct an exact or interpolated slice. */
-  def iSlice(lo: Long, hi: Long): Option[Ephemeris] =
-    data.iSlice(lo, hi).map(Ephemeris(site, _))
+  def iSlice(lo: Long, hi: Long): Option[Ephemeris] = {
+    val t = table
+    ^(t.iLookup(lo), t.iLookup(hi)) { (lov, hiv) =>
+      val es = (lo, lov) :: t.inside(lo, hi) ++ (if (hi != lo) List((hi, hiv)) else Nil)
+      Ephemeris(site, ==>>.fromList(es))
+    }
+  }
 
   /** Construct a table of (Long, Coordinates) values on the given interval. */
   def iTable(lo: Long, hi: Long, step: Long): Option[List[(Long, Coordinates)]] =
-    data.iTable(lo, hi, step)
+    table.iTable(lo, hi, step)
 
   /** Number of elements in the ephemeris. */
   def size: Int =
-    data.size
+    table.size
 
   /** Ephemeris elements as an association list. */
   def toList: List[(Long, Coordinates)] =
-    data.toList
+    table.toList
 
   /** Are there no elements? */
   def isEmpty: Boolean =
-    data.isEmpty
+    table.isEmpty
 
   /** Is there at least one element? */
   def nonEmpty: Boolean =
@@ -71,19 +69,27 @@ final class Ephemeris(val site: Site, val compressedData: Deflated[List[(Long, F
 
   /** Find the closest matching element, if any. */
   def lookupClosestAssoc(k: Long): Option[(Long, Coordinates)] =
-    data.lookupClosestAssoc(k)
+    table.lookupClosestAssoc(k)
 
   /** Find the closest matching Coordinates, if any. */
   def lookupClosest(k: Long): Option[Coordinates] =
-    data.lookupClosest(k)
+    lookupClosestAssoc(k).map(_._2)
 
   /** Find the closest matching time, if any. */
   def lookupClosestKey(k: Long): Option[Long] =
-    data.lookupClosestKey(k)
+    lookupClosestAssoc(k).map(_._1)
+
+  /** Copy, sharing the compressed data, which is not inflated. */
+  def copy(site: Site = site): Ephemeris =
+    new Ephemeris(site, compressedData)
+
+  /** Copy with new data. */
+  def copy(data: Long ==>> Coordinates): Ephemeris =
+    Ephemeris(site, data)
 
-  /** Copy. */
-  def copy(site: Site = site, data: (Long ==>> Coordinates) = data): Ephemeris =
-    Ephemeris.apply(site, data)
+  /** Copy with a new site and data. */
+  def copy(site: Site, data: Long ==>> Coordinates): Ephemeris =
+    Ephemeris(site, data)
 
   override def equals(a: Any): Boolean =
     a match {
@@ -98,10 +104,84 @@ final class Ephemeris(val site: Site, val compressedData: Deflated[List[(Long, F
 
 object Ephemeris extends EphemerisInstances with EphemerisLenses {
 
-  // A timer to discard inflated ephemerides after a while
-  private val timer  = new java.util.Timer
   private val logger = Logger.getLogger(classOf[Ephemeris].getName)
 
+  /**
+   * Maximum total number of inflated elements kept in memory.  Each cached ephemeris also counts
+   * `Cache.EntryOverhead` elements; empty ephemerides are not cached.
+   */
+  val CacheSizeProp    = classOf[Ephemeris].getName + ".cacheSize"
+  val DefaultCacheSize = 1000000L
+
+  private def cacheSize: Long =
+    Option(System.getProperty(CacheSizeProp)).fold(DefaultCacheSize) { s =>
+      s.parseLong.toOption.filter(_ > 0).getOrElse {
+        logger.warning(s"Could not parse value of property '$CacheSizeProp': $s")
+        DefaultCacheSize
+      }
+    }
+
+  /**
+   * Keeps the inflated data of the most recently inflated ephemerides, evicting with a second chance
+   * for those that were used since they were last considered. Lookups of an inflated ephemeris only
+   * read its volatile fields, the lock is only taken to inflate.
+   */
+  private[core] final class Cache(maxSize: Long) {
+    import Cache.weight
+
+    // guarded by this
+    private val queue = new java.util.ArrayDeque[Ephemeris]
+    private var total = 0L
+
+    def inflate(e: Ephemeris): EphemerisTable = {
+      logger.fine("Inflating compressed ephemeris.")
+      val t = EphemerisTable(e.compressedData.inflate)
+      if (t.isEmpty) {
+        // nothing worth caching, all empty ephemerides share the same table
+        e._table = EphemerisTable.empty
+        EphemerisTable.empty
+      } else synchronized {
+        val t0 = e._table
+        if (t0 != null) t0
+        else {
+          e._table = t
+          queue.add(e)
+          total += weight(t)
+          evict()
+          t
+        }
+      }
+    }
+
+    // Total weight of the cached tables.
+    def size: Long = synchronized(total)
+
+    private def evict(): Unit =
+      while (total > maxSize && !queue.isEmpty) {
+        val e = queue.poll()
+        if (e._used) {
+          e._used = false
+          queue.add(e)
+        } else {
+          logger.fine("Discarding inflated ephemeris.")
+          total -= weight(e._table)
+          e._table = null
+        }
+      }
+  }
+
+  private[core] object Cache {
+
+    /** Approximate memory overhead of a cached table, in elements. */
+    val EntryOverhead = 4L
+
+    def weight(t: EphemerisTable): Long =
+      t.size + EntryOverhead
+
+  }
+
+  private[core] val cache = new Cache(cacheSize)
+
   /** The empty ephemeris, with site arbitrarily chosen to be GN. */
   val empty: Ephemeris =
     apply(Site.GN, ==>>.empty)
@@ -121,8 +201,9 @@ object Ephemeris extends EphemerisInstances with EphemerisLenses {
 
 trait EphemerisInstances {
 
+  // Compares the compressed data like `equals`, without inflating it.
   implicit val EqualEphemeris: Equal[Ephemeris] =
-    Equal.equalBy(e => (e.site, e.data))
+    Equal.equal((a, b) => a.site == b.site && a.compressedData == b.compressedData)
 
 }
 
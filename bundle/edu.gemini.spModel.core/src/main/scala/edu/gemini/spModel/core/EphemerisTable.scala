@@ -0,0 +1,164 @@
+package edu.gemini.spModel.core
+
+import java.util.Arrays
+
+import scala.collection.immutable.NumericRange
+import scala.collection.mutable.ListBuffer
+import scala.math._
+
+/**
+ * Inflated ephemeris data in columnar form: times in ascending order with the RA and Dec in degrees at
+ * the same index.  Lookups are binary searches and interpolation is done on the primitive values, so the
+ * only objects created are the results.  Instances are immutable and may be shared between threads.
+ */
+private[core] final class EphemerisTable private (times: Array[Long], ras: Array[Float], decs: Array[Float]) {
+
+  def size: Int =
+    times.length
+
+  def isEmpty: Boolean =
+    times.length == 0
+
+  /** Coordinates at the given index. */
+  def coordinates(i: Int): Coordinates =
+    Coordinates(RA.fromDegrees(ras(i).toDouble), Dec.fromAngle(Angle.fromDegrees(decs(i).toDouble)).get)
+
+  /** Time at the given index. */
+  def time(i: Int): Long =
+    times(i)
+
+  /** Perform an exact or interpolated lookup. */
+  def iLookup(k: Long): Option[Coordinates] = {
+    val i = Arrays.binarySearch(times, k)
+    if (i >= 0) Some(coordinates(i))
+    else between(-i - 1, k)
+  }
+
+  /** Construct a table of (Long, Coordinates) values on the given interval. */
+  def iTable(lo: Long, hi: Long, step: Long): Option[List[(Long, Coordinates)]] =
+    if (step <= 0) {
+      // not monotonic, look up each point
+      val ks  = NumericRange.inclusive(lo, hi, step)
+      val res = ks.toList.map(k => iLookup(k).map((k, _)))
+      if (res.forall(_.isDefined)) Some(res.flatten) else None
+    } else {
+      // walk the times along with the steps
+      val buf  = ListBuffer.empty[(Long, Coordinates)]
+      var i    = 0
+      var k    = lo
+      var ok   = true
+      var more = lo <= hi
+      while (ok && more) {
+        while (i < times.length && times(i) < k) i += 1
+        val c = if (i < times.length && times(i) == k) Some(coordinates(i)) else between(i, k)
+        c match {
+          case Some(v) => buf += ((k, v))
+          case None    => ok = false
+        }
+        val next = k + step
+        more = next > k && next <= hi // stop rather than wrap around
+        k    = next
+      }
+      if (ok) Some(buf.toList) else None
+    }
+
+  /** Entries at times strictly between `lo` and `hi`. */
+  def inside(lo: Long, hi: Long): List[(Long, Coordinates)] = {
+    val buf = ListBuffer.empty[(Long, Coordinates)]
+    var i   = insertionPoint(lo)
+    while (i < times.length && times(i) < hi) {
+      if (times(i) > lo) buf += ((times(i), coordinates(i)))
+      i += 1
+    }
+    buf.toList
+  }
+
+  /** Find the closest matching element, if any.  Ties go to the earlier element. */
+  def lookupClosestAssoc(k: Long): Option[(Long, Coordinates)] =
+    if (isEmpty) None
+    else {
+      val i = insertionPoint(k)
+      val j =
+        if (i == times.length) i - 1
+        else if (i == 0) 0
+        else if (abs(times(i - 1) - k) <= abs(times(i) - k)) i - 1
+        else i
+      Some((times(j), coordinates(j)))
+    }
+
+  def toList: List[(Long, Coordinates)] =
+    List.tabulate(times.length)(i => (times(i), coordinates(i)))
+
+  // Index of the first time >= k
+  private def insertionPoint(k: Long): Int = {
+    val i = Arrays.binarySearch(times, k)
+    if (i >= 0) i else -i - 1
+  }
+
+  // Interpolates between the entries before and at index i, as Coordinates.interpolate does.
+  private def between(i: Int, k: Long): Option[Coordinates] =
+    if (i <= 0 || i >= times.length) None
+    else {
+      val (t1, t2) = (times(i - 1), times(i))
+      val f = (k.toDouble - t1.toDouble) / (t2.toDouble - t1.toDouble)
+      if (f.isNaN || f.isInfinity) None
+      else {
+        val φ1 = toRadians(decs(i - 1).toDouble)
+        val φ2 = toRadians(decs(i).toDouble)
+        val λ1 = toRadians(ras(i - 1).toDouble)
+        val λ2 = toRadians(ras(i).toDouble)
+        val a  = sin((φ2 - φ1) / 2) * sin((φ2 - φ1) / 2) +
+                 cos(φ1) * cos(φ2) * sin((λ2 - λ1) / 2) * sin((λ2 - λ1) / 2)
+        val δ  = 2 * atan2(sqrt(a), sqrt(1 - a))
+        if (δ == 0) Some(coordinates(i - 1))
+        else {
+          val p = sin((1 - f) * δ) / sin(δ)
+          val q = sin(f * δ) / sin(δ)
+          val x = p * cos(φ1) * cos(λ1) + q * cos(φ2) * cos(λ2)
+          val y = p * cos(φ1) * sin(λ1) + q * cos(φ2) * sin(λ2)
+          val z = p * sin(φ1) + q * sin(φ2)
+          val φi = atan2(z, sqrt(x * x + y * y))
+          val λi = atan2(y, x)
+          Some(Coordinates(RA.fromAngle(Angle.fromRadians(λi)), Dec.fromAngle(Angle.fromRadians(φi)).get))
+        }
+      }
+    }
+
+}
+
+private[core] object EphemerisTable {
+
+  val empty: EphemerisTable =
+    new EphemerisTable(Array.empty, Array.empty, Array.empty)
+
+  /**
+   * Builds a table from (time, RA, Dec) elements, which are sorted by time if needed.  As for a map, the
+   * last of several elements with the same time wins.
+   */
+  def apply(elems: List[(Long, Float, Float)]): EphemerisTable = {
+    val n = elems.length
+    val ts = new Array[Long](n)
+    val rs = new Array[Float](n)
+    val ds = new Array[Float](n)
+
+    var sorted = true
+    var i      = 0
+    elems.foreach { case (t, r, d) =>
+      if (Dec.fromAngle(Angle.fromDegrees(d.toDouble)).isEmpty) sys.error(s"corrupted ephemeris data: $t $r $d")
+      if (i > 0 && ts(i - 1) >= t) sorted = false
+      ts(i) = t
+      rs(i) = r
+      ds(i) = d
+      i += 1
+    }
+
+    if (sorted) new EphemerisTable(ts, rs, ds)
+    else {
+      // stable sort of the indices by time, keeping the last index for each time
+      val idx  = (0 until n).sortBy(ts(_)).toArray
+      val keep = idx.indices.filter(j => j == idx.length - 1 || ts(idx(j)) != ts(idx(j + 1))).map(idx(_))
+      new EphemerisTable(keep.map(ts(_)).toArray, keep.map(rs(_)).toArray, keep.map(ds(_)).toArray)
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+package edu.gemini.spModel.core
+
+import scala.util.Random
+
+import scalaz._, Scalaz._
+
+/**
+ * Measures the throughput of interpolated ephemeris lookups, comparing `Ephemeris.iLookup` with the
+ * lookup on the equivalent `Long ==>> Coordinates` map used before.  The ephemeris has one element per
+ * minute over a month, as for a night-by-night Horizons ephemeris.
+ *
+ * Usage: `EphemerisBenchmark [lookups] [threads]`
+ */
+object EphemerisBenchmark {
+
+  val Minute = 60 * 1000L
+
+  def ephemeris(size: Int): Ephemeris = {
+    val t0 = 1475280000000L // 2016-10-01
+    Ephemeris(Site.GS, ==>>.fromList(List.tabulate(size) { i =>
+      val f = i.toDouble / size
+      (t0 + i * Minute) -> Coordinates.fromDegrees(10.0 + 20 * f, -30.0 + 10 * f).get
+    }))
+  }
+
+  // Lookups per second on each of the given number of threads
+  def throughput(threads: Int, lookups: Int, keys: Array[Long])(lookup: Long => Option[Coordinates]): Double = {
+    val ts = List.fill(threads)(new Thread {
+      override def run(): Unit = {
+        var i = 0
+        while (i < lookups) {
+          lookup(keys(i % keys.length))
+          i += 1
+        }
+      }
+    })
+    val start = System.nanoTime
+    ts.foreach(_.start())
+    ts.foreach(_.join())
+    threads * lookups / ((System.nanoTime - start) / 1e9)
+  }
+
+  def main(args: Array[String]): Unit = {
+    val lookups = args.headOption.map(_.toInt).getOrElse(1000000)
+    val threads = args.drop(1).headOption.map(_.toInt).getOrElse(Runtime.getRuntime.availableProcessors)
+
+    val e    = ephemeris(31 * 24 * 60)
+    val m    = e.data
+    val (lo, hi) = (e.toList.head._1, e.toList.last._1)
+    val rnd  = new Random(0)
+    val keys = Array.fill(10000)(lo + (rnd.nextDouble() * (hi - lo)).toLong)
+
+    // warm up
+    throughput(1, lookups / 10, keys)(e.iLookup)
+    throughput(1, lookups / 10, keys)(m.iLookup)
+
+    List(1, threads).distinct.foreach { n =>
+      val columnar = throughput(n, lookups, keys)(e.iLookup)
+      val map      = throughput(n, lookups, keys)(m.iLookup)
+      println(f"$n%2d thread(s): columnar ${columnar / 1e6}%8.2f M lookups/s, map ${map / 1e6}%8.2f M lookups/s")
+    }
+  }
+
+}
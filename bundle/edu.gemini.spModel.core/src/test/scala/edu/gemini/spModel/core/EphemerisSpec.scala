@@ -1,27 +1,32 @@
 package edu.gemini.spModel.core
 
+import AlmostEqual.AlmostEqualOps
 import org.specs2.mutable.Specification
 
 import scalaz._
 import Scalaz._
 import org.scalacheck.Prop._
 import org.specs2.ScalaCheck
-import org.specs2.mutable.Specification
 
 object EphemerisSpec extends Specification with ScalaCheck with Arbitraries with Helpers {
 
   implicit class EphemerisTrickery(e: Ephemeris) {
 
-    // Peek at the transient lazy field to see if it has been assigned.
-    // Look how nutty the mangled field name is!
-    def isCompressed: Boolean = {
-      val f = e.getClass.getDeclaredField("edu$gemini$spModel$core$Ephemeris$$_data")
-      f.setAccessible(true)
-      f.get(e) == null
+    def isCompressed: Boolean =
+      !e.isInflated
+
+    // Keys and the midpoints between adjacent keys
+    def lookupKeys: List[Long] = {
+      val ks = e.toList.map(_._1)
+      ks ++ ks.zip(ks.drop(1)).map { case (a, b) => a / 2 + b / 2 }
     }
 
   }
 
+  // Ephemeris with times that can be subtracted without overflow
+  def ephemeris(site: Site, data: List[(Int, Coordinates)]): Ephemeris =
+    Ephemeris(site, ==>>.fromList(data.map(_.leftMap(_.toLong))))
+
   "Ephemeris Data" should {
 
     "be serializable" ! forAll { (e: Ephemeris) =>
@@ -33,11 +38,16 @@ object EphemerisSpec extends Specification with ScalaCheck with Arbitraries with
     }
 
 
-    "be decompressed on access to '_data' field" ! forAll { (e: Ephemeris) =>
+    "be decompressed on access to 'data'" ! forAll { (e: Ephemeris) =>
       e.data
       e.isCompressed == false
     }
 
+    "stay compressed when copied with a new site or compared" ! forAll { (e: Ephemeris, site: Site) =>
+      val c = e.copy(site = site)
+      (c.compressedData eq e.compressedData) && (c === Ephemeris.site.set(e, site)) && e.isCompressed && c.isCompressed
+    }
+
     "be compressed after serialization roundtrip" ! forAll { (e: Ephemeris) =>
       e.data
       canSerializeP(e) { (e, e2) =>
@@ -47,4 +57,65 @@ object EphemerisSpec extends Specification with ScalaCheck with Arbitraries with
 
   }
 
+  "Ephemeris lookups" should {
+
+    "agree with the map based lookups" ! forAll { (e: Ephemeris) =>
+      val m = e.data
+      e.lookupKeys.forall(k => e.iLookup(k) ~= m.iLookup(k))
+    }
+
+    "agree with the map based tables" ! forAll { (site: Site, data: List[(Int, Coordinates)], n: Byte) =>
+      val e = ephemeris(site, data)
+      val m = e.data
+      (m.findMin |@| m.findMax) { case ((lo, _), (hi, _)) =>
+        val step = (hi - lo) / ((n & 0x7f) + 1) + 1
+        e.iTable(lo, hi, step) ~= m.iTable(lo, hi, step)
+      }.getOrElse(true)
+    }
+
+    "agree with the map based slices" ! forAll { (e: Ephemeris) =>
+      val m = e.data
+      val ks = e.lookupKeys.sorted
+      (ks.headOption |@| ks.drop(ks.size / 2).headOption) { (lo, hi) =>
+        e.iSlice(lo, hi).map(_.toList) ~= m.iSlice(lo, hi).map(_.toList)
+      }.getOrElse(true)
+    }
+
+    "find the closest element" ! forAll { (site: Site, data: List[(Int, Coordinates)], k: Int) =>
+      val e = ephemeris(site, data)
+      e.lookupClosestAssoc(k.toLong) ~= e.data.lookupClosestAssoc(k.toLong)
+    }
+
+  }
+
+  "The ephemeris cache" should {
+
+    "discard data once too many elements are inflated" in {
+      val cache = new Ephemeris.Cache(2 * (4 + Ephemeris.Cache.EntryOverhead))
+      val es    = List.tabulate(3)(i => Ephemeris(Site.GN, ==>>.fromList(List.tabulate(4)(j => (i * 10L + j) -> Coordinates.zero))))
+      es.foreach(cache.inflate)
+      cache.size must_== 2 * (4 + Ephemeris.Cache.EntryOverhead)
+      es.map(_.isInflated) must_== List(false, true, true)
+    }
+
+    "give recently used data a second chance" in {
+      val cache = new Ephemeris.Cache(2 * (4 + Ephemeris.Cache.EntryOverhead))
+      val es    = List.tabulate(3)(i => Ephemeris(Site.GN, ==>>.fromList(List.tabulate(4)(j => (i * 10L + j) -> Coordinates.zero))))
+      cache.inflate(es(0))
+      cache.inflate(es(1))
+      es(0).table
+      cache.inflate(es(2))
+      es.map(_.isInflated) must_== List(true, false, true)
+    }
+
+    "count small tables and not cache empty ones" in {
+      val cache = new Ephemeris.Cache(100)
+      List.fill(1000)(new Ephemeris(Site.GN, Ephemeris.empty.compressedData)).foreach(cache.inflate)
+      cache.size must_== 0
+      List.tabulate(100)(i => Ephemeris.singleton(Site.GN, i.toLong, Coordinates.zero)).foreach(cache.inflate)
+      cache.size must be_<=(100L)
+    }
+
+  }
+
 }
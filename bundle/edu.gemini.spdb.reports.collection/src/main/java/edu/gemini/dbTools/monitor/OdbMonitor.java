@@ -38,6 +38,9 @@ public class OdbMonitor {
         buf.append("Free Memory: ").append(status.getFreeMemory()).append("\n");
         buf.append("Total Memory: ").append(status.getTotalMemory()).append("\n");
         buf.append("Storage Interval: ").append(status.getStorageInterval()).append("\n");
+        for (final Map.Entry<String, Long> me : status.getMetrics().entrySet()) {
+            buf.append(me.getKey()).append(": ").append(me.getValue()).append("\n");
+        }
         buf.append("Total Threads: ").append(status.getTotalThreads());
         buf.append("\n-----------------------------");
         buf.append("\nTotal Active Threads = ").append(sz);
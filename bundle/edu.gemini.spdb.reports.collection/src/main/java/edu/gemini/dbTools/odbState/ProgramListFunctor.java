@@ -26,7 +26,7 @@ import java.util.Set;
  * {@link DBProgramListFunctor}, but which only lists
  * programs with valid program ids.
  */
-class ProgramListFunctor extends DBAbstractQueryFunctor implements IDBParallelFunctor {
+class ProgramListFunctor extends DBAbstractQueryFunctor implements IDBParallelFunctor, IDBSplittableQueryFunctor {
 
     /**
      * A simple pair of SPNodeKey and SPProgramID that refers to a particular
@@ -84,6 +84,10 @@ class ProgramListFunctor extends DBAbstractQueryFunctor implements IDBParallelFu
         }
     }
 
+    public ProgramListFunctor split() {
+        return new ProgramListFunctor();
+    }
+
     public void mergeResults(final Collection<IDBFunctor> functorCollection) {
         final List<ProgramRef> res = new ArrayList<ProgramRef>();
 
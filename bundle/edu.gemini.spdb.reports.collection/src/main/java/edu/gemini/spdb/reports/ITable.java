@@ -5,6 +5,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import edu.gemini.pot.spdb.DBQueryFilter;
+
 /**
  * Represents a tabular slice of some database (normally an SPDB) which 
  * may not be intrinsically tabular. Basically the ITable represents a 
@@ -62,6 +64,16 @@ public interface ITable extends Serializable {
 	 */
 	List<Map<IColumn, Object>> getRows(Object domainObject);
 
+	/**
+	 * Returns a filter describing the domain objects for which getRows()
+	 * can return rows. The query runner only hands the table the programs
+	 * or observations that match it, so tables that skip most of the
+	 * database can say so here. Return DBQueryFilter.ALL to see everything.
+	 * Ignored for the NULL domain.
+	 * @return a DBQueryFilter
+	 */
+	DBQueryFilter getQueryFilter();
+
 	/**
 	 * Returns the table's display name, for display purposes. This should
 	 * probably be a service property instead.
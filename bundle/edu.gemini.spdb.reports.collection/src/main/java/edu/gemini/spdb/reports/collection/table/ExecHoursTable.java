@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.logging.Logger;
 
 import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.spModel.gemini.obscomp.SPProgram;
 import edu.gemini.spModel.obs.ObsTimesService;
 import edu.gemini.spModel.time.ChargeClass;
@@ -67,6 +68,11 @@ public class ExecHoursTable extends AbstractTable {
 		super(Domain.PROGRAM, Columns.values(), DISPLAY_NAME, SHORT_DESCRIPTION);
 	}
 
+	// Only science programs produce rows.
+	public DBQueryFilter getQueryFilter() {
+		return TypeCheck.SCIENCE_FILTER;
+	}
+
 	public List<Map<IColumn, Object>> getRows(Object node) {
 //		try {
 
@@ -4,6 +4,7 @@ package edu.gemini.spdb.reports.collection.table;
 import edu.gemini.pot.sp.Instrument;
 import edu.gemini.pot.sp.ISPObservation;
 import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.shared.util.immutable.Option;
 import edu.gemini.shared.util.TimeValue;
 import edu.gemini.skycalc.ObservingNight;
@@ -76,6 +77,11 @@ public final class QueueProgramStatusExternalTable extends AbstractTable {
         super(Domain.PROGRAM, Columns.values(), DISPLAY_NAME, SHORT_DESCRIPTION);
     }
 
+	// Only the external program types produce rows.
+	public DBQueryFilter getQueryFilter() {
+		return EXTERNAL_FILTER;
+	}
+
 	public List<Map<IColumn, Object>> getRows(final Object node) {
             // Domain is program. Get the id.
             final ISPProgram progShell = (ISPProgram) node;
@@ -198,6 +204,8 @@ public final class QueueProgramStatusExternalTable extends AbstractTable {
                     ProgramType.LargeProgram$.MODULE$,
             }));
 
+    private static final DBQueryFilter EXTERNAL_FILTER = DBQueryFilter.ALL.withTypes(EXTERNAL_TYPES);
+
     private boolean isExternalType(final SPProgramID pid) { return TypeCheck.isAnyOf(pid, EXTERNAL_TYPES); }
 
 
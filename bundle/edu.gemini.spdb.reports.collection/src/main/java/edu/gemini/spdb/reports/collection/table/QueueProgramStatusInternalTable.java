@@ -2,6 +2,7 @@ package edu.gemini.spdb.reports.collection.table;
 
 import edu.gemini.pot.sp.ISPObservation;
 import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.spModel.core.SPProgramID;
 import edu.gemini.shared.util.TimeValue;
 import edu.gemini.spModel.gemini.obscomp.SPProgram;
@@ -70,6 +71,11 @@ public class QueueProgramStatusInternalTable extends AbstractTable {
         super(Domain.PROGRAM, Columns.values(), DISPLAY_NAME, SHORT_DESCRIPTION);
     }
 
+	// Only science programs produce rows.
+	public DBQueryFilter getQueryFilter() {
+		return TypeCheck.SCIENCE_FILTER;
+	}
+
 	public List<Map<IColumn, Object>> getRows(final Object node) {
 //		try {
 
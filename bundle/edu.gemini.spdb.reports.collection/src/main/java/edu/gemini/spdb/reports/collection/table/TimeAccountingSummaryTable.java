@@ -10,6 +10,7 @@ import edu.gemini.pot.sp.ISPObsComponent;
 import edu.gemini.pot.sp.ISPObservation;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.SPComponentType;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.shared.util.immutable.ImOption;
 import edu.gemini.shared.util.immutable.Option;
 import edu.gemini.spModel.core.SPProgramID;
@@ -78,6 +79,11 @@ public class TimeAccountingSummaryTable extends AbstractTable {
 		super(Domain.PROGRAM, Columns.values(), CAPTION, DESC);
 	}
 
+	// Only science programs produce rows.
+	public DBQueryFilter getQueryFilter() {
+		return TypeCheck.SCIENCE_FILTER;
+	}
+
 	public List<Map<IColumn, Object>> getRows(final Object domainObject) {
         final List<Map<IColumn, Object>> rows = new ArrayList<>();
 
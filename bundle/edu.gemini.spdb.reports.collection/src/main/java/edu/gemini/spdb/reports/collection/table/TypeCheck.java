@@ -1,5 +1,6 @@
 package edu.gemini.spdb.reports.collection.table;
 
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.spModel.core.ProgramType;
 import edu.gemini.spModel.core.ProgramType$;
 import edu.gemini.spModel.core.SPProgramID;
@@ -23,6 +24,9 @@ public final class TypeCheck {
                    ProgramType.SystemVerification$.MODULE$,
            }));
 
+    // query filter for the programs that pass isScienceType
+    public static final DBQueryFilter SCIENCE_FILTER = DBQueryFilter.ALL.withTypes(SCIENCE_TYPES);
+
     public static boolean isScienceType(final SPProgramID pid) { return isAnyOf(pid, SCIENCE_TYPES); }
 
     public static boolean isAnyOf(final SPProgramID pid, final Set<ProgramType> types) {
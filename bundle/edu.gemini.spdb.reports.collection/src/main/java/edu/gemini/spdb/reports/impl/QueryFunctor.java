@@ -8,6 +8,8 @@ import java.util.logging.Logger;
 import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
 import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBFunctor;
+import edu.gemini.pot.spdb.IDBSplittableQueryFunctor;
 import edu.gemini.spdb.reports.IColumn;
 import edu.gemini.spdb.reports.IFilter;
 import edu.gemini.spdb.reports.IQuery;
@@ -17,10 +19,12 @@ import edu.gemini.spdb.reports.ITable;
 
 /**
  * SPDB functor that can execute IQuery definitions and return results.
- * Internal to the implementation.
+ * Internal to the implementation.  Large queries are split into partitions
+ * that each collect their own raw rows; the rows are merged back in node order
+ * and grouped and sorted once, so the results match a serial run.
  * @author rnorris
  */
-class QueryFunctor extends DBAbstractQueryFunctor {
+class QueryFunctor extends DBAbstractQueryFunctor implements IDBSplittableQueryFunctor {
 
 	static final Logger LOGGER = Logger.getLogger(QueryFunctor.class.getName());
 	private static final long serialVersionUID = 1L;
@@ -41,12 +45,23 @@ class QueryFunctor extends DBAbstractQueryFunctor {
 	 */
 	private final List<IRow> results = new ArrayList<IRow>();
 
+	/**
+	 * True for partition functors created by split(), which only collect raw
+	 * rows and leave grouping and sorting to the functor they are merged into.
+	 */
+	private final boolean partition;
+
 	/**
 	 * Construct a functor for the specified query, which is final.
 	 * @param query
 	 */
 	QueryFunctor(IQuery query) {
+		this(query, false);
+	}
+
+	private QueryFunctor(IQuery query, boolean partition) {
 		this.query = query;
+		this.partition = partition;
 	}
 
     /**
@@ -81,12 +96,26 @@ class QueryFunctor extends DBAbstractQueryFunctor {
 		}
 	}
 
+	public QueryFunctor split() {
+		return new QueryFunctor(query, true);
+	}
+
+	/**
+	 * Gathers the raw rows of the partitions, in order, for finished() to
+	 * collate.
+	 */
+	public void mergeResults(Collection<IDBFunctor> functorCollection) {
+		for (IDBFunctor f: functorCollection)
+			rows.addAll(((QueryFunctor) f).rows);
+	}
+
 	/**
 	 * Group and sort the raw rows, then create IRows to return.
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	public void finished() {
+		if (partition) return;
 		try {
 
 			// Group and sort the rows.
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.security.Principal;
 import java.util.Set;
 
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.pot.spdb.IDBQueryRunner;
 import edu.gemini.spdb.reports.IQuery;
@@ -36,7 +37,7 @@ public class QueryManager implements IQueryManager {
 	 * Runs the specified query by wrapping it in a query functor and
 	 * either calling it directly with null for NULL domains, or
 	 * passing it to a query runner via queryObservations() or
-	 * queryPrograms().
+	 * queryPrograms() along with the table's query filter.
 	 */
 	public List<IRow> runQuery(IQuery query, IDBDatabaseService dbs) {
         QueryFunctor func = new QueryFunctor(query);
@@ -47,12 +48,13 @@ public class QueryManager implements IQueryManager {
             func.finished();
         } else {
             IDBQueryRunner runner = dbs.getQueryRunner(user);
+            DBQueryFilter filter = query.getTable().getQueryFilter();
             switch (domain) {
             case OBSERVATION:
-                func = runner.queryObservations(func);
+                func = runner.queryObservations(filter, func);
                 break;
             case PROGRAM:
-                func = runner.queryPrograms(func);
+                func = runner.queryPrograms(filter, func);
                 break;
             default:
                 throw new Error("Impossible");
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Set;
 import java.util.TreeSet;
 
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.spdb.reports.IColumn;
 import edu.gemini.spdb.reports.ITable;
 
@@ -41,5 +42,12 @@ public abstract class AbstractTable implements ITable {
 		return shortDescription;
 	}
 
+	/**
+	 * Visits every domain object by default.
+	 */
+	public DBQueryFilter getQueryFilter() {
+		return DBQueryFilter.ALL;
+	}
+
 }
 
@@ -0,0 +1,143 @@
+package edu.gemini.spdb.reports.impl;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.DBQueryFilter;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.ProgramType;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spdb.reports.IColumn;
+import edu.gemini.spdb.reports.IQuery;
+import edu.gemini.spdb.reports.IRow;
+import edu.gemini.spdb.reports.util.AbstractTable;
+import edu.gemini.spdb.reports.util.SimpleSort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a report query split into partitions returns exactly the rows
+ * of a serial run, in the same order, and that tables only see the programs
+ * matching their query filter.
+ */
+public final class QueryFunctorTest {
+
+    private static final String PARTITION_SIZE_PROP = "edu.gemini.pot.spdb.QueryRunner.partitionSize";
+
+    enum Columns implements IColumn<Object> {
+        PROGRAM_ID, TITLE;
+
+        public String getCaption() { return name(); }
+        public String format(Object value) { return String.valueOf(value); }
+        public Comparator<Object> getComparator() { return null; }
+    }
+
+    static final class TitleTable extends AbstractTable {
+        private static final long serialVersionUID = 1L;
+
+        TitleTable() {
+            super(Domain.PROGRAM, Columns.values(), "Titles", "Program titles.");
+        }
+
+        public List<Map<IColumn, Object>> getRows(Object node) {
+            final ISPProgram prog = (ISPProgram) node;
+            final Map<IColumn, Object> row = new EnumMap<>(Columns.class);
+            row.put(Columns.PROGRAM_ID, prog.getProgramID().stringValue());
+            row.put(Columns.TITLE, prog.getDataObject().getTitle());
+            return Collections.singletonList(row);
+        }
+    }
+
+    static final class ClassicalTitleTable extends AbstractTable {
+        private static final long serialVersionUID = 1L;
+        private final TitleTable titles = new TitleTable();
+
+        ClassicalTitleTable() {
+            super(Domain.PROGRAM, Columns.values(), "Classical Titles", "Classical program titles.");
+        }
+
+        public DBQueryFilter getQueryFilter() {
+            return DBQueryFilter.ALL.withTypes(ProgramType.Classical$.MODULE$);
+        }
+
+        // Returns a row for every program it is given, filtered or not.
+        public List<Map<IColumn, Object>> getRows(Object node) {
+            return titles.getRows(node);
+        }
+    }
+
+    private IDBDatabaseService odb;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        for (int i = 0; i < 200; ++i) {
+            final ISPProgram p = odb.getFactory().createProgram(null, SPProgramID.toProgramID("GS-2015A-Q-" + i));
+            final SPProgram dob = (SPProgram) p.getDataObject();
+            // Few distinct titles, so that the order within a group depends
+            // on the order in which the rows were collected.
+            dob.setTitle("Title " + (i % 7));
+            p.setDataObject(dob);
+            odb.put(p);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private List<IRow> run(int partitionSize) {
+        final String old = System.getProperty(PARTITION_SIZE_PROP);
+        System.setProperty(PARTITION_SIZE_PROP, String.valueOf(partitionSize));
+        try {
+            final IQuery q = new Query(new TitleTable());
+            q.setOutputColumns(Columns.PROGRAM_ID, Columns.TITLE);
+            q.setGroups(new SimpleSort(Columns.TITLE));
+            return new QueryManager(Collections.<Principal>emptySet()).runQuery(q, odb);
+        } finally {
+            if (old == null) System.clearProperty(PARTITION_SIZE_PROP);
+            else System.setProperty(PARTITION_SIZE_PROP, old);
+        }
+    }
+
+    @Test
+    public void testSplitMatchesSerial() throws Exception {
+        final List<IRow> serial   = run(1000000);
+        final List<IRow> parallel = run(8);
+
+        assertEquals(200, serial.size());
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); ++i) {
+            final IRow s = serial.get(i);
+            final IRow p = parallel.get(i);
+            assertArrayEquals(s.getValues(), p.getValues());
+            assertArrayEquals(s.getGroupValues(), p.getGroupValues());
+            assertEquals(s.getGroupIndex(), p.getGroupIndex());
+        }
+    }
+
+    @Test
+    public void testTableFilter() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            odb.put(odb.getFactory().createProgram(null, SPProgramID.toProgramID("GS-2015A-C-" + i)));
+        }
+
+        final IQuery q = new Query(new ClassicalTitleTable());
+        q.setOutputColumns(Columns.PROGRAM_ID);
+        final List<IRow> rows = new QueryManager(Collections.<Principal>emptySet()).runQuery(q, odb);
+
+        assertEquals(3, rows.size());
+        for (IRow r : rows) assertTrue(((String) r.getValue(0)).startsWith("GS-2015A-C-"));
+    }
+}
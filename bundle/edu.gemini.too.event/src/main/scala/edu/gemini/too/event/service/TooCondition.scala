@@ -1,7 +1,7 @@
 package edu.gemini.too.event.service
 
 import edu.gemini.pot.spdb.IDBTriggerCondition
-import edu.gemini.pot.sp.{ISPObservation, SPUtil, SPCompositeChange}
+import edu.gemini.pot.sp.{ISPNode, ISPObservation, SPUtil, SPCompositeChange}
 import edu.gemini.spModel.obs.{ObservationStatus, SPObservation}
 import edu.gemini.spModel.obs.ObsPhase2Status.ON_HOLD
 import edu.gemini.spModel.obs.ObservationStatus.READY
@@ -35,4 +35,10 @@ object TooCondition extends IDBTriggerCondition {
 
     def matches(change: SPCompositeChange): ISPObservation =
       triggeredObservation(change).orNull
+
+    override def getPropertyNames: java.util.Set[String] =
+      java.util.Collections.singleton(SPUtil.getDataObjectPropertyName)
+
+    override def getNodeType: Class[_ <: ISPNode] =
+      classOf[ISPObservation]
 }
\ No newline at end of file
@@ -0,0 +1,341 @@
+package edu.gemini.skycalc;
+
+import edu.gemini.spModel.core.Coordinates;
+import edu.gemini.spModel.core.Site;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates target circumstances for many targets on a grid of times.  The parts of the calculation
+ * that only depend on the site and time (sidereal time, precession, sun and moon positions) are done once
+ * per time and shared by all targets, the per target work is then just the precession of the target
+ * coordinates and the horizon transformation.  Results are the same as the ones of
+ * {@link ImprovedSkyCalc#calculate} with moon calculations.
+ *
+ * <p>The per time states of a grid are kept in a bounded cache shared by all instances, so calculators
+ * for the same site and grid (e.g. the same night and sampling rate) reuse them.  Single lookups through
+ * {@link #calculate(Site, long, double, double, boolean)} do not use the cache, the arbitrary times of
+ * solvers would hardly ever hit it.  Instances are immutable and can be used from several threads.</p>
+ */
+public final class BatchSkyCalc extends ImprovedSkyCalcMethods {
+
+    /** Maximum number of per time states kept in the shared cache, grids are evicted oldest first. */
+    public static final int MAX_CACHED_STATES = 65536;
+
+    /** Calculated values for one target, indexed like the times of the grid. */
+    public static final class Result {
+        public final double[] elevation;
+        public final double[] azimuth;
+        public final double[] airmass;
+        public final double[] parallacticAngle;
+        public final double[] hourAngle;
+        public final double[] lunarDistance;
+        public final double[] skyBrightness;
+
+        private Result(final int n) {
+            elevation        = new double[n];
+            azimuth          = new double[n];
+            airmass          = new double[n];
+            parallacticAngle = new double[n];
+            hourAngle        = new double[n];
+            lunarDistance    = new double[n];
+            skyBrightness    = new double[n];
+        }
+
+        public int size() {
+            return elevation.length;
+        }
+    }
+
+    private final Site site;
+    private final long[] times;
+    private final State[] states;
+
+    /**
+     * Creates a calculator for the given site and times.
+     */
+    public BatchSkyCalc(final Site site, final long[] times) {
+        this.site   = site;
+        this.times  = times.clone();
+        this.states = states(site, this.times);
+    }
+
+    public Site getSite() {
+        return site;
+    }
+
+    public long[] getTimes() {
+        return times.clone();
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * Calculates the values for a target that moves, with its position in degrees at each time of
+     * the grid.
+     */
+    public Result calculate(final double[] raDeg, final double[] decDeg) {
+        if (raDeg.length != times.length || decDeg.length != times.length)
+            throw new IllegalArgumentException("Expected " + times.length + " target positions.");
+
+        final Result r = new Result(times.length);
+        final Scratch s = new Scratch();
+        for (int i = 0; i < times.length; ++i) {
+            states[i].calculate(raDeg[i], decDeg[i], site, r, i, s, true);
+        }
+        return r;
+    }
+
+    /**
+     * Calculates the values for a fixed target.
+     */
+    public Result calculate(final Coordinates coords) {
+        final double[] ra  = new double[times.length];
+        final double[] dec = new double[times.length];
+        Arrays.fill(ra,  coords.ra().toDegrees());
+        Arrays.fill(dec, coords.dec().toDegrees());
+        return calculate(ra, dec);
+    }
+
+    /**
+     * Calculates the values for each of the given fixed targets.
+     */
+    public Result[] calculate(final List<Coordinates> targets) {
+        final Result[] rs = new Result[targets.size()];
+        for (int i = 0; i < rs.length; ++i) {
+            rs[i] = calculate(targets.get(i));
+        }
+        return rs;
+    }
+
+    /**
+     * Calculates the values for a target at a single time.  This is meant for solvers that look at
+     * arbitrary times, the state is not cached.  Unless moon calculations are requested, the sun and
+     * moon positions are not calculated and lunar distance and sky brightness are NaN.
+     */
+    public static Result calculate(final Site site, final long time, final double raDeg, final double decDeg, final boolean calculateMoon) {
+        final Result r = new Result(1);
+        new State(site, time).calculate(raDeg, decDeg, site, r, 0, new Scratch(), calculateMoon);
+        return r;
+    }
+
+    // == Per time state
+
+    // Output parameters reused for all targets and times of a calculation.
+    private static final class Scratch {
+        final DoubleRef az     = new DoubleRef();
+        final DoubleRef par    = new DoubleRef();
+        final DoubleRef curra  = new DoubleRef();
+        final DoubleRef curdec = new DoubleRef();
+    }
+
+    // Sun and moon positions, the most expensive part.
+    private static final class Moon {
+        final double sunAltitude;
+        final double moonRa;
+        final double moonDec;
+        final double lunarElevation;
+        final double lunarPhaseAngle;
+
+        Moon(final Site site, final double jdut, final double sid) {
+            final DoubleRef ramoon = new DoubleRef();
+            final DoubleRef decmoon= new DoubleRef();
+            final DoubleRef distmoon = new DoubleRef();
+            final DoubleRef georamoon = new DoubleRef();
+            final DoubleRef geodecmoon = new DoubleRef();
+            final DoubleRef geodistmoon = new DoubleRef();
+            final DoubleRef rasun = new DoubleRef();
+            final DoubleRef decsun = new DoubleRef();
+            final DoubleRef distsun = new DoubleRef();
+            final DoubleRef x = new DoubleRef();
+            final DoubleRef y = new DoubleRef();
+            final DoubleRef z = new DoubleRef();
+            final DoubleRef toporasun = new DoubleRef();
+            final DoubleRef topodecsun = new DoubleRef();
+            final DoubleRef az = new DoubleRef();
+
+            accusun(jdut,sid,site.latitude,rasun,decsun,distsun, toporasun,topodecsun,x,y,z);
+            sunAltitude=altit(topodecsun.d,(sid-toporasun.d),site.latitude,az, new DoubleRef());
+
+            accumoon(jdut,site.latitude,sid,site.altitude,georamoon,geodecmoon,geodistmoon, ramoon,decmoon,distmoon);
+            lunarElevation=altit(decmoon.d,(sid-ramoon.d),site.latitude,az, new DoubleRef());
+
+            moonRa  = ramoon.d;
+            moonDec = decmoon.d;
+            lunarPhaseAngle = DEG_IN_RADIAN * subtend(ramoon.d,decmoon.d,toporasun.d,topodecsun.d);
+        }
+    }
+
+    // Everything that only depends on the site and time.
+    private static final class State {
+        final double jdut;
+        final double sid;
+        final double[] precession = new double[9];
+
+        // calculated on first use, racing threads calculate the same value
+        private volatile Moon moon;
+
+        State(final Site site, final long time) {
+            final DateTime dateTime = new DateTime(new Date(time));
+            final DoubleRef jdutRef = new DoubleRef();
+            final DoubleRef sidRef  = new DoubleRef();
+            final DoubleRef curepoch = new DoubleRef();
+            setup_time_place(dateTime, -site.longitude/15., jdutRef, sidRef, curepoch);
+            jdut = jdutRef.d;
+            sid  = sidRef.d;
+
+            precessionMatrix(2000., curepoch.d, precession);
+        }
+
+        Moon moon(final Site site) {
+            Moon m = moon;
+            if (m == null) {
+                m = new Moon(site, jdut, sid);
+                moon = m;
+            }
+            return m;
+        }
+
+        // Same as ImprovedSkyCalc.getCircumstances
+        void calculate(final double raDeg, final double decDeg, final Site site, final Result r, final int i, final Scratch s, final boolean calculateMoon) {
+            final double objra  = raDeg/15;
+            final double objdec = decDeg;
+
+            precess(objra, objdec, precession, s.curra, s.curdec);
+
+            final double ha  = adj_time(sid - s.curra.d);
+            final double alt = altit(s.curdec.d, ha, site.latitude, s.az, s.par);
+
+            r.elevation[i]        = alt;
+            r.azimuth[i]          = s.az.d;
+            r.airmass[i]          = getAirmass(alt);
+            r.parallacticAngle[i] = s.par.d;
+            r.hourAngle[i]        = ha;
+
+            if (calculateMoon) {
+                final Moon m = moon(site);
+                final double lunarDistance = DEG_IN_RADIAN * subtend(m.moonRa,m.moonDec,objra,objdec);
+                r.lunarDistance[i] = lunarDistance;
+                r.skyBrightness[i] = sb(180. - m.lunarPhaseAngle, lunarDistance, 90 - m.lunarElevation, 90 - alt, 90 - m.sunAltitude);
+            } else {
+                r.lunarDistance[i] = Double.NaN;
+                r.skyBrightness[i] = Double.NaN;
+            }
+        }
+    }
+
+    // The precession matrix of cooxform from std_epoch to date_epoch, row by row.
+    private static void precessionMatrix(final double std_epoch, final double date_epoch, final double[] p) {
+        final double ti = (std_epoch - 2000.) / 100.;
+        final double tf = (date_epoch - 2000. - 100. * ti) / 100.;
+
+        double zeta = (2306.2181 + 1.39656 * ti + 0.000139 * ti * ti) * tf +
+                (0.30188 - 0.000344 * ti) * tf * tf + 0.017998 * tf * tf * tf;
+        double z = zeta + (0.79280 + 0.000410 * ti) * tf * tf + 0.000205 * tf * tf * tf;
+        double theta = (2004.3109 - 0.8533 * ti - 0.000217 * ti * ti) * tf
+                - (0.42665 + 0.000217 * ti) * tf * tf - 0.041833 * tf * tf * tf;
+
+        zeta = zeta / ARCSEC_IN_RADIAN;
+        z = z / ARCSEC_IN_RADIAN;
+        theta = theta / ARCSEC_IN_RADIAN;
+
+        final double cosz = Math.cos(z);
+        final double coszeta = Math.cos(zeta);
+        final double costheta = Math.cos(theta);
+        final double sinz = Math.sin(z);
+        final double sinzeta = Math.sin(zeta);
+        final double sintheta = Math.sin(theta);
+
+        p[0] = coszeta * cosz * costheta - sinzeta * sinz;
+        p[1] = -1. * sinzeta * cosz * costheta - coszeta * sinz;
+        p[2] = -1. * cosz * sintheta;
+
+        p[3] = coszeta * sinz * costheta + sinzeta * cosz;
+        p[4] = -1. * sinzeta * sinz * costheta + coszeta * cosz;
+        p[5] = -1. * sinz * sintheta;
+
+        p[6] = coszeta * sintheta;
+        p[7] = -1. * sinzeta * sintheta;
+        p[8] = costheta;
+    }
+
+    // Same as cooxform(rin, din, 2000, date_epoch, rout, dout, XFORM_JUSTPRE, XFORM_FROMSTD) with the
+    // precession matrix for date_epoch.
+    private static void precess(final double rin, final double din, final double[] p, final DoubleRef rout, final DoubleRef dout) {
+        final double radian_ra = rin / HRS_IN_RADIAN;
+        final double radian_dec = din / DEG_IN_RADIAN;
+
+        final double o1 = Math.cos(radian_dec) * Math.cos(radian_ra);
+        final double o2 = Math.cos(radian_dec) * Math.sin(radian_ra);
+        final double o3 = Math.sin(radian_dec);
+
+        double f1 = 0.; f1 += p[0] * o1; f1 += p[1] * o2; f1 += p[2] * o3;
+        double f2 = 0.; f2 += p[3] * o1; f2 += p[4] * o2; f2 += p[5] * o3;
+        double f3 = 0.; f3 += p[6] * o1; f3 += p[7] * o2; f3 += p[8] * o3;
+
+        xyz_cel(f1, f2, f3, rout, dout);
+    }
+
+    // == Shared cache of per time states, by grid
+
+    private static final class Grid {
+        final Site site;
+        final long[] times;
+        final int hash;
+
+        Grid(final Site site, final long[] times) {
+            this.site  = site;
+            this.times = times;
+            this.hash  = 31 * site.hashCode() + Arrays.hashCode(times);
+        }
+
+        @Override public boolean equals(final Object o) {
+            if (!(o instanceof Grid)) return false;
+            final Grid g = (Grid) o;
+            return site == g.site && hash == g.hash && Arrays.equals(times, g.times);
+        }
+
+        @Override public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final ConcurrentHashMap<Grid, State[]> CACHE = new ConcurrentHashMap<Grid, State[]>();
+    private static final Queue<Grid> CACHED_GRIDS = new ConcurrentLinkedQueue<Grid>();
+    private static final AtomicInteger CACHED_STATES = new AtomicInteger();
+
+    // Gets the states for the given grid, racing threads may calculate the same states.
+    private static State[] states(final Site site, final long[] times) {
+        final Grid g = new Grid(site, times);
+        final State[] cached = CACHE.get(g);
+        if (cached != null) return cached;
+
+        final State[] ss = new State[times.length];
+        for (int i = 0; i < times.length; ++i) {
+            ss[i] = new State(site, times[i]);
+        }
+        if (ss.length > MAX_CACHED_STATES) return ss;
+
+        final State[] other = CACHE.putIfAbsent(g, ss);
+        if (other != null) return other;
+
+        CACHED_GRIDS.add(g);
+        int n = CACHED_STATES.addAndGet(ss.length);
+        while (n > MAX_CACHED_STATES) {
+            final Grid oldest = CACHED_GRIDS.poll();
+            if (oldest == null) break;
+            final State[] removed = CACHE.remove(oldest);
+            n = (removed == null) ? CACHED_STATES.get() : CACHED_STATES.addAndGet(-removed.length);
+        }
+        return ss;
+    }
+
+}
@@ -3,7 +3,6 @@ package edu.gemini.skycalc;
 import edu.gemini.spModel.core.Site;
 import jsky.coords.WorldCoords;
 
-import java.util.Date;
 import java.util.logging.Logger;
 
 public abstract class ElevationConstraintSolver extends Solver {
@@ -24,14 +23,14 @@ public abstract class ElevationConstraintSolver extends Solver {
     }
 
 
-    protected final ImprovedSkyCalc calc;
+    protected final Site site;
 	protected final WorldCoords coords;
 	protected final double min, max;
 
 	protected ElevationConstraintSolver(Site site, WorldCoords coords, double min, double max) {
 		super(TimeUtils.MS_PER_HOUR / 4, TimeUtils.MS_PER_MINUTE);
 		this.coords = coords;
-		this.calc = new ImprovedSkyCalc(site);
+		this.site = site;
 		this.max = max;
 		this.min = min;
 	}
@@ -43,8 +42,7 @@ public abstract class ElevationConstraintSolver extends Solver {
 
 		@Override
 		protected boolean f(long t) {
-			calc.calculate(coords, new Date(t), false);
-			double airmass = calc.getAirmass();
+			double airmass = BatchSkyCalc.calculate(site, t, coords.getRaDeg(), coords.getDecDeg(), false).airmass[0];
 			return (min <= airmass) && (airmass <= max);
 		}
 
@@ -57,8 +55,7 @@ public abstract class ElevationConstraintSolver extends Solver {
 
 		@Override
 		protected boolean f(long t) {
-			calc.calculate(coords, new Date(t), false);
-			double ha = calc.getHourAngle();
+			double ha = BatchSkyCalc.calculate(site, t, coords.getRaDeg(), coords.getDecDeg(), false).hourAngle[0];
 			return (min <= ha) && (ha <= max);
 		}
 
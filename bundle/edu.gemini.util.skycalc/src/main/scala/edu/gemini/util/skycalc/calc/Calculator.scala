@@ -1,30 +1,64 @@
 package edu.gemini.util.skycalc.calc
 
+import java.util.Arrays
+
 /**
  * Base trait for all calculators.
  * A calculator basically holds a matrix of values which are sampled at defined points in time over a given interval.
  * For each sampling point in time a vector with an arbitrary number of values can be stored.
+ * Times and values are kept in primitive arrays, the vectors are only created if asked for.
  */
 trait Calculator {
 
-  val times: Vector[Long]
+  def times: Vector[Long]
   def toIndex(t: Long): Int
-  val values: Vector[Vector[Double]]
 
-  lazy val start = times.head
-  lazy val end = times.last
-  lazy val samples = times.size
+  /** The sampling times in ascending order. */
+  protected def timeArray: Array[Long]
+
+  /** The sampled values, indexed by field and then by sample. */
+  protected def data: Array[Array[Double]]
+
+  lazy val values: Vector[Vector[Double]] = data.map(a => Vector(a:_*)).toVector
+
+  lazy val start = timeArray(0)
+  lazy val end = timeArray(timeArray.length - 1)
+  lazy val samples = timeArray.length
 
   /** True if the values for the given time are covered by this target. */
   def isDefinedAt(t: Long) = t >= start && t <= end
-  def value(field: Int, ix: Int) = values(field)(ix)
-  def valueAt(field: Int, t: Long) = values(field)(toIndex(t))
+  def value(field: Int, ix: Int) = data(field)(ix)
+  def valueAt(field: Int, t: Long) = data(field)(toIndex(t))
   def timedValues(field: Int) = times.zip(values(field))
 
-  def min(field: Int): Double = values(field).min
-  def max(field: Int): Double = values(field).max
-  def mean(field: Int): Double = values(field).sum / samples
+  def min(field: Int): Double = aggregates(field).min
+  def max(field: Int): Double = aggregates(field).max
+  def mean(field: Int): Double = aggregates(field).sum / samples
+
+  /** Throws an IllegalArgumentException if there are no values for the given time. */
+  protected def checkDefinedAt(t: Long): Unit =
+    if (!isDefinedAt(t)) throw new IllegalArgumentException(s"$t is not in [$start, $end]")
+
+  // min, max and sum of each field, calculated in one pass on first use
+  private lazy val aggregates: Array[Calculator.Aggregate] = data.map { vs =>
+    var min = Double.PositiveInfinity
+    var max = Double.NegativeInfinity
+    var sum = 0.0
+    var i   = 0
+    while (i < vs.length) {
+      val v = vs(i)
+      if (v < min) min = v
+      if (v > max) max = v
+      sum += v
+      i += 1
+    }
+    Calculator.Aggregate(min, max, sum)
+  }
+
+}
 
+object Calculator {
+  private case class Aggregate(min: Double, max: Double, sum: Double)
 }
 
 /**
@@ -34,6 +68,7 @@ trait Calculator {
 trait SingleValueCalculator extends Calculator {
   val time: Long
   val times = Vector(time)
+  protected val timeArray = Array(time)
   def toIndex(t: Long) = 0
 }
 
@@ -52,25 +87,25 @@ trait FixedRateCalculator extends Calculator {
   // the precise rate in milliseconds that corresponds to the expected rate
   private val preciseRate: Double = defined.duration.toDouble / cnt
 
-  /** Calculates a vector with times that cover the given interval. */
-  val times: Vector[Long] = {
-    val ts = for {
-      i <- 0 to cnt
-    } yield {
+  /** Calculates the times that cover the given interval. */
+  protected val timeArray: Array[Long] = {
+    val ts = Array.tabulate(cnt + 1) { i =>
       Math.ceil(defined.start + i*preciseRate).toLong     // always round up
     }
     require(ts.head == defined.start)
     require(ts.last >= defined.end)
-    Vector(ts:_*)
+    ts
   }
 
+  lazy val times: Vector[Long] = Vector(timeArray:_*)
+
   /** Gets the index to the left of the given value t. */
   def toIndex(t: Long) = {
-    require(t >= start)
-    require(t <= end)
-    val ix = Math.floor((t - start) / preciseRate).toInt   // always round down; the sample at this index gives a value <= t
-    require(times(ix) <= t)
-    require(ix == samples-1 || times(ix+1) > t)
+    checkDefinedAt(t)
+    var ix = Math.min(Math.floor((t - start) / preciseRate).toInt, samples-1)   // always round down; the sample at this index gives a value <= t
+    // correct rounding errors, the sample at this index must be <= t and the next one > t
+    while (ix > 0 && timeArray(ix) > t) ix -= 1
+    while (ix < samples-1 && timeArray(ix+1) <= t) ix += 1
     ix
   }
 
@@ -86,14 +121,15 @@ trait IrregularIntervalCalculator extends Calculator {
   /** Irregular interval calculators need to define a vector of times at which to sample the data. */
   val times: Vector[Long]
 
+  protected lazy val timeArray: Array[Long] = times.toArray
+
   /** Gets the index to the left of the given value t. */
   def toIndex(t: Long) = {
-    require(t >= start)
-    require(t <= end)
-    val ix = times.zipWithIndex.reverse.dropWhile(_._1 > t).head._2
-    // postconditions: useful for debugging / documentation
-    // require(ix >= 0 && ix < samples)
-    // require(times(ix) <= t && (ix == samples-1 || times(ix+1) > t))
+    checkDefinedAt(t)
+    val i = Arrays.binarySearch(timeArray, t)
+    var ix = if (i >= 0) i else -i - 2
+    // the last of several samples at the same time
+    while (ix < samples-1 && timeArray(ix+1) <= t) ix += 1
     ix
   }
 }
@@ -110,18 +146,15 @@ trait LinearInterpolatingCalculator extends Calculator {
    */
   override def valueAt(field: Int, t: Long): Double = {
     val ix = toIndex(t)
-    val t0 = times(ix)
-    val v0 = values(field)(ix)
+    val vs = data(field)
+    val t0 = timeArray(ix)
+    val v0 = vs(ix)
     if (t0 == t || ix == samples-1) v0
     else {
-      val t1 = times(ix+1)
-      // require(t0 <= t && t < t1)
-      val v1 = values(field)(ix+1)
-      val v = v0 + (t - t0).toDouble/(t1 - t0) * (v1 - v0)
-      // require((v0 >= v1 && v0 >= v && v >= v1) || (v0 < v1 && v0 <= v && v <= v1))
-      v
+      val t1 = timeArray(ix+1)
+      val v1 = vs(ix+1)
+      v0 + (t - t0).toDouble/(t1 - t0) * (v1 - v0)
     }
   }
 
 }
-
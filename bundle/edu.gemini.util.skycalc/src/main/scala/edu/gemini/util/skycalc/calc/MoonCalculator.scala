@@ -17,7 +17,7 @@ trait MoonCalculator extends Calculator {
 
   val site: Site
 
-  val values: Vector[Vector[Double]] = calculate()
+  protected val data: Array[Array[Double]] = calculate()
 
   import Fields._
 
@@ -45,38 +45,21 @@ trait MoonCalculator extends Calculator {
   lazy val fullMoons: Seq[Long] = MoonCalculator.calculatePhases(site, Interval(start, end), MoonCalc.Phase.FULL)
   lazy val lastQuarterMoons: Seq[Long] = MoonCalculator.calculatePhases(site, Interval(start, end), MoonCalc.Phase.LAST_QUARTER)
 
-  protected def calculate() = {
+  protected def calculate(): Array[Array[Double]] = {
     val skycalc = new ImprovedSkyCalc(site)
     val dummy = new WorldCoords(0, 0)
 
-    // prepare temporary data structure
-    val values = Array (
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples)
-    )
-    // fill temporary data structure with calculated values
+    // IMPORTANT: Make sure the order reflects the id values of the field enums!
+    val values = Array.fill(Fields.maxId)(new Array[Double](samples))
     for (ix <- 0 to samples-1) {
-      val t = times(ix)
+      val t = timeArray(ix)
       skycalc.calculate(dummy, new Date(t), true)
       values(Elevation.id)(ix) = skycalc.getLunarElevation
       values(PhaseAngle.id)(ix) = skycalc.getLunarPhaseAngle
       values(IlluminatedFraction.id)(ix) = skycalc.getLunarIlluminatedFraction
       values(SkyBrightness.id)(ix) = if (skycalc.getLunarSkyBrightness == null) 0.0 else skycalc.getLunarSkyBrightness.toDouble
     }
-
-    // turn into immutable data structure
-    Vector(
-      // IMPORTANT: Make sure the order reflects the id values of the field enums!
-      Vector(values(Elevation.id):_*),
-      Vector(values(PhaseAngle.id):_*),
-      Vector(values(IlluminatedFraction.id):_*),
-      Vector(values(SkyBrightness.id):_*)
-    )
+    values
   }
 }
 
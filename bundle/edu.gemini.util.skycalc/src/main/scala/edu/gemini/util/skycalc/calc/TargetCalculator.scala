@@ -1,8 +1,7 @@
 package edu.gemini.util.skycalc.calc
 
 import edu.gemini.spModel.core.{Coordinates, Site}
-import edu.gemini.skycalc.{ImprovedSkyCalc, TimeUtils}
-import java.util.Date
+import edu.gemini.skycalc.{BatchSkyCalc, TimeUtils}
 
 import edu.gemini.util.skycalc.calc.TargetCalculator.Fields
 
@@ -10,7 +9,7 @@ import edu.gemini.util.skycalc.calc.TargetCalculator.Fields
  * Target calculator that allows to calculate different attributes of a target for a given interval at a given sampling
  * rate. The purpose of this trait is twofold:
  * <ul>
- *   <li>It is a Scala facade to the Java skycalc code in {@see edu.gemini.skycalc.ImprovedSkyCalc}.</li>
+ *   <li>It is a Scala facade to the Java skycalc code in {@see edu.gemini.skycalc.BatchSkyCalc}.</li>
  *   <li>It caches the values for a target for a given interval and sampling rate; this is relevant for places
  *       where these values are needed repetitively because the calculation is pretty complex and slow.</li>
  * </ul>
@@ -23,7 +22,7 @@ trait TargetCalculator extends Calculator {
   val site: Site
   val targetLocation: Long => Coordinates
 
-  val values: Vector[Vector[Double]] = calculate()
+  protected val data: Array[Array[Double]] = calculate()
 
   import Fields._
 
@@ -69,30 +68,35 @@ trait TargetCalculator extends Calculator {
   // If the target is visible during the scheduled time, return the weighted mean parallactic angle as Some(angle in degrees).
   // Otherwise, the target is not visible, so return None.
   lazy val weightedMeanParallacticAngle: Option[Double] = {
-    val (weightedAngles, weights) = values(ParallacticAngle.id).zip(times).zip(values(Airmass.id)).map {
-      case ((angle, t), airmass) =>
-        // Wrap negative angles as per Andy's comment in OCSADV-16.
-        val normalizedAngle = {
-          if (angle < 0) {
-            val normalizingFactor = {
-              val dec = targetLocation(t).dec.toDegrees
-              if (dec - site.latitude < -10) 0
-              else if (dec - site.latitude < 10) 180
-              else 360
-            }
-            angle + normalizingFactor
+    val angles   = data(ParallacticAngle.id)
+    val airmasss = data(Airmass.id)
+    var weightedAngles = 0.0
+    var weights        = 0.0
+    for (ix <- 0 until samples) {
+      val angle   = angles(ix)
+      val airmass = airmasss(ix)
+      // Wrap negative angles as per Andy's comment in OCSADV-16.
+      val normalizedAngle = {
+        if (angle < 0) {
+          val normalizingFactor = {
+            val dec = targetLocation(timeArray(ix)).dec.toDegrees
+            if (dec - site.latitude < -10) 0
+            else if (dec - site.latitude < 10) 180
+            else 360
           }
-          else angle
+          angle + normalizingFactor
         }
+        else angle
+      }
 
-        //val weight = if (airmass <= 1.0) 0.0 else 1.6 * math.pow(airmass - 1.0, 0.6)
-        val weight = if (airmass <= 1.0) 0.0 else math.pow(airmass - 1.0, 1.3)
-        (normalizedAngle * weight, weight)
-    }.unzip
+      //val weight = if (airmass <= 1.0) 0.0 else 1.6 * math.pow(airmass - 1.0, 0.6)
+      val weight = if (airmass <= 1.0) 0.0 else math.pow(airmass - 1.0, 1.3)
+      weightedAngles += normalizedAngle * weight
+      weights        += weight
+    }
 
-    val weightedSum = weights.sum
-    if (weightedSum == 0) None
-    else Some(weightedAngles.sum / weightedSum)
+    if (weights == 0) None
+    else Some(weightedAngles / weights)
   }
 
   def hourAngleAt(t: Long): Double = valueAt(HourAngle.id, t)
@@ -106,45 +110,29 @@ trait TargetCalculator extends Calculator {
   lazy val meanSkyBrightness: Double = mean(SkyBrightness.id)
 
   /**
-   * Calculates all values for the given times.
+   * Calculates all values for the given times. The site, sun and moon state for each time is shared with
+   * all other calculators for the same site and times, see {@link BatchSkyCalc}.
    * @return
    */
-  protected def calculate() = {
-    val skycalc = new ImprovedSkyCalc(site)
-
-    // prepare temporary data structure
-    val values = Array (
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples),
-      new Array[Double](samples)
-    )
-    // fill temporary data structure with calculated values
-    for (ix <- 0 to samples-1) {
-      val t = times(ix)
-      skycalc.calculate(targetLocation(t), new Date(t), true)
-      values(Elevation.id)(ix) = skycalc.getAltitude
-      values(Azimuth.id)(ix) = skycalc.getAzimuth
-      values(Airmass.id)(ix) = skycalc.getAirmass
-      values(LunarDistance.id)(ix) = skycalc.getLunarDistance
-      values(ParallacticAngle.id)(ix) = skycalc.getParallacticAngle
-      values(HourAngle.id)(ix) = skycalc.getHourAngle
-      values(SkyBrightness.id)(ix) = skycalc.getTotalSkyBrightness.doubleValue
+  protected def calculate(): Array[Array[Double]] = {
+    val ra  = new Array[Double](samples)
+    val dec = new Array[Double](samples)
+    for (ix <- 0 until samples) {
+      val c = targetLocation(timeArray(ix))
+      ra(ix)  = c.ra.toDegrees
+      dec(ix) = c.dec.toDegrees
     }
+    val r = new BatchSkyCalc(site, timeArray).calculate(ra, dec)
 
-    // turn into immutable data structure
-    Vector(
+    Array(
       // IMPORTANT: Make sure the order reflects the id values of the field enums!
-      Vector(values(Elevation.id):_*),
-      Vector(values(Azimuth.id):_*),
-      Vector(values(Airmass.id):_*),
-      Vector(values(LunarDistance.id):_*),
-      Vector(values(ParallacticAngle.id):_*),
-      Vector(values(HourAngle.id):_*),
-      Vector(values(SkyBrightness.id):_*)
+      r.elevation,
+      r.azimuth,
+      r.airmass,
+      r.lunarDistance,
+      r.parallacticAngle,
+      r.hourAngle,
+      r.skyBrightness
     )
 
   }
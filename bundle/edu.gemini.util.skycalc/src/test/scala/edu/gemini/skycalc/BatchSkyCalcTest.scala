@@ -0,0 +1,65 @@
+package edu.gemini.skycalc
+
+import java.util.Date
+
+import edu.gemini.spModel.core.{Coordinates, Site}
+import org.junit.Test
+import org.junit.Assert._
+
+import scala.collection.JavaConverters._
+
+/**
+ * Checks that the batched calculations give the same values as ImprovedSkyCalc.
+ */
+class BatchSkyCalcTest {
+
+  val t0      = TimeUtils.time(2014, 3, 1, 18, 0, Site.GS.timezone)
+  val times   = Array.tabulate(72)(i => t0 + i * TimeUtils.minutes(10))
+  val targets = List(
+    Coordinates.fromDegrees(150, 20).get,
+    Coordinates.fromDegrees(10, -60).get,
+    Coordinates.fromDegrees(280.5, -29.9).get
+  )
+
+  private def assertSame(site: Site, c: Coordinates, r: BatchSkyCalc.Result): Unit = {
+    val isc = new ImprovedSkyCalc(site)
+    times.zipWithIndex.foreach { case (t, i) =>
+      isc.calculate(c, new Date(t), true)
+      assertEquals(isc.getAltitude,                     r.elevation(i),        1e-9)
+      assertEquals(isc.getAzimuth,                      r.azimuth(i),          1e-9)
+      assertEquals(isc.getAirmass,                      r.airmass(i),          1e-9)
+      assertEquals(isc.getParallacticAngle,             r.parallacticAngle(i), 1e-9)
+      assertEquals(isc.getHourAngle,                    r.hourAngle(i),        1e-9)
+      assertEquals(isc.getLunarDistance,                r.lunarDistance(i),    1e-9)
+      assertEquals(isc.getTotalSkyBrightness.doubleValue, r.skyBrightness(i),  1e-9)
+    }
+  }
+
+  @Test def sameAsImprovedSkyCalc(): Unit =
+    List(Site.GN, Site.GS).foreach { site =>
+      val calc = new BatchSkyCalc(site, times)
+      targets.zip(calc.calculate(targets.asJava)).foreach { case (c, r) => assertSame(site, c, r) }
+    }
+
+  @Test def singleTimes(): Unit = {
+    val c = targets.head
+    val r = BatchSkyCalc.calculate(Site.GN, times(3), c.ra.toDegrees, c.dec.toDegrees, false)
+    val g = new BatchSkyCalc(Site.GN, times).calculate(c)
+    assertEquals(g.elevation(3), r.elevation(0), 0)
+    assertEquals(g.hourAngle(3), r.hourAngle(0), 0)
+    assertTrue(r.skyBrightness(0).isNaN)
+
+    val m = BatchSkyCalc.calculate(Site.GN, times(3), c.ra.toDegrees, c.dec.toDegrees, true)
+    assertEquals(g.skyBrightness(3), m.skyBrightness(0), 0)
+    assertEquals(g.lunarDistance(3), m.lunarDistance(0), 0)
+  }
+
+  @Test def sameGridsAgain(): Unit = {
+    val c = targets.head
+    val a = new BatchSkyCalc(Site.GS, times).calculate(c)
+    val b = new BatchSkyCalc(Site.GS, times.clone()).calculate(c)
+    assertArrayEquals(a.skyBrightness, b.skyBrightness, 0)
+    assertSame(Site.GS, c, b)
+  }
+
+}
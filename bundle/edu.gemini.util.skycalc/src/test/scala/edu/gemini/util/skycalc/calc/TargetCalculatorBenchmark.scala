@@ -0,0 +1,103 @@
+package edu.gemini.util.skycalc.calc
+
+import edu.gemini.skycalc.TimeUtils
+import edu.gemini.spModel.core.{Coordinates, Site}
+
+import scala.util.Random
+
+/**
+ * Measures the construction of semester-long target calculators, as QV creates them for every observation,
+ * and the queries done on them.  The queries are compared with the same values stored as boxed vectors
+ * with linear index lookups, which is how calculators stored their samples before.
+ *
+ * Usage: `TargetCalculatorBenchmark [targets] [queries]`
+ */
+object TargetCalculatorBenchmark {
+
+  val Start    = TimeUtils.time(2015, 2, 1, 12, 0, Site.GS.timezone)
+  val Semester = Interval(Start, Start + TimeUtils.days(181))
+  val Rate     = TimeUtils.minutes(30)
+
+  /** The samples of a calculator stored as vectors, with the index lookups and aggregates done on them. */
+  class BoxedCalculator(c: TargetCalculator) {
+    val times: Vector[Long] = c.times.toList.toVector
+    val values: Vector[Vector[Double]] = c.values.map(_.toList.toVector)
+
+    def toIndex(t: Long): Int = {
+      require(t >= times.head)
+      require(t <= times.last)
+      times.zipWithIndex.reverse.dropWhile(_._1 > t).head._2
+    }
+
+    def valueAt(field: Int, t: Long): Double = {
+      val ix = toIndex(t)
+      val t0 = times(ix)
+      val v0 = values(field)(ix)
+      if (t0 == t || ix == times.size - 1) v0
+      else {
+        val t1 = times(ix + 1)
+        val v1 = values(field)(ix + 1)
+        v0 + (t - t0).toDouble / (t1 - t0) * (v1 - v0)
+      }
+    }
+
+    def min(field: Int): Double  = values(field).min
+    def max(field: Int): Double  = values(field).max
+    def mean(field: Int): Double = values(field).sum / times.size
+  }
+
+  def targets(n: Int): List[Long => Coordinates] = {
+    val rnd = new Random(0)
+    List.fill(n) {
+      val c = Coordinates.fromDegrees(rnd.nextDouble() * 360, rnd.nextDouble() * 120 - 90).get
+      (_: Long) => c
+    }
+  }
+
+  // Wall time in ms of the given block
+  def time[A](a: => A): (A, Double) = {
+    val t0 = System.nanoTime
+    val r  = a
+    (r, (System.nanoTime - t0) / 1e6)
+  }
+
+  // Runs the queries QV does for a night on each calculator, returns a checksum of the results
+  def query(queries: Array[Long], n: Int)(valueAt: (Int, Long) => Double, aggregate: Int => Double): Double = {
+    var sum = 0.0
+    var i   = 0
+    while (i < n) {
+      sum += valueAt(TargetCalculator.Fields.Elevation.id, queries(i % queries.length))
+      sum += valueAt(TargetCalculator.Fields.Airmass.id,   queries(i % queries.length))
+      sum += aggregate(i % TargetCalculator.Fields.maxId)
+      i += 1
+    }
+    sum
+  }
+
+  def main(args: Array[String]): Unit = {
+    val n       = args.headOption.map(_.toInt).getOrElse(100)
+    val queries = args.drop(1).headOption.map(_.toInt).getOrElse(10000)
+
+    val rnd = new Random(1)
+    val qs  = Array.fill(1000)(Semester.start + (rnd.nextDouble() * Semester.duration).toLong)
+    val ts  = targets(n)
+
+    // warm up
+    ts.take(10).foreach(TargetCalculator(Site.GS, _, Semester, Rate).weightedMeanParallacticAngle)
+
+    val (calcs, build) = time(ts.map(TargetCalculator(Site.GS, _, Semester, Rate)))
+    val (boxed, box)   = time(calcs.map(new BoxedCalculator(_)))
+    val (_, wmpa)      = time(calcs.map(_.weightedMeanParallacticAngle))
+    println(f"$n targets, ${calcs.head.samples} samples each")
+    println(f"construction:                      $build%10.1f ms")
+    println(f"boxing the samples into vectors:   $box%10.1f ms")
+    println(f"weighted mean parallactic angles:  $wmpa%10.1f ms")
+
+    val (a, arrays)  = time(calcs.map(c => query(qs, queries)((f, t) => c.valueAt(f, t), f => c.mean(f))).sum)
+    val (b, vectors) = time(boxed.map(c => query(qs, queries)((f, t) => c.valueAt(f, t), f => c.mean(f))).sum)
+    require(math.abs(a - b) <= 1e-6 * math.abs(a), s"different results: $a $b")
+    println(f"${n * queries} queries on arrays:  $arrays%10.1f ms")
+    println(f"${n * queries} queries on vectors: $vectors%10.1f ms")
+  }
+
+}
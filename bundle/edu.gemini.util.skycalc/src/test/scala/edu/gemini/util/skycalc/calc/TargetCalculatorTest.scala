@@ -46,6 +46,40 @@ class TargetCalculatorTest {
     assertEquals(37, target.minElevation, 1)
   }
 
+  @Test def findsSamples(): Unit = {
+    val t = TimeUtils.time(2014, 3, 1, 20, 0, Site.GN.timezone)
+    val c = (_: Long) => Coordinates.fromDegrees(150, 20).get
+    val interval = TargetCalculator(Site.GN, c, Interval(t, t + TimeUtils.hours(4) + 7), TimeUtils.minutes(7))
+    val sample   = TargetCalculator(Site.GN, c, Vector(t, t + 10, t + 10, t + 500, t + 900))
+
+    // the index is the last sample at or before the given time
+    List(interval, sample).foreach { target =>
+      (target.start to target.end by 3).foreach { ti =>
+        val ix = target.toIndex(ti)
+        assertTrue(target.times(ix) <= ti)
+        assertTrue(ix == target.samples - 1 || target.times(ix + 1) > ti)
+      }
+    }
+    assertEquals(2, sample.toIndex(t + 10))
+  }
+
+  @Test def interpolatesAndAggregates(): Unit = {
+    val t = TimeUtils.time(2014, 3, 1, 20, 0, Site.GN.timezone)
+    val c = (_: Long) => Coordinates.fromDegrees(150, 20).get
+    val target = TargetCalculator(Site.GN, c, Interval(t, t + TimeUtils.hours(4)), TimeUtils.minutes(10))
+
+    val (t0, t1) = (target.times(3), target.times(4))
+    val (e0, e1) = (target.values(0)(3), target.values(0)(4))
+    assertEquals(e0, target.elevationAt(t0), 0)
+    assertEquals((e0 + e1) / 2, target.elevationAt((t0 + t1) / 2), 1e-3)
+
+    target.values.zipWithIndex.foreach { case (vs, field) =>
+      assertEquals(vs.min, target.min(field), 0)
+      assertEquals(vs.max, target.max(field), 0)
+      assertEquals(vs.sum / vs.size, target.mean(field), 1e-9)
+    }
+  }
+
   // === this is for performance trimming purposes, not an actual test case
 
   @Ignore
@@ -6,7 +6,8 @@ import edu.gemini.util.security.auth.keychain.Action._
 import edu.gemini.util.ssl.GemSslSocketFactory
 import edu.gemini.util.trpc.common._
 
-import java.io.IOException
+import java.io.{IOException, OutputStream}
+import java.{lang => jl}
 import java.lang.reflect.{UndeclaredThrowableException, Proxy, Method, InvocationHandler}
 import java.net.URL
 import java.util.logging.{Level, Logger=>JLogger}
@@ -30,10 +31,19 @@ object TrpcClient {
      def verify(s: String, sslSession: SSLSession) = true
   }
 
-  class ClientBuilder(host: String, port: Int, connectTimeout: Int, readTimeout: Int) {
+  class ClientBuilder(host: String, port: Int, connectTimeout: Int, readTimeout: Int, compressRequests: Boolean = false) {
+
+    /**
+     * Compress large requests (see `common.CompressThreshold`), which pays
+     * off when sending programs or program diffs.  Requires a server that
+     * understands compressed requests.  Large responses are always
+     * compressed if the server supports it.
+     */
+    def withRequestCompression: ClientBuilder =
+      new ClientBuilder(host, port, connectTimeout, readTimeout, true)
 
     def withKeys(keys: Set[Key]): TrpcClient = 
-      new TrpcClient(host, port, connectTimeout, readTimeout, keys)
+      new TrpcClient(host, port, connectTimeout, readTimeout, keys, compressRequests)
 
     def withoutKeys: TrpcClient = 
       withKeys(Set())
@@ -49,6 +59,19 @@ object TrpcClient {
 
   }
 
+  // Value returned by a recording proxy, which must be non-null for
+  // primitive return types.
+  private def defaultValue(c: Class[_]): AnyRef =
+    if (!c.isPrimitive || c == jl.Void.TYPE) null
+    else if (c == jl.Boolean.TYPE)   jl.Boolean.FALSE
+    else if (c == jl.Character.TYPE) jl.Character.valueOf(0.toChar)
+    else if (c == jl.Byte.TYPE)      jl.Byte.valueOf(0.toByte)
+    else if (c == jl.Short.TYPE)     jl.Short.valueOf(0.toShort)
+    else if (c == jl.Integer.TYPE)   jl.Integer.valueOf(0)
+    else if (c == jl.Long.TYPE)      jl.Long.valueOf(0L)
+    else if (c == jl.Float.TYPE)     jl.Float.valueOf(0f)
+    else                             jl.Double.valueOf(0d)
+
   def apply(host: String, port: Int): ClientBuilder = 
     apply(host, port, ConnectTimeout, ReadTimeout)
 
@@ -63,7 +86,7 @@ object TrpcClient {
 
 }
 
-class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTimeout: Int, keys: Set[Key]) {
+class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTimeout: Int, keys: Set[Key], compressRequests: Boolean) {
   import TrpcClient._
 
   /**
@@ -117,42 +140,21 @@ class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTime
    */
   def proxy[A](c: Class[A]): A = proxy(Manifest.classType(c))
 
+  // Connections are kept alive and reused by the JDK's HTTP keep-alive cache
+  // (sized by the "http.maxConnections" system property) provided that each
+  // one is opened with the same socket factory and hostname verifier and
+  // that its response is read in full.  Sharing the socket factory also
+  // shares its TLS session cache, so reconnecting to a host resumes the TLS
+  // session rather than performing a full handshake.
   private def proxy[A](implicit m: Manifest[A]): A = {
     val handler = new InvocationHandler {
 
       def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
-        val start = currentTimeMillis
-        try {
-          val url = "https://%s:%d/trpc/%s/%s".format(host, port, m.erasure.getName, method.getName)
-          val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
-          conn.setSSLSocketFactory(GemSslSocketFactory.get)
-          conn.setHostnameVerifier(hostnameVerifier)
-          conn.setConnectTimeout(connectTimeout)
-          conn.setChunkedStreamingMode(1024 * 16) // 16k blocks (?)
-          conn.setDoOutput(true)
-          conn.setDoInput(true)
-          conn.setReadTimeout(readTimeout)
-
-          if (Log.isLoggable(Level.FINE))
-            Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
-
-          closing(conn.getOutputStream)(_.writeRaw(Version.current, (args, keys))) // note that args may be null
-          conn.getResponseCode match {
-            case HttpServletResponse.SC_OK => closing(conn.getInputStream)(_.readRaw.next[Try[AnyRef]]) match {
-              case \/-(a) => a
-              case -\/(e) =>
-                val localFrames = new Exception().getStackTrace.drop(2) // throw away the proxy frames (?)
-                val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
-                e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
-                throw e
-            }
-            case code => throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, url)) // can we do better?
-          }
-        } finally {
-          val elapsed = currentTimeMillis - start
-          val level = if (elapsed > Warn) Level.WARNING else Level.FINE
-          if (Log.isLoggable(level))
-            Log.log(level, "%s on %s:%d took %d ms.".format(method, host, port, elapsed))
+        val iface = m.erasure.getName
+        val url   = "https://%s:%d/trpc/%s/%s".format(host, port, iface, method.getName)
+        exchange(s"$iface.${method.getName}", url, TrpcMetrics.record(iface, method.getName, _, _, _, _))(_.writeRaw(Version.current, (args, keys))) { // note that args may be null
+          case \/-(a) => a
+          case -\/(e) => throw fromServer(e, 3) // throw away the proxy frames (?)
         }
       }
 
@@ -161,4 +163,179 @@ class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTime
     Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A]
   }
 
+  // Prepends the local stack to an exception thrown on the server.
+  private def fromServer(e: Exception, drop: Int): Exception = {
+    val localFrames = new Exception().getStackTrace.drop(drop)
+    val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
+    e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
+    e
+  }
+
+  // POSTs the payload written by `write` to the given url and hands the
+  // decoded response to `f`.  Afterwards passes the elapsed time, the bytes
+  // sent and received and whether the exchange failed to `record`.  Neither
+  // the request nor the response is held in memory in full unless it is
+  // small.
+  private def exchange[B](label: String, url: String, record: (Long, Long, Long, Boolean) => Unit)(write: OutputStream => Unit)(f: Try[AnyRef] => B): B = {
+    val start    = currentTimeMillis
+    var bytesOut = 0L
+    var bytesIn  = 0L
+    var failed   = true
+    try {
+      val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
+      conn.setSSLSocketFactory(GemSslSocketFactory.get)
+      conn.setHostnameVerifier(hostnameVerifier)
+      conn.setConnectTimeout(connectTimeout)
+      conn.setDoOutput(true)
+      conn.setDoInput(true)
+      conn.setReadTimeout(readTimeout)
+      conn.setRequestProperty("Accept-Encoding", GZip)
+
+      if (Log.isLoggable(Level.FINE))
+        Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
+
+      val body = new BodyOutputStream(compressRequests,
+        len => {
+          conn.setFixedLengthStreamingMode(len)
+          conn.getOutputStream
+        },
+        gz => {
+          if (gz) conn.setRequestProperty("Content-Encoding", GZip)
+          conn.setChunkedStreamingMode(BufSize)
+          conn.getOutputStream
+        })
+      try closing(body)(write) finally bytesOut = body.wireBytes
+
+      conn.getResponseCode match {
+        case HttpServletResponse.SC_OK =>
+          val counting = new CountingInputStream(conn.getInputStream)
+          val in       = if (GZip == conn.getContentEncoding) gunzip(counting) else counting
+          val result   = try {
+            in.readRaw.next[Try[AnyRef]]
+          } finally {
+            drainAndClose(in)
+            bytesIn = counting.count
+          }
+          failed = result.isLeft
+          f(result)
+        case code =>
+          Option(conn.getErrorStream).foreach(drainAndClose)
+          throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, url)) // can we do better?
+      }
+    } finally {
+      val elapsed = currentTimeMillis - start
+      record(elapsed, bytesOut, bytesIn, failed)
+      val level = if (elapsed > Warn) Level.WARNING else Level.FINE
+      if (Log.isLoggable(level))
+        Log.log(level, "%s on %s:%d took %d ms (%d bytes out, %d bytes in).".format(label, host, port, elapsed, bytesOut, bytesIn))
+    }
+  }
+
+  /**
+   * Starts a batch of calls to be sent to the server in a single request.
+   * If `concurrent` the server may execute the calls in any order and at the
+   * same time, so they should be independent of one another.  Otherwise they
+   * are executed one after another in the order they were added.
+   */
+  def batch(concurrent: Boolean): Batch =
+    new Batch(concurrent)
+
+  /**
+   * Collects remote calls to be sent in one round trip.  Each call is
+   * recorded by running a function against a stand-in for the remote
+   * interface, which must make exactly one call on it.  Results are
+   * available once the batch has been run.  Invoke as
+   * <code>
+   * val b  = client.batch(concurrent = true)
+   * val vm = b.call[IFoo, VersionMap](_.versionMap(pid))
+   * val st = b.call[IBar, Status](_.status(pid))
+   * b.run()
+   * vm.get ...
+   * </code>
+   * A batch is not thread-safe and may only be run once.
+   */
+  final class Batch private[TrpcClient] (concurrent: Boolean) {
+    private val calls = scala.collection.mutable.ListBuffer.empty[(BatchCall, BatchResult[_])]
+    private var done  = false
+
+    /** Records the single remote call made by `f` on interface `A`. */
+    def call[A, B](f: A => B)(implicit m: Manifest[A]): BatchResult[B] = {
+      require(!done, "Batch has already been run.")
+      var recorded = List.empty[BatchCall]
+      val handler  = new InvocationHandler {
+        def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
+          recorded = BatchCall(m.erasure.getName, method.getName, args) :: recorded
+          defaultValue(method.getReturnType)
+        }
+      }
+      f(Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A])
+      recorded match {
+        case List(bc) =>
+          val r = new BatchResult[B]
+          calls += ((bc, r))
+          r
+        case _        =>
+          throw new IllegalArgumentException("Expected exactly one call on %s, not %d.".format(m.erasure.getName, recorded.size))
+      }
+    }
+
+    /** Java-friendly version of `call`. */
+    def call[A, B](c: Class[A], f: java.util.function.Function[A, B]): BatchResult[B] =
+      call[A, B]((a: A) => f.apply(a))(Manifest.classType(c))
+
+    /** Number of calls in this batch. */
+    def size: Int = calls.size
+
+    /**
+     * Sends the batch and fills in the results.  Exceptions thrown by
+     * individual calls are reported by their results; the exception thrown
+     * here, if any, means that no call was made.
+     */
+    def run(): Unit = {
+      require(!done, "Batch has already been run.")
+      done = true
+      if (calls.nonEmpty) {
+        val url = "https://%s:%d/trpc/%s/%b".format(host, port, BatchPath, concurrent)
+
+        // Each call failed if the batch as a whole did or if it threw.
+        var results = Option.empty[List[Try[AnyRef]]]
+        def record(ms: Long, out: Long, in: Long, failed: Boolean): Unit = {
+          val cs = calls.toList.zipWithIndex.map { case ((bc, _), i) =>
+            (bc.clazz, bc.method, failed || results.flatMap(_.lift(i)).forall(_.isLeft))
+          }
+          TrpcMetrics.recordBatch(cs, ms, out, in, failed)
+        }
+
+        val label = "%s of %d calls".format(BatchPath, calls.size)
+        val rs    = exchange(label, url, record)(_.writeRaw(Version.current, (calls.map(_._1).toList, concurrent, keys))) {
+          case \/-(a) =>
+            val lst = a.asInstanceOf[List[Try[AnyRef]]]
+            results = Some(lst)
+            lst
+          case -\/(e) =>
+            throw fromServer(e, 3)
+        }
+        calls.zip(rs).foreach { case ((_, r), t) => r.set(t) }
+      }
+    }
+  }
+
+  /** The eventual result of a call in a batch. */
+  final class BatchResult[B] private[TrpcClient] () {
+    private var result: Option[Try[AnyRef]] = None
+
+    private[TrpcClient] def set(t: Try[AnyRef]): Unit =
+      result = Some(t.leftMap(fromServer(_, 2)))
+
+    /** True once the batch has been run. */
+    def isDone: Boolean = result.isDefined
+
+    /** The result of the call, or the exception that it threw. */
+    def toTry: Try[B] =
+      result.getOrElse(throw new IllegalStateException("Batch has not been run.")).map(_.asInstanceOf[B])
+
+    /** The result of the call, throwing the exception if it failed. */
+    def get: B = toTry.get
+  }
+
 }
@@ -0,0 +1,128 @@
+package edu.gemini.util.trpc.client
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+import java.{lang => jl, util => ju}
+import javax.management.{InstanceAlreadyExistsException, InstanceNotFoundException, ObjectName}
+
+import edu.gemini.util.trpc.common.BatchPath
+
+import scala.collection.JavaConverters._
+
+/**
+ * Per-method counters for TRPC calls made by this VM, so that client to
+ * server traffic can be profiled.  Counters are keyed by the remote
+ * interface and method name, and report call count, failures, total and
+ * maximum latency and the bytes sent and received on the wire (that is,
+ * after compression).  Published over JMX as
+ * `edu.gemini.util.trpc:type=TrpcMetrics` while the TRPC bundle is running.
+ */
+object TrpcMetrics extends TrpcMetricsMXBean {
+  private val Log = Logger.getLogger(getClass.getName)
+
+  val Name = new ObjectName("edu.gemini.util.trpc:type=TrpcMetrics")
+
+  final class Counters {
+    val calls     = new AtomicLong
+    val failures  = new AtomicLong
+    val totalMs   = new AtomicLong
+    val maxMs     = new AtomicLong
+    val bytesOut  = new AtomicLong
+    val bytesIn   = new AtomicLong
+
+    def record(ms: Long, out: Long, in: Long, failed: Boolean): Unit = {
+      calls.incrementAndGet()
+      if (failed) failures.incrementAndGet()
+      totalMs.addAndGet(ms)
+      bytesOut.addAndGet(out)
+      bytesIn.addAndGet(in)
+      var max = maxMs.get
+      while (ms > max && !maxMs.compareAndSet(max, ms)) max = maxMs.get
+    }
+  }
+
+  private val counters = new ConcurrentHashMap[String, Counters]()
+
+  /** Method name under which batch requests are recorded, as `_batch.calls`. */
+  val BatchMethod = "calls"
+
+  /** Records the outcome of a single call. */
+  def record(iface: String, method: String, ms: Long, bytesOut: Long, bytesIn: Long, failed: Boolean): Unit = {
+    val k = iface + "." + method
+    val c = Option(counters.get(k)).getOrElse {
+      val n = new Counters
+      Option(counters.putIfAbsent(k, n)).getOrElse(n)
+    }
+    c.record(ms, bytesOut, bytesIn, failed)
+  }
+
+  /**
+   * Records the outcome of a batch request under `_batch.calls`, and of each
+   * call in it (given as interface, method and whether it failed) under its
+   * own interface and method.  Each call is charged the latency of the whole
+   * batch and an equal share of its wire bytes.
+   */
+  def recordBatch(calls: List[(String, String, Boolean)], ms: Long, bytesOut: Long, bytesIn: Long, failed: Boolean): Unit = {
+    record(BatchPath, BatchMethod, ms, bytesOut, bytesIn, failed)
+
+    // Spread the remainder over the first calls so that the shares add up.
+    val n = calls.size
+    def share(total: Long, i: Int): Long = total / n + (if (i < total % n) 1 else 0)
+
+    calls.zipWithIndex.foreach { case ((iface, method, f), i) =>
+      record(iface, method, ms, share(bytesOut, i), share(bytesIn, i), f)
+    }
+  }
+
+  /**
+   * A snapshot of all counters, keyed by
+   * "trpc.<interface>.<method>.<counter>".
+   */
+  def snapshot: Map[String, Long] =
+    counters.asScala.toList.flatMap { case (k, c) =>
+      val calls = c.calls.get
+      List(
+        "calls"    -> calls,
+        "failures" -> c.failures.get,
+        "avgMs"    -> (if (calls == 0) 0L else c.totalMs.get / calls),
+        "maxMs"    -> c.maxMs.get,
+        "bytesOut" -> c.bytesOut.get,
+        "bytesIn"  -> c.bytesIn.get
+      ).map { case (n, v) => s"trpc.$k.$n" -> v }
+    }.toMap
+
+  /** Java-friendly, sorted version of `snapshot`. */
+  def getMetrics: ju.Map[String, jl.Long] =
+    new ju.TreeMap[String, jl.Long](snapshot.mapValues(Long.box).asJava)
+
+  /** Clears all counters. */
+  def reset(): Unit =
+    counters.clear()
+
+  /** Publishes the counters to the platform MBean server. */
+  def register(): Unit =
+    try {
+      ManagementFactory.getPlatformMBeanServer.registerMBean(this, Name)
+    } catch {
+      case _: InstanceAlreadyExistsException => // registered by an earlier start
+      case e: Exception                      => Log.log(Level.WARNING, s"Could not register $Name", e)
+    }
+
+  /** Withdraws the counters from the platform MBean server. */
+  def unregister(): Unit =
+    try {
+      ManagementFactory.getPlatformMBeanServer.unregisterMBean(Name)
+    } catch {
+      case _: InstanceNotFoundException => // never registered
+      case e: Exception                 => Log.log(Level.WARNING, s"Could not unregister $Name", e)
+    }
+
+}
+
+/** JMX view of `TrpcMetrics`. */
+trait TrpcMetricsMXBean {
+  def getMetrics: ju.Map[String, jl.Long]
+  def reset(): Unit
+}
@@ -3,11 +3,141 @@ package edu.gemini.util.trpc
 import scalaz._
 import Scalaz._
 import java.io._
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
 
 package object common {
 
   val BufSize = 1024 * 16 // ok?
 
+  /** Content encoding used for compressed requests and responses. */
+  val GZip = "gzip"
+
+  /**
+   * Payloads larger than this many bytes are streamed rather than buffered,
+   * and compressed when the other side accepts it.  Program fetches and
+   * diffs are typically well over this size while most other calls are far
+   * smaller.  Set the system property
+   * `edu.gemini.util.trpc.compressThreshold` to change it, or to 0 to never
+   * compress.
+   */
+  val CompressThreshold: Int =
+    Option(System.getProperty("edu.gemini.util.trpc.compressThreshold")).flatMap { s =>
+      try { Some(s.toInt) } catch { case _: NumberFormatException => None }
+    }.getOrElse(64 * 1024)
+
+  /**
+   * A request or response body that is buffered in memory only while it is
+   * small.  If closed before `CompressThreshold` bytes have been written the
+   * buffered bytes are passed to `fixed`, which declares their length and
+   * returns the stream to write them to.  Otherwise `chunked` is called once
+   * with whether the body will be compressed (when `compress` and
+   * compression isn't disabled), so that the caller can switch to chunked
+   * transfer and set the content encoding, and the rest of the body is
+   * streamed through as it is written.
+   */
+  final class BodyOutputStream(compress: Boolean, fixed: Int => OutputStream, chunked: Boolean => OutputStream) extends OutputStream {
+    private val gz    = compress && CompressThreshold > 0
+    private val limit = if (CompressThreshold > 0) CompressThreshold else BufSize
+    private val buf   = new ByteArrayOutputStream(math.min(limit, BufSize))
+
+    private var wire: CountingOutputStream = null
+    private var out: OutputStream          = null
+    private var closed                     = false
+
+    /** Bytes sent on the wire so far, that is after any compression. */
+    def wireBytes: Long = if (wire == null) 0L else wire.count
+
+    private def target(n: Int): OutputStream = {
+      if ((out == null) && (buf.size + n > limit)) {
+        wire = new CountingOutputStream(chunked(gz))
+        out  = if (gz) new GZIPOutputStream(wire, BufSize) else wire
+        buf.writeTo(out)
+        buf.reset()
+      }
+      if (out == null) buf else out
+    }
+
+    override def write(b: Int): Unit =
+      target(1).write(b)
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit =
+      target(len).write(b, off, len)
+
+    // Nothing to flush until the body is too large to buffer.
+    override def flush(): Unit =
+      if (out != null) out.flush()
+
+    override def close(): Unit =
+      if (!closed) {
+        closed = true
+        if (out == null) {
+          wire = new CountingOutputStream(fixed(buf.size))
+          closing(wire)(buf.writeTo)
+        } else out.close()
+      }
+  }
+
+  /**
+   * First path element of a batch request, POSTed to
+   * `/trpc/_batch/<concurrent>`.  Can't clash with a service class name.
+   */
+  val BatchPath = "_batch"
+
+  /** One method invocation within a batch request. */
+  case class BatchCall(clazz: String, method: String, args: Array[AnyRef])
+
+  def gunzip(is: InputStream): InputStream =
+    new GZIPInputStream(is, BufSize)
+
+  /** Counts the bytes written through it, for transfer metrics. */
+  class CountingOutputStream(os: OutputStream) extends FilterOutputStream(os) {
+    @volatile var count: Long = 0L
+
+    override def write(b: Int): Unit = {
+      out.write(b)
+      count += 1
+    }
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+      out.write(b, off, len)
+      count += len
+    }
+  }
+
+  /** Counts the bytes read through it, for transfer metrics. */
+  class CountingInputStream(is: InputStream) extends FilterInputStream(is) {
+    @volatile var count: Long = 0L
+
+    override def read(): Int = {
+      val b = super.read()
+      if (b >= 0) count += 1
+      b
+    }
+
+    override def read(b: Array[Byte], off: Int, len: Int): Int = {
+      val n = super.read(b, off, len)
+      if (n > 0) count += n
+      n
+    }
+
+    override def skip(n: Long): Long = {
+      val k = super.skip(n)
+      count += k
+      k
+    }
+  }
+
+  /**
+   * Reads whatever remains of the stream before closing it.  HTTP
+   * connections are only returned to the keep-alive pool once the response
+   * has been consumed in full.
+   */
+  def drainAndClose(is: InputStream): Unit =
+    closing(is) { is =>
+      val buf = new Array[Byte](BufSize)
+      while (is.read(buf) >= 0) {}
+    }
+
   type Try[A] = Exception \/ A
 
   def lift[A](a: => A):Try[A] = catching(a.right[Exception])
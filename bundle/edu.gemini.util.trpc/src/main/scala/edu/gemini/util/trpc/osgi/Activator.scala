@@ -7,6 +7,7 @@ import edu.gemini.util.osgi.SecureServiceFactory.BundleContextOps
 import edu.gemini.util.security.auth.keychain._
 import edu.gemini.util.security.auth.keychain.Action._
 import edu.gemini.util.trpc.auth._
+import edu.gemini.util.trpc.client.TrpcMetrics
 import edu.gemini.util.trpc.server.TrpcServlet
 import java.io.File
 import java.security.Principal
@@ -94,6 +95,9 @@ class Activator extends BundleActivator with ExternalStorage {
     } { _.unregister(Alias) }
     tracker.open()
 
+    // Call counters for this VM's TRPC clients
+    TrpcMetrics.register()
+
   }
 
   def toInitialPeer(s: String, site:Site): Option[(Peer, String)] =
@@ -109,6 +113,7 @@ class Activator extends BundleActivator with ExternalStorage {
     }
 
   def stop(context: BundleContext) {
+    TrpcMetrics.unregister()
     tracker.close()
     tracker = null
   }
@@ -12,6 +12,10 @@ import Scalaz._
 import edu.gemini.spModel.core.{VersionException, Version}
 import java.util.logging.{Level, Logger}
 import scala.util.DynamicVariable
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.concurrent.duration.Duration
+import java.util.concurrent.{Executors, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
 
 abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   val Log = Logger.getLogger(this.getClass.getName)
@@ -21,33 +25,42 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   // The idea is that you pass class, method, args and get back a result or a throwable.
   // POST goes to http://server:host/trpc/class/method, where local path /class/method
   // Request payload is an Array[AnyRef] serialized as a raw bytestream
+  //
+  // Batch requests POST to /_batch/<concurrent> a List[BatchCall] and get back a
+  // List[Try[AnyRef]] of results in the same order, wrapped in a Try that fails
+  // only if the batch as a whole can't be read or authenticated.
   override def service(req: HttpServletRequest, res: HttpServletResponse) {
 
     try {
 
       // Our result object is either an exception or a valid result
-      val result:Try[AnyRef] = for {
-        c <- req.path(0) // name of our service class
-        r <- catching {  // capture any exceptions thrown within, and turn to Failure
-          for {
-            n  <- req.path(1) // the name of our method
-            a  <- req.payload // our argument array
-            ps <- subject(a._2)
-            a <- withService(c, ps) { t => t.getClass.getCompatibleMethod(n, a._1).map { m =>
-                try {
-                  m.setAccessible(true) // public stuff isn't visible if the class isn't public
-                  m.invoke(t, a._1: _*)
-                } catch {
-                  case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
-                }
-              }
-            }
-          } yield a
-        }
-      } yield r
+      val result: AnyRef =
+        if (req.path(0) == BatchPath.right) batch(req)
+        else for {
+          c <- req.path(0) // name of our service class
+          r <- catching {  // capture any exceptions thrown within, and turn to Failure
+            for {
+              n  <- req.path(1) // the name of our method
+              a  <- req.payload // our argument array
+              ps <- subject(a._2)
+              r  <- invoke(c, n, a._1, ps)
+            } yield r
+          }
+        } yield r
 
-      // Either way, send it back.
-      closing(res.getOutputStream)(_.writeRaw(result))
+      // Either way, send it back.  Small results are sent with an explicit
+      // content length, large ones are streamed (chunked) and compressed if
+      // the client accepts it.  Either keeps the connection eligible for
+      // reuse.
+      new BodyOutputStream(req.acceptsGZip,
+        len => {
+          res.setContentLength(len)
+          res.getOutputStream
+        },
+        gz => {
+          if (gz) res.setHeader("Content-Encoding", GZip)
+          res.getOutputStream
+        }).writeRaw(result)
 
     } catch {
       case t: Exception =>
@@ -57,6 +70,38 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
 
   }
 
+  // Invokes the named method on the service, capturing any exception.
+  private def invoke(c: String, n: String, args: Array[AnyRef], ps: Set[Principal]): Try[AnyRef] =
+    catching {
+      withService(c, ps) { t => t.getClass.getCompatibleMethod(n, args).map { m =>
+          try {
+            m.setAccessible(true) // public stuff isn't visible if the class isn't public
+            m.invoke(t, args: _*)
+          } catch {
+            case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
+          }
+        }
+      }
+    }
+
+  // Runs each call of a batch, concurrently if the client asked for it
+  // (i.e., the calls are independent), otherwise one after another in order.
+  // The keys are validated once for the whole batch.
+  private def batch(req: HttpServletRequest): Try[List[Try[AnyRef]]] =
+    catching {
+      for {
+        b  <- req.batchPayload
+        ps <- subject(b._3)
+      } yield {
+        val (calls, concurrent, _) = b
+        def run(bc: BatchCall): Try[AnyRef] = invoke(bc.clazz, bc.method, bc.args, ps)
+        if (concurrent && calls.size > 1) {
+          val fs = calls.map(bc => Future(run(bc))(TrpcServlet.BatchContext))
+          fs.map(f => Await.result(f, Duration.Inf))
+        } else calls.map(run)
+      }
+    }
+
   def subject(ps:Set[Key]): Try[Set[Principal]] = try {
     ps.collect { case a if auth.validateKey(a).isRight => a.get._1 : Principal } .toSet.right
   } catch {
@@ -70,3 +115,27 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   protected def withService[B](clazz: String, ps: Set[Principal])(f: Any => B): B
 
 }
+
+object TrpcServlet {
+
+  /**
+   * Number of threads used to execute the calls of concurrent batches,
+   * shared by all servlets.  Set the system property
+   * `edu.gemini.util.trpc.batchThreads` to change it.
+   */
+  val BatchThreads: Int =
+    Option(System.getProperty("edu.gemini.util.trpc.batchThreads")).flatMap { s =>
+      try { Some(s.toInt) } catch { case _: NumberFormatException => None }
+    }.filter(_ > 0).getOrElse(math.max(4, Runtime.getRuntime.availableProcessors * 2))
+
+  private lazy val BatchContext: ExecutionContext =
+    ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(BatchThreads, new ThreadFactory {
+      val count = new AtomicInteger
+      def newThread(r: Runnable): Thread = {
+        val t = new Thread(r, "TRPC Batch-" + count.incrementAndGet())
+        t.setDaemon(true)
+        t
+      }
+    }))
+
+}
@@ -20,10 +20,18 @@ package object server {
       Option(req.getParameter(s)) \/> new IllegalArgumentException("Required request parameter %s was not found.".format(s))
 
     def payload: Try[(Array[AnyRef], Set[Key])] =
+      versioned[(Array[AnyRef], Set[Key])]
+
+    /** The calls, concurrency flag and keys of a batch request. */
+    def batchPayload: Try[(List[BatchCall], Boolean, Set[Key])] =
+      versioned[(List[BatchCall], Boolean, Set[Key])]
+
+    private def versioned[A]: Try[A] =
       lift {
 
-        // Get our object stream
-        val ios = req.getInputStream.readRaw
+        // Get our object stream, which may be compressed
+        val in  = req.getInputStream
+        val ios = (if (GZip == req.getHeader("Content-Encoding")) gunzip(in) else in).readRaw
 
         // Check serial compatibility
         try {
@@ -37,10 +45,14 @@ package object server {
         }
 
         // Next hunk is our payload
-        ios.next[(Array[AnyRef], Set[Key])]
+        ios.next[A]
 
       }
 
+    /** True if the client will accept a compressed response. */
+    def acceptsGZip: Boolean =
+      Option(req.getHeader("Accept-Encoding")).exists(_.contains(GZip))
+
     def path(n: Int): Try[String] =
       pathElems.lift(n) \/> new IllegalArgumentException("Path element %d was not found.".format(n))
 
@@ -2,8 +2,11 @@ package jsky.app.ot.shared.gemini.obscat;
 
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBQueryFilter;
 import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBFunctor;
 import edu.gemini.pot.spdb.IDBQueryRunner;
+import edu.gemini.pot.spdb.IDBSplittableQueryFunctor;
 import edu.gemini.shared.util.immutable.Option;
 import edu.gemini.spModel.ao.AOConstants;
 import edu.gemini.spModel.ao.AOTreeUtil;
@@ -50,11 +53,13 @@ import java.util.*;
 /**
  * An <code>edu.gemini.pot.spdb.IDBQueryFunctor</code>
  * implementation that can be used by clients to query the science
- * program database for observations matching given constraints.
+ * program database for observations matching given constraints.  Programs
+ * are matched independently, so the query may be split into partitions whose
+ * rows are appended in program order.
  *
  * @author Allan Brighton
  */
-public class ObsQueryFunctor extends DBAbstractQueryFunctor {
+public class ObsQueryFunctor extends DBAbstractQueryFunctor implements IDBSplittableQueryFunctor {
 
     // Holds the result of the query, in table format (the result is a
     // vector of rows, which are vectors of columns corresponding to the
@@ -110,6 +115,50 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     }
 
 
+    public ObsQueryFunctor split() {
+        return new ObsQueryFunctor(_sc, _instruments, _instSc);
+    }
+
+
+    public void mergeResults(Collection<IDBFunctor> functorCollection) {
+        for (IDBFunctor f : functorCollection) {
+            final ObsQueryFunctor that = (ObsQueryFunctor) f;
+            _result.addAll(that._result);
+            _ids.addAll(that._ids);
+        }
+    }
+
+
+    /**
+     * Return a filter that limits the query to the programs that can match
+     * the active and completed conditions.  It is meant to be passed to
+     * <code>IDBQueryRunner.queryPrograms</code> along with this functor,
+     * which still checks every condition itself.
+     */
+    public DBQueryFilter getProgramFilter() {
+        DBQueryFilter f = DBQueryFilter.ALL;
+        if (_sc == null) return f;
+
+        for (SearchCondition a_sc : _sc) {
+            final String name = a_sc.getName();
+            if (name.equals(ObsCatalogInfo.ACTIVE)) {
+                f = f.withActive(_requiredFlag(a_sc, SPProgram.Active.YES.name(), SPProgram.Active.NO.name()));
+            } else if (name.equals(ObsCatalogInfo.COMPLETED)) {
+                f = f.withCompleted(_requiredFlag(a_sc, YesNoType.YES.name(), YesNoType.NO.name()));
+            }
+        }
+        return f;
+    }
+
+    // The state a yes/no program flag must have to satisfy the condition, or
+    // null if either state will do.
+    private static Boolean _requiredFlag(SearchCondition sc, String yes, String no) {
+        final boolean y = sc.isTrueFor(yes);
+        final boolean n = sc.isTrueFor(no);
+        return (y == n) ? null : Boolean.valueOf(y);
+    }
+
+
     /**
      * Return the result of the query as an array of ObsInfo objects.
      */
@@ -0,0 +1,73 @@
+package jsky.app.ot.shared.vcs
+
+import edu.gemini.pot.sp.ISPNode
+import edu.gemini.pot.spdb.{IDBFunctor, IDBDatabaseService, IDBQueryRunner, ProgramChangeFeed}
+import edu.gemini.pot.spdb.IDBFunctor.Priority
+import edu.gemini.spModel.core.{Peer, SPProgramID}
+import edu.gemini.util.trpc.client.TrpcClient
+import edu.gemini.util.trpc.common.Try
+import edu.gemini.util.security.auth.keychain.KeyChain
+
+import java.security.Principal
+
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+
+import jsky.app.ot.shared.vcs.VersionDigestFunctor.LocalVersions
+import jsky.app.ot.shared.vcs.VersionMapFunctor.VmUpdate
+
+/**
+ * The ProgramChangeFunctor waits on a peer's `ProgramChangeFeed` for any of
+ * the given programs to change.  It is a long-poll alternative to repeatedly
+ * running the `VersionDigestFunctor` for every program: only the ids travel
+ * while waiting, and the `VersionDigestFunctor` is then run for just the
+ * programs that changed, along with any for which the caller has no
+ * VersionMap yet (e.g., programs that joined the caller's set since the last
+ * request).  Without a cursor (or with one the peer no longer recognizes) all
+ * the programs are considered changed.  If too many clients are already
+ * waiting the peer turns the request away and the caller should poll.
+ */
+object ProgramChangeFunctor {
+
+  /** Waits for changes, returning the cursor from which to resume and the
+    * VersionMap updates of the programs that changed. */
+  def fun(cursor: Option[ProgramChangeFeed.Cursor], pids: Seq[LocalVersions], waitMs: Long, r: TrpcClient#Remote): (ProgramChangeFeed.Cursor, List[VmUpdate]) = {
+    val f = r[IDBQueryRunner].execute(ProgramChangeFunctor(cursor, pids.map(_._1), waitMs), null)
+    f.exception.foreach { throw _ }
+
+    val changed = pids.filter { case (pid, local) => local.isEmpty || f.changed.contains(pid) }
+    (f.cursor, if (changed.isEmpty) Nil else VersionDigestFunctor.fun(changed, r))
+  }
+
+  def exec(kc: KeyChain, peer: Peer, cursor: Option[ProgramChangeFeed.Cursor], pids: Seq[LocalVersions], waitMs: Long): Try[(ProgramChangeFeed.Cursor, List[VmUpdate])] =
+    TrpcClient(peer).withKeyChain(kc) { r => fun(cursor, pids, waitMs, r) }
+}
+
+case class ProgramChangeFunctor(since: Option[ProgramChangeFeed.Cursor], pids: Seq[SPProgramID], waitMs: Long) extends IDBFunctor {
+  private var cursor: ProgramChangeFeed.Cursor = null
+  private var changed: Set[SPProgramID] = Set.empty
+  private var exception: Option[Exception] = None
+
+  def getPriority: Priority = Priority.low
+
+  def setException(ex: Exception): Unit = exception = Some(ex)
+
+  def execute(db: IDBDatabaseService, node: ISPNode, ps: java.util.Set[Principal]): Unit = {
+    val feed     = db.getProgramChangeFeed
+    val deadline = System.currentTimeMillis + waitMs
+
+    // Keep waiting until one of our programs changes or time runs out.
+    @tailrec def go(c: Option[ProgramChangeFeed.Cursor]): Unit = {
+      val changes = feed.await(c.orNull, math.max(0L, deadline - System.currentTimeMillis))
+      cursor  = changes.getCursor
+      changed = if (changes.isUnknown) pids.toSet else pids.toSet & changes.getPrograms.asScala
+      if (changed.isEmpty && System.currentTimeMillis < deadline) go(Some(cursor))
+    }
+
+    try {
+      go(since)
+    } catch {
+      case ex: ProgramChangeFeed.BusyException => exception = Some(ex)
+    }
+  }
+}
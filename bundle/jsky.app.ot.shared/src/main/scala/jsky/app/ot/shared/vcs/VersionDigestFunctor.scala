@@ -0,0 +1,101 @@
+package jsky.app.ot.shared.vcs
+
+import edu.gemini.pot.sp.ISPNode
+import edu.gemini.pot.sp.version.{VersionDigest, VersionMap, vmChecksum}
+import edu.gemini.pot.spdb.{IDBFunctor, IDBDatabaseService, IDBQueryRunner}
+import edu.gemini.pot.spdb.IDBFunctor.Priority
+import edu.gemini.spModel.core.{Peer, SPProgramID}
+import edu.gemini.util.trpc.client.TrpcClient
+import edu.gemini.util.trpc.common.Try
+
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+import edu.gemini.util.security.auth.keychain.KeyChain
+import java.io.InvalidClassException
+import java.lang.reflect.UndeclaredThrowableException
+import java.security.Principal
+
+import jsky.app.ot.shared.vcs.VersionMapFunctor.VmUpdate
+
+/**
+ * The VersionDigestFunctor is a cheaper alternative to the
+ * `VersionMapFunctor`.  The caller sends the `VersionDigest` of the
+ * VersionMap it already has, if any.  Unchanged programs are skipped by
+ * comparing root hashes, and for changed programs only the entries in
+ * differing digest buckets come back.  Peers that predate it are asked with
+ * the `VersionMapFunctor` instead.
+ */
+object VersionDigestFunctor {
+
+  // The entries of a remote VersionMap in the digest buckets that differ from
+  // the local copy, or in all buckets if there was no local copy.
+  case class VmDelta(pid: SPProgramID, buckets: Option[Set[Int]], entries: VersionMap)
+
+  // A pair of program id and, if known, the VersionMap that we have locally
+  // along with its digest
+  type LocalVersions = (SPProgramID, Option[(VersionMap, VersionDigest)])
+
+  def fun(pids: Seq[LocalVersions], r: TrpcClient#Remote): List[VmUpdate] =
+    try {
+      val fun = r[IDBQueryRunner].execute(VersionDigestFunctor(pids.map { case (pid, l) => (pid, l.map(_._2)) }), null)
+      fun.exception.fold(updates(pids, fun.deltas)) { throw _ }
+    } catch {
+      case e: Exception if unknownToPeer(e) =>
+        VersionMapFunctor.fun(pids.map { case (pid, l) => (pid, l.map(lv => vmChecksum(lv._1))) }, r)
+    }
+
+  // True if the peer failed to deserialize the functor, i.e., it predates it.
+  private def unknownToPeer(t: Throwable): Boolean =
+    t match {
+      case _: ClassNotFoundException | _: InvalidClassException => true
+      case u: UndeclaredThrowableException                      => unknownToPeer(u.getCause)
+      case _                                                    => false
+    }
+
+  private def update(local: Map[SPProgramID, Option[(VersionMap, VersionDigest)]], d: VmDelta): VmUpdate = {
+    val vm = (d.buckets, local.get(d.pid).flatten) match {
+      case (Some(bs), Some((lvm, _))) => VersionDigest.patch(lvm, bs, d.entries)
+      case _                          => d.entries
+    }
+    VmUpdate(d.pid, vm)
+  }
+
+  /** Computes the changes to the program's VersionMap relative to the given
+    * digest, if any. */
+  def delta(db: IDBDatabaseService, pid: SPProgramID, digest: Option[VersionDigest]): Option[VmDelta] =
+    Option(db.lookupProgramByID(pid)).flatMap { p =>
+      val remote = p.getVersionDigest
+      digest.fold(Option(VmDelta(p.getProgramID, None, p.getVersions))) { d =>
+        val bs = remote.diff(d)
+        if (bs.isEmpty) None
+        else Some(VmDelta(p.getProgramID, Some(bs), VersionDigest.select(p.getVersions, bs)))
+      }
+    }
+
+  /** Turns deltas received from the peer into full VersionMap updates. */
+  def updates(pids: Seq[LocalVersions], deltas: List[VmDelta]): List[VmUpdate] =
+    deltas.map(update(pids.toMap, _))
+
+  def future(kc: KeyChain, peer: Peer, pids: Seq[LocalVersions]): Future[List[VmUpdate]] =
+    TrpcClient(peer).withKeyChain(kc) future { r => fun(pids, r) }
+
+  def exec(kc: KeyChain, peer: Peer, pids: Seq[LocalVersions]): Try[List[VmUpdate]] =
+    TrpcClient(peer).withKeyChain(kc) { r =>  fun(pids, r) }
+}
+
+import jsky.app.ot.shared.vcs.VersionDigestFunctor._
+
+case class VersionDigestFunctor(pids: Seq[(SPProgramID, Option[VersionDigest])]) extends IDBFunctor {
+  private var deltas: List[VmDelta] = Nil
+  private var exception: Option[Exception] = None
+
+  def getPriority: Priority = Priority.medium
+
+  def setException(ex: Exception): Unit = exception = Some(ex)
+
+  def execute(db: IDBDatabaseService, node: ISPNode, ps: java.util.Set[Principal]): Unit =
+    deltas = (List.empty[VmDelta]/:pids) { case (ds, (pid, digest)) =>
+      delta(db, pid, digest).fold(ds) { _ :: ds }
+    }
+}
@@ -140,17 +140,27 @@ trait ItcTable extends Table with TableColumnsAdjuster {
 
     } yield ItcParameters(src, ObservationDetails(method(srcFrac), analysis), cond, tele, ins)
 
-  protected def doServiceCall(peer: Peer, inputs: String \/ ItcParameters): Future[ItcService.Result] = inputs match {
-
-    case -\/(err) =>
-      Future.successful(ItcError(err).left).andThen { case _ => updateResults() }
-
-    case \/-(inp) =>
-      // Do the service call
-      ItcService.calculate(peer, inp).andThen       { case _ => updateResults() }
-
+  // Does a single service call for all valid inputs and hands out a future for each input's result.  Only if
+  // the ITC server predates the batch call (NoSuchMethodException) does each input fall back to its own service
+  // call, any other failure of the batch call is the result of all of them.
+  protected def doServiceCalls(peer: Peer, inputs: List[String \/ ItcParameters]): List[Future[ItcService.Result]] = {
+    val valid = inputs.collect { case \/-(inp) => inp }
+    val batch =
+      if (valid.isEmpty) Future.successful(List.empty[ItcService.Result])
+      else ItcService.calculateAll(peer, valid)
+
+    // index of each valid input in the batch
+    val indices = inputs.scanLeft(0) { (i, in) => if (in.isRight) i + 1 else i }
+    val results = inputs.zip(indices).map {
+      case (-\/(err), _) => Future.successful(ItcError(err).left[ItcResult])
+      case (\/-(inp), i) => batch.map(_(i)).recoverWith { case _: NoSuchMethodException => ItcService.calculate(peer, inp) }
     }
 
+    // update the table once the futures of all rows are completed (successfully or not)
+    Future.sequence(results.map(_.map(_ => ()).recover { case _ => () })).onComplete { _ => updateResults() }
+    results
+  }
+
   // whenever service call is finished notify table to update its contents
   protected def updateResults(): Unit = Swing.onEDT {
       // notify table of data update while keeping the current selection
@@ -263,7 +273,7 @@ class ItcImagingTable(val parameters: ItcParametersProvider) extends ItcTable {
     } yield {
       val uniqueConfigs = ItcUniqueConfig.imagingConfigs(seq)
       val inputs        = uniqueConfigs.map(uc => extractInputs(instrument, parameters.schedulingBlockStart, uc, frac => ImagingS2N(uc.count, uc.coadds, uc.singleExposureTime, frac, 0.0)))
-      val results       = uniqueConfigs.zip(inputs).map { case (uc, i) => doServiceCall(peer, i) }
+      val results       = doServiceCalls(peer, inputs)
 
       instrument.getType match {
         case INSTRUMENT_GMOS | INSTRUMENT_GMOSSOUTH =>
@@ -299,7 +309,7 @@ class ItcSpectroscopyTable(val parameters: ItcParametersProvider) extends ItcTab
     } yield {
       val uniqueConfigs = ItcUniqueConfig.spectroscopyConfigs(seq)
       val inputs        = uniqueConfigs.map(uc => extractInputs(instrument, parameters.schedulingBlockStart, uc, frac => SpectroscopyS2N(uc.count, uc.coadds, uc.singleExposureTime, frac, 0.0)))
-      val results       = uniqueConfigs.zip(inputs).map { case (uc, i) => doServiceCall(peer, i) }
+      val results       = doServiceCalls(peer, inputs)
 
       instrument.getType match {
         case INSTRUMENT_GNIRS                                     =>
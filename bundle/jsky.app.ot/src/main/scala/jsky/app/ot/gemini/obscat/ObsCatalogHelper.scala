@@ -101,7 +101,8 @@ object ObsCatalogHelper {
     // Run the requested query on the given runner. DB is used for error reporting.
     def run(db: DB, qr: IDBQueryRunner): Result = {
       LOG.info("Querying " + db)
-      val f0 = qr.queryPrograms(functorFor(queryArgs))
+      val f  = functorFor(queryArgs)
+      val f0 = qr.queryPrograms(f.getProgramFilter, f)
       val ds = f0.getResult.asScala
       val is = f0.getIds.asScala
       assert(ds.length == is.length)
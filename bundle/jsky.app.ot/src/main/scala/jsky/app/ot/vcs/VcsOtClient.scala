@@ -68,6 +68,22 @@ case class VcsOtClient(vcs: Vcs, reg: VcsRegistrar) {
   def version(id: SPProgramID): VcsAction[VersionMap] =
     recording(id)(_.version(id, _))(identity)
 
+  /** Fetches the `VersionMap`s of several programs with one request per
+    * peer rather than per program.  Programs that haven't been checked out,
+    * or whose fetch fails, are reported individually. */
+  def versions(ids: List[SPProgramID]): VcsAction[Map[SPProgramID, TryVcs[VersionMap]]] = {
+    val byPeer    = ids.groupBy(peer)
+    val unchecked = byPeer.getOrElse(None, Nil).map { id =>
+      id -> TryVcs.fail[VersionMap](s"Program '$id' has not been checked out of any database.")
+    }
+
+    val fetched = byPeer.toList.collect { case (Some(p), pids) => vcs.versions(pids, p) }
+    for {
+      m <- fetched.foldLeft(VcsAction(unchecked.toMap)) { (acc, a) => for { m0 <- acc; m1 <- a } yield m0 ++ m1 }
+      _ <- VcsAction(Swing.onEDT { m.foreach { case (id, tvm) => tvm.foreach(VmStore.update(id, _, force = false)) } })
+    } yield m
+  }
+
   def pull(id: SPProgramID, cancelled: AtomicBoolean): VcsAction[(PullResult, VersionMap)] =
     recording(id)(_.pull(id, _, cancelled))(_._2)
 
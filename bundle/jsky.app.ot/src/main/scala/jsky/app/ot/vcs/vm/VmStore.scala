@@ -1,7 +1,7 @@
 package jsky.app.ot.vcs.vm
 
 import edu.gemini.pot.sp.SPNodeKey
-import edu.gemini.pot.sp.version.{NodeVersions, VersionMap, EmptyNodeVersions, EmptyVersionMap}
+import edu.gemini.pot.sp.version.{NodeVersions, VersionDigest, VersionMap, EmptyNodeVersions, EmptyVersionMap}
 import edu.gemini.spModel.core.SPProgramID
 
 import scala.collection.mutable
@@ -17,6 +17,11 @@ object VmStore extends mutable.Publisher[VmUpdateEvent] {
 
   private var versionMaps = Map.empty[SPProgramID, VersionMap]
 
+  // Digests of the version maps, computed when first requested.  Keyed by the
+  // version map instance they were computed for since pollers ask for them
+  // off the event dispatch thread.
+  private var digests     = Map.empty[SPProgramID, (VersionMap, VersionDigest)]
+
   def update(u: VmUpdate): Unit = update(u.pid, u.vm, force = false)
 
   def update(kv: (SPProgramID, VersionMap)): Unit = update(kv._1, kv._2, force = false)
@@ -32,11 +37,23 @@ object VmStore extends mutable.Publisher[VmUpdateEvent] {
   def remove(pid: SPProgramID): Unit =
     if (versionMaps.contains(pid)) {
       versionMaps = versionMaps - pid
+      digests     = digests - pid
       publish(VmUpdateEvent(pid, Option.empty[VersionMap]))
     }
 
   def get(id: SPProgramID): Option[VersionMap] = versionMaps.get(id)
 
+  /** The version map for the program along with its digest, if known. */
+  def getWithDigest(id: SPProgramID): Option[(VersionMap, VersionDigest)] =
+    get(id).map { vm =>
+      val d = digests.get(id).collect { case (vm0, d0) if vm0 eq vm => d0 }.getOrElse {
+        val d0 = VersionDigest.of(vm)
+        digests = digests + (id -> ((vm, d0)))
+        d0
+      }
+      (vm, d)
+    }
+
   def getOrEmpty(id: SPProgramID): VersionMap = get(id).getOrElse(EmptyVersionMap)
 
   def getOrNull(id: SPProgramID): VersionMap = get(id).orNull
@@ -1,7 +1,6 @@
 package jsky.app.ot.vcs.vm
 
-import edu.gemini.pot.sp.version.vmChecksum
-import edu.gemini.pot.spdb.IDBDatabaseService
+import edu.gemini.pot.spdb.{IDBDatabaseService, ProgramChangeFeed}
 import edu.gemini.sp.vcs.reg.VcsRegistrar
 import edu.gemini.spModel.core.{SPProgramID, Peer}
 import edu.gemini.spModel.rich.pot.spdb._
@@ -9,8 +8,9 @@ import edu.gemini.util.security.auth.keychain.Action._
 import edu.gemini.util.security.auth.keychain.KeyChain
 
 import jsky.app.ot.{OT, OTOptions}
+import jsky.app.ot.shared.vcs.VersionDigestFunctor.LocalVersions
 import jsky.app.ot.shared.vcs.VersionMapFunctor.VmUpdate
-import jsky.app.ot.shared.vcs.VersionMapFunctor
+import jsky.app.ot.shared.vcs.{ProgramChangeFunctor, VersionDigestFunctor}
 import jsky.app.ot.viewer.SPViewer
 
 import java.net.ConnectException
@@ -32,6 +32,21 @@ object VmUpdater {
   case object Staff extends Mode
   case object Pi extends Mode
 
+  /**
+   * Whether to subscribe to each peer's program change feed rather than
+   * polling it.  Set the system property `jsky.app.ot.vcs.vm.changeFeed` to
+   * `false` to always poll.
+   */
+  val UseChangeFeed: Boolean =
+    Option(System.getProperty("jsky.app.ot.vcs.vm.changeFeed")).forall(_.toBoolean)
+
+  /**
+   * The longest a single change feed request waits.  The wait runs inside an
+   * ODB functor, so it is kept below the ODB's functor warning threshold
+   * (10 s) to keep idle waits out of its log.
+   */
+  val MaxFeedWaitMs = 8 * 1000
+
   private def currentMode: Mode = if (OTOptions.isStaffGlobally) Staff else Pi
 
   sealed trait ProgramCategory
@@ -72,7 +87,7 @@ object VmUpdater {
   object UPDATE
 
   def updateAll(peer: Peer, pids: Seq[SPProgramID]): Future[List[VmUpdate]] = {
-    val fut = VersionMapFunctor.future(OT.getKeyChain, peer, pids.map(pid => (pid, VmStore.get(pid).map(vmChecksum))))
+    val fut = VersionDigestFunctor.future(OT.getKeyChain, peer, pids.map(pid => (pid, VmStore.getWithDigest(pid))))
     fut.onComplete {
       case Failure(t)  => handleFailure(peer, pids, t)
       case Success(us) => handleSuccess(us)
@@ -142,25 +157,76 @@ import VmUpdater._
 case class VmUpdater(peer: Peer, db: IDBDatabaseService, registrar: SPProgramID => Option[Peer], mode: Mode, category: ProgramCategory) {
   val pollMs = pollPeriodSec(mode, category) * 1000
 
+  // How long to wait on the change feed in a single request.  Programs that
+  // join the category while a request waits (e.g., a newly opened program)
+  // are only fetched by the next request, so active programs wait no longer
+  // than their poll period (nor than MaxFeedWaitMs).  Inactive programs don't
+  // wait at all but check the feed once per poll period, so that they keep
+  // their hourly or daily cadence while only fetching the programs that
+  // changed.
+  val feedWaitMs: Long = category match {
+    case Active   => math.min(pollMs, MaxFeedWaitMs).toLong
+    case Inactive => 0L
+  }
+
   class Updater extends DaemonActor {
-    def update(): Unit = {
-      val zippedPids = pids(category, db).filter(pid => registrar(pid).exists(_ == peer)).map { pid =>
-        (pid, VmStore.get(pid).map(vmChecksum))
+    // Position in the peer's change feed, if subscribed.
+    private var cursor: Option[ProgramChangeFeed.Cursor] = None
+
+    // When to next try subscribing to the change feed.  Peers that don't
+    // provide one are polled in the meantime.
+    private var subscribeAt = if (UseChangeFeed) 0L else Long.MaxValue
+
+    private def localVersions: Seq[LocalVersions] =
+      pids(category, db).filter(pid => registrar(pid).exists(_ == peer)).map { pid =>
+        (pid, VmStore.getWithDigest(pid))
       }
 
+    def update(): Unit = {
+      val zippedPids = localVersions
+
       if (zippedPids.size > 0) { // no need to bother a peer for which we have no prog
-        VersionMapFunctor.exec(OT.getKeyChain, peer, zippedPids) match {
+        VersionDigestFunctor.exec(OT.getKeyChain, peer, zippedPids) match {
           case \/-(ups) => handleSuccess(ups)
           case -\/(t)   => handleFailure(peer, zippedPids.unzip._1, t)
         }
       }
     }
 
+    // Waits on the peer's change feed for updates, falling back to polling if
+    // that isn't possible.
+    def listen(): Unit = {
+      val zippedPids = localVersions
+
+      if (zippedPids.size > 0) {
+        ProgramChangeFunctor.exec(OT.getKeyChain, peer, cursor, zippedPids, feedWaitMs) match {
+          case \/-((c, ups)) =>
+            cursor = Some(c)
+            if (ups.nonEmpty) handleSuccess(ups)
+          case -\/(t)        =>
+            Log.log(Level.FINE, s"VmUpdater ${peer.displayName} change feed unavailable, polling", t)
+            cursor      = None
+            subscribeAt = System.currentTimeMillis + pollMs
+            update()
+        }
+      }
+    }
+
+    private def subscribed: Boolean = System.currentTimeMillis >= subscribeAt
+
+    def next(): Unit = if (subscribed) listen() else update()
+
+    // Listening already waits, so only pause for the rest of the poll period
+    // between requests.  That keeps requests no more frequent than polling.
+    // Unless there is nothing to listen for yet or we don't wait.
+    private def delay: Long =
+      if (subscribed && cursor.isDefined && (feedWaitMs > 0)) pollMs - feedWaitMs else pollMs
+
     def act(): Unit = {
-      update()
+      next()
       loop {
-        reactWithin(pollMs) {
-          case TIMEOUT => update()
+        reactWithin(delay) {
+          case TIMEOUT => next()
           case STOP    => exit()
         }
       }
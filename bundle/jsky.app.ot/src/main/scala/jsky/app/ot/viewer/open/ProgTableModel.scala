@@ -192,29 +192,40 @@ class ProgTableModel(filter: DBProgramChooserFilter, db: IDBDatabaseService, aut
       statuses.set(Map())
       failures.set(Map())
 
-      // Update VCS for each program
-      locals.get.foreach(updateVCS)
+      // Update VCS for all programs at once
+      updateVCS(locals.get)
     }
 
     // Refresh the program list from remote sites
     def refreshRemote(): Unit =
       selectedPeer.foreach(updateRemote)
 
-    // Refresh VCS status for a single program
-    def updateVCS(p: ISPProgram): Unit = {
+    // Refresh VCS status for the given programs, fetching the remote
+    // versions with one request per peer.
+    def updateVCS(ps: Vector[ISPProgram]): Unit = {
       def fireTDC(): Unit = Swing.onEDT { super.fireTableDataChanged() }
 
+      val checkedOut = for {
+        p   <- ps
+        pid <- Option(p.getProgramID)
+        reg <- vcs
+        _   <- reg.registration(pid)
+      } yield pid -> p
+
       for {
-        pid    <- Option(p.getProgramID)
-        reg    <- vcs
-        loc    <- reg.registration(pid)
         client <- VcsOtClient.ref
-      } client.version(pid).forkAsync {
-        case \/-(vm) =>
-          statuses.modify(_ + (p.getNodeKey -> VersionMap.compare(p.getVersions, vm)))
+        if checkedOut.nonEmpty
+      } client.versions(checkedOut.map(_._1).toList).forkAsync {
+        case \/-(vms) =>
+          checkedOut.foreach { case (pid, p) =>
+            vms.get(pid).foreach {
+              case \/-(vm) => statuses.modify(_ + (p.getNodeKey -> VersionMap.compare(p.getVersions, vm)))
+              case -\/(f)  => failures.modify(_ + (p.getNodeKey -> f))
+            }
+          }
           fireTDC()
-        case -\/(f)  =>
-          failures.modify(_ + (p.getNodeKey -> f))
+        case -\/(f)   =>
+          checkedOut.foreach { case (_, p) => failures.modify(_ + (p.getNodeKey -> f)) }
           fireTDC()
       }
     }